@@ -111,6 +111,53 @@ class VNSPacket(LTMessage):
         return 'PACKET: %uB on %s' % (len(self.ethernet_frame), self.intf_name)
 VNS_MESSAGES.append(VNSPacket)
 
+class VNSPacketBatch(LTMessage):
+    """Several packets, each with its interface, in one message.  Only sent
+    once the client has answered VNSPacketBatchSupport with a (possibly
+    empty) batch of its own."""
+    @staticmethod
+    def get_type():
+        return 1024
+
+    def __init__(self, packets):
+        LTMessage.__init__(self)
+        self.packets = packets
+
+    def length(self):
+        return VNSPacketBatch.HEADER_SIZE + sum(
+            [VNSPacketBatch.RECORD_HEADER_SIZE + len(p.ethernet_frame) for p in self.packets])
+
+    HEADER_FORMAT = '> I'
+    HEADER_SIZE = struct.calcsize(HEADER_FORMAT)
+    RECORD_HEADER_FORMAT = '> 16sI'
+    RECORD_HEADER_SIZE = struct.calcsize(RECORD_HEADER_FORMAT)
+
+    # Largest batch sent to a client; small enough for clients that read
+    # commands of at most 10000B, though current clients take up to 128KB
+    MAX_SIZE = 8192
+
+    def pack(self):
+        records = [struct.pack(VNSPacketBatch.RECORD_HEADER_FORMAT, p.intf_name,
+                               len(p.ethernet_frame)) + p.ethernet_frame
+                   for p in self.packets]
+        return struct.pack(VNSPacketBatch.HEADER_FORMAT, len(self.packets)) + ''.join(records)
+
+    @staticmethod
+    def unpack(body):
+        count = struct.unpack(VNSPacketBatch.HEADER_FORMAT, body[:VNSPacketBatch.HEADER_SIZE])[0]
+        packets = []
+        pos = VNSPacketBatch.HEADER_SIZE
+        for i in range(count):
+            end = pos + VNSPacketBatch.RECORD_HEADER_SIZE
+            intf_name, frame_len = struct.unpack(VNSPacketBatch.RECORD_HEADER_FORMAT, body[pos:end])
+            packets.append(VNSPacket(strip_null_chars(intf_name), body[end:end + frame_len]))
+            pos = end + frame_len
+        return VNSPacketBatch(packets)
+
+    def __str__(self):
+        return 'PACKET BATCH: %u packets' % len(self.packets)
+VNS_MESSAGES.append(VNSPacketBatch)
+
 class VNSProtocolException(Exception):
     def __init__(self, msg):
         self.msg = msg
@@ -173,6 +220,23 @@ class VNSSwitchInterface:
     def __str__(self):
         return self.name
 
+class VNSPacketBatchSupport:
+    """Hardware info entry telling the client packets may be batched."""
+    HWPACKETBATCH = 16
+
+    FORMAT = '> I32s'
+    SIZE = struct.calcsize(FORMAT)
+
+    def length(self):
+        return VNSPacketBatchSupport.SIZE
+
+    def pack(self):
+        return struct.pack(VNSPacketBatchSupport.FORMAT,
+                           VNSPacketBatchSupport.HWPACKETBATCH, '')
+
+    def __str__(self):
+        return 'packet batches'
+
 
 class VNSHardwareInfo(LTMessage):
     @staticmethod
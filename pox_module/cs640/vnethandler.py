@@ -21,8 +21,9 @@ from threading import Thread
 
 from twisted.internet import reactor
 from VNSProtocol import VNS_DEFAULT_PORT, create_vns_server
-from VNSProtocol import VNSOpen, VNSClose, VNSPacket 
+from VNSProtocol import VNSOpen, VNSClose, VNSPacket, VNSPacketBatch
 from VNSProtocol import VNSInterface, VNSSwitchInterface, VNSHardwareInfo
+from VNSProtocol import VNSPacketBatchSupport
 
 log = core.getLogger()
 
@@ -44,6 +45,11 @@ class VNetDevice:
   def __init__ (self, swid, ifaces):
     self.swid = swid
     self.conn = None
+    # Packets for the client are sent in batches once it has agreed to;
+    # packet-ins queue here until the reactor thread sends them
+    self.batching = False
+    self.pending = []
+    self.pending_lock = threading.Lock()
     self.intfname_to_port = {}
     self.port_to_intfname = {}
 
@@ -85,7 +91,39 @@ class VNetDevice:
     if (self.conn is None):
       log.debug("VNet device %s is not connected" % (self.swid))
       return
-    self.conn.send(VNSPacket(intfname, event.pkt))
+    if not self.batching:
+      self.conn.send(VNSPacket(intfname, event.pkt))
+      return
+    with self.pending_lock:
+      self.pending.append(VNSPacket(intfname, event.pkt))
+      schedule = (len(self.pending) == 1)
+    if schedule:
+      reactor.callFromThread(self.flush_packets)
+
+  def flush_packets(self):
+    '''Send the queued packets, as many to a batch as fit'''
+    with self.pending_lock:
+      pending, self.pending = self.pending, []
+    if (self.conn is None):
+      return
+    batch = []
+    size = VNSPacketBatch.HEADER_SIZE
+    for pkt in pending:
+      record = VNSPacketBatch.RECORD_HEADER_SIZE + len(pkt.ethernet_frame)
+      if batch and size + record > VNSPacketBatch.MAX_SIZE:
+        self.send_packets(batch)
+        batch = []
+        size = VNSPacketBatch.HEADER_SIZE
+      batch.append(pkt)
+      size += record
+    if batch:
+      self.send_packets(batch)
+
+  def send_packets(self, packets):
+    if len(packets) == 1:
+      self.conn.send(packets[0])
+    else:
+      self.conn.send(VNSPacketBatch(packets))
 
 class VNetServerListener(EventMixin):
   ''' TCP Server to handle connection to VNet '''
@@ -119,6 +157,8 @@ class VNetServerListener(EventMixin):
       self.handle_close_msg(conn)
     elif vns_msg.get_type() == VNSPacket.get_type():
       self.handle_packet_msg(conn, vns_msg)
+    elif vns_msg.get_type() == VNSPacketBatch.get_type():
+      self.handle_packet_batch_msg(conn, vns_msg)
     else:
       log.debug('Unexpected VNS message received: %s' % vns_msg)
 
@@ -129,7 +169,8 @@ class VNetServerListener(EventMixin):
       return
     self.devsByConn[conn] = dev
     dev.conn = conn
-    conn.send(VNSHardwareInfo(dev.interfaces))
+    dev.batching = False
+    conn.send(VNSHardwareInfo(dev.interfaces + [VNSPacketBatchSupport()]))
     return
 
   def handle_close_msg(self, conn):
@@ -141,6 +182,13 @@ class VNetServerListener(EventMixin):
     dev = self.devsByConn[conn]
     dev.handle_packet_msg(vns_msg)
 
+  def handle_packet_batch_msg(self, conn, vns_msg):
+    # Any batch from the client, even an empty one, means it accepts them
+    dev = self.devsByConn[conn]
+    dev.batching = True
+    for pkt in vns_msg.packets:
+      dev.handle_packet_msg(pkt)
+
   def handle_new_client(self, conn):
     log.debug('Accepted client at %s' % conn.transport.getPeer().host)
     return
@@ -0,0 +1,140 @@
+package edu.wisc.cs.sdn.vnet;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Buffers for frames and commands, pooled by size class. Classes are
+ * powers of two from {@link #MIN_SIZE} to {@link #MAX_SIZE}, so a jumbo
+ * frame takes a buffer that an earlier jumbo frame returned instead of a
+ * fresh allocation, while ordinary frames keep using small buffers.
+ * Requests larger than the biggest class are allocated and never pooled.
+ */
+public class BufferPool
+{
+	/** Size of the smallest class; enough for a full Ethernet frame */
+	public static final int MIN_SIZE = 2048;
+
+	/** Size of the largest class */
+	public static final int MAX_SIZE = 256 * 1024;
+
+	/** Default most free buffers kept in each class */
+	public static final int DEFAULT_BUFFERS_PER_CLASS = 64;
+
+	private static final int CLASSES =
+			Integer.numberOfTrailingZeros(MAX_SIZE / MIN_SIZE) + 1;
+
+	/** Pool shared by everything that handles frames */
+	private static final BufferPool shared =
+			new BufferPool(DEFAULT_BUFFERS_PER_CLASS);
+
+	/** Free buffers in each class */
+	private final ArrayDeque<byte[]>[] free;
+	private final int buffersPerClass;
+
+	/** Number of buffers handed out that were reused, and allocated */
+	private final AtomicLong reused;
+	private final AtomicLong allocated;
+
+	/**
+	 * Create an empty pool.
+	 * @param buffersPerClass most free buffers kept in each class
+	 */
+	@SuppressWarnings("unchecked")
+	public BufferPool(int buffersPerClass)
+	{
+		this.free = (ArrayDeque<byte[]>[])new ArrayDeque<?>[CLASSES];
+		for (int i = 0; i < CLASSES; i++)
+		{ this.free[i] = new ArrayDeque<byte[]>(); }
+		this.buffersPerClass = buffersPerClass;
+		this.reused = new AtomicLong();
+		this.allocated = new AtomicLong();
+	}
+
+	/**
+	 * @return pool shared by everything that handles frames
+	 */
+	public static BufferPool getShared()
+	{ return shared; }
+
+	/**
+	 * @param size number of bytes needed
+	 * @return index of the smallest class that holds the bytes, or -1 if
+	 *         no class is large enough
+	 */
+	private static int getClass(int size)
+	{
+		if (size > MAX_SIZE)
+		{ return -1; }
+		int units = (Math.max(size, 1) - 1) / MIN_SIZE;
+		return 32 - Integer.numberOfLeadingZeros(units);
+	}
+
+	/**
+	 * Take a buffer.
+	 * @param size number of bytes needed
+	 * @return a buffer of at least the given size; its contents are
+	 *         undefined
+	 */
+	public byte[] acquire(int size)
+	{
+		int sizeClass = getClass(size);
+		if (sizeClass < 0)
+		{
+			this.allocated.incrementAndGet();
+			return new byte[size];
+		}
+
+		ArrayDeque<byte[]> buffers = this.free[sizeClass];
+		byte[] buf;
+		synchronized (buffers)
+		{ buf = buffers.poll(); }
+		if (buf != null)
+		{
+			this.reused.incrementAndGet();
+			return buf;
+		}
+		this.allocated.incrementAndGet();
+		return new byte[MIN_SIZE << sizeClass];
+	}
+
+	/**
+	 * Return a buffer taken with {@link #acquire(int)}; the caller must not
+	 * use it afterwards. Buffers that do not match a class, or that arrive
+	 * when their class is full, are left to the garbage collector.
+	 * @param buf buffer to return
+	 */
+	public void release(byte[] buf)
+	{
+		int sizeClass = getClass(buf.length);
+		if (sizeClass < 0 || buf.length != (MIN_SIZE << sizeClass))
+		{ return; }
+
+		ArrayDeque<byte[]> buffers = this.free[sizeClass];
+		synchronized (buffers)
+		{
+			if (buffers.size() < this.buffersPerClass)
+			{ buffers.push(buf); }
+		}
+	}
+
+	/**
+	 * @param buf a buffer
+	 * @param size number of bytes needed
+	 * @return true if the buffer is the size
+	 *         {@link #acquire(int)} would hand out for that many bytes
+	 */
+	public static boolean fits(byte[] buf, int size)
+	{
+		int sizeClass = getClass(size);
+		if (sizeClass < 0)
+		{ return buf.length >= size; }
+		return buf.length == (MIN_SIZE << sizeClass);
+	}
+
+	public String toString()
+	{
+		return String.format("buffers reused\t%d\nbuffers allocated\t%d\n",
+				this.reused.get(), this.allocated.get());
+	}
+}
@@ -1,9 +1,16 @@
 package edu.wisc.cs.sdn.vnet;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
+import net.floodlightcontroller.packet.DecodeDepth;
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.FrameValidator;
+import net.floodlightcontroller.packet.MACAddress;
+import net.floodlightcontroller.packet.PacketPool;
 
 import edu.wisc.cs.sdn.vnet.vns.VNSComm;
 
@@ -18,13 +25,22 @@ public abstract class Device
 	/** List of the device's interfaces; maps interface name's to interfaces */
 	protected Map<String,Iface> interfaces;
 	
+	/** The device's interfaces, indexed by interface index */
+	private volatile Iface[] ifaceTable;
+	
 	/** PCAP dump file for logging all packets sent/received by the device;
 	 *  null if packets should not be logged */
 	private DumpFile logfile;
 	
 	/** Virtual Network Simulator communication manager for the device */
 	private VNSComm vnsComm;
-	
+
+	/** True if every packet handled by the device should be printed */
+	private boolean debug;
+
+	/** Checks received frames and counts malformed ones */
+	private FrameValidator frameValidator;
+
 	/**
 	 * Creates a device.
 	 * @param host hostname for the device
@@ -35,7 +51,10 @@ public abstract class Device
 		this.host = host;
 		this.logfile = logfile;
 		this.interfaces = new HashMap<String,Iface>();
+		this.ifaceTable = new Iface[0];
 		this.vnsComm = null;
+		this.debug = false;
+		this.frameValidator = new FrameValidator();
 	}
 	
 	/**
@@ -72,10 +91,18 @@ public abstract class Device
 	{ this.vnsComm = vnsComm; }
 	
 	/**
-	 * Close the PCAP dump file for the router, if logging is enabled.
+	 * Report malformed frames that were dropped, and close the PCAP dump file
+	 * for the router, if logging is enabled.
 	 */
 	public void destroy()
 	{
+		if (this.frameValidator.getTotalDrops() > 0)
+		{
+			System.out.println("Malformed frames dropped");
+			System.out.println("----------------------------------");
+			System.out.print(this.frameValidator.toString());
+			System.out.println("----------------------------------");
+		}
 		if (logfile != null)
 		{ this.logfile.close(); }
 	}
@@ -86,11 +113,51 @@ public abstract class Device
 	 */
 	public Iface addInterface(String ifaceName)
 	{
-		Iface iface = new Iface(ifaceName);
+		Iface[] table = this.ifaceTable;
+		Iface iface = new Iface(ifaceName, table.length);
 		this.interfaces.put(ifaceName, iface);
+		table = Arrays.copyOf(table, table.length + 1);
+		table[iface.getIndex()] = iface;
+		this.ifaceTable = table;
 		return iface;
 	}
 	
+	/**
+	 * @return number of interfaces; interface indexes are less than this
+	 */
+	public int getInterfaceCount()
+	{ return this.ifaceTable.length; }
+	
+	/**
+	 * Gets an interface on the device by the interface's index.
+	 * @param index index of the desired interface
+	 * @return requested interface; null if no interface has the index
+	 */
+	public Iface getInterface(int index)
+	{
+		Iface[] table = this.ifaceTable;
+		return (index >= 0 && index < table.length) ? table[index] : null;
+	}
+	
+	/**
+	 * Gets an interface on the device by the name field of a VNS command,
+	 * comparing the raw bytes with each interface's name field.
+	 * @param buf buffer containing the name field
+	 * @param offset offset of the name field in the buffer
+	 * @return requested interface; null if no interface has the name
+	 */
+	public Iface getInterface(byte[] buf, int offset)
+	{
+		long high = Iface.readNameHigh(buf, offset);
+		long low = Iface.readNameLow(buf, offset);
+		for (Iface iface : this.ifaceTable)
+		{
+			if (iface.isNamed(high, low))
+			{ return iface; }
+		}
+		return null;
+	}
+	
 	/**
 	 * Gets an interface on the device by the interface's name.
 	 * @param ifaceName name of the desired interface
@@ -108,7 +175,193 @@ public abstract class Device
 	 * @return true if the packet was sent successfully, otherwise false
 	 */
 	public boolean sendPacket(Ethernet etherPacket, Iface iface)
-	{ return this.vnsComm.sendPacket(etherPacket, iface.getName()); }
+	{ return this.vnsComm.sendPacket(etherPacket, iface); }
+
+	/**
+	 * Send a raw Ethernet frame out a specific interface. The bytes are
+	 * transmitted unchanged.
+	 * @param frame buffer containing the frame
+	 * @param offset offset of the first byte of the frame in the buffer
+	 * @param length length of the frame
+	 * @param iface interface on which to send the frame
+	 * @return true if the frame was sent successfully, otherwise false
+	 */
+	public boolean sendRawPacket(byte[] frame, int offset, int length,
+			Iface iface)
+	{
+		return this.vnsComm.sendRawPacket(frame, offset, length, iface);
+	}
+
+	/**
+	 * Send the same Ethernet packet out several interfaces. The packet is
+	 * serialized only once.
+	 * @param etherPacket an Ethernet packet with all fields, encapsulated
+	 * 		  headers, and payloads completed
+	 * @param ifaces interfaces on which to send the packet
+	 * @return true if the packet was sent successfully, otherwise false
+	 */
+	public boolean sendPacket(Ethernet etherPacket, Collection<Iface> ifaces)
+	{ return this.vnsComm.sendPacket(etherPacket, ifaces); }
+
+	/**
+	 * Send the same raw Ethernet frame out several interfaces.
+	 * @param frame buffer containing the frame
+	 * @param offset offset of the first byte of the frame in the buffer
+	 * @param length length of the frame
+	 * @param ifaces interfaces on which to send the frame
+	 * @return true if the frame was sent successfully, otherwise false
+	 */
+	public boolean sendRawPacket(byte[] frame, int offset, int length,
+			Collection<Iface> ifaces)
+	{
+		return this.vnsComm.sendRawPacket(frame, offset, length, ifaces);
+	}
+
+	/**
+	 * Send every frame in a batch that has an interface to leave on. The
+	 * frames for each interface are sent together, in batch order.
+	 * @param batch frames to send
+	 * @return true if the frames were sent successfully, otherwise false
+	 */
+	public boolean sendPackets(PacketBatch batch)
+	{ return this.vnsComm.sendPackets(batch); }
+
+	/**
+	 * @param debug true if every packet handled by the device should be
+	 *        printed to the console
+	 */
+	public void setDebug(boolean debug)
+	{ this.debug = debug; }
+
+	/**
+	 * @return true if every packet handled by the device should be printed
+	 *         to the console
+	 */
+	public boolean isDebug()
+	{ return this.debug; }
+
+	/**
+	 * Hash the flow a received frame belongs to. Frames with the same hash
+	 * are handled in order by the same worker, so the hash must not differ
+	 * between frames whose order matters. By default a flow is a pair of 
+	 * Ethernet addresses.
+	 * @param frame buffer containing the frame
+	 * @param offset offset of the first byte of the frame in the buffer
+	 * @param length length of the frame
+	 * @return hash of the frame's flow
+	 */
+	public int getFlowHash(byte[] frame, int offset, int length)
+	{
+		if (length < 2 * MACAddress.MAC_ADDRESS_LENGTH)
+		{ return 0; }
+		return hashFlow(MACAddress.toLong(frame, offset), 
+				MACAddress.toLong(frame, 
+						offset + MACAddress.MAC_ADDRESS_LENGTH));
+	}
+	
+	/**
+	 * Mix two flow keys into a well-spread hash.
+	 * @param a first key
+	 * @param b second key
+	 * @return hash of the keys
+	 */
+	protected static int hashFlow(long a, long b)
+	{
+		long h = (a * 31 + b) * 0x9e3779b97f4a7c15L;
+		return (int)(h >>> 32);
+	}
 	
+	/**
+	 * @return the layers of a received frame that are decoded before it is
+	 *         passed to {@link #handlePacket(Ethernet, Iface)}; deeper layers
+	 *         are decoded when first accessed
+	 */
+	public DecodeDepth getDecodeDepth()
+	{ return DecodeDepth.FULL; }
+
+	/**
+	 * Parse a raw Ethernet frame to the device's decode depth. The packet is
+	 * taken from the packet pools; the caller must release it.
+	 * @param frame buffer containing the frame
+	 * @param offset offset of the first byte of the frame in the buffer
+	 * @param length length of the frame
+	 * @return the parsed frame
+	 */
+	protected Ethernet decode(byte[] frame, int offset, int length)
+	{
+		Ethernet etherPacket = PacketPool.ETHERNET.acquire();
+		etherPacket.deserialize(ByteBuffer.wrap(frame, offset, length),
+				this.getDecodeDepth());
+		return etherPacket;
+	}
+
+	/**
+	 * @return checks received frames and counts the malformed ones
+	 */
+	public FrameValidator getFrameValidator()
+	{ return this.frameValidator; }
+
+	/**
+	 * Handle a raw Ethernet frame received on a specific interface. By
+	 * default the frame is checked, parsed, and passed to
+	 * {@link #handlePacket(Ethernet, Iface)}; malformed frames are counted
+	 * and dropped. Devices that only need a few header fields can override
+	 * this and work on the received bytes. The buffer is only valid until
+	 * this method returns.
+	 * @param frame buffer containing the frame
+	 * @param offset offset of the first byte of the frame in the buffer
+	 * @param length length of the frame
+	 * @param inIface the interface on which the frame was received
+	 */
+	public void handleRawPacket(byte[] frame, int offset, int length,
+			Iface inIface)
+	{
+		if (this.frameValidator.accept(frame, offset, length, 
+				DecodeDepth.FULL))
+		{ this.dispatchPacket(frame, offset, length, inIface); }
+	}
+
+	/**
+	 * Parse a frame that has already been checked, pass it to
+	 * {@link #handlePacket(Ethernet, Iface)}, and release it.
+	 * @param frame buffer containing the frame
+	 * @param offset offset of the first byte of the frame in the buffer
+	 * @param length length of the frame
+	 * @param inIface the interface on which the frame was received
+	 */
+	protected void dispatchPacket(byte[] frame, int offset, int length,
+			Iface inIface)
+	{
+		Ethernet etherPacket = this.decode(frame, offset, length);
+		try
+		{ this.handlePacket(etherPacket, inIface); }
+		finally
+		{ etherPacket.release(); }
+	}
+
+	/**
+	 * Handle a batch of raw Ethernet frames received together. By default
+	 * each frame is passed to
+	 * {@link #handleRawPacket(byte[], int, int, Iface)} in order; devices
+	 * can override this to share lookups and sends across the frames. The
+	 * frames are only valid until this method returns.
+	 * @param batch frames that were received
+	 */
+	public void handlePackets(PacketBatch batch)
+	{
+		for (int i = 0; i < batch.size(); i++)
+		{
+			this.handleRawPacket(batch.getData(i), batch.getOffset(i),
+					batch.getLength(i), batch.getInIface(i));
+		}
+	}
+
+	/**
+	 * Handle an Ethernet packet received on a specific interface. The packet
+	 * is released to the packet pools when this method returns, so it must
+	 * be cloned if it is kept.
+	 * @param etherPacket the Ethernet packet that was received
+	 * @param inIface the interface on which the packet was received
+	 */
 	public abstract void handlePacket(Ethernet etherPacket, Iface inIface);
 }
@@ -78,16 +78,26 @@ public class DumpFile
 	public void dump(Ethernet etherPacket)
 	{
 		byte[] buf = etherPacket.serialize();
-		
+		this.dump(buf, 0, buf.length);
+	}
+	
+	/**
+	 * Log a raw Ethernet frame. Frames may be logged from several threads.
+	 * @param buf buffer containing the frame
+	 * @param offset offset of the first byte of the frame in the buffer
+	 * @param length length of the frame
+	 */
+	public synchronized void dump(byte[] buf, int offset, int length)
+	{
 		int sec = (int)(System.currentTimeMillis()/1000);
 		int usec = (int)((System.currentTimeMillis() % 1000)*1000);
 		try
 		{
 			this.outStream.writeInt(sec);
 			this.outStream.writeInt(usec);
-			this.outStream.writeInt(buf.length);
-			this.outStream.writeInt(buf.length);
-			this.outStream.write(buf);
+			this.outStream.writeInt(length);
+			this.outStream.writeInt(length);
+			this.outStream.write(buf, offset, length);
 			this.outStream.flush();
 		}
 		catch (IOException e)
@@ -1,29 +1,110 @@
 package edu.wisc.cs.sdn.vnet;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
 import net.floodlightcontroller.packet.IPv4;
 import net.floodlightcontroller.packet.MACAddress;
 
 /**
- * An interface on a router.
+ * An interface on a router. Each interface on a device has a dense index,
+ * so per-interface state can be kept in arrays, and its name encoded as the
+ * fixed-size name field of a VNS command, so commands can be matched to 
+ * interfaces and written without converting names.
  * @author Aaron Gember-Jacobson
  */
 public class Iface 
 {
+	/** Size of the zero-padded name field in VNS commands */
+	public static final int NAME_FIELD_SIZE = 16;
+	
+	/** Default largest IP packet sent out an interface */
+	public static final int DEFAULT_MTU = 1500;
+	
+	private static final VarHandle LONG_VIEW = 
+			MethodHandles.byteArrayViewVarHandle(long[].class, 
+					ByteOrder.BIG_ENDIAN);
+	
 	private String name;
+	private int index;
+	
+	/** Name field, and the field read as two longs for comparisons */
+	private byte[] nameField;
+	private long nameHigh;
+	private long nameLow;
+	
 	private MACAddress macAddress;
 	private int ipAddress;
     private int subnetMask;
+	private int mtu;
 	
-	public Iface(String name)
+	public Iface(String name, int index)
 	{
 		this.name = name;
+		this.index = index;
 		this.macAddress = null;
 		this.ipAddress = 0;
+		this.mtu = DEFAULT_MTU;
+		
+		this.nameField = toNameField(name);
+		this.nameHigh = readNameHigh(this.nameField, 0);
+		this.nameLow = readNameLow(this.nameField, 0);
 	}
 	
 	public String getName()
 	{ return this.name; }
 	
+	/**
+	 * @return position of the interface among the device's interfaces
+	 */
+	public int getIndex()
+	{ return this.index; }
+	
+	/**
+	 * @return the interface name as a zero-padded VNS name field; must not
+	 *         be modified
+	 */
+	public byte[] getNameField()
+	{ return this.nameField; }
+	
+	/**
+	 * @param name an interface name
+	 * @return the name as a zero-padded VNS name field
+	 */
+	public static byte[] toNameField(String name)
+	{
+		byte[] field = new byte[NAME_FIELD_SIZE];
+		byte[] bytes = name.getBytes();
+		System.arraycopy(bytes, 0, field, 0, 
+				Math.min(bytes.length, NAME_FIELD_SIZE));
+		return field;
+	}
+	
+	/**
+	 * @param high first half of a name field, from {@link #readNameHigh}
+	 * @param low second half of a name field, from {@link #readNameLow}
+	 * @return true if the name field holds this interface's name
+	 */
+	public boolean isNamed(long high, long low)
+	{ return (high == this.nameHigh && low == this.nameLow); }
+	
+	/**
+	 * @param buf buffer containing a name field
+	 * @param offset offset of the name field in the buffer
+	 * @return the first half of the name field
+	 */
+	public static long readNameHigh(byte[] buf, int offset)
+	{ return (long)LONG_VIEW.get(buf, offset); }
+	
+	/**
+	 * @param buf buffer containing a name field
+	 * @param offset offset of the name field in the buffer
+	 * @return the second half of the name field
+	 */
+	public static long readNameLow(byte[] buf, int offset)
+	{ return (long)LONG_VIEW.get(buf, offset + 8); }
+	
 	public void setMacAddress(MACAddress mac)
 	{ this.macAddress = mac; }
 	
@@ -41,6 +122,19 @@ public class Iface
 	
 	public int getSubnetMask()
 	{ return this.subnetMask; }
+	
+	/**
+	 * @param mtu largest IP packet, in bytes, that may be sent out the
+	 *        interface
+	 */
+	public void setMtu(int mtu)
+	{ this.mtu = mtu; }
+	
+	/**
+	 * @return largest IP packet, in bytes, that may be sent out the interface
+	 */
+	public int getMtu()
+	{ return this.mtu; }
 
 	public String toString()
 	{
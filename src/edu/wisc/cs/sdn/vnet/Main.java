@@ -1,25 +1,50 @@
 package edu.wisc.cs.sdn.vnet;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.floodlightcontroller.packet.PacketDecoders;
+import net.floodlightcontroller.packet.PacketPool;
+
+import edu.wisc.cs.sdn.vnet.pipeline.Pipeline;
+import edu.wisc.cs.sdn.vnet.pipeline.WaitStrategy;
 import edu.wisc.cs.sdn.vnet.rt.Router;
 import edu.wisc.cs.sdn.vnet.sw.Switch;
 import edu.wisc.cs.sdn.vnet.vns.Command;
+import edu.wisc.cs.sdn.vnet.vns.SessionSelector;
 import edu.wisc.cs.sdn.vnet.vns.VNSComm;
 
 public class Main {
 	private static final short DEFAULT_PORT = 8888;
 	private static final String DEFAULT_SERVER = "localhost";
 
+	/** Options that apply to a single device */
+	private static class DeviceOptions {
+		String host;
+		String routeTableFile;
+		String arpCacheFile;
+		String switchConfigFile;
+		String logfile;
+	}
+
 	public static void main(String[] args) {
-		String host = null;
+		List<DeviceOptions> hosts = new ArrayList<DeviceOptions>();
+		DeviceOptions options = new DeviceOptions();
 		String server = DEFAULT_SERVER;
-		String routeTableFile = null;
-		String arpCacheFile = null;
-		String logfile = null;
 		short port = DEFAULT_PORT;
-		VNSComm vnsComm = null;
-		Device dev = null;
+		boolean debug = false;
+		WaitStrategy waitStrategy = null;
+		int workers = 0;
+		boolean packetBatching = true;
+		int mtu = 0;
+		String hubDir = null;
 
-		// Parse arguments
+		// Parse arguments; device options apply to the host named by the
+		// closest -v before them, or to the first host if they come first
 		for (int i = 0; i < args.length; i++) {
 			String arg = args[i];
 			if (arg.equals("-h")) {
@@ -28,76 +53,197 @@ public class Main {
 			} else if (arg.equals("-p")) {
 				port = Short.parseShort(args[++i]);
 			} else if (arg.equals("-v")) {
-				host = args[++i];
+				if (options.host != null) {
+					options = new DeviceOptions();
+				}
+				options.host = args[++i];
+				hosts.add(options);
 			} else if (arg.equals("-s")) {
 				server = args[++i];
 			} else if (arg.equals("-l")) {
-				logfile = args[++i];
+				options.logfile = args[++i];
 			} else if (arg.equals("-r")) {
-				routeTableFile = args[++i];
+				options.routeTableFile = args[++i];
 			} else if (arg.equals("-a")) {
-				arpCacheFile = args[++i];
+				options.arpCacheFile = args[++i];
+			} else if (arg.equals("-c")) {
+				options.switchConfigFile = args[++i];
+			} else if (arg.equals("-d")) {
+				debug = true;
+			} else if (arg.equals("-w")) {
+				waitStrategy = WaitStrategy.valueOf(args[++i].toUpperCase());
+			} else if (arg.equals("-j")) {
+				workers = Integer.parseInt(args[++i]);
+			} else if (arg.equals("-u")) {
+				packetBatching = false;
+			} else if (arg.equals("-m")) {
+				mtu = Integer.parseInt(args[++i]);
+			} else if (arg.equals("-x")) {
+				hubDir = args[++i];
 			}
 		}
 
-		if (null == host) {
+		if (hosts.isEmpty()) {
 			usage();
 			return;
 		}
 
-		// Open PCAP dump file for logging packets sent/received by the router
-		DumpFile dump = null;
-		if (logfile != null) {
-			dump = DumpFile.open(logfile);
-			if (null == dump) {
-				System.err.println("Error opening up dump file " + logfile);
+		// Create the devices
+		List<Device> devs = new ArrayList<Device>();
+		for (DeviceOptions deviceOptions : hosts) {
+			Device dev = createDevice(deviceOptions);
+			if (null == dev) {
 				return;
 			}
+			dev.setDebug(debug);
+			devs.add(dev);
 		}
 
-		if (host.startsWith("s")) {
-			dev = new Switch(host, dump);
-		} else if (host.startsWith("r")) {
-            // Create router instance
-            Router router = new Router(host, dump);
-            
-            if (routeTableFile == null) {
-                // Start RIP if static route table is not provided
-                router.startRip();
-            } else {
-                // Load static route table if provided
-                router.loadRouteTable(routeTableFile);
-            }
-            
-            if (arpCacheFile != null) {
-                router.loadArpCache(arpCacheFile);
-            }
-            
-            dev = router;
-        } else {
-			System.err.println("Device name must start with 's' or 'r'");
-			return;
+		// No more payload decoders are registered once the devices exist
+		PacketDecoders.freeze();
+
+		// Report pooled packets that are never released when debugging
+		PacketPool.setLeakDetection(debug);
+
+		// Connect each device to Virtual Network Simulator server, or to a
+		// hub on this host, and negotiate session
+		List<VNSComm> vnsComms = new ArrayList<VNSComm>();
+		for (int i = 0; i < devs.size(); i++) {
+			Device dev = devs.get(i);
+			VNSComm vnsComm = new VNSComm(dev);
+			vnsComm.setPacketBatching(packetBatching);
+			if (hubDir != null) {
+				System.out.println("Connecting to hub at " + hubDir);
+				if (!vnsComm.connectToHub(new File(hubDir))) {
+					System.exit(1);
+				}
+			} else {
+				System.out.println(String.format("Connecting to server %s:%d",
+						server, port));
+				if (!vnsComm.connectToServer(port, server)) {
+					System.exit(1);
+				}
+			}
+			vnsComm.readFromServerExpect(Command.VNS_HW_INFO);
+
+			// Apply the MTU, if one was given, to every interface
+			if (mtu > 0) {
+				for (Iface iface : dev.getInterfaces().values()) {
+					iface.setMtu(mtu);
+				}
+			}
+
+			// Device configuration refers to the interfaces, so it is only
+			// loaded once they are known
+			configureDevice(dev, hosts.get(i));
+			vnsComms.add(vnsComm);
+		}
+
+		if (1 == devs.size()) {
+			runDevice(devs.get(0), vnsComms.get(0), waitStrategy, workers);
+		} else {
+			if (waitStrategy != null) {
+				System.err.println("Ignoring -w; several devices share one pool of workers");
+			}
+			if (workers <= 0) {
+				workers = Runtime.getRuntime().availableProcessors();
+			}
+			runDevices(vnsComms, workers, hubDir != null);
+		}
+
+		// Report how efficiently commands were exchanged with the server,
+		// and shutdown the devices
+		for (int i = 0; i < devs.size(); i++) {
+			Device dev = devs.get(i);
+			VNSComm vnsComm = vnsComms.get(i);
+			if (1 == devs.size()) {
+				System.out.println("Server connection");
+			} else {
+				System.out.println("Server connection for " + dev.getHost());
+			}
+			System.out.println("----------------------------------");
+			System.out.print(vnsComm.getReadStatistics());
+			System.out.print(vnsComm.getTransmitQueue().toString());
+			System.out.println("----------------------------------");
+			dev.destroy();
+		}
+		System.out.println("Buffers");
+		System.out.println("----------------------------------");
+		System.out.print(BufferPool.getShared().toString());
+		System.out.println("----------------------------------");
+	}
+
+	/**
+	 * Create a device, named for its type.
+	 * @param options options for the device
+	 * @return the device; null if it could not be created
+	 */
+	private static Device createDevice(DeviceOptions options) {
+		// Open PCAP dump file for logging packets sent/received by the device
+		DumpFile dump = null;
+		if (options.logfile != null) {
+			dump = DumpFile.open(options.logfile);
+			if (null == dump) {
+				System.err.println("Error opening up dump file " + options.logfile);
+				return null;
+			}
 		}
 
-		// Connect to Virtual Network Simulator server and negotiate session
-		System.out.println(String.format("Connecting to server %s:%d",
-				server, port));
-		vnsComm = new VNSComm(dev);
-		if (!vnsComm.connectToServer(port, server)) {
-			System.exit(1);
+		if (options.host.startsWith("s")) {
+			return new Switch(options.host, dump);
+		} else if (options.host.startsWith("r")) {
+			return new Router(options.host, dump);
 		}
-		vnsComm.readFromServerExpect(Command.VNS_HW_INFO);
+		System.err.println("Device name must start with 's' or 'r'");
+		return null;
+	}
 
+	/**
+	 * Load a device's configuration and start its protocols, once its
+	 * interfaces are known.
+	 * @param dev the device
+	 * @param options options for the device
+	 */
+	private static void configureDevice(Device dev, DeviceOptions options) {
 		if (dev instanceof Router) {
-			// Read static route table
-			if (routeTableFile != null) {
-				((Router) dev).loadRouteTable(routeTableFile);
+			Router router = (Router) dev;
+			if (options.routeTableFile != null) {
+				// Load static route table if provided
+				router.loadRouteTable(options.routeTableFile);
+			} else {
+				// Start RIP if static route table is not provided
+				router.startRip();
 			}
 
-			// Read static ACP cache
-			if (arpCacheFile != null) {
-				((Router) dev).loadArpCache(arpCacheFile);
+			// Read static ARP cache
+			if (options.arpCacheFile != null) {
+				router.loadArpCache(options.arpCacheFile);
+			}
+		} else if (dev instanceof Switch) {
+			// Read switch configuration
+			if (options.switchConfigFile != null) {
+				((Switch) dev).loadConfig(options.switchConfigFile);
+			}
+			((Switch) dev).startSpanningTree();
+		}
+	}
+
+	/**
+	 * Handle packets for a single device until the server closes the
+	 * connection.
+	 */
+	private static void runDevice(Device dev, VNSComm vnsComm,
+			WaitStrategy waitStrategy, int workers) {
+		// Handle packets on separate threads, if requested
+		Pipeline pipeline = null;
+		if (waitStrategy != null || workers > 0) {
+			if (null == waitStrategy) {
+				waitStrategy = WaitStrategy.BLOCK;
 			}
+			pipeline = new Pipeline(dev, vnsComm.getTransmitQueue(),
+					Math.max(workers, 1), waitStrategy);
+			vnsComm.setPipeline(pipeline);
+			pipeline.start();
 		}
 
 		// Read messages from the server until the server closes the connection
@@ -105,14 +251,71 @@ public class Main {
 		while (vnsComm.readFromServer())
 			;
 
-		// Shutdown the router
-		dev.destroy();
+		if (pipeline != null) {
+			pipeline.stop();
+			System.out.println("Pipeline");
+			System.out.println("----------------------------------");
+			System.out.print(pipeline.toString());
+			System.out.println("----------------------------------");
+		}
+	}
+
+	/**
+	 * Handle packets for several devices until every connection is closed.
+	 * Server connections are waited on by one selector and handled by a
+	 * shared pool of workers; hub connections cannot be selected, so each
+	 * is read on a thread of its own.
+	 * @param vnsComms communication managers for the devices
+	 * @param workers number of workers in the pool
+	 * @param hub true if the devices are connected to a hub
+	 */
+	private static void runDevices(List<VNSComm> vnsComms, int workers,
+			boolean hub) {
+		System.out.println(String.format("<-- Ready to process packets for %d devices -->",
+				vnsComms.size()));
+		if (hub) {
+			List<Thread> readers = new ArrayList<Thread>();
+			for (final VNSComm vnsComm : vnsComms) {
+				Thread reader = new Thread() {
+					public void run() {
+						while (vnsComm.readFromServer())
+							;
+					}
+				};
+				reader.start();
+				readers.add(reader);
+			}
+			for (Thread reader : readers) {
+				try {
+					reader.join();
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+			return;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		try {
+			SessionSelector selector = new SessionSelector(pool);
+			for (VNSComm vnsComm : vnsComms) {
+				selector.add(vnsComm);
+			}
+			selector.run();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		pool.shutdown();
 	}
 
 	static void usage() {
 		System.out.println("Virtual Network Client");
-		System.out.println("VNet -v host [-s server] [-p port] [-h]");
-		System.out.println("     [-r routing_table] [-a arp_cache] [-l log_file]");
+		System.out.println("VNet -v host [-r routing_table] [-a arp_cache] [-c switch_config]");
+		System.out.println("     [-l log_file] [-v host ...] [-s server] [-p port] [-h]");
+		System.out.println("     [-d] [-w block|yield|spin] [-j workers] [-u] [-m mtu]");
+		System.out.println("     [-x hub_dir]");
+		System.out.println("  options after a host apply to that host; with several hosts,");
+		System.out.println("  -j sets the number of workers they share");
 		System.out.println(String.format("  defaults server=%s port=%d",
 				DEFAULT_SERVER, DEFAULT_PORT));
 	}
@@ -0,0 +1,159 @@
+package edu.wisc.cs.sdn.vnet;
+
+/**
+ * Raw Ethernet frames received together and handled together, so work such
+ * as route lookups and sends can be shared across the frames. Each frame
+ * records the interface it arrived on and, once the device has decided,
+ * the interface it should leave on.
+ * <p>
+ * Frames either point into buffers owned by someone else, or are stored in
+ * the batch's own arena. Either way they are only valid until the batch is
+ * cleared.
+ */
+public class PacketBatch
+{
+	/** Default most frames in a batch */
+	public static final int DEFAULT_CAPACITY = 32;
+
+	private byte[][] data;
+	private int[] offsets;
+	private int[] lengths;
+	private Iface[] inIfaces;
+	private Iface[] outIfaces;
+	private int size;
+
+	/** Buffer frames can be stored in, and the number of bytes used */
+	private byte[] arena;
+	private int arenaUsed;
+
+	/**
+	 * Create an empty batch without an arena.
+	 * @param capacity most frames in the batch
+	 */
+	public PacketBatch(int capacity)
+	{ this(capacity, 0); }
+
+	/**
+	 * Create an empty batch.
+	 * @param capacity most frames in the batch
+	 * @param arenaSize size of the buffer frames can be stored in
+	 */
+	public PacketBatch(int capacity, int arenaSize)
+	{
+		this.data = new byte[capacity][];
+		this.offsets = new int[capacity];
+		this.lengths = new int[capacity];
+		this.inIfaces = new Iface[capacity];
+		this.outIfaces = new Iface[capacity];
+		this.arena = new byte[arenaSize];
+	}
+
+	/**
+	 * @return number of frames in the batch
+	 */
+	public int size()
+	{ return this.size; }
+
+	/**
+	 * @return true if no more frames can be added
+	 */
+	public boolean isFull()
+	{ return this.size == this.data.length; }
+
+	/**
+	 * Add a frame; the batch refers to the caller's buffer.
+	 * @param frame buffer containing the frame
+	 * @param offset offset of the first byte of the frame in the buffer
+	 * @param length length of the frame
+	 * @param inIface the interface on which the frame was received
+	 */
+	public void add(byte[] frame, int offset, int length, Iface inIface)
+	{
+		int i = this.size++;
+		this.data[i] = frame;
+		this.offsets[i] = offset;
+		this.lengths[i] = length;
+		this.inIfaces[i] = inIface;
+		this.outIfaces[i] = null;
+	}
+
+	/**
+	 * @return buffer frames can be stored in
+	 */
+	public byte[] getArena()
+	{ return this.arena; }
+
+	/**
+	 * Take space in the arena; frames stored there are added with
+	 * {@link #add(byte[], int, int, Iface)} as usual.
+	 * @param length number of bytes needed
+	 * @return offset of the space in the arena, or -1 if the arena is full
+	 */
+	public int reserve(int length)
+	{
+		if (this.arenaUsed + length > this.arena.length)
+		{ return -1; }
+		int offset = this.arenaUsed;
+		this.arenaUsed += length;
+		return offset;
+	}
+
+	/**
+	 * Remove all frames.
+	 */
+	public void clear()
+	{
+		for (int i = 0; i < this.size; i++)
+		{
+			this.data[i] = null;
+			this.inIfaces[i] = null;
+			this.outIfaces[i] = null;
+		}
+		this.size = 0;
+		this.arenaUsed = 0;
+	}
+
+	/**
+	 * @param i index of a frame
+	 * @return buffer containing the frame
+	 */
+	public byte[] getData(int i)
+	{ return this.data[i]; }
+
+	/**
+	 * @param i index of a frame
+	 * @return offset of the first byte of the frame in its buffer
+	 */
+	public int getOffset(int i)
+	{ return this.offsets[i]; }
+
+	/**
+	 * @param i index of a frame
+	 * @return length of the frame
+	 */
+	public int getLength(int i)
+	{ return this.lengths[i]; }
+
+	/**
+	 * @param i index of a frame
+	 * @return the interface on which the frame was received
+	 */
+	public Iface getInIface(int i)
+	{ return this.inIfaces[i]; }
+
+	/**
+	 * @param i index of a frame
+	 * @return the interface out which the frame should be sent; null if it
+	 * 		   should not be sent
+	 */
+	public Iface getOutIface(int i)
+	{ return this.outIfaces[i]; }
+
+	/**
+	 * @param i index of a frame
+	 * @param outIface the interface out which the frame should be sent, or
+	 * 		  null if it should not be sent
+	 */
+	public void setOutIface(int i, Iface outIface)
+	{ this.outIfaces[i] = outIface; }
+}
@@ -0,0 +1,46 @@
+package edu.wisc.cs.sdn.vnet;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the periodic tasks of every device in the JVM, such as protocol
+ * timers and table timeouts, on a few shared threads instead of a thread
+ * per timer. The threads are daemons, so they do not keep the JVM running
+ * once the devices are done.
+ */
+public class Scheduler
+{
+	/** Number of threads running tasks */
+	public static final int THREADS = 2;
+
+	/** Scheduler shared by every device */
+	private static final ScheduledExecutorService shared = create();
+
+	private static ScheduledExecutorService create()
+	{
+		final AtomicInteger count = new AtomicInteger();
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+				THREADS, new ThreadFactory()
+				{
+					public Thread newThread(Runnable task)
+					{
+						Thread thread = new Thread(task,
+								"timer-" + count.getAndIncrement());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.setRemoveOnCancelPolicy(true);
+		return executor;
+	}
+
+	/**
+	 * @return scheduler shared by every device; tasks must not block for
+	 *         long, since they hold up other devices' tasks
+	 */
+	public static ScheduledExecutorService getShared()
+	{ return shared; }
+}
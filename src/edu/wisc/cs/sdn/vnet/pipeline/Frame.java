@@ -0,0 +1,85 @@
+package edu.wisc.cs.sdn.vnet.pipeline;
+
+import edu.wisc.cs.sdn.vnet.BufferPool;
+import edu.wisc.cs.sdn.vnet.Iface;
+
+/**
+ * Reusable buffer that carries a received frame, or commands to send, 
+ * between pipeline threads.
+ */
+public class Frame 
+{
+	/** Initial size of a frame buffer; enough for a full Ethernet frame */
+	public static final int DEFAULT_SIZE = BufferPool.MIN_SIZE;
+	
+	private byte[] data;
+	private int length;
+	private int commands;
+	private Iface iface;
+	
+	Frame()
+	{ this.data = BufferPool.getShared().acquire(DEFAULT_SIZE); }
+	
+	/**
+	 * @return buffer holding the frame or commands, starting at offset 0
+	 */
+	public byte[] getData()
+	{ return this.data; }
+	
+	/**
+	 * @return number of bytes used in the buffer
+	 */
+	public int getLength()
+	{ return this.length; }
+	
+	/**
+	 * @return number of commands in the buffer
+	 */
+	public int getCommands()
+	{ return this.commands; }
+	
+	/**
+	 * @return interface on which the frame was received
+	 */
+	public Iface getIface()
+	{ return this.iface; }
+	
+	/**
+	 * Make sure the buffer holds at least a given number of bytes; the 
+	 * contents are not kept if the buffer is swapped. Buffers come from the
+	 * buffer pool, and a buffer grown for a jumbo frame goes back to the
+	 * pool once an ordinary frame is carried again.
+	 * @param size number of bytes needed
+	 */
+	public void ensureCapacity(int size)
+	{
+		if (this.data.length >= size && (this.data.length == DEFAULT_SIZE 
+				|| BufferPool.fits(this.data, size)))
+		{ return; }
+		BufferPool pool = BufferPool.getShared();
+		pool.release(this.data);
+		this.data = pool.acquire(size);
+	}
+	
+	/**
+	 * Record the commands written into the buffer.
+	 * @param commands number of commands
+	 * @param length total size of the commands
+	 */
+	public void setCommands(int commands, int length)
+	{
+		this.commands = commands;
+		this.length = length;
+	}
+	
+	/**
+	 * Copy a received frame into the buffer.
+	 */
+	void setFrame(byte[] frame, int offset, int length, Iface inIface)
+	{
+		this.ensureCapacity(length);
+		System.arraycopy(frame, offset, this.data, 0, length);
+		this.length = length;
+		this.iface = inIface;
+	}
+}
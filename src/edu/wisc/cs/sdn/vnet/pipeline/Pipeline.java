@@ -0,0 +1,259 @@
+package edu.wisc.cs.sdn.vnet.pipeline;
+
+import java.io.IOException;
+import java.util.function.BooleanSupplier;
+
+import edu.wisc.cs.sdn.vnet.Device;
+import edu.wisc.cs.sdn.vnet.Iface;
+import edu.wisc.cs.sdn.vnet.vns.TransmitQueue;
+
+/**
+ * Splits packet handling across threads so that a slow write to the server
+ * does not hold up reading from it. The thread reading from the server 
+ * copies each frame into a worker's receive ring; workers hand frames to 
+ * the device and put the packets it sends on their transmit rings; a 
+ * transmit thread drains those rings into the server connection. Every
+ * ring has one producer and one consumer, so no locks are taken between
+ * stages, and empty frames travel back on rings of their own.
+ * <p>
+ * Frames are spread across workers by the device's flow hash, so frames of
+ * the same flow are handled in order. With more than one worker the device
+ * must be safe for concurrent use.
+ */
+public class Pipeline 
+{
+	/** Default number of frames in each ring */
+	public static final int DEFAULT_RING_SIZE = 256;
+	
+	private Device device;
+	private Worker[] workers;
+	private Thread transmitter;
+	private TransmitQueue txQueue;
+	private WaitStrategy waitStrategy;
+	private volatile boolean running;
+	
+	/** Wakes the receive thread when a worker returns a frame */
+	Signal rxSignal;
+	
+	/** Wakes the transmit thread when a worker has commands to send */
+	Signal txSignal;
+	
+	/** Number of frames the receive thread had to wait to hand off */
+	private long rxStalls;
+	
+	/**
+	 * Create a pipeline.
+	 * @param device device that handles received frames
+	 * @param txQueue queue through which commands are sent to the server
+	 * @param workers number of worker threads
+	 * @param waitStrategy how idle threads wait for work
+	 */
+	public Pipeline(Device device, TransmitQueue txQueue, int workers,
+			WaitStrategy waitStrategy)
+	{ this(device, txQueue, workers, DEFAULT_RING_SIZE, waitStrategy); }
+	
+	/**
+	 * Create a pipeline.
+	 * @param device device that handles received frames
+	 * @param txQueue queue through which commands are sent to the server
+	 * @param workers number of worker threads
+	 * @param ringSize number of frames in each ring
+	 * @param waitStrategy how idle threads wait for work
+	 */
+	public Pipeline(Device device, TransmitQueue txQueue, int workers,
+			int ringSize, WaitStrategy waitStrategy)
+	{
+		this.device = device;
+		this.txQueue = txQueue;
+		this.waitStrategy = waitStrategy;
+		this.rxSignal = new Signal();
+		this.txSignal = new Signal();
+		this.workers = new Worker[workers];
+		for (int i = 0; i < workers; i++)
+		{
+			this.workers[i] = new Worker(this, device, i, ringSize, 
+					waitStrategy);
+		}
+		this.transmitter = new Thread(this::transmit, "transmit");
+		this.transmitter.setDaemon(true);
+	}
+	
+	/**
+	 * @return the pipeline worker running the calling thread, or null if 
+	 * 		   the caller is not a worker
+	 */
+	public static Worker currentWorker()
+	{
+		Thread thread = Thread.currentThread();
+		return (thread instanceof Worker) ? (Worker)thread : null;
+	}
+	
+	/**
+	 * @return true until the pipeline is stopped
+	 */
+	public boolean isRunning()
+	{ return this.running; }
+	
+	/**
+	 * Start the worker and transmit threads.
+	 */
+	public void start()
+	{
+		this.running = true;
+		for (Worker worker : this.workers)
+		{ worker.start(); }
+		this.transmitter.start();
+	}
+	
+	/**
+	 * Let the workers handle every frame already received, send everything
+	 * queued, and stop the threads.
+	 */
+	public void stop()
+	{
+		this.running = false;
+		for (Worker worker : this.workers)
+		{
+			worker.signal.wake();
+			join(worker);
+		}
+		this.txSignal.wake();
+		join(this.transmitter);
+	}
+	
+	private static void join(Thread thread)
+	{
+		try
+		{ thread.join(); }
+		catch (InterruptedException e)
+		{ Thread.currentThread().interrupt(); }
+	}
+	
+	/**
+	 * Hand a received frame to a worker; may only be called by the thread 
+	 * reading from the server. Waits if the worker is behind. The frame is 
+	 * copied, so the buffer can be reused as soon as this returns.
+	 * @param frame buffer containing the frame
+	 * @param offset offset of the first byte of the frame in the buffer
+	 * @param length length of the frame
+	 * @param inIface the interface on which the frame was received
+	 */
+	public void receive(byte[] frame, int offset, int length, Iface inIface)
+	{
+		Worker worker = this.workers[this.selectWorker(frame, offset, length)];
+		Frame rxFrame = worker.rxFree.poll();
+		if (null == rxFrame)
+		{
+			this.rxStalls++;
+			SpscRing<Frame> free = worker.rxFree;
+			BooleanSupplier ready = () -> !free.isEmpty();
+			while ((rxFrame = free.poll()) == null)
+			{ this.waitStrategy.idle(this.rxSignal, ready); }
+		}
+		rxFrame.setFrame(frame, offset, length, inIface);
+		worker.rxRing.offer(rxFrame);
+		worker.signal.wake();
+	}
+	
+	/**
+	 * Choose the worker for a frame from the flow it belongs to.
+	 */
+	private int selectWorker(byte[] frame, int offset, int length)
+	{
+		if (1 == this.workers.length)
+		{ return 0; }
+		return Math.floorMod(this.device.getFlowHash(frame, offset, length),
+				this.workers.length);
+	}
+	
+	/**
+	 * Body of the transmit thread. Commands from all workers are coalesced
+	 * in the transmit queue while any worker has more to send.
+	 */
+	private void transmit()
+	{
+		BooleanSupplier ready = () -> {
+			for (Worker worker : this.workers)
+			{
+				if (!worker.txRing.isEmpty())
+				{ return true; }
+			}
+			return !this.running;
+		};
+		
+		boolean batching = false;
+		while (true)
+		{
+			boolean busy = false;
+			for (Worker worker : this.workers)
+			{
+				Frame frame;
+				while ((frame = worker.txRing.poll()) != null)
+				{
+					if (!batching)
+					{
+						this.txQueue.beginBatch();
+						batching = true;
+					}
+					busy = true;
+					try
+					{
+						this.txQueue.enqueue(frame.getData(), 0, 
+								frame.getLength(), frame.getCommands());
+						this.txQueue.flushIfDue();
+					}
+					catch (IOException e)
+					{ System.err.println("Error writing packet"); }
+					worker.txFree.offer(frame);
+					worker.signal.wake();
+				}
+			}
+			if (busy)
+			{ continue; }
+			
+			// Everything the workers had is queued, so send it
+			if (batching)
+			{
+				try
+				{ this.txQueue.endBatch(); }
+				catch (IOException e)
+				{ System.err.println("Error writing packet"); }
+				batching = false;
+			}
+			
+			// Stop once the workers have stopped and everything is sent
+			if (!this.running && this.workersStopped())
+			{
+				boolean empty = true;
+				for (Worker worker : this.workers)
+				{ empty = empty && worker.txRing.isEmpty(); }
+				if (empty)
+				{ break; }
+				continue;
+			}
+			this.waitStrategy.idle(this.txSignal, ready);
+		}
+	}
+	
+	private boolean workersStopped()
+	{
+		for (Worker worker : this.workers)
+		{
+			if (worker.isAlive())
+			{ return false; }
+		}
+		return true;
+	}
+	
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		for (Worker worker : this.workers)
+		{
+			sb.append(String.format("%s\thandled %d, sent %d\n", 
+					worker.getName(), worker.getHandled(), worker.getSent()));
+		}
+		sb.append(String.format("receive stalls\t%d\n", this.rxStalls));
+		return sb.toString();
+	}
+}
@@ -0,0 +1,39 @@
+package edu.wisc.cs.sdn.vnet.pipeline;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Lets producers wake a consumer thread that is parked waiting for work.
+ */
+class Signal 
+{
+	/** Longest a thread stays parked without being woken */
+	private static final long MAX_PARK_NANOS = 10000000L;
+	
+	/** Thread parked on the signal, if any */
+	private volatile Thread waiter;
+	
+	/**
+	 * Park the calling thread until it is woken, unless there is already 
+	 * work to do.
+	 * @param ready true if there is work to do
+	 */
+	void park(BooleanSupplier ready)
+	{
+		this.waiter = Thread.currentThread();
+		if (!ready.getAsBoolean())
+		{ LockSupport.parkNanos(this, MAX_PARK_NANOS); }
+		this.waiter = null;
+	}
+	
+	/**
+	 * Wake the thread parked on the signal, if any.
+	 */
+	void wake()
+	{
+		Thread thread = this.waiter;
+		if (thread != null)
+		{ LockSupport.unpark(thread); }
+	}
+}
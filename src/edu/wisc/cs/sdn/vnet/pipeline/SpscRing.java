@@ -0,0 +1,96 @@
+package edu.wisc.cs.sdn.vnet.pipeline;
+
+/**
+ * Bounded queue between exactly one producer thread and one consumer
+ * thread. Neither side takes a lock: each side writes only its own index,
+ * and keeps a cached copy of the other side's index so it reads the shared
+ * one only when the ring looks full or empty.
+ */
+public class SpscRing<E> 
+{
+	private final Object[] elements;
+	private final int mask;
+	
+	/** Next slot to take from; written only by the consumer */
+	private volatile long head;
+	
+	/** Next slot to fill; written only by the producer */
+	private volatile long tail;
+	
+	/** Producer's last view of the head */
+	private long cachedHead;
+	
+	/** Consumer's last view of the tail */
+	private long cachedTail;
+	
+	/**
+	 * Create a ring.
+	 * @param capacity most elements the ring holds; rounded up to a power 
+	 * 		  of two
+	 */
+	public SpscRing(int capacity)
+	{
+		int size = Integer.highestOneBit(Math.max(capacity, 1) - 1) << 1;
+		this.elements = new Object[Math.max(size, 1)];
+		this.mask = this.elements.length - 1;
+	}
+	
+	/**
+	 * Add an element; may only be called by the producer.
+	 * @param element element to add
+	 * @return false if the ring is full
+	 */
+	public boolean offer(E element)
+	{
+		long t = this.tail;
+		if (t - this.cachedHead >= this.elements.length)
+		{
+			this.cachedHead = this.head;
+			if (t - this.cachedHead >= this.elements.length)
+			{ return false; }
+		}
+		this.elements[(int)t & this.mask] = element;
+		this.tail = t + 1;
+		return true;
+	}
+	
+	/**
+	 * Remove the oldest element; may only be called by the consumer.
+	 * @return the oldest element, or null if the ring is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public E poll()
+	{
+		long h = this.head;
+		if (h >= this.cachedTail)
+		{
+			this.cachedTail = this.tail;
+			if (h >= this.cachedTail)
+			{ return null; }
+		}
+		int index = (int)h & this.mask;
+		E element = (E)this.elements[index];
+		this.elements[index] = null;
+		this.head = h + 1;
+		return element;
+	}
+	
+	/**
+	 * @return true if the ring holds no elements; may be called by either 
+	 * 		   thread
+	 */
+	public boolean isEmpty()
+	{ return this.head == this.tail; }
+	
+	/**
+	 * @return number of elements in the ring
+	 */
+	public int size()
+	{ return (int)(this.tail - this.head); }
+	
+	/**
+	 * @return most elements the ring holds
+	 */
+	public int capacity()
+	{ return this.elements.length; }
+}
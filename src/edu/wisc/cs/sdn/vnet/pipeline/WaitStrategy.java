@@ -0,0 +1,39 @@
+package edu.wisc.cs.sdn.vnet.pipeline;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * How a pipeline thread waits when it has nothing to do; trades CPU for
+ * latency.
+ */
+public enum WaitStrategy 
+{
+	/** Park until woken; uses no CPU while idle, but waking takes a few
+	 *  microseconds */
+	BLOCK
+	{
+		void idle(Signal signal, BooleanSupplier ready)
+		{ signal.park(ready); }
+	},
+	
+	/** Yield the processor to other threads, then look again */
+	YIELD
+	{
+		void idle(Signal signal, BooleanSupplier ready)
+		{ Thread.yield(); }
+	},
+	
+	/** Keep a core busy looking for work; lowest latency */
+	SPIN
+	{
+		void idle(Signal signal, BooleanSupplier ready)
+		{ Thread.onSpinWait(); }
+	};
+	
+	/**
+	 * Wait a little for work.
+	 * @param signal signal on which the waiting thread can be woken
+	 * @param ready true if there is work to do
+	 */
+	abstract void idle(Signal signal, BooleanSupplier ready);
+}
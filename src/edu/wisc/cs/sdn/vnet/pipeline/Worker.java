@@ -0,0 +1,146 @@
+package edu.wisc.cs.sdn.vnet.pipeline;
+
+import java.util.function.BooleanSupplier;
+
+import edu.wisc.cs.sdn.vnet.Device;
+import edu.wisc.cs.sdn.vnet.PacketBatch;
+
+/**
+ * Pipeline thread that hands received frames to the device, as many as are
+ * waiting (up to a batch) at a time. Packets the device sends while 
+ * handling frames are serialized into this worker's 
+ * transmit frames and passed to the transmit thread.
+ */
+public class Worker extends Thread
+{
+	private Pipeline pipeline;
+	private Device device;
+	private WaitStrategy waitStrategy;
+	
+	/** Received frames, from the receive thread, and the empty frames 
+	 *  returned to it */
+	SpscRing<Frame> rxRing;
+	SpscRing<Frame> rxFree;
+	
+	/** Commands to send, to the transmit thread, and the empty frames 
+	 *  returned from it */
+	SpscRing<Frame> txRing;
+	SpscRing<Frame> txFree;
+	
+	/** Wakes the worker when frames arrive or are returned */
+	Signal signal;
+	
+	/** Frames being handled, and the batch through which they are passed
+	 *  to the device */
+	private Frame[] frames;
+	private PacketBatch batch;
+	
+	private BooleanSupplier rxReady;
+	private BooleanSupplier txFreeReady;
+	
+	/** Number of frames handled */
+	private volatile long handled;
+	
+	/** Number of transmit frames sent */
+	private volatile long sent;
+	
+	Worker(Pipeline pipeline, Device device, int index, int ringSize,
+			WaitStrategy waitStrategy)
+	{
+		super("worker-" + index);
+		this.setDaemon(true);
+		this.pipeline = pipeline;
+		this.device = device;
+		this.waitStrategy = waitStrategy;
+		this.rxRing = new SpscRing<Frame>(ringSize);
+		this.rxFree = new SpscRing<Frame>(ringSize);
+		this.txRing = new SpscRing<Frame>(ringSize);
+		this.txFree = new SpscRing<Frame>(ringSize);
+		for (int i = 0; i < this.rxFree.capacity(); i++)
+		{ this.rxFree.offer(new Frame()); }
+		for (int i = 0; i < this.txFree.capacity(); i++)
+		{ this.txFree.offer(new Frame()); }
+		this.frames = new Frame[PacketBatch.DEFAULT_CAPACITY];
+		this.batch = new PacketBatch(this.frames.length);
+		this.signal = new Signal();
+		this.rxReady = () -> !this.rxRing.isEmpty() 
+				|| !this.pipeline.isRunning();
+		this.txFreeReady = () -> !this.txFree.isEmpty();
+	}
+	
+	public void run()
+	{
+		while (true)
+		{
+			int count = 0;
+			Frame frame;
+			while (count < this.frames.length 
+					&& (frame = this.rxRing.poll()) != null)
+			{
+				this.frames[count++] = frame;
+				this.batch.add(frame.getData(), 0, frame.getLength(), 
+						frame.getIface());
+			}
+			if (count > 0)
+			{
+				try
+				{ this.device.handlePackets(this.batch); }
+				catch (RuntimeException e)
+				{ e.printStackTrace(); }
+				this.batch.clear();
+				this.handled += count;
+				for (int i = 0; i < count; i++)
+				{
+					this.rxFree.offer(this.frames[i]);
+					this.frames[i] = null;
+				}
+				this.pipeline.rxSignal.wake();
+				continue;
+			}
+			
+			// Stop once every received frame has been handled
+			if (!this.pipeline.isRunning() && this.rxRing.isEmpty())
+			{ break; }
+			this.waitStrategy.idle(this.signal, this.rxReady);
+		}
+	}
+	
+	/**
+	 * Take an empty transmit frame, waiting for one if the transmit thread
+	 * is behind; may only be called by the worker.
+	 * @param size number of bytes needed
+	 * @return frame to write commands into
+	 */
+	public Frame allocateTransmit(int size)
+	{
+		Frame frame;
+		while ((frame = this.txFree.poll()) == null)
+		{ this.waitStrategy.idle(this.signal, this.txFreeReady); }
+		frame.ensureCapacity(size);
+		return frame;
+	}
+	
+	/**
+	 * Pass commands to the transmit thread; may only be called by the 
+	 * worker.
+	 * @param frame frame taken with {@link #allocateTransmit(int)}
+	 */
+	public void transmit(Frame frame)
+	{
+		this.txRing.offer(frame);
+		this.sent++;
+		this.pipeline.txSignal.wake();
+	}
+	
+	/**
+	 * @return number of frames handled
+	 */
+	public long getHandled()
+	{ return this.handled; }
+	
+	/**
+	 * @return number of transmit frames sent
+	 */
+	public long getSent()
+	{ return this.sent; }
+}
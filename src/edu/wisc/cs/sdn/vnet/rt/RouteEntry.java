@@ -9,24 +9,24 @@ import edu.wisc.cs.sdn.vnet.Iface;
  */
 public class RouteEntry 
 {
-	private long lastUpdateTime;
+	private volatile long lastUpdateTime;
 	private static final long TIMEOUT_INTERVAL = 30000; // 30 seconds
 
 	/** Destination IP address */
 	private int destinationAddress;
 	
 	/** Gateway IP address */
-	private int gatewayAddress;
+	private volatile int gatewayAddress;
 	
 	/** Subnet mask */
 	private int maskAddress;
 	
 	/** Router interface out which packets should be sent to reach
 	 * the destination or gateway */
-	private Iface iface;
+	private volatile Iface iface;
 	
 	/** Metric */
-    private int metric;
+    private volatile int metric;
 
 
 	/**
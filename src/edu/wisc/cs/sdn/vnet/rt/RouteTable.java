@@ -5,6 +5,7 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.regex.Matcher;
@@ -23,11 +24,19 @@ public class RouteTable
 	/** Entries in the route table */
 	private List<RouteEntry> entries; 
 
+	/** Copy of the entries, longest mask first, that lookups search; 
+	 *  replaced whenever an entry is added or removed, so lookups from any
+	 *  number of threads never take a lock */
+	private volatile RouteEntry[] lookupEntries;
+
 	/**
 	 * Initialize an empty route table.
 	 */
 	public RouteTable()
-	{ this.entries = new LinkedList<RouteEntry>(); }
+	{ 
+		this.entries = new LinkedList<RouteEntry>(); 
+		this.lookupEntries = new RouteEntry[0];
+	}
 
 	/**
 	 * Lookup the route entry that matches a given IP address.
@@ -36,26 +45,36 @@ public class RouteTable
 	 */
 	public RouteEntry lookup(int ip)
 	{
-		synchronized(this.entries)
+		/*****************************************************************/
+		/* TODO: Find the route entry with the longest prefix match      */
+
+		// Entries are sorted by mask, so the first match is the best match
+		for (RouteEntry entry : this.lookupEntries)
 		{
-			/*****************************************************************/
-			/* TODO: Find the route entry with the longest prefix match      */
+			int maskedDst = ip & entry.getMaskAddress();
+			int entrySubnet = entry.getDestinationAddress() & entry.getMaskAddress();
+			if (maskedDst == entrySubnet)
+			{ return entry; }
+		}
 
-			RouteEntry bestMatch = null;
-			for (RouteEntry entry : this.entries)
-			{
-				int maskedDst = ip & entry.getMaskAddress();
-				int entrySubnet = entry.getDestinationAddress() & entry.getMaskAddress();
-				if (maskedDst == entrySubnet) {
-					if ((null == bestMatch) || (entry.getMaskAddress() > bestMatch.getMaskAddress()))
-					{ bestMatch = entry; }
-				}
-			}
+		return null;
 
-			return bestMatch;
+		/*****************************************************************/
+	}
 
-			/*****************************************************************/
-		}
+	/**
+	 * Rebuild the entries searched by lookups; the caller must hold the lock
+	 * on the entries. Entries are ordered by prefix length, longest first;
+	 * the sort is stable, so among entries with the same mask the one added
+	 * first still wins.
+	 */
+	private void updateLookupEntries()
+	{
+		RouteEntry[] sorted = this.entries.toArray(new RouteEntry[0]);
+		Arrays.sort(sorted, (a, b) -> Integer.compare(
+				Integer.bitCount(b.getMaskAddress()), 
+				Integer.bitCount(a.getMaskAddress())));
+		this.lookupEntries = sorted;
 	}
 
 	/**
@@ -163,6 +182,7 @@ public class RouteTable
 		synchronized(this.entries)
 		{ 
 			this.entries.add(entry);
+			this.updateLookupEntries();
 		}
 	}
 	/**
@@ -178,6 +198,7 @@ public class RouteTable
 			RouteEntry entry = this.find(dstIp, maskIp);
 			if (null == entry) { return false; }
 			this.entries.remove(entry);
+			this.updateLookupEntries();
 		}
 		return true;
 	}
@@ -237,17 +258,22 @@ public class RouteTable
 	}
 
 	public void remove(int destination) {
-		for (int i = 0; i < this.entries.size(); i++) {
-			RouteEntry entry = this.entries.get(i);
-			if (entry.getDestinationAddress() == destination) {
-				this.entries.remove(i);
-				i--; // Decrement index to account for removal
+		synchronized(this.entries) {
+			for (int i = 0; i < this.entries.size(); i++) {
+				RouteEntry entry = this.entries.get(i);
+				if (entry.getDestinationAddress() == destination) {
+					this.entries.remove(i);
+					i--; // Decrement index to account for removal
+				}
 			}
+			this.updateLookupEntries();
 		}
 	}
 	
 	public List<RouteEntry> getAllEntries() {
-        return new ArrayList<>(this.entries);
+		synchronized(this.entries) {
+			return new ArrayList<>(this.entries);
+		}
     }
 
 }
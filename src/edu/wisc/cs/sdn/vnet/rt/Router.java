@@ -3,15 +3,21 @@ package edu.wisc.cs.sdn.vnet.rt;
 import edu.wisc.cs.sdn.vnet.Device;
 import edu.wisc.cs.sdn.vnet.DumpFile;
 import edu.wisc.cs.sdn.vnet.Iface;
+import edu.wisc.cs.sdn.vnet.PacketBatch;
+import edu.wisc.cs.sdn.vnet.Scheduler;
 
+import net.floodlightcontroller.packet.DecodeDepth;
+import net.floodlightcontroller.packet.DropReason;
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
 import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.IPv4View;
 import net.floodlightcontroller.packet.UDP;
+import net.floodlightcontroller.packet.UdpView;
 import net.floodlightcontroller.packet.RIPv2;
 import net.floodlightcontroller.packet.RIPv2Entry;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Aaron Gember-Jacobson and Anubhavnidhi Abhashkumar
@@ -28,6 +34,52 @@ public class Router extends Device {
 	private static final long ROUTE_TIMEOUT_INTERVAL = 30000;
 	private static final int RIP_PORT = UDP.RIP_PORT; //Makes referencing this easier.
 
+	/** Views reused for reading and rewriting the headers of every forwarded 
+	 *  packet; one set per thread, since packets may be handled by several workers */
+	private final ThreadLocal<HeaderViews> views = ThreadLocal.withInitial(HeaderViews::new);
+
+	private static class HeaderViews {
+		final EthernetView ether = new EthernetView();
+		final IPv4View ip = new IPv4View();
+		final UdpView udp = new UdpView();
+
+		/** Route and ARP entries (possibly null) already looked up for 
+		 *  destinations in the batch being handled */
+		final int[] dsts = new int[LOOKUP_CACHE_SIZE];
+		final RouteEntry[] routes = new RouteEntry[LOOKUP_CACHE_SIZE];
+		final ArpEntry[] arpEntries = new ArpEntry[LOOKUP_CACHE_SIZE];
+		int lookups;
+
+		int findLookup(int dstAddr) {
+			for (int i = 0; i < this.lookups; i++) {
+				if (this.dsts[i] == dstAddr) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		void addLookup(int dstAddr, RouteEntry route, ArpEntry arpEntry) {
+			if (this.lookups < LOOKUP_CACHE_SIZE) {
+				this.dsts[this.lookups] = dstAddr;
+				this.routes[this.lookups] = route;
+				this.arpEntries[this.lookups] = arpEntry;
+				this.lookups++;
+			}
+		}
+
+		void clearLookups() {
+			for (int i = 0; i < this.lookups; i++) {
+				this.routes[i] = null;
+				this.arpEntries[i] = null;
+			}
+			this.lookups = 0;
+		}
+	}
+
+	/** Most destinations whose lookups are shared within a batch */
+	private static final int LOOKUP_CACHE_SIZE = 16;
+
 	/**
 	 * Creates a router for a specific host.
 	 * 
@@ -38,8 +90,7 @@ public class Router extends Device {
 		this.routeTable = new RouteTable();
 		this.arpCache = new ArpCache();
 		
-		//Initialize routing table and start timer
-		initializeRoutingTable();
+		//Start timer; directly connected routes are added once RIP starts
 		startRouteTimeoutTimer();
 	}
 
@@ -50,6 +101,17 @@ public class Router extends Device {
 		return this.routeTable;
 	}
 
+	/**
+	 * Forwarding only reads the Ethernet and IP headers; transport headers
+	 * (e.g., to recognize RIP) are decoded on demand.
+	 * 
+	 * @return decode depth for packets passed to handlePacket
+	 */
+	@Override
+	public DecodeDepth getDecodeDepth() {
+		return DecodeDepth.L3;
+	}
+
 	/**
 	 * Load a new routing table from a file.
 	 * 
@@ -86,6 +148,184 @@ public class Router extends Device {
 		System.out.println("----------------------------------");
 	}
 
+	/**
+	 * Handle a raw Ethernet frame received on a specific interface. IPv4
+	 * packets that only need to be forwarded are checked and rewritten in
+	 * place in the received buffer; everything else (and every packet when
+	 * debugging) is parsed and passed to handlePacket.
+	 * 
+	 * @param frame   buffer containing the frame
+	 * @param offset  offset of the first byte of the frame in the buffer
+	 * @param length  length of the frame
+	 * @param inIface the interface on which the frame was received
+	 */
+	@Override
+	public void handleRawPacket(byte[] frame, int offset, int length, Iface inIface) {
+		HeaderViews views = this.views.get();
+		views.clearLookups();
+		Iface outIface = this.forward(frame, offset, length, inIface, views);
+		if (outIface != null) {
+			this.sendRawPacket(frame, offset, length, outIface);
+		}
+	}
+
+	/**
+	 * Handle a batch of raw Ethernet frames received together. Route and ARP
+	 * lookups are done once per destination in the batch, and the forwarded
+	 * frames are sent together, one send per outgoing interface.
+	 * 
+	 * @param batch frames that were received
+	 */
+	@Override
+	public void handlePackets(PacketBatch batch) {
+		if (this.isDebug()) {
+			super.handlePackets(batch);
+			return;
+		}
+
+		HeaderViews views = this.views.get();
+		views.clearLookups();
+		for (int i = 0; i < batch.size(); i++) {
+			batch.setOutIface(i, this.forward(batch.getData(i), batch.getOffset(i),
+					batch.getLength(i), batch.getInIface(i), views));
+		}
+		this.sendPackets(batch);
+	}
+
+	/**
+	 * Check and rewrite a frame that only needs to be forwarded, in place;
+	 * any other frame is handled (or dropped) here.
+	 * 
+	 * @param frame   buffer containing the frame
+	 * @param offset  offset of the first byte of the frame in the buffer
+	 * @param length  length of the frame
+	 * @param inIface the interface on which the frame was received
+	 * @param views   views to use, holding the lookups already done
+	 * @return the interface out which to send the frame, or null if it 
+	 *         should not be sent
+	 */
+	private Iface forward(byte[] frame, int offset, int length, Iface inIface,
+			HeaderViews views) {
+		if (!this.getFrameValidator().accept(frame, offset, length, DecodeDepth.FULL)) {
+			return null;
+		}
+
+		EthernetView ether = views.ether.wrap(frame, offset, length);
+		if (null == ether || this.isDebug() || ether.getEtherType() != Ethernet.TYPE_IPv4) {
+			this.dispatchPacket(frame, offset, length, inIface);
+			return null;
+		}
+
+		IPv4View ip = views.ip.wrap(frame, ether.getPayloadOffset(), ether.getPayloadLength());
+		if (null == ip) {
+			return null;
+		}
+
+		// RIP packets update the route table
+		if (ip.getProtocol() == IPv4.PROTOCOL_UDP) {
+			UdpView udp = views.udp.wrap(frame, ip.getPayloadOffset(), ip.getPayloadLength());
+			if (udp != null && udp.getDestinationPort() == RIP_PORT) {
+				this.dispatchPacket(frame, offset, length, inIface);
+				return null;
+			}
+		}
+
+		// Verify checksum
+		if (!ip.isChecksumValid()) {
+			return null;
+		}
+
+		// Check TTL; the checksum is patched rather than recomputed
+		if ((ip.getTtl() & 0xff) <= 1) {
+			return null;
+		}
+		ip.decrementTtl();
+
+		// Check if packet is destined for one of router's interfaces
+		int dstAddr = ip.getDestinationAddress();
+		for (Iface iface : this.interfaces.values()) {
+			if (dstAddr == iface.getIpAddress()) {
+				return null;
+			}
+		}
+
+		// Find matching route table entry and the next hop's MAC address,
+		// unless another packet in the batch had the same destination
+		RouteEntry bestMatch;
+		ArpEntry arpEntry;
+		int cached = views.findLookup(dstAddr);
+		if (cached >= 0) {
+			bestMatch = views.routes[cached];
+			arpEntry = views.arpEntries[cached];
+		} else {
+			bestMatch = this.routeTable.lookup(dstAddr);
+			arpEntry = null;
+			if (bestMatch != null) {
+				// If no gateway, then nextHop is IP destination
+				int nextHop = bestMatch.getGatewayAddress();
+				if (0 == nextHop) {
+					nextHop = dstAddr;
+				}
+				arpEntry = this.arpCache.lookup(nextHop);
+			}
+			views.addLookup(dstAddr, bestMatch, arpEntry);
+		}
+		if (null == bestMatch) {
+			return null;
+		}
+
+		// Make sure we don't sent a packet back out the interface it came in
+		Iface outIface = bestMatch.getInterface();
+		if (outIface == inIface || null == arpEntry) {
+			return null;
+		}
+
+		// Packets are not fragmented, so drop any too large for the link
+		if ((ip.getTotalLength() & 0xffff) > outIface.getMtu()) {
+			this.getFrameValidator().reject(DropReason.OVERSIZE);
+			return null;
+		}
+
+		// Rewrite the Ethernet header; the caller sends the received bytes
+		ether.setSourceMACAddress(outIface.getMacAddress());
+		ether.setDestinationMACAddress(arpEntry.getMac());
+		return outIface;
+	}
+
+	/**
+	 * Hash the flow of an IPv4 packet from its addresses, protocol, and 
+	 * TCP or UDP ports. Fragments are hashed without ports, so all the 
+	 * fragments of a datagram stay together.
+	 * 
+	 * @param frame  buffer containing the frame
+	 * @param offset offset of the first byte of the frame in the buffer
+	 * @param length length of the frame
+	 * @return hash of the frame's flow
+	 */
+	@Override
+	public int getFlowHash(byte[] frame, int offset, int length) {
+		HeaderViews views = this.views.get();
+		EthernetView ether = views.ether.wrap(frame, offset, length);
+		if (null == ether || ether.getEtherType() != Ethernet.TYPE_IPv4) {
+			return super.getFlowHash(frame, offset, length);
+		}
+		IPv4View ip = views.ip.wrap(frame, ether.getPayloadOffset(), ether.getPayloadLength());
+		if (null == ip) {
+			return super.getFlowHash(frame, offset, length);
+		}
+
+		long addresses = ((long) ip.getSourceAddress() << 32)
+				| (ip.getDestinationAddress() & 0xffffffffL);
+		long ports = ip.getProtocol() & 0xff;
+		if ((ip.getProtocol() == IPv4.PROTOCOL_TCP || ip.getProtocol() == IPv4.PROTOCOL_UDP)
+				&& !ip.isFragment() && ip.getPayloadLength() >= 4) {
+			int pos = ip.getPayloadOffset();
+			ports |= (((frame[pos] & 0xffL) << 24) | ((frame[pos + 1] & 0xffL) << 16)
+					| ((frame[pos + 2] & 0xffL) << 8) | (frame[pos + 3] & 0xffL)) << 8;
+		}
+		return hashFlow(addresses, ports);
+	}
+
 	/**
 	 * Handle an Ethernet packet received on a specific interface.
 	 * 
@@ -127,23 +367,16 @@ public class Router extends Device {
 		}
 
 		// Verify checksum
-		short origCksum = ipPacket.getChecksum();
-		ipPacket.resetChecksum();
-		byte[] serialized = ipPacket.serialize();
-		ipPacket.deserialize(serialized, 0, serialized.length);
-		short calcCksum = ipPacket.getChecksum();
-		if (origCksum != calcCksum) {
+		if (!ipPacket.isChecksumValid()) {
 			return;
 		}
 
-		// Check TTL
-		ipPacket.setTtl((byte) (ipPacket.getTtl() - 1));
-		if (0 == ipPacket.getTtl()) {
+		// Check TTL; updateTtl patches the checksum, so it is not 
+		// recomputed when the packet is serialized
+		if ((ipPacket.getTtl() & 0xff) <= 1) {
 			return;
 		}
-
-		// Reset checksum now that TTL is decremented
-		ipPacket.resetChecksum();
+		ipPacket.updateTtl((byte) (ipPacket.getTtl() - 1));
 
 		// Check if packet is destined for one of router's interfaces
 		for (Iface iface : this.interfaces.values()) {
@@ -207,12 +440,12 @@ public class Router extends Device {
 			ipPacket.setDestinationAddress("224.0.0.9");
 		} else {
 			// Set destination IP and MAC to the IP address and MAC address of the router interface that sent the request as specified in the assignemnt.
-			ether.setDestinationMACAddress(inIface.getMacAddress().toBytes());
+			ether.setDestinationMACAddress(inIface.getMacAddress());
 			ipPacket.setDestinationAddress(inIface.getIpAddress());
 		}
 	
 		// Set source IP and MAC to interface IP and MAC (got help from ChatGPT for this)
-		ether.setSourceMACAddress(inIface.getMacAddress().toBytes());
+		ether.setSourceMACAddress(inIface.getMacAddress());
 		ipPacket.setSourceAddress(inIface.getIpAddress());
 		udpPacket.setSourcePort((short) RIP_PORT);
 		udpPacket.setDestinationPort((short) RIP_PORT);
@@ -222,15 +455,11 @@ public class Router extends Device {
 	
 	//Sends out requests to set everything up & sends unsolicited Rip responses regularly.
 	public void startRip() {
+		initializeRoutingTable();
 		sendRipRequest();
 
-		Timer timer = new Timer();
-		timer.scheduleAtFixedRate(new TimerTask() {
-			@Override
-			public void run() {
-				sendUnsolicitedRipResponse();
-			}
-		}, RIP_RESPONSE_INTERVAL, RIP_RESPONSE_INTERVAL);
+		Scheduler.getShared().scheduleAtFixedRate(this::sendUnsolicitedRipResponse,
+				RIP_RESPONSE_INTERVAL, RIP_RESPONSE_INTERVAL, TimeUnit.MILLISECONDS);
 	}
 
 	//Sends RIP Request
@@ -246,7 +475,7 @@ public class Router extends Device {
 
 		// Set source IP and MAC to interface IP and MAC
 		for (Iface iface : this.interfaces.values()) {
-			ether.setSourceMACAddress(iface.getMacAddress().toBytes());
+			ether.setSourceMACAddress(iface.getMacAddress());
 			ipPacket.setSourceAddress(iface.getIpAddress());
 			udpPacket.setSourcePort((short)RIP_PORT);
 			udpPacket.setDestinationPort((short)RIP_PORT);
@@ -299,8 +528,14 @@ public class Router extends Device {
 			return;
 		}
 
+		// Packets are not fragmented, so drop any too large for the link
+		if ((ipPacket.getTotalLength() & 0xffff) > outIface.getMtu()) {
+			this.getFrameValidator().reject(DropReason.OVERSIZE);
+			return;
+		}
+
 		// Set source MAC address in Ethernet header
-		etherPacket.setSourceMACAddress(outIface.getMacAddress().toBytes());
+		etherPacket.setSourceMACAddress(outIface.getMacAddress());
 
 		// If no gateway, then nextHop is IP destination
 		int nextHop = bestMatch.getGatewayAddress();
@@ -313,20 +548,15 @@ public class Router extends Device {
 		if (null == arpEntry) {
 			return;
 		}
-		etherPacket.setDestinationMACAddress(arpEntry.getMac().toBytes());
+		etherPacket.setDestinationMACAddress(arpEntry.getMac());
 
 		this.sendPacket(etherPacket, outIface);
 	}
 
 	//Got help from ChatGPT with this - apparently it works to check route timeouts. 
 	private void startRouteTimeoutTimer() {
-        Timer timer = new Timer();
-        timer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                checkRouteTimeouts();
-            }
-        }, ROUTE_TIMEOUT_INTERVAL, ROUTE_TIMEOUT_INTERVAL);
+        Scheduler.getShared().scheduleAtFixedRate(this::checkRouteTimeouts,
+                ROUTE_TIMEOUT_INTERVAL, ROUTE_TIMEOUT_INTERVAL, TimeUnit.MILLISECONDS);
     }
 
 	//Used in startRouteTimeoutTimer and helps remove routes that have expired.
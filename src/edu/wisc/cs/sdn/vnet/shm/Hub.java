@@ -0,0 +1,483 @@
+package edu.wisc.cs.sdn.vnet.shm;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.MACAddress;
+
+import edu.wisc.cs.sdn.vnet.vns.Command;
+import edu.wisc.cs.sdn.vnet.vns.CommandHwEntry;
+import edu.wisc.cs.sdn.vnet.vns.CommandPacket;
+import edu.wisc.cs.sdn.vnet.vns.VNSComm;
+
+/**
+ * Stands in for the server for switches and routers on the same host.
+ * Each device exchanges commands with the hub over a pair of shared-memory
+ * rings instead of a connection to the server, and the hub passes each
+ * packet straight to the device at the other end of the link it was sent
+ * on, as given by a topology file. Links to hosts lead nowhere, so packets
+ * sent on them are dropped.
+ */
+public class Hub
+{
+	/** Default directory for the rings */
+	public static final String DEFAULT_DIR = "/dev/shm/vnet";
+
+	/** File in the ring directory listing routers' addresses */
+	public static final String ARP_CACHE_FILE = "arp_cache";
+
+	/** Most commands taken from one device before looking at the next */
+	private static final int POLL_LIMIT = 64;
+
+	/** Size of an entry in a hardware info command */
+	private static final int HW_ENTRY_SIZE = 4 + 32;
+
+	private File dir;
+	private int ringCapacity;
+
+	/** Devices attached to the hub; maps hostnames to devices */
+	private Map<String,HubDevice> devices;
+
+	/** Hosts named in the topology, which are not attached to the hub */
+	private Set<String> hosts;
+
+	/** Holds the command being handled */
+	private byte[] command;
+
+	private volatile boolean running;
+
+	/** Number of packets passed on, dropped because the link leads to no
+	 *  device or to a device without a session, and dropped because the
+	 *  other device's ring was full */
+	private long forwarded;
+	private long unconnected;
+	private long overflowed;
+
+	/**
+	 * Create a hub without devices.
+	 * @param dir directory to hold the rings
+	 * @param ringCapacity number of bytes each ring holds
+	 */
+	public Hub(File dir, int ringCapacity)
+	{
+		this.dir = dir;
+		this.ringCapacity = ringCapacity;
+		this.devices = new LinkedHashMap<String,HubDevice>();
+		this.hosts = new HashSet<String>();
+		this.command = new byte[VNSComm.MAX_COMMAND_SIZE];
+	}
+
+	/**
+	 * Add the switches, routers, and links in a topology file. Interfaces
+	 * are named eth1, eth2, ... in the order of a device's links, and a
+	 * router's interfaces take its addresses in the same order.
+	 * @param filename name of the file containing the topology
+	 * @return true if the topology was loaded
+	 */
+	public boolean loadTopology(String filename)
+	{
+		try (BufferedReader reader = new BufferedReader(
+				new FileReader(filename)))
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				String[] parts = line.trim().split("\\s+");
+				if (0 == parts[0].length())
+				{ continue; }
+
+				if (parts[0].equals("host") && parts.length == 4)
+				{ this.hosts.add(parts[1]); }
+				else if (parts[0].equals("switch") && parts.length == 2)
+				{ this.devices.put(parts[1], new HubDevice(parts[1], null)); }
+				else if (parts[0].equals("router") && parts.length >= 3)
+				{
+					String[] addresses = new String[parts.length - 2];
+					System.arraycopy(parts, 2, addresses, 0, addresses.length);
+					this.devices.put(parts[1],
+							new HubDevice(parts[1], addresses));
+				}
+				else if (parts[0].equals("link") && parts.length == 3)
+				{
+					if (!this.addLink(parts[1], parts[2]))
+					{ return false; }
+				}
+				else
+				{
+					System.err.println("Invalid line in topology file: "
+							+ line);
+					return false;
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			System.err.println(e.toString());
+			return false;
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.err.println("Invalid address in topology file: "
+					+ e.getMessage());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Add an interface to each device at the ends of a link.
+	 * @param nameA hostname at one end of the link
+	 * @param nameB hostname at the other end of the link
+	 * @return false if either end is not in the topology
+	 */
+	private boolean addLink(String nameA, String nameB)
+	{
+		HubPort portA = this.addPort(nameA);
+		HubPort portB = this.addPort(nameB);
+		if ((null == portA && !this.hosts.contains(nameA))
+				|| (null == portB && !this.hosts.contains(nameB)))
+		{
+			System.err.println(String.format("Unknown node in link %s %s",
+					nameA, nameB));
+			return false;
+		}
+		if (portA != null && portB != null)
+		{
+			portA.setPeer(this.devices.get(nameB), portB);
+			portB.setPeer(this.devices.get(nameA), portA);
+		}
+		return true;
+	}
+
+	/**
+	 * Add the next interface to a device.
+	 * @param host hostname of the device
+	 * @return the interface; null if the host is not a device
+	 */
+	private HubPort addPort(String host)
+	{
+		HubDevice device = this.devices.get(host);
+		if (null == device)
+		{ return null; }
+
+		// Addresses are made up, but stay the same each time the hub runs
+		int number = device.getPorts().size() + 1;
+		int index = 0;
+		for (String name : this.devices.keySet())
+		{
+			index++;
+			if (name.equals(host))
+			{ break; }
+		}
+		MACAddress mac = MACAddress.valueOf(new byte[] { 0x02, 0x00, 0x00,
+				(byte)(index >> 8), (byte)index, (byte)number });
+		HubPort port = new HubPort("eth" + number, mac);
+
+		String[] addresses = device.getAddresses();
+		if (addresses != null && number <= addresses.length)
+		{
+			String[] address = addresses[number - 1].split("/");
+			if (address.length != 2)
+			{ throw new IllegalArgumentException(addresses[number - 1]); }
+			int prefix = Integer.parseInt(address[1]);
+			port.setIpAddress(IPv4.toIPv4Address(address[0]));
+			port.setSubnetMask(0 == prefix ? 0 : -1 << (32 - prefix));
+		}
+		device.addPort(port);
+		return port;
+	}
+
+	/**
+	 * Create the rings for every device, and list the routers' addresses so
+	 * routers can be started with a static ARP cache.
+	 * @return true if the rings were created
+	 */
+	public boolean createRings()
+	{
+		if (!this.dir.isDirectory() && !this.dir.mkdirs())
+		{
+			System.err.println("Cannot create directory " + this.dir);
+			return false;
+		}
+		try (PrintWriter arpCache = new PrintWriter(
+				new File(this.dir, ARP_CACHE_FILE)))
+		{
+			for (HubDevice device : this.devices.values())
+			{
+				device.createRings(this.dir, this.ringCapacity);
+				for (HubPort port : device.getPorts())
+				{
+					if (port.getIpAddress() != 0)
+					{
+						arpCache.println(String.format("%s %s",
+								IPv4.fromIPv4Address(port.getIpAddress()),
+								port.getMacAddress().toString()));
+					}
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			System.err.println(e.toString());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Pass commands between devices until stopped.
+	 */
+	public void run()
+	{
+		this.running = true;
+		int rounds = 0;
+		while (this.running)
+		{
+			int handled = 0;
+			for (HubDevice device : this.devices.values())
+			{ handled += this.poll(device); }
+			if (handled > 0)
+			{ rounds = 0; }
+			else
+			{ ShmChannel.idle(rounds++); }
+		}
+	}
+
+	/**
+	 * Stop passing commands, and tell every device no more will come.
+	 */
+	public void stop()
+	{
+		this.running = false;
+		for (HubDevice device : this.devices.values())
+		{
+			if (device.getRx() != null)
+			{ device.getRx().setClosed(true); }
+		}
+	}
+
+	/**
+	 * Handle the whole commands a device has sent.
+	 * @param device device to take commands from
+	 * @return number of commands handled
+	 */
+	private int poll(HubDevice device)
+	{
+		ShmRing tx = device.getTx();
+		int handled = 0;
+		while (handled < POLL_LIMIT)
+		{
+			int available = tx.available();
+			if (available < 4)
+			{
+				if (0 == available && tx.isClosed() && device.isConnected())
+				{
+					device.setConnected(false);
+					System.out.println("Device " + device.getHost()
+							+ " disconnected");
+				}
+				break;
+			}
+			int len = tx.peekInt(0);
+			if (len < 8 || len > this.command.length)
+			{
+				System.err.println(String.format(
+						"Error: bad command length %d from %s", len,
+						device.getHost()));
+				tx.drain();
+				device.setConnected(false);
+				break;
+			}
+			if (available < len)
+			{ break; }
+			tx.read(this.command, 0, len);
+			this.handleCommand(device, len);
+			handled++;
+		}
+		return handled;
+	}
+
+	/**
+	 * Handle a command from a device.
+	 * @param device device that sent the command
+	 * @param len length of the command
+	 */
+	private void handleCommand(HubDevice device, int len)
+	{
+		ByteBuffer bb = ByteBuffer.wrap(this.command, 0, len);
+		switch (bb.getInt(4))
+		{
+		case Command.VNS_OPEN:
+			device.setConnected(true);
+			System.out.println("Device " + device.getHost() + " connected");
+			this.sendHwInfo(device);
+			break;
+
+		case Command.VNS_PACKET:
+			if (len < CommandPacket.HEADER_SIZE)
+			{ break; }
+			HubPort port = device.getPort(this.command,
+					CommandPacket.HEADER_SIZE - CommandPacket.IFACE_NAME_SIZE);
+			HubDevice peer = (null == port ? null : port.getPeer());
+			if (null == peer || !peer.isConnected())
+			{
+				this.unconnected++;
+				break;
+			}
+
+			// Pass the command on as received on the other interface
+			System.arraycopy(port.getPeerPort().getNameField(), 0,
+					this.command,
+					CommandPacket.HEADER_SIZE - CommandPacket.IFACE_NAME_SIZE,
+					CommandPacket.IFACE_NAME_SIZE);
+			try
+			{
+				if (peer.getRx().write(this.command, 0, len))
+				{ this.forwarded++; }
+				else
+				{ this.overflowed++; }
+			}
+			catch (IOException e)
+			{
+				System.err.println(e.toString());
+				this.overflowed++;
+			}
+			break;
+
+		case Command.VNS_CLOSE:
+			device.setConnected(false);
+			break;
+
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Tell a device about its interfaces.
+	 * @param device device that opened a session
+	 */
+	private void sendHwInfo(HubDevice device)
+	{
+		int entries = 0;
+		for (HubPort port : device.getPorts())
+		{ entries += (0 == port.getIpAddress() ? 1 : 4); }
+		int len = 8 + entries * HW_ENTRY_SIZE;
+		ByteBuffer bb = ByteBuffer.allocate(len);
+		bb.putInt(len);
+		bb.putInt(Command.VNS_HW_INFO);
+		for (HubPort port : device.getPorts())
+		{
+			putHwEntry(bb, CommandHwEntry.HW_INTERFACE,
+					port.getName().getBytes());
+			if (0 == port.getIpAddress())
+			{ continue; }
+			putHwEntry(bb, CommandHwEntry.HW_ETHER,
+					port.getMacAddress().toBytes());
+			putHwEntry(bb, CommandHwEntry.HW_ETH_IP,
+					IPv4.toIPv4AddressBytes(port.getIpAddress()));
+			putHwEntry(bb, CommandHwEntry.HW_MASK,
+					IPv4.toIPv4AddressBytes(port.getSubnetMask()));
+		}
+		try
+		{
+			if (!device.getRx().write(bb.array(), 0, len))
+			{
+				System.err.println("Error: no room for hardware info for "
+						+ device.getHost());
+			}
+		}
+		catch (IOException e)
+		{ System.err.println(e.toString()); }
+	}
+
+	private static void putHwEntry(ByteBuffer bb, int key, byte[] value)
+	{
+		bb.putInt(key);
+		bb.put(value);
+		bb.position(bb.position() + HW_ENTRY_SIZE - 4 - value.length);
+	}
+
+	public String toString()
+	{
+		return String.format("forwarded\t%d\nno device\t%d\nring full\t%d\n",
+				this.forwarded, this.unconnected, this.overflowed);
+	}
+
+	public static void main(String[] args)
+	{
+		String topoFile = null;
+		String dirName = DEFAULT_DIR;
+		int ringCapacity = ShmRing.DEFAULT_CAPACITY;
+
+		for (int i = 0; i < args.length; i++)
+		{
+			String arg = args[i];
+			if (arg.equals("-h"))
+			{
+				usage();
+				return;
+			}
+			else if (arg.equals("-t"))
+			{ topoFile = args[++i]; }
+			else if (arg.equals("-d"))
+			{ dirName = args[++i]; }
+			else if (arg.equals("-b"))
+			{ ringCapacity = Integer.parseInt(args[++i]); }
+		}
+
+		if (null == topoFile)
+		{
+			usage();
+			return;
+		}
+
+		// A device writes whole commands, which the hub only takes whole
+		if (ringCapacity < VNSComm.MAX_COMMAND_SIZE)
+		{
+			System.err.println(String.format(
+					"Error: ring_bytes must be at least %d",
+					VNSComm.MAX_COMMAND_SIZE));
+			System.exit(1);
+		}
+
+		final Hub hub = new Hub(new File(dirName), ringCapacity);
+		if (!hub.loadTopology(topoFile) || !hub.createRings())
+		{ System.exit(1); }
+
+		// Report what was passed on when the hub is stopped
+		Runtime.getRuntime().addShutdownHook(new Thread()
+		{
+			public void run()
+			{
+				hub.stop();
+				System.out.println("Hub");
+				System.out.println("----------------------------------");
+				System.out.print(hub.toString());
+				System.out.println("----------------------------------");
+			}
+		});
+
+		System.out.println(String.format(
+				"Hub for %d devices; start them with -x %s",
+				hub.devices.size(), dirName));
+		hub.run();
+	}
+
+	static void usage()
+	{
+		System.out.println("Virtual Network Hub");
+		System.out.println("Hub -t topology_file [-d ring_dir] [-b ring_bytes] [-h]");
+		System.out.println(String.format("  defaults ring_dir=%s ring_bytes=%d",
+				DEFAULT_DIR, ShmRing.DEFAULT_CAPACITY));
+	}
+}
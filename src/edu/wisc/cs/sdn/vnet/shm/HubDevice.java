@@ -0,0 +1,113 @@
+package edu.wisc.cs.sdn.vnet.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A switch or router attached to a hub, with the rings it exchanges
+ * commands on.
+ */
+public class HubDevice
+{
+	private String host;
+
+	/** Addresses given for a router's interfaces, in order, as
+	 *  address/prefix; null for a switch */
+	private String[] addresses;
+
+	private List<HubPort> ports;
+
+	/** Ring the hub writes to, and ring the hub reads from */
+	private ShmRing rx;
+	private ShmRing tx;
+
+	/** True once the device has opened a session */
+	private boolean connected;
+
+	/**
+	 * Create a device without interfaces.
+	 * @param host hostname of the device
+	 * @param addresses addresses of a router's interfaces, as
+	 *        address/prefix; null for a switch
+	 */
+	public HubDevice(String host, String[] addresses)
+	{
+		this.host = host;
+		this.addresses = addresses;
+		this.ports = new ArrayList<HubPort>();
+	}
+
+	public String getHost()
+	{ return this.host; }
+
+	/**
+	 * @return addresses of a router's interfaces, as address/prefix; null
+	 *         for a switch
+	 */
+	public String[] getAddresses()
+	{ return this.addresses; }
+
+	/**
+	 * @return the device's interfaces, in the order they were added
+	 */
+	public List<HubPort> getPorts()
+	{ return this.ports; }
+
+	/**
+	 * @param port interface to add
+	 */
+	public void addPort(HubPort port)
+	{ this.ports.add(port); }
+
+	/**
+	 * Find an interface by the name field of a VNS command.
+	 * @param buf buffer containing the name field
+	 * @param offset offset of the name field in the buffer
+	 * @return the interface; null if none has the name
+	 */
+	public HubPort getPort(byte[] buf, int offset)
+	{
+		for (HubPort port : this.ports)
+		{
+			byte[] field = port.getNameField();
+			if (Arrays.equals(field, 0, field.length,
+					buf, offset, offset + field.length))
+			{ return port; }
+		}
+		return null;
+	}
+
+	/**
+	 * Create the device's rings, replacing any left from an earlier hub.
+	 * @param dir directory to hold the rings
+	 * @param capacity number of bytes each ring holds
+	 */
+	public void createRings(File dir, int capacity) throws IOException
+	{
+		this.rx = ShmRing.create(new File(dir, this.host
+				+ ShmChannel.RX_SUFFIX), capacity);
+		this.tx = ShmRing.create(new File(dir, this.host
+				+ ShmChannel.TX_SUFFIX), capacity);
+	}
+
+	/**
+	 * @return ring the hub writes commands for the device to
+	 */
+	public ShmRing getRx()
+	{ return this.rx; }
+
+	/**
+	 * @return ring the hub reads commands from the device from
+	 */
+	public ShmRing getTx()
+	{ return this.tx; }
+
+	public boolean isConnected()
+	{ return this.connected; }
+
+	public void setConnected(boolean connected)
+	{ this.connected = connected; }
+}
@@ -0,0 +1,82 @@
+package edu.wisc.cs.sdn.vnet.shm;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+
+import net.floodlightcontroller.packet.MACAddress;
+
+/**
+ * An interface of a device attached to a hub, and the interface at the
+ * other end of its link.
+ */
+public class HubPort
+{
+	private String name;
+	private byte[] nameField;
+	private MACAddress macAddress;
+	private int ipAddress;
+	private int subnetMask;
+
+	/** Device and interface at the other end of the link; null if the link
+	 *  leads to a host, which is not attached to the hub */
+	private HubDevice peer;
+	private HubPort peerPort;
+
+	/**
+	 * Create an interface.
+	 * @param name name of the interface
+	 * @param macAddress MAC address of the interface
+	 */
+	public HubPort(String name, MACAddress macAddress)
+	{
+		this.name = name;
+		this.macAddress = macAddress;
+		this.nameField = Iface.toNameField(name);
+	}
+
+	public String getName()
+	{ return this.name; }
+
+	/**
+	 * @return the interface name as a zero-padded VNS name field; must not
+	 *         be modified
+	 */
+	public byte[] getNameField()
+	{ return this.nameField; }
+
+	public MACAddress getMacAddress()
+	{ return this.macAddress; }
+
+	public void setIpAddress(int ip)
+	{ this.ipAddress = ip; }
+
+	public int getIpAddress()
+	{ return this.ipAddress; }
+
+	public void setSubnetMask(int subnetMask)
+	{ this.subnetMask = subnetMask; }
+
+	public int getSubnetMask()
+	{ return this.subnetMask; }
+
+	/**
+	 * @param peer device at the other end of the link
+	 * @param peerPort interface at the other end of the link
+	 */
+	public void setPeer(HubDevice peer, HubPort peerPort)
+	{
+		this.peer = peer;
+		this.peerPort = peerPort;
+	}
+
+	/**
+	 * @return device at the other end of the link; null if there is none
+	 */
+	public HubDevice getPeer()
+	{ return this.peer; }
+
+	/**
+	 * @return interface at the other end of the link; null if there is none
+	 */
+	public HubPort getPeerPort()
+	{ return this.peerPort; }
+}
@@ -0,0 +1,152 @@
+package edu.wisc.cs.sdn.vnet.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Byte stream to a hub over a pair of shared-memory rings, one in each
+ * direction, carrying the same commands as a connection to the server. A
+ * read or write that cannot go ahead spins, then yields, then parks for a
+ * short while, so a busy stream never makes a system call and an idle one
+ * uses little CPU.
+ */
+public class ShmChannel implements ByteChannel
+{
+	/** Suffixes of the files holding a device's rings, named for the
+	 *  device's side */
+	public static final String RX_SUFFIX = ".rx";
+	public static final String TX_SUFFIX = ".tx";
+
+	/** Number of times to spin, and then to yield, before parking; spinning
+	 *  only holds up the other side when there is a single processor */
+	private static final int SPIN_ROUNDS = 
+			(Runtime.getRuntime().availableProcessors() > 1 ? 1000 : 0);
+	private static final int YIELD_ROUNDS = SPIN_ROUNDS + 1000;
+
+	/** Time to park when there has been nothing to do for a while */
+	private static final long PARK_NANOS = 50000;
+
+	private final ShmRing rx;
+	private final ShmRing tx;
+	private volatile boolean open;
+
+	/**
+	 * Create a channel over two rings.
+	 * @param rx ring from which bytes are read
+	 * @param tx ring to which bytes are written
+	 */
+	public ShmChannel(ShmRing rx, ShmRing tx)
+	{
+		this.rx = rx;
+		this.tx = tx;
+		this.open = true;
+	}
+
+	/**
+	 * Open the rings a hub created for a device.
+	 * @param dir directory holding the hub's rings
+	 * @param host hostname of the device
+	 * @return the device's side of the channel
+	 */
+	public static ShmChannel connect(File dir, String host) throws IOException
+	{
+		ShmRing rx = ShmRing.open(new File(dir, host + RX_SUFFIX));
+		ShmRing tx = ShmRing.open(new File(dir, host + TX_SUFFIX));
+
+		// Anything the hub sent to an earlier session is stale
+		rx.drain();
+		tx.setClosed(false);
+		return new ShmChannel(rx, tx);
+	}
+
+	/**
+	 * Wait a little for the other side.
+	 * @param rounds number of times already waited without progress
+	 */
+	static void idle(int rounds)
+	{
+		if (rounds < SPIN_ROUNDS)
+		{ Thread.onSpinWait(); }
+		else if (rounds < YIELD_ROUNDS)
+		{ Thread.yield(); }
+		else
+		{ LockSupport.parkNanos(PARK_NANOS); }
+	}
+
+	/**
+	 * Read the bytes waiting, waiting for at least one if there are none.
+	 * @return number of bytes read, or -1 if the other side closed its ring
+	 *         and every byte has been read
+	 */
+	public int read(ByteBuffer dst) throws IOException
+	{
+		if (!this.open)
+		{ throw new ClosedChannelException(); }
+		if (!dst.hasRemaining())
+		{ return 0; }
+		for (int rounds = 0; ; rounds++)
+		{
+			int n = this.rx.read(dst);
+			if (n > 0)
+			{ return n; }
+			if (this.rx.isClosed())
+			{
+				n = this.rx.read(dst);
+				return (n > 0 ? n : -1);
+			}
+			if (!this.open)
+			{ return -1; }
+			idle(rounds);
+		}
+	}
+
+	/**
+	 * Write all the bytes, waiting for room if the ring is full. The other
+	 * side takes only whole commands, so the bytes must fit in the ring at
+	 * once.
+	 * @return number of bytes written
+	 * @throws IOException if there are more bytes than the ring holds
+	 */
+	public int write(ByteBuffer src) throws IOException
+	{
+		if (src.remaining() > this.tx.capacity())
+		{
+			throw new IOException(String.format(
+					"%d bytes do not fit in a %d-byte ring", src.remaining(),
+					this.tx.capacity()));
+		}
+		int written = 0;
+		int rounds = 0;
+		while (src.hasRemaining())
+		{
+			if (!this.open)
+			{ throw new ClosedChannelException(); }
+			int n = this.tx.write(src);
+			if (n > 0)
+			{
+				written += n;
+				rounds = 0;
+			}
+			else
+			{ idle(rounds++); }
+		}
+		return written;
+	}
+
+	public boolean isOpen()
+	{ return this.open; }
+
+	/**
+	 * Stop using the channel and tell the other side no more bytes will be
+	 * written.
+	 */
+	public void close()
+	{
+		this.open = false;
+		this.tx.setClosed(true);
+	}
+}
@@ -0,0 +1,298 @@
+package edu.wisc.cs.sdn.vnet.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Bounded queue of bytes in a memory-mapped file, between exactly one
+ * producer and one consumer, which may be in different processes. As in
+ * the pipeline's rings, neither side takes a lock: each side writes only its
+ * own position, and keeps a cached copy of the other side's position so it
+ * reads the shared one only when the ring looks full or empty. Nothing on
+ * the path between the two sides makes a system call.
+ * <p>
+ * The file starts with the two positions, on separate cache lines, and a
+ * flag set when the producer is done; the bytes follow.
+ */
+public class ShmRing
+{
+	/** Default number of bytes a ring holds */
+	public static final int DEFAULT_CAPACITY = 1 << 20;
+
+	/** Offsets of the fields at the front of the file */
+	private static final int WRITE_POSITION = 0;
+	private static final int READ_POSITION = 64;
+	private static final int CLOSED = 128;
+	private static final int MAGIC = 132;
+	private static final int CAPACITY = 136;
+
+	/** Size of the fields at the front of the file */
+	private static final int HEADER_SIZE = 192;
+
+	/** Marks a file as holding a ring */
+	private static final int MAGIC_VALUE = 0x564e5352;
+
+	private static final VarHandle LONG_VIEW =
+			MethodHandles.byteBufferViewVarHandle(long[].class,
+					ByteOrder.nativeOrder());
+	private static final VarHandle INT_VIEW =
+			MethodHandles.byteBufferViewVarHandle(int[].class,
+					ByteOrder.nativeOrder());
+
+	private final MappedByteBuffer map;
+	private final int capacity;
+	private final int mask;
+
+	/** Next byte to fill; written only by the producer */
+	private long writePosition;
+
+	/** Next byte to take; written only by the consumer */
+	private long readPosition;
+
+	/** Producer's last view of the read position */
+	private long cachedRead;
+
+	/** Consumer's last view of the write position */
+	private long cachedWrite;
+
+	private ShmRing(MappedByteBuffer map, int capacity)
+	{
+		this.map = map;
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		this.writePosition = (long)LONG_VIEW.getAcquire(map, WRITE_POSITION);
+		this.readPosition = (long)LONG_VIEW.getAcquire(map, READ_POSITION);
+		this.cachedRead = this.readPosition;
+		this.cachedWrite = this.writePosition;
+	}
+
+	/**
+	 * Create an empty ring, replacing any file with the same name.
+	 * @param file file to hold the ring; should be on a memory-backed file
+	 *        system such as /dev/shm
+	 * @param capacity number of bytes the ring holds; rounded up to a power
+	 *        of two
+	 * @return the ring
+	 */
+	public static ShmRing create(File file, int capacity) throws IOException
+	{
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		MappedByteBuffer map;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+		{
+			raf.setLength(0);
+			raf.setLength(HEADER_SIZE + size);
+			map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+					HEADER_SIZE + size);
+		}
+		INT_VIEW.set(map, CAPACITY, size);
+		INT_VIEW.setRelease(map, MAGIC, MAGIC_VALUE);
+		return new ShmRing(map, size);
+	}
+
+	/**
+	 * Open a ring created by another process.
+	 * @param file file holding the ring
+	 * @return the ring
+	 */
+	public static ShmRing open(File file) throws IOException
+	{
+		MappedByteBuffer map;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+		{
+			long length = raf.length();
+			if (length < HEADER_SIZE)
+			{ throw new IOException("Not a ring: " + file); }
+			map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+					length);
+		}
+		int capacity = (int)INT_VIEW.get(map, CAPACITY);
+		if ((int)INT_VIEW.getAcquire(map, MAGIC) != MAGIC_VALUE
+				|| Integer.bitCount(capacity) != 1
+				|| HEADER_SIZE + capacity > map.capacity())
+		{ throw new IOException("Not a ring: " + file); }
+		return new ShmRing(map, capacity);
+	}
+
+	/**
+	 * @return number of bytes the ring holds
+	 */
+	public int capacity()
+	{ return this.capacity; }
+
+	/**
+	 * @return number of bytes waiting; may only be called by the consumer
+	 */
+	public int available()
+	{
+		if (this.readPosition >= this.cachedWrite)
+		{ this.cachedWrite = (long)LONG_VIEW.getAcquire(this.map, WRITE_POSITION); }
+		return (int)(this.cachedWrite - this.readPosition);
+	}
+
+	/**
+	 * @param needed number of bytes the producer wants to add; the read
+	 *        position is only looked at again if they do not fit
+	 * @return number of bytes that can be added without waiting; may only
+	 *         be called by the producer
+	 */
+	private int free(int needed)
+	{
+		long used = this.writePosition - this.cachedRead;
+		if (this.capacity - used < needed)
+		{
+			this.cachedRead = (long)LONG_VIEW.getAcquire(this.map, READ_POSITION);
+			used = this.writePosition - this.cachedRead;
+		}
+		return (int)(this.capacity - used);
+	}
+
+	/**
+	 * Read a big-endian int from the waiting bytes without taking it; may
+	 * only be called by the consumer.
+	 * @param offset offset of the int from the oldest waiting byte; the int
+	 *        must already be waiting
+	 * @return the int
+	 */
+	public int peekInt(int offset)
+	{
+		int value = 0;
+		for (int i = 0; i < 4; i++)
+		{
+			int index = HEADER_SIZE
+					+ ((int)(this.readPosition + offset + i) & this.mask);
+			value = (value << 8) | (this.map.get(index) & 0xff);
+		}
+		return value;
+	}
+
+	/**
+	 * Take waiting bytes; may only be called by the consumer.
+	 * @param dst array into which bytes are copied
+	 * @param offset offset in the array of the first byte
+	 * @param length most bytes to take
+	 * @return number of bytes taken; 0 if none are waiting
+	 */
+	public int read(byte[] dst, int offset, int length)
+	{
+		int n = Math.min(length, this.available());
+		if (n > 0)
+		{
+			int start = (int)this.readPosition & this.mask;
+			int first = Math.min(n, this.capacity - start);
+			this.map.get(HEADER_SIZE + start, dst, offset, first);
+			this.map.get(HEADER_SIZE, dst, offset + first, n - first);
+			this.advanceRead(n);
+		}
+		return n;
+	}
+
+	/**
+	 * Take waiting bytes; may only be called by the consumer.
+	 * @param dst buffer into which bytes are copied, at its position
+	 * @return number of bytes taken; 0 if none are waiting
+	 */
+	public int read(ByteBuffer dst)
+	{
+		int n = Math.min(dst.remaining(), this.available());
+		if (n > 0)
+		{
+			int start = (int)this.readPosition & this.mask;
+			int first = Math.min(n, this.capacity - start);
+			int pos = dst.position();
+			dst.put(pos, this.map, HEADER_SIZE + start, first);
+			dst.put(pos + first, this.map, HEADER_SIZE, n - first);
+			dst.position(pos + n);
+			this.advanceRead(n);
+		}
+		return n;
+	}
+
+	/**
+	 * Discard all waiting bytes; may only be called by the consumer.
+	 */
+	public void drain()
+	{ this.advanceRead(this.available()); }
+
+	private void advanceRead(int n)
+	{
+		this.readPosition += n;
+		LONG_VIEW.setRelease(this.map, READ_POSITION, this.readPosition);
+	}
+
+	/**
+	 * Add bytes, all or none; may only be called by the producer.
+	 * @param src array holding the bytes
+	 * @param offset offset in the array of the first byte
+	 * @param length number of bytes to add
+	 * @return false if there is not room for all of the bytes
+	 * @throws IOException if the ring could never hold all of the bytes
+	 */
+	public boolean write(byte[] src, int offset, int length)
+			throws IOException
+	{
+		if (length > this.capacity)
+		{
+			throw new IOException(String.format(
+					"%d bytes do not fit in a %d-byte ring", length,
+					this.capacity));
+		}
+		if (this.free(length) < length)
+		{ return false; }
+		int start = (int)this.writePosition & this.mask;
+		int first = Math.min(length, this.capacity - start);
+		this.map.put(HEADER_SIZE + start, src, offset, first);
+		this.map.put(HEADER_SIZE, src, offset + first, length - first);
+		this.advanceWrite(length);
+		return true;
+	}
+
+	/**
+	 * Add as many bytes as there is room for; may only be called by the
+	 * producer.
+	 * @param src buffer holding the bytes, from its position
+	 * @return number of bytes added; 0 if the ring is full
+	 */
+	public int write(ByteBuffer src)
+	{
+		int n = Math.min(src.remaining(), this.free(src.remaining()));
+		if (n > 0)
+		{
+			int start = (int)this.writePosition & this.mask;
+			int first = Math.min(n, this.capacity - start);
+			int pos = src.position();
+			this.map.put(HEADER_SIZE + start, src, pos, first);
+			this.map.put(HEADER_SIZE, src, pos + first, n - first);
+			src.position(pos + n);
+			this.advanceWrite(n);
+		}
+		return n;
+	}
+
+	private void advanceWrite(int n)
+	{
+		this.writePosition += n;
+		LONG_VIEW.setRelease(this.map, WRITE_POSITION, this.writePosition);
+	}
+
+	/**
+	 * @param closed true if the producer will add no more bytes; may only be
+	 *        called by the producer
+	 */
+	public void setClosed(boolean closed)
+	{ INT_VIEW.setRelease(this.map, CLOSED, closed ? 1 : 0); }
+
+	/**
+	 * @return true if the producer will add no more bytes, although some may
+	 *         still be waiting
+	 */
+	public boolean isClosed()
+	{ return (int)INT_VIEW.getAcquire(this.map, CLOSED) != 0; }
+}
@@ -0,0 +1,195 @@
+package edu.wisc.cs.sdn.vnet.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+import edu.wisc.cs.sdn.vnet.vns.Command;
+import edu.wisc.cs.sdn.vnet.vns.CommandPacket;
+
+/**
+ * Compares the shared-memory rings with a loopback TCP connection, the
+ * path a command takes to the server, by sending packet commands to a
+ * thread that echoes them back. Latency is the round trip of one command
+ * at a time; throughput is how fast a stream of commands comes back.
+ */
+public class TransportBenchmark
+{
+	/** Default size of a frame, and number of commands sent */
+	private static final int DEFAULT_FRAME_SIZE = 64;
+	private static final int DEFAULT_COUNT = 100000;
+
+	/**
+	 * Send back everything read from a channel until it is closed.
+	 * @param channel channel to echo
+	 */
+	private static void echo(ByteChannel channel)
+	{
+		ByteBuffer buf = ByteBuffer.allocateDirect(64 * 1024);
+		try
+		{
+			while (channel.read(buf) >= 0)
+			{
+				buf.flip();
+				while (buf.hasRemaining())
+				{ channel.write(buf); }
+				buf.clear();
+			}
+		}
+		catch (IOException e)
+		{ }
+	}
+
+	/**
+	 * Read exactly the given number of bytes.
+	 */
+	private static void readFully(ByteChannel channel, ByteBuffer buf,
+			int length) throws IOException
+	{
+		buf.clear();
+		buf.limit(length);
+		while (buf.hasRemaining())
+		{
+			if (channel.read(buf) < 0)
+			{ throw new IOException("Channel closed"); }
+		}
+	}
+
+	/**
+	 * Time commands echoed over a channel.
+	 * @param channel channel whose other end echoes what it reads
+	 * @param frameSize size of the frame in each command
+	 * @param count number of commands to send for each measurement
+	 * @return median and 99th percentile round trip in microseconds, and
+	 *         commands per second when streaming
+	 */
+	private static double[] measure(final ByteChannel channel, int frameSize,
+			final int count) throws Exception
+	{
+		final int len = CommandPacket.HEADER_SIZE + frameSize;
+		final ByteBuffer cmd = ByteBuffer.allocateDirect(len);
+		cmd.putInt(len);
+		cmd.putInt(Command.VNS_PACKET);
+		cmd.put("eth1".getBytes());
+		cmd.clear();
+		ByteBuffer reply = ByteBuffer.allocateDirect(64 * 1024);
+
+		// One command at a time
+		long[] rtts = new long[count];
+		for (int i = 0; i < count; i++)
+		{
+			long start = System.nanoTime();
+			cmd.clear();
+			while (cmd.hasRemaining())
+			{ channel.write(cmd); }
+			readFully(channel, reply, len);
+			rtts[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(rtts);
+
+		// A stream of commands, sent on another thread
+		Thread sender = new Thread()
+		{
+			public void run()
+			{
+				ByteBuffer out = cmd.duplicate();
+				try
+				{
+					for (int i = 0; i < count; i++)
+					{
+						out.clear();
+						while (out.hasRemaining())
+						{ channel.write(out); }
+					}
+				}
+				catch (IOException e)
+				{ e.printStackTrace(); }
+			}
+		};
+		long start = System.nanoTime();
+		sender.start();
+		long remaining = (long)len * count;
+		while (remaining > 0)
+		{
+			reply.clear();
+			reply.limit((int)Math.min(reply.capacity(), remaining));
+			int n = channel.read(reply);
+			if (n < 0)
+			{ throw new IOException("Channel closed"); }
+			remaining -= n;
+		}
+		long elapsed = System.nanoTime() - start;
+		sender.join();
+
+		return new double[] { rtts[count / 2] / 1000.0,
+				rtts[(int)(count * 0.99)] / 1000.0,
+				count / (elapsed / 1e9) };
+	}
+
+	private static void report(String transport, double[] result)
+	{
+		System.out.println(String.format("%s\t%.1f us\t%.1f us\t%.0f",
+				transport, result[0], result[1], result[2]));
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		int frameSize = DEFAULT_FRAME_SIZE;
+		int count = DEFAULT_COUNT;
+		String dirName = Hub.DEFAULT_DIR;
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-s"))
+			{ frameSize = Integer.parseInt(args[++i]); }
+			else if (args[i].equals("-n"))
+			{ count = Integer.parseInt(args[++i]); }
+			else if (args[i].equals("-d"))
+			{ dirName = args[++i]; }
+		}
+		System.out.println(String.format("%d commands with %dB frames",
+				count, frameSize));
+		System.out.println("transport\tmedian rtt\tp99 rtt\tcommands/s");
+
+		// Shared-memory rings, as between a device and the hub
+		File dir = new File(dirName);
+		dir.mkdirs();
+		File toEcho = new File(dir, "benchmark" + ShmChannel.TX_SUFFIX);
+		File fromEcho = new File(dir, "benchmark" + ShmChannel.RX_SUFFIX);
+		ShmRing a = ShmRing.create(toEcho, ShmRing.DEFAULT_CAPACITY);
+		ShmRing b = ShmRing.create(fromEcho, ShmRing.DEFAULT_CAPACITY);
+		final ShmChannel shmEcho = new ShmChannel(a, b);
+		ShmChannel shm = new ShmChannel(ShmRing.open(fromEcho),
+				ShmRing.open(toEcho));
+		Thread shmEchoThread = new Thread()
+		{ public void run() { echo(shmEcho); } };
+		shmEchoThread.start();
+		report("shm", measure(shm, frameSize, count));
+		shm.close();
+		shmEchoThread.join();
+		toEcho.delete();
+		fromEcho.delete();
+
+		// Loopback TCP, as between a device and the server
+		ServerSocketChannel listener = ServerSocketChannel.open();
+		listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		SocketChannel tcp = SocketChannel.open(listener.getLocalAddress());
+		tcp.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		final SocketChannel tcpEcho = listener.accept();
+		tcpEcho.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		Thread tcpEchoThread = new Thread()
+		{ public void run() { echo(tcpEcho); } };
+		tcpEchoThread.start();
+		report("tcp", measure(tcp, frameSize, count));
+		tcp.close();
+		tcpEchoThread.join();
+		tcpEcho.close();
+		listener.close();
+	}
+}
@@ -0,0 +1,88 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+
+/**
+ * The ports a switch floods broadcast and unknown unicast frames to within
+ * a single VLAN. The egress port lists are computed ahead of time for every
+ * possible ingress port.
+ */
+public class FloodDomain 
+{
+	/** Ports that receive untagged copies, indexed by the interface index
+	 *  of the ingress port */
+	private final List<Iface>[] untaggedPorts;
+	
+	/** Ports that receive tagged copies, indexed by the interface index of
+	 *  the ingress port */
+	private final List<Iface>[] taggedPorts;
+	
+	/**
+	 * Create a flood domain.
+	 * @param untagged ports in the domain that send untagged frames
+	 * @param tagged ports in the domain that send tagged frames
+	 */
+	public FloodDomain(Collection<Iface> untagged, Collection<Iface> tagged)
+	{
+		List<Iface> members = new ArrayList<Iface>(untagged);
+		members.addAll(tagged);
+		int size = 0;
+		for (Iface inIface : members)
+		{ size = Math.max(size, inIface.getIndex() + 1); }
+		
+		this.untaggedPorts = newPortLists(size);
+		this.taggedPorts = newPortLists(size);
+		for (Iface inIface : members)
+		{
+			this.untaggedPorts[inIface.getIndex()] = 
+					exclude(untagged, inIface);
+			this.taggedPorts[inIface.getIndex()] = exclude(tagged, inIface);
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static List<Iface>[] newPortLists(int size)
+	{ return (List<Iface>[])new List<?>[size]; }
+	
+	private static List<Iface> get(List<Iface>[] ports, Iface inIface)
+	{
+		int index = inIface.getIndex();
+		return (index < ports.length) ? ports[index] : null;
+	}
+	
+	private static List<Iface> exclude(Collection<Iface> ifaces, Iface iface)
+	{
+		List<Iface> result = new ArrayList<Iface>(ifaces);
+		result.remove(iface);
+		return Collections.unmodifiableList(result);
+	}
+	
+	/**
+	 * @param inIface port on which a frame was received
+	 * @return ports that should receive an untagged copy of the frame
+	 */
+	public List<Iface> getUntaggedPorts(Iface inIface)
+	{
+		List<Iface> ports = get(this.untaggedPorts, inIface);
+		if (null == ports)
+		{ return Collections.emptyList(); }
+		return ports;
+	}
+	
+	/**
+	 * @param inIface port on which a frame was received
+	 * @return ports that should receive a tagged copy of the frame
+	 */
+	public List<Iface> getTaggedPorts(Iface inIface)
+	{
+		List<Iface> ports = get(this.taggedPorts, inIface);
+		if (null == ports)
+		{ return Collections.emptyList(); }
+		return ports;
+	}
+}
@@ -2,8 +2,11 @@ package edu.wisc.cs.sdn.vnet.sw;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import edu.wisc.cs.sdn.vnet.Iface;
+import edu.wisc.cs.sdn.vnet.Scheduler;
 
 import net.floodlightcontroller.packet.MACAddress;
 
@@ -16,11 +19,14 @@ public class MACTable implements Runnable
 	/** Timeout (in milliseconds) for entries in the MAC table */
 	public static final int TIMEOUT = 15 * 1000;
 	
-	/** Entries in the MAC table */
-	private Map<MACAddress,MACTableEntry> entries;
+	/** VLAN used for all entries when the switch is not VLAN aware */
+	public static final short NO_VLAN = 0;
 	
-	/** Thread for timing out requests and entries in the cache */
-	private Thread timeoutThread;
+	/** Entries in the MAC table; maps a (VLAN, MAC address) key to an entry */
+	private Map<Long,MACTableEntry> entries;
+	
+	/** Task timing out entries on the shared scheduler */
+	private ScheduledFuture<?> timeoutTask;
 
 	/**
 	 * Initializes an empty MAC learning table for a switch.
@@ -28,28 +34,80 @@ public class MACTable implements Runnable
 	 */
 	public MACTable()
 	{
-		this.entries = new ConcurrentHashMap<MACAddress, MACTableEntry>();
-		timeoutThread = new Thread(this);
-		timeoutThread.start();
+		this.entries = new ConcurrentHashMap<Long, MACTableEntry>();
+		this.timeoutTask = Scheduler.getShared().scheduleAtFixedRate(this,
+				1, 1, TimeUnit.SECONDS);
 	}
 	
+	/**
+	 * Stop timing out entries.
+	 */
+	public void stop()
+	{ this.timeoutTask.cancel(false); }
+	
 	public void insert(MACAddress macAddress, Iface iface)
+	{ this.insert(NO_VLAN, macAddress, iface); }
+	
+	public MACTableEntry lookup(MACAddress macAddress) 
+	{ return this.lookup(NO_VLAN, macAddress); }
+	
+	/**
+	 * Learn the interface out which a MAC address is reachable in a VLAN.
+	 * @param vlan VLAN in which the MAC address was seen
+	 * @param macAddress MAC address
+	 * @param iface interface on which the MAC address was seen
+	 */
+	public void insert(short vlan, MACAddress macAddress, Iface iface)
+	{ this.insert(vlan, macAddress.toLong(), iface); }
+	
+	/**
+	 * Learn the interface out which a MAC address is reachable in a VLAN.
+	 * @param vlan VLAN in which the MAC address was seen
+	 * @param macAddress MAC address as a long
+	 * @param iface interface on which the MAC address was seen
+	 */
+	public void insert(short vlan, long macAddress, Iface iface)
 	{
-		MACTableEntry entry = this.lookup(macAddress);
+		MACTableEntry entry = this.lookup(vlan, macAddress);
 		if(entry != null)
 		{ entry.update(iface); }
 		else
 		{ 
-			entry = new MACTableEntry(macAddress, iface);
-			this.entries.put(macAddress, entry); 
+			entry = new MACTableEntry(vlan, MACAddress.valueOf(macAddress), 
+					iface);
+			this.entries.put(entry.getKey(), entry); 
 		}
 	}
 	
-	public MACTableEntry lookup(MACAddress macAddress) 
+	/**
+	 * Lookup the interface out which a MAC address is reachable in a VLAN.
+	 * @param vlan VLAN in which to look for the MAC address
+	 * @param macAddress MAC address
+	 * @return the matching entry; null if none exists
+	 */
+	public MACTableEntry lookup(short vlan, MACAddress macAddress) 
+	{ return this.lookup(vlan, macAddress.toLong()); }
+	
+	/**
+	 * Lookup the interface out which a MAC address is reachable in a VLAN.
+	 * @param vlan VLAN in which to look for the MAC address
+	 * @param macAddress MAC address as a long
+	 * @return the matching entry; null if none exists
+	 */
+	public MACTableEntry lookup(short vlan, long macAddress) 
+	{ return this.entries.get(MACTableEntry.getKey(vlan, macAddress)); }
+	
+	/**
+	 * Remove all entries learned on an interface.
+	 * @param iface interface whose entries should be removed
+	 */
+	public void flush(Iface iface)
 	{
-		if (this.entries.containsKey(macAddress))
-		{ return this.entries.get(macAddress); }
-		return null;
+		for (MACTableEntry entry : this.entries.values())
+		{
+			if (entry.getInterface() == iface)
+			{ this.entries.remove(entry.getKey()); }
+		}
 	}
 	
 	/**
@@ -57,21 +115,11 @@ public class MACTable implements Runnable
 	 */
 	public void run()
 	{
-		while (true)
+		for (MACTableEntry entry : this.entries.values())
 		{
-			// Run every second
-			try 
-			{ Thread.sleep(1000); }
-			catch (InterruptedException e) 
-			{ break; }
-			
-			// Timeout entries
-			for (MACTableEntry entry : this.entries.values())
-			{
-				if ((System.currentTimeMillis() - entry.getTimeUpdated()) 
-						> TIMEOUT)
-				{ this.entries.remove(entry.getMACAddress()); }
-			}
+			if ((System.currentTimeMillis() - entry.getTimeUpdated()) 
+					> TIMEOUT)
+			{ this.entries.remove(entry.getKey()); }
 		}
 	}
 }
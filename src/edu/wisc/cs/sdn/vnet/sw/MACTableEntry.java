@@ -11,12 +11,15 @@ public class MACTableEntry
 {
 	/** MAC address */
 	private MACAddress macAddress;
+	
+	/** VLAN in which the MAC address was seen */
+	private short vlan;
 
 	/** Switch interface out which packets should be sent to reach the MAC */
-	private Iface iface;
+	private volatile Iface iface;
 	
 	/** Time (in milliseconds since the epoch) the entry was updated */
-	private long timeUpdated;
+	private volatile long timeUpdated;
 	
 	/**
 	 * Create a new MAC table entry.
@@ -25,7 +28,18 @@ public class MACTableEntry
 	 *        be sent to reach the MAC address
 	 */
 	public MACTableEntry(MACAddress macAddress, Iface iface)
+	{ this(MACTable.NO_VLAN, macAddress, iface); }
+	
+	/**
+	 * Create a new MAC table entry for a specific VLAN.
+	 * @param vlan VLAN in which the MAC address was seen
+	 * @param macAddress MAC addresses
+	 * @param iface switch interface out which packets should be sent to 
+	 *        reach the MAC address
+	 */
+	public MACTableEntry(short vlan, MACAddress macAddress, Iface iface)
 	{
+		this.vlan = vlan;
 		this.macAddress = macAddress;
 		this.iface = iface;
 		this.timeUpdated = System.currentTimeMillis();
@@ -39,6 +53,34 @@ public class MACTableEntry
 	
 	public MACAddress getMACAddress() 
 	{ return this.macAddress; }
+	
+	/**
+	 * @return VLAN in which the MAC address was seen
+	 */
+	public short getVlan()
+	{ return this.vlan; }
+	
+	/**
+	 * @return key identifying the entry in a MAC table
+	 */
+	public long getKey()
+	{ return getKey(this.vlan, this.macAddress); }
+	
+	/**
+	 * @param vlan VLAN
+	 * @param macAddress MAC address
+	 * @return key identifying a (VLAN, MAC address) pair in a MAC table
+	 */
+	public static long getKey(short vlan, MACAddress macAddress)
+	{ return getKey(vlan, macAddress.toLong()); }
+	
+	/**
+	 * @param vlan VLAN
+	 * @param macAddress MAC address as a long
+	 * @return key identifying a (VLAN, MAC address) pair in a MAC table
+	 */
+	public static long getKey(short vlan, long macAddress)
+	{ return ((long)(vlan & 0xfff) << 48) | macAddress; }
 
 	public Iface getInterface()
 	{ return this.iface; }
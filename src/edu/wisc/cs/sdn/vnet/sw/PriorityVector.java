@@ -0,0 +1,96 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+/**
+ * A spanning tree priority vector. Vectors are compared field by field; a
+ * smaller vector is better.
+ */
+public class PriorityVector implements Comparable<PriorityVector>
+{
+	/** Identifier of the root bridge */
+	private long rootId;
+	
+	/** Cost of the path to the root bridge */
+	private int rootPathCost;
+	
+	/** Identifier of the designated bridge for the segment */
+	private long designatedBridgeId;
+	
+	/** Identifier of the designated port for the segment */
+	private int designatedPortId;
+	
+	/**
+	 * Create a priority vector.
+	 * @param rootId identifier of the root bridge
+	 * @param rootPathCost cost of the path to the root bridge
+	 * @param designatedBridgeId identifier of the designated bridge
+	 * @param designatedPortId identifier of the designated port
+	 */
+	public PriorityVector(long rootId, int rootPathCost, 
+			long designatedBridgeId, int designatedPortId)
+	{
+		this.rootId = rootId;
+		this.rootPathCost = rootPathCost;
+		this.designatedBridgeId = designatedBridgeId;
+		this.designatedPortId = designatedPortId & 0xffff;
+	}
+	
+	public long getRootId()
+	{ return this.rootId; }
+	
+	public int getRootPathCost()
+	{ return this.rootPathCost; }
+	
+	public long getDesignatedBridgeId()
+	{ return this.designatedBridgeId; }
+	
+	public int getDesignatedPortId()
+	{ return this.designatedPortId; }
+	
+	/**
+	 * @param other another priority vector
+	 * @return true if both vectors were sent by the same port of the same
+	 *         bridge
+	 */
+	public boolean isSameDesignated(PriorityVector other)
+	{
+		return (this.designatedBridgeId == other.designatedBridgeId)
+				&& (this.designatedPortId == other.designatedPortId);
+	}
+	
+	public int compareTo(PriorityVector other)
+	{
+		int result = Long.compareUnsigned(this.rootId, other.rootId);
+		if (result != 0)
+		{ return result; }
+		result = Integer.compareUnsigned(this.rootPathCost, 
+				other.rootPathCost);
+		if (result != 0)
+		{ return result; }
+		result = Long.compareUnsigned(this.designatedBridgeId, 
+				other.designatedBridgeId);
+		if (result != 0)
+		{ return result; }
+		return Integer.compare(this.designatedPortId, other.designatedPortId);
+	}
+	
+	public boolean equals(Object obj)
+	{
+		if (!(obj instanceof PriorityVector))
+		{ return false; }
+		return (0 == this.compareTo((PriorityVector)obj));
+	}
+	
+	public int hashCode()
+	{ 
+		return Long.hashCode(this.rootId) + 31 * this.rootPathCost
+				+ 961 * Long.hashCode(this.designatedBridgeId)
+				+ this.designatedPortId;
+	}
+	
+	public String toString()
+	{
+		return String.format("{root=%016x, cost=%d, bridge=%016x, port=%04x}",
+				this.rootId, this.rootPathCost, this.designatedBridgeId,
+				this.designatedPortId);
+	}
+}
@@ -0,0 +1,713 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.packet.BPDU;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.MACAddress;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+import edu.wisc.cs.sdn.vnet.Scheduler;
+
+/**
+ * A rapid spanning tree (IEEE 802.1w) bridge. Ports are blocked until the
+ * bridge on the other end of the segment agrees that they can forward, or
+ * until they are found to be edge ports; the proposal/agreement handshake
+ * lets a tree converge in a few round trips instead of waiting out the
+ * forward delay.
+ */
+public class SpanningTree 
+{
+	/** Default bridge priority */
+	public static final int DEFAULT_PRIORITY = 32768;
+	
+	/** Default port priority */
+	public static final int DEFAULT_PORT_PRIORITY = 128;
+	
+	/** Default port path cost (100 Mb/s link) */
+	public static final int DEFAULT_PATH_COST = 200000;
+	
+	/** Interval (in milliseconds) between BPDUs sent on designated ports */
+	public static final int HELLO_TIME = 2 * 1000;
+	
+	/** Maximum age (in milliseconds) of information from the root */
+	public static final int MAX_AGE = 20 * 1000;
+	
+	/** Time (in milliseconds) spent in each of the discarding and learning
+	 *  states by a port that never receives an agreement */
+	public static final int FORWARD_DELAY = 15 * 1000;
+	
+	/** Time (in milliseconds) after which a designated port that has not 
+	 *  received any BPDUs is treated as an edge port; the migrate time 
+	 *  (3 hello times) used by 802.1D, so a neighbor whose first BPDU is 
+	 *  lost or late still gets a repeated proposal before the port forwards */
+	public static final int EDGE_DELAY = 3 * HELLO_TIME;
+	
+	/** Interval (in milliseconds) at which timers are checked */
+	private static final int TICK_INTERVAL = 50;
+	
+	/** Switch running the protocol */
+	private Switch sw;
+	
+	/** MAC table flushed on topology changes */
+	private MACTable macTable;
+	
+	/** MAC address used as the source of BPDUs and in the bridge ID */
+	private MACAddress bridgeMac;
+	
+	/** Bridge identifier (priority and MAC address) */
+	private long bridgeId;
+	
+	/** Ports participating in the protocol, in port ID order */
+	private volatile List<StpPort> ports;
+	
+	/** Ports participating in the protocol, indexed by interface index */
+	private volatile StpPort[] portTable;
+	
+	/** Interfaces configured as edge ports */
+	private List<Iface> adminEdgeIfaces;
+	
+	/** Identifier of the current root bridge */
+	private long rootId;
+	
+	/** Cost of the path to the current root bridge */
+	private int rootPathCost;
+	
+	/** Port on the path to the root bridge; null if this bridge is root */
+	private StpPort rootPort;
+	
+	/** Message age of the root information, in units of 1/256 seconds */
+	private int rootMsgAge;
+	
+	/** Number of topology changes detected by this bridge */
+	private long topologyChanges;
+	
+	/** Number of topology change notifications received from neighbors */
+	private long topologyChangesReceived;
+	
+	/** Time (in milliseconds since the epoch) of the last topology change */
+	private long timeLastTopologyChange;
+	
+	/** Time (in milliseconds since the epoch) hello BPDUs are next sent */
+	private long nextHello;
+	
+	/** True if a port role or state changed since the tree was reported */
+	private boolean changed;
+	
+	/** Task running the protocol timers on the shared scheduler */
+	private ScheduledFuture<?> timer;
+	
+	/**
+	 * Create a spanning tree bridge for a switch.
+	 * @param sw switch running the protocol
+	 * @param macTable MAC table to flush on topology changes
+	 * @param bridgeMac MAC address of the bridge
+	 */
+	public SpanningTree(Switch sw, MACTable macTable, MACAddress bridgeMac)
+	{
+		this.sw = sw;
+		this.macTable = macTable;
+		this.bridgeMac = bridgeMac;
+		this.ports = Collections.emptyList();
+		this.portTable = new StpPort[0];
+		this.adminEdgeIfaces = new ArrayList<Iface>();
+		this.setPriority(DEFAULT_PRIORITY);
+		this.timer = null;
+	}
+	
+	/**
+	 * @param priority bridge priority; must be a multiple of 4096
+	 */
+	public synchronized void setPriority(int priority)
+	{
+		this.bridgeId = ((long)(priority & 0xf000) << 48) 
+				| this.bridgeMac.toLong();
+		this.rootId = this.bridgeId;
+	}
+	
+	/**
+	 * @param iface interface to always treat as an edge port
+	 */
+	public synchronized void setAdminEdge(Iface iface)
+	{ this.adminEdgeIfaces.add(iface); }
+	
+	/**
+	 * @return bridge identifier
+	 */
+	public long getBridgeId()
+	{ return this.bridgeId; }
+	
+	/**
+	 * @return identifier of the current root bridge
+	 */
+	public synchronized long getRootId()
+	{ return this.rootId; }
+	
+	/**
+	 * @return number of topology changes detected by this bridge
+	 */
+	public synchronized long getTopologyChangeCount()
+	{ return this.topologyChanges; }
+	
+	/**
+	 * @return number of topology change notifications received
+	 */
+	public synchronized long getTopologyChangesReceived()
+	{ return this.topologyChangesReceived; }
+	
+	/**
+	 * @return true if the protocol is running
+	 */
+	public boolean isRunning()
+	{ return (this.timer != null); }
+	
+	/**
+	 * @param iface switch interface
+	 * @return the spanning tree port for the interface; null if the 
+	 *         interface does not participate in the protocol
+	 */
+	public StpPort getPort(Iface iface)
+	{
+		StpPort[] table = this.portTable;
+		int index = iface.getIndex();
+		return (index < table.length) ? table[index] : null;
+	}
+	
+	/**
+	 * @return all ports participating in the protocol
+	 */
+	public Collection<StpPort> getPorts()
+	{ return this.ports; }
+	
+	/**
+	 * Start running the protocol on a set of interfaces. All ports start out
+	 * as designated ports in the discarding state.
+	 * @param ifaces interfaces on which to run the protocol
+	 */
+	public synchronized void start(Collection<Iface> ifaces)
+	{
+		List<Iface> sorted = new ArrayList<Iface>(ifaces);
+		Collections.sort(sorted, new Comparator<Iface>() {
+			public int compare(Iface a, Iface b)
+			{ return a.getName().compareTo(b.getName()); }
+		});
+		
+		long now = System.currentTimeMillis();
+		List<StpPort> newPorts = new ArrayList<StpPort>();
+		StpPort[] newTable = new StpPort[0];
+		for (int i = 0; i < sorted.size(); i++)
+		{
+			Iface iface = sorted.get(i);
+			int portId = (DEFAULT_PORT_PRIORITY << 8) | ((i + 1) & 0xfff);
+			StpPort port = new StpPort(iface, portId, DEFAULT_PATH_COST);
+			port.adminEdge = this.adminEdgeIfaces.contains(iface);
+			port.timeUp = now;
+			newPorts.add(port);
+			if (iface.getIndex() >= newTable.length)
+			{ newTable = Arrays.copyOf(newTable, iface.getIndex() + 1); }
+			newTable[iface.getIndex()] = port;
+		}
+		this.ports = Collections.unmodifiableList(newPorts);
+		this.portTable = newTable;
+		this.nextHello = now + HELLO_TIME;
+		this.changed = true;
+		this.updateRoles(now);
+		this.transmitPending(now);
+		this.reportChanges();
+		
+		this.timer = Scheduler.getShared().scheduleAtFixedRate(this::tick,
+				TICK_INTERVAL, TICK_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Stop running the protocol.
+	 */
+	public synchronized void stop()
+	{
+		if (this.timer != null)
+		{ this.timer.cancel(false); }
+	}
+	
+	/**
+	 * Process a BPDU received on a port.
+	 * @param bpdu the BPDU that was received
+	 * @param inIface the interface on which the BPDU was received
+	 */
+	public synchronized void receive(BPDU bpdu, Iface inIface)
+	{
+		StpPort port = this.getPort(inIface);
+		if (null == port || StpPort.Role.DISABLED == port.getRole())
+		{ return; }
+		long now = System.currentTimeMillis();
+		
+		// A port that hears BPDUs is not an edge port
+		if (port.operEdge)
+		{ port.operEdge = false; }
+		port.bpduSeen = true;
+		
+		if (BPDU.TYPE_TCN == bpdu.getType())
+		{
+			this.receivedTopologyChange(port, now);
+			this.updateRoles(now);
+			this.transmitPending(now);
+			this.reportChanges();
+			return;
+		}
+		
+		PriorityVector msg = new PriorityVector(bpdu.getRootId(), 
+				bpdu.getRootPathCost(), bpdu.getBridgeId(), bpdu.getPortId());
+		int msgAge = bpdu.getMessageAge() & 0xffff;
+		int maxAge = bpdu.getMaxAge() & 0xffff;
+		boolean expired = (maxAge != 0 && msgAge >= maxAge);
+		
+		byte role = bpdu.getPortRole();
+		if (BPDU.PORT_ROLE_DESIGNATED == role && !expired)
+		{
+			if (null == port.msgVector || msg.compareTo(port.msgVector) <= 0
+					|| msg.isSameDesignated(port.msgVector))
+			{
+				// Superior or repeated information from the designated port
+				port.msgVector = msg;
+				port.msgAge = msgAge;
+				port.msgExpires = now + 3 * HELLO_TIME;
+				port.proposed = bpdu.isFlagSet(BPDU.FLAG_PROPOSAL);
+			}
+			else
+			{
+				// Inferior information; make sure the sender hears our
+				// (better) information
+				port.txPending = true;
+			}
+		}
+		else if ((BPDU.PORT_ROLE_ROOT == role 
+					|| BPDU.PORT_ROLE_ALTERNATE_BACKUP == role)
+				&& bpdu.isFlagSet(BPDU.FLAG_AGREEMENT))
+		{
+			if (StpPort.Role.DESIGNATED == port.getRole()
+					&& bpdu.getRootId() == this.rootId)
+			{
+				port.agreed = true;
+				port.proposing = false;
+			}
+		}
+		
+		if (bpdu.isFlagSet(BPDU.FLAG_TOPOLOGY_CHANGE))
+		{ this.receivedTopologyChange(port, now); }
+		
+		this.updateRoles(now);
+		this.transmitPending(now);
+		this.reportChanges();
+	}
+	
+	/**
+	 * Age out received information, detect edge ports, run the forward delay
+	 * fallback, and send hello BPDUs.
+	 */
+	private synchronized void tick()
+	{
+		long now = System.currentTimeMillis();
+		boolean recompute = false;
+		for (StpPort port : this.ports)
+		{
+			if (port.msgVector != null && now >= port.msgExpires)
+			{
+				port.msgVector = null;
+				port.proposed = false;
+				recompute = true;
+			}
+			
+			if (!port.bpduSeen && !port.operEdge && port.proposing
+					&& now - port.timeUp >= EDGE_DELAY)
+			{
+				port.operEdge = true;
+				recompute = true;
+			}
+			
+			if (port.forwardDelayExpires != 0 
+					&& now >= port.forwardDelayExpires)
+			{
+				if (StpPort.State.DISCARDING == port.getState())
+				{
+					this.setState(port, StpPort.State.LEARNING, now);
+					port.forwardDelayExpires = now + FORWARD_DELAY;
+				}
+				else
+				{
+					this.setState(port, StpPort.State.FORWARDING, now);
+					port.forwardDelayExpires = 0;
+				}
+			}
+		}
+		if (recompute)
+		{ this.updateRoles(now); }
+		
+		// Hellos on designated ports repeat any proposal that has not been
+		// agreed to
+		if (now >= this.nextHello)
+		{
+			for (StpPort port : this.ports)
+			{
+				if (StpPort.Role.DESIGNATED == port.getRole())
+				{ port.txPending = true; }
+			}
+			this.nextHello = now + HELLO_TIME;
+		}
+		
+		this.transmitPending(now);
+		this.reportChanges();
+	}
+	
+	/**
+	 * Select the root port and assign a role to every port, then move each
+	 * port to the state its role allows.
+	 * @param now current time in milliseconds since the epoch
+	 */
+	private void updateRoles(long now)
+	{
+		// Select the root port
+		PriorityVector rootVector = new PriorityVector(this.bridgeId, 0, 
+				this.bridgeId, 0);
+		StpPort newRootPort = null;
+		for (StpPort port : this.ports)
+		{
+			PriorityVector msg = port.msgVector;
+			if (null == msg || msg.getDesignatedBridgeId() == this.bridgeId)
+			{ continue; }
+			PriorityVector candidate = new PriorityVector(msg.getRootId(),
+					msg.getRootPathCost() + port.getPathCost(),
+					msg.getDesignatedBridgeId(), msg.getDesignatedPortId());
+			int cmp = candidate.compareTo(rootVector);
+			if (cmp < 0 || (0 == cmp && newRootPort != null 
+					&& port.getPortId() < newRootPort.getPortId()))
+			{
+				rootVector = candidate;
+				newRootPort = port;
+			}
+		}
+		
+		boolean rootChanged = (newRootPort != this.rootPort)
+				|| (rootVector.getRootId() != this.rootId)
+				|| (rootVector.getRootPathCost() != this.rootPathCost);
+		this.rootPort = newRootPort;
+		this.rootId = rootVector.getRootId();
+		this.rootPathCost = rootVector.getRootPathCost();
+		this.rootMsgAge = (null == newRootPort ? 0 : newRootPort.msgAge + 256);
+		
+		// Assign roles
+		Map<StpPort,StpPort.Role> roles = new HashMap<StpPort,StpPort.Role>();
+		for (StpPort port : this.ports)
+		{
+			PriorityVector designated = new PriorityVector(this.rootId, 
+					this.rootPathCost, this.bridgeId, port.getPortId());
+			StpPort.Role role;
+			if (port == newRootPort)
+			{ role = StpPort.Role.ROOT; }
+			else if (null == port.msgVector 
+					|| designated.compareTo(port.msgVector) < 0)
+			{ role = StpPort.Role.DESIGNATED; }
+			else if (port.msgVector.getDesignatedBridgeId() == this.bridgeId)
+			{ role = StpPort.Role.BACKUP; }
+			else
+			{ role = StpPort.Role.ALTERNATE; }
+			
+			if (role != port.getRole())
+			{
+				port.setRole(role);
+				port.agreed = false;
+				port.proposing = false;
+				port.forwardDelayExpires = 0;
+				port.txPending = true;
+				this.changed = true;
+			}
+			roles.put(port, role);
+		}
+		
+		// New root information invalidates agreements given for the old
+		// information, and a proposal on the root port must be answered 
+		// only once all other ports are in sync
+		if (rootChanged || (newRootPort != null && newRootPort.proposed))
+		{ this.sync(rootChanged); }
+		
+		// Block ports before unblocking the root port
+		for (StpPort port : this.ports)
+		{
+			if (port != newRootPort)
+			{ this.updateState(port, now); }
+		}
+		if (newRootPort != null)
+		{ this.updateState(newRootPort, now); }
+	}
+	
+	/**
+	 * Make sure every non-edge designated port is either discarding or has
+	 * an agreement for the current root information.
+	 * @param resetAgreements true if existing agreements are no longer valid
+	 */
+	private void sync(boolean resetAgreements)
+	{
+		for (StpPort port : this.ports)
+		{
+			if (StpPort.Role.DESIGNATED != port.getRole() || port.isEdge())
+			{ continue; }
+			if (resetAgreements)
+			{ port.agreed = false; }
+			if (!port.agreed && StpPort.State.DISCARDING != port.getState())
+			{ port.proposing = false; }
+		}
+	}
+	
+	/**
+	 * Move a port to the state allowed by its role.
+	 * @param port port to update
+	 * @param now current time in milliseconds since the epoch
+	 */
+	private void updateState(StpPort port, long now)
+	{
+		switch (port.getRole())
+		{
+		case ROOT:
+			port.proposing = false;
+			port.forwardDelayExpires = 0;
+			this.setState(port, StpPort.State.FORWARDING, now);
+			if (port.proposed)
+			{
+				port.proposed = false;
+				port.sendAgreement = true;
+				port.txPending = true;
+			}
+			break;
+			
+		case DESIGNATED:
+			if (port.isEdge() || port.agreed)
+			{
+				port.proposing = false;
+				port.forwardDelayExpires = 0;
+				this.setState(port, StpPort.State.FORWARDING, now);
+			}
+			else if (!port.proposing)
+			{
+				port.proposing = true;
+				port.forwardDelayExpires = now + FORWARD_DELAY;
+				port.txPending = true;
+				this.setState(port, StpPort.State.DISCARDING, now);
+			}
+			break;
+			
+		case ALTERNATE:
+		case BACKUP:
+			port.proposing = false;
+			port.agreed = false;
+			port.forwardDelayExpires = 0;
+			this.setState(port, StpPort.State.DISCARDING, now);
+			if (port.proposed)
+			{
+				// A discarding port can always agree
+				port.proposed = false;
+				port.sendAgreement = true;
+				port.txPending = true;
+			}
+			break;
+			
+		default:
+			this.setState(port, StpPort.State.DISCARDING, now);
+			break;
+		}
+	}
+	
+	/**
+	 * Change the state of a port.
+	 * @param port port to update
+	 * @param state new state for the port
+	 * @param now current time in milliseconds since the epoch
+	 */
+	private void setState(StpPort port, StpPort.State state, long now)
+	{
+		if (port.getState() == state)
+		{ return; }
+		port.setState(state);
+		this.changed = true;
+		
+		if (StpPort.State.DISCARDING == state)
+		{ this.macTable.flush(port.getInterface()); }
+		else if (StpPort.State.FORWARDING == state && !port.isEdge())
+		{ this.detectedTopologyChange(port, now); }
+		
+		this.sw.spanningTreeChanged();
+	}
+	
+	/**
+	 * Handle a topology change detected when a non-edge port starts 
+	 * forwarding.
+	 * @param port port that started forwarding
+	 * @param now current time in milliseconds since the epoch
+	 */
+	private void detectedTopologyChange(StpPort port, long now)
+	{
+		this.topologyChanges++;
+		this.timeLastTopologyChange = now;
+		this.propagateTopologyChange(port, now);
+	}
+	
+	/**
+	 * Handle a topology change notification received from a neighbor.
+	 * @param port port on which the notification was received
+	 * @param now current time in milliseconds since the epoch
+	 */
+	private void receivedTopologyChange(StpPort port, long now)
+	{
+		this.topologyChangesReceived++;
+		this.timeLastTopologyChange = now;
+		this.propagateTopologyChange(port, now);
+	}
+	
+	/**
+	 * Flush addresses learned on all other ports and tell the rest of the 
+	 * tree about a topology change.
+	 * @param port port where the change was detected or reported
+	 * @param now current time in milliseconds since the epoch
+	 */
+	private void propagateTopologyChange(StpPort port, long now)
+	{
+		for (StpPort other : this.ports)
+		{
+			if (other == port || other.isEdge())
+			{ continue; }
+			this.macTable.flush(other.getInterface());
+			if (StpPort.Role.ROOT == other.getRole() 
+					|| StpPort.Role.DESIGNATED == other.getRole())
+			{
+				other.tcWhile = now + 2 * HELLO_TIME;
+				other.txPending = true;
+			}
+		}
+	}
+	
+	/**
+	 * Send a BPDU on every port that has one pending.
+	 * @param now current time in milliseconds since the epoch
+	 */
+	private void transmitPending(long now)
+	{
+		for (StpPort port : this.ports)
+		{
+			if (!port.txPending)
+			{ continue; }
+			port.txPending = false;
+			
+			boolean tc = (port.tcWhile > now);
+			if (StpPort.Role.DESIGNATED != port.getRole() 
+					&& !port.sendAgreement 
+					&& !(tc && StpPort.Role.ROOT == port.getRole()))
+			{ continue; }
+			this.transmit(port, tc);
+		}
+	}
+	
+	/**
+	 * Send a BPDU on a port.
+	 * @param port port on which to send the BPDU
+	 * @param tc true if the BPDU should carry the topology change flag
+	 */
+	private void transmit(StpPort port, boolean tc)
+	{
+		byte flags = 0;
+		if (tc)
+		{ flags |= BPDU.FLAG_TOPOLOGY_CHANGE; }
+		if (port.proposing && StpPort.Role.DESIGNATED == port.getRole())
+		{ flags |= BPDU.FLAG_PROPOSAL; }
+		if (port.sendAgreement)
+		{ 
+			flags |= BPDU.FLAG_AGREEMENT;
+			port.sendAgreement = false;
+		}
+		if (port.isLearning())
+		{ flags |= BPDU.FLAG_LEARNING; }
+		if (port.isForwarding())
+		{ flags |= BPDU.FLAG_FORWARDING; }
+		
+		BPDU bpdu = new BPDU();
+		bpdu.setFlags(flags);
+		switch (port.getRole())
+		{
+		case ROOT:
+			bpdu.setPortRole(BPDU.PORT_ROLE_ROOT);
+			break;
+		case DESIGNATED:
+			bpdu.setPortRole(BPDU.PORT_ROLE_DESIGNATED);
+			break;
+		case ALTERNATE:
+		case BACKUP:
+			bpdu.setPortRole(BPDU.PORT_ROLE_ALTERNATE_BACKUP);
+			break;
+		default:
+			bpdu.setPortRole(BPDU.PORT_ROLE_UNKNOWN);
+			break;
+		}
+		bpdu.setRootId(this.rootId);
+		bpdu.setRootPathCost(this.rootPathCost);
+		bpdu.setBridgeId(this.bridgeId);
+		bpdu.setPortId((short)port.getPortId());
+		bpdu.setMessageAge((short)this.rootMsgAge);
+		bpdu.setMaxAge((short)(MAX_AGE / 1000 * 256));
+		bpdu.setHelloTime((short)(HELLO_TIME / 1000 * 256));
+		bpdu.setForwardDelay((short)(FORWARD_DELAY / 1000 * 256));
+		
+		Ethernet ether = new Ethernet();
+		ether.setDestinationMACAddress(BPDU.MULTICAST_MAC);
+		ether.setSourceMACAddress(this.bridgeMac);
+		ether.setEtherType((short)bpdu.getLength());
+		ether.setPad(true);
+		ether.setPayload(bpdu);
+		this.sw.sendPacket(ether, port.getInterface());
+	}
+	
+	/**
+	 * Print the port roles if any changed since they were last printed.
+	 */
+	private void reportChanges()
+	{
+		if (!this.changed)
+		{ return; }
+		this.changed = false;
+		System.out.println("Spanning tree changed");
+		System.out.println("-------------------------------------------------");
+		System.out.print(this.toString());
+		System.out.println("-------------------------------------------------");
+	}
+	
+	public synchronized String toString()
+	{
+		String result = String.format("Bridge ID\t%04x.%012x\n", 
+				this.bridgeId >>> 48, this.bridgeId & 0xffffffffffffL);
+		result += String.format("Root ID\t\t%04x.%012x cost %d port %s\n", 
+				this.rootId >>> 48, this.rootId & 0xffffffffffffL, 
+				this.rootPathCost, (null == this.rootPort ? "-" 
+						: this.rootPort.getInterface().getName()));
+		result += String.format("Topology changes\t%d detected, %d received",
+				this.topologyChanges, this.topologyChangesReceived);
+		if (this.timeLastTopologyChange != 0)
+		{
+			result += String.format(", last %.1fs ago", 
+					(System.currentTimeMillis() - this.timeLastTopologyChange)
+					/ 1000.0);
+		}
+		result += "\nIface\tRole\t\tState\n";
+		List<StpPort> sorted = new ArrayList<StpPort>(this.ports);
+		Collections.sort(sorted, new Comparator<StpPort>() {
+			public int compare(StpPort a, StpPort b)
+			{ return Integer.compare(a.getPortId(), b.getPortId()); }
+		});
+		for (StpPort port : sorted)
+		{ result += port.toString() + "\n"; }
+		return result;
+	}
+}
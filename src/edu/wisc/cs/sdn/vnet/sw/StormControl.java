@@ -0,0 +1,120 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import java.util.Arrays;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+
+/**
+ * Per-port storm control. Broadcast, multicast, and unknown unicast frames
+ * received on a port are each policed by a separate token bucket; frames 
+ * that exceed the configured rate are dropped.
+ */
+public class StormControl 
+{
+	/** Classes of traffic that are policed separately */
+	public enum TrafficClass { BROADCAST, MULTICAST, UNKNOWN_UNICAST }
+	
+	/** Token buckets for each port, indexed by interface index and then 
+	 *  traffic class; a port or class without a bucket is not policed */
+	private volatile TokenBucket[][] buckets;
+	
+	/** Policed ports, indexed by interface index */
+	private Iface[] ports;
+	
+	/**
+	 * Create storm control without any limits.
+	 */
+	public StormControl()
+	{
+		this.buckets = new TokenBucket[0][];
+		this.ports = new Iface[0];
+	}
+	
+	/**
+	 * Limit the rate at which a class of traffic is accepted on a port.
+	 * @param iface ingress port
+	 * @param trafficClass class of traffic to limit
+	 * @param rate maximum rate (in frames per second)
+	 * @param burst maximum number of frames accepted back-to-back
+	 */
+	public synchronized void setLimit(Iface iface, TrafficClass trafficClass, 
+			long rate, long burst)
+	{
+		int index = iface.getIndex();
+		int size = Math.max(this.buckets.length, index + 1);
+		TokenBucket[][] newBuckets = Arrays.copyOf(this.buckets, size);
+		this.ports = Arrays.copyOf(this.ports, size);
+		TokenBucket[] portBuckets = newBuckets[index];
+		if (null == portBuckets)
+		{ portBuckets = new TokenBucket[TrafficClass.values().length]; }
+		else
+		{ portBuckets = portBuckets.clone(); }
+		portBuckets[trafficClass.ordinal()] = new TokenBucket(rate, burst);
+		newBuckets[index] = portBuckets;
+		this.ports[index] = iface;
+		this.buckets = newBuckets;
+	}
+	
+	/**
+	 * @return true if any limits are configured
+	 */
+	public boolean isEnabled()
+	{ return (this.buckets.length > 0); }
+	
+	/**
+	 * Check whether a frame is within the rate allowed for its class.
+	 * @param inIface port on which the frame was received
+	 * @param trafficClass class of the frame
+	 * @return true if the frame should be accepted, false if it should be
+	 *         dropped
+	 */
+	public boolean accept(Iface inIface, TrafficClass trafficClass)
+	{
+		TokenBucket[] portBuckets = this.getBuckets(inIface);
+		if (null == portBuckets)
+		{ return true; }
+		TokenBucket bucket = portBuckets[trafficClass.ordinal()];
+		return (null == bucket || bucket.tryConsume());
+	}
+	
+	/**
+	 * @param iface ingress port
+	 * @param trafficClass class of traffic
+	 * @return number of frames of the class dropped on the port
+	 */
+	public long getDropped(Iface iface, TrafficClass trafficClass)
+	{
+		TokenBucket[] portBuckets = this.getBuckets(iface);
+		if (null == portBuckets 
+				|| null == portBuckets[trafficClass.ordinal()])
+		{ return 0; }
+		return portBuckets[trafficClass.ordinal()].getDropped();
+	}
+	
+	private TokenBucket[] getBuckets(Iface iface)
+	{
+		TokenBucket[][] buckets = this.buckets;
+		int index = iface.getIndex();
+		return (index < buckets.length) ? buckets[index] : null;
+	}
+	
+	public synchronized String toString()
+	{
+		String result = "";
+		for (int i = 0; i < this.buckets.length; i++)
+		{
+			if (null == this.buckets[i])
+			{ continue; }
+			for (TrafficClass trafficClass : TrafficClass.values())
+			{
+				TokenBucket bucket = this.buckets[i][trafficClass.ordinal()];
+				if (null == bucket)
+				{ continue; }
+				String name = trafficClass.toString().toLowerCase();
+				result += this.ports[i].getName() + "\t" 
+						+ name.replace('_', '-') + "\t" + bucket + "\n";
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,143 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+
+/**
+ * Rapid spanning tree state for one switch port.
+ */
+public class StpPort 
+{
+	/** Role of a port in the spanning tree */
+	public enum Role { DISABLED, ROOT, DESIGNATED, ALTERNATE, BACKUP }
+	
+	/** Forwarding state of a port */
+	public enum State { DISCARDING, LEARNING, FORWARDING }
+	
+	/** Switch interface the port belongs to */
+	private Iface iface;
+	
+	/** Port identifier (priority and port number) */
+	private int portId;
+	
+	/** Cost of sending frames out the port */
+	private int pathCost;
+	
+	/** Current role of the port */
+	private volatile Role role;
+	
+	/** Current forwarding state of the port */
+	private volatile State state;
+	
+	/** True if the port was configured as an edge port */
+	boolean adminEdge;
+	
+	/** True if the port is treated as an edge port because no BPDUs have 
+	 *  been received on it */
+	boolean operEdge;
+	
+	/** True if a BPDU has been received on the port */
+	boolean bpduSeen;
+	
+	/** Best priority vector received on the port; null if none */
+	PriorityVector msgVector;
+	
+	/** Time (in milliseconds since the epoch) received info expires */
+	long msgExpires;
+	
+	/** Message age of the received info, in units of 1/256 seconds */
+	int msgAge;
+	
+	/** True if the designated port on the segment proposed to forward */
+	boolean proposed;
+	
+	/** True if the port is proposing to forward and awaits an agreement */
+	boolean proposing;
+	
+	/** True if the bridge on the other side of the segment agreed to let 
+	 *  this designated port forward */
+	boolean agreed;
+	
+	/** True if an agreement should be sent in the next BPDU */
+	boolean sendAgreement;
+	
+	/** True if a BPDU should be sent as soon as possible */
+	boolean txPending;
+	
+	/** Time (in milliseconds since the epoch) the port started running the 
+	 *  protocol */
+	long timeUp;
+	
+	/** Time (in milliseconds since the epoch) the port moves to the next
+	 *  state if no agreement is received; 0 if not running */
+	long forwardDelayExpires;
+	
+	/** Time (in milliseconds since the epoch) until which BPDUs sent on the
+	 *  port carry the topology change flag */
+	long tcWhile;
+	
+	/**
+	 * Create spanning tree state for a port.
+	 * @param iface switch interface the port belongs to
+	 * @param portId port identifier
+	 * @param pathCost cost of sending frames out the port
+	 */
+	public StpPort(Iface iface, int portId, int pathCost)
+	{
+		this.iface = iface;
+		this.portId = portId;
+		this.pathCost = pathCost;
+		this.role = Role.DESIGNATED;
+		this.state = State.DISCARDING;
+		this.adminEdge = false;
+		this.operEdge = false;
+		this.bpduSeen = false;
+		this.msgVector = null;
+	}
+	
+	public Iface getInterface()
+	{ return this.iface; }
+	
+	public int getPortId()
+	{ return this.portId; }
+	
+	public int getPathCost()
+	{ return this.pathCost; }
+	
+	public Role getRole()
+	{ return this.role; }
+	
+	void setRole(Role role)
+	{ this.role = role; }
+	
+	public State getState()
+	{ return this.state; }
+	
+	void setState(State state)
+	{ this.state = state; }
+	
+	/**
+	 * @return true if the port is an edge port
+	 */
+	public boolean isEdge()
+	{ return this.adminEdge || this.operEdge; }
+	
+	/**
+	 * @return true if the switch should learn MAC addresses from frames
+	 *         received on the port
+	 */
+	public boolean isLearning()
+	{ return (this.state != State.DISCARDING); }
+	
+	/**
+	 * @return true if the switch should forward frames received on, or 
+	 *         destined to, the port
+	 */
+	public boolean isForwarding()
+	{ return (State.FORWARDING == this.state); }
+	
+	public String toString()
+	{
+		return String.format("%s\t%-10s\t%-10s%s", this.iface.getName(), 
+				this.role, this.state, (this.isEdge() ? "\tedge" : ""));
+	}
+}
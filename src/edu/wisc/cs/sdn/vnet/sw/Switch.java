@@ -1,6 +1,19 @@
 package edu.wisc.cs.sdn.vnet.sw;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import net.floodlightcontroller.packet.BPDU;
+import net.floodlightcontroller.packet.DecodeDepth;
+import net.floodlightcontroller.packet.DropReason;
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
+import net.floodlightcontroller.packet.FrameValidator;
+import net.floodlightcontroller.packet.MACAddress;
 import edu.wisc.cs.sdn.vnet.Device;
 import edu.wisc.cs.sdn.vnet.DumpFile;
 import edu.wisc.cs.sdn.vnet.Iface;
@@ -10,8 +23,60 @@ import edu.wisc.cs.sdn.vnet.Iface;
  */
 public class Switch extends Device
 {
+	/** Offset of the EtherType (or 802.1Q TPID) in an Ethernet frame */
+	private static final int ETHER_TYPE_OFFSET = EthernetView.ETHER_TYPE_OFFSET;
+	
+	/** Offset of the 802.1Q tag control information in a tagged frame */
+	private static final int VLAN_TCI_OFFSET = EthernetView.VLAN_TCI_OFFSET;
+	
+	/** Length of an 802.1Q tag */
+	private static final int VLAN_TAG_LENGTH = EthernetView.VLAN_TAG_LENGTH;
+	
+	/** EtherType identifying an 802.1Q tag */
+	private static final int TYPE_VLAN = EthernetView.TYPE_VLAN;
+	
+	/** Shortest Ethernet frame, without the frame check sequence */
+	private static final int MIN_FRAME_LENGTH = 60;
+	
+	/** Initial size of the buffer frames are retagged in */
+	private static final int SCRATCH_SIZE = 2048;
+	
+	/** Prefix for the locally administered MAC address of the bridge */
+	private static final long BRIDGE_MAC_PREFIX = 0x020000000000L;
+	
 	private MACTable macTable;
 	
+	/** VLAN configuration for each port, indexed by interface index; null
+	 *  if the switch is not VLAN aware and forwards all frames unchanged in
+	 *  a single flood domain */
+	private volatile VlanPortConfig[] vlanPorts;
+	
+	/** Flood domains indexed by VLAN ID; only contain forwarding ports, 
+	 *  and are replaced in place when the ports change */
+	private final FloodDomain[] floodDomains;
+	
+	/** VLANs that have a flood domain */
+	private BitSet floodVlans;
+	
+	/** Rapid spanning tree bridge for the switch */
+	private SpanningTree spanningTree;
+	
+	/** True if the spanning tree protocol should be run; off unless turned
+	 *  on in the switch configuration, since ports wait for the edge delay
+	 *  before forwarding */
+	private boolean spanningTreeEnabled;
+	
+	/** Rate limits for broadcast, multicast, and unknown unicast frames */
+	private StormControl stormControl;
+	
+	/** Views reused for reading the header of every received frame; one
+	 *  per thread, since frames may be handled by several workers */
+	private ThreadLocal<EthernetView> etherView;
+	
+	/** Buffers reused for frames whose VLAN tag is added, removed, or 
+	 *  changed; one per thread, like the views */
+	private ThreadLocal<byte[]> scratch;
+	
 	/**
 	 * Creates a router for a specific host.
 	 * @param host hostname for the router
@@ -20,8 +85,218 @@ public class Switch extends Device
 	{
 		super(host,logfile);
 		this.macTable = new MACTable();
+		this.vlanPorts = null;
+		this.spanningTree = new SpanningTree(this, this.macTable, 
+				MACAddress.valueOf(BRIDGE_MAC_PREFIX 
+						| (host.hashCode() & 0xffffffffL)));
+		this.spanningTreeEnabled = false;
+		this.stormControl = new StormControl();
+		this.etherView = ThreadLocal.withInitial(EthernetView::new);
+		this.scratch = ThreadLocal.withInitial(() -> new byte[SCRATCH_SIZE]);
+		this.floodDomains = new FloodDomain[VlanPortConfig.MAX_VLAN + 1];
+		this.floodVlans = new BitSet();
+		this.updateFloodDomains();
+	}
+	
+	/**
+	 * Stop the spanning tree protocol and MAC table timeouts, report storm
+	 * control drops, and close the PCAP dump file.
+	 */
+	public void destroy()
+	{
+		this.spanningTree.stop();
+		this.macTable.stop();
+		if (this.stormControl.isEnabled())
+		{
+			System.out.println("Storm control");
+			System.out.println("----------------------------------");
+			System.out.print(this.stormControl.toString());
+			System.out.println("----------------------------------");
+		}
+		super.destroy();
+	}
+	
+	/**
+	 * Add an interface to the switch.
+	 * @param ifaceName the name of the interface
+	 */
+	public Iface addInterface(String ifaceName)
+	{
+		Iface iface = super.addInterface(ifaceName);
+		this.updateFloodDomains();
+		return iface;
+	}
+	
+	/**
+	 * @return rapid spanning tree bridge for the switch
+	 */
+	public SpanningTree getSpanningTree()
+	{ return this.spanningTree; }
+	
+	/**
+	 * @return rate limits for broadcast, multicast, and unknown unicast 
+	 *         frames
+	 */
+	public StormControl getStormControl()
+	{ return this.stormControl; }
+	
+	/**
+	 * @param enabled true if the spanning tree protocol should be run
+	 */
+	public void setSpanningTreeEnabled(boolean enabled)
+	{ this.spanningTreeEnabled = enabled; }
+	
+	/**
+	 * Start running the spanning tree protocol on all interfaces, if it was
+	 * enabled in the switch configuration. Until the protocol starts, all 
+	 * ports forward.
+	 */
+	public void startSpanningTree()
+	{
+		if (!this.spanningTreeEnabled || this.spanningTree.isRunning())
+		{ return; }
+		this.spanningTree.start(this.interfaces.values());
+		this.updateFloodDomains();
+	}
+	
+	/**
+	 * Called by the spanning tree when the state of a port changes.
+	 */
+	void spanningTreeChanged()
+	{ this.updateFloodDomains(); }
+	
+	/**
+	 * @param iface switch port
+	 * @return true if frames may be sent and received on the port
+	 */
+	private boolean isForwarding(Iface iface)
+	{
+		if (!this.spanningTree.isRunning())
+		{ return true; }
+		StpPort port = this.spanningTree.getPort(iface);
+		return (null == port || port.isForwarding());
+	}
+	
+	/**
+	 * Load a switch configuration from a file.
+	 * @param configFile the name of the file containing the configuration
+	 */
+	public void loadConfig(String configFile)
+	{
+		if (!SwitchConfig.load(configFile, this))
+		{
+			System.err.println("Error loading switch configuration from file "
+					+ configFile);
+			System.exit(1);
+		}
+		
+		System.out.println("Loaded switch configuration");
+		System.out.println("----------------------------------");
+		for (Iface iface : this.interfaces.values())
+		{
+			System.out.println(iface.getName() + "\t" 
+					+ this.getVlanPortConfig(iface));
+		}
+		if (this.spanningTreeEnabled)
+		{ System.out.println("Spanning tree enabled"); }
+		System.out.print(this.stormControl.toString());
+		System.out.println("----------------------------------");
+	}
+	
+	/**
+	 * Set the VLAN configuration for a port. Once any port is configured, 
+	 * the switch becomes VLAN aware and unconfigured ports are access ports
+	 * in the default VLAN.
+	 * @param iface port to configure
+	 * @param config VLAN configuration for the port
+	 */
+	public void setVlanPortConfig(Iface iface, VlanPortConfig config)
+	{
+		int size = Math.max(this.getInterfaceCount(), iface.getIndex() + 1);
+		VlanPortConfig[] ports;
+		if (null == this.vlanPorts)
+		{ ports = new VlanPortConfig[size]; }
+		else
+		{ ports = Arrays.copyOf(this.vlanPorts, size); }
+		ports[iface.getIndex()] = config;
+		this.vlanPorts = ports;
+		this.updateFloodDomains();
+	}
+	
+	/**
+	 * @param iface port
+	 * @return VLAN configuration for the port
+	 */
+	public VlanPortConfig getVlanPortConfig(Iface iface)
+	{
+		VlanPortConfig config = null;
+		VlanPortConfig[] ports = this.vlanPorts;
+		if (ports != null && iface.getIndex() < ports.length)
+		{ config = ports[iface.getIndex()]; }
+		if (null == config)
+		{ config = VlanPortConfig.DEFAULT; }
+		return config;
+	}
+	
+	/**
+	 * Recompute the flood domain for every VLAN carried by a port. Ports 
+	 * blocked by the spanning tree are left out.
+	 */
+	private synchronized void updateFloodDomains()
+	{
+		List<Iface> forwarding = new ArrayList<Iface>();
+		for (Iface iface : this.interfaces.values())
+		{
+			if (this.isForwarding(iface))
+			{ forwarding.add(iface); }
+		}
+		
+		// Only VLANs carried by a forwarding port have a flood domain
+		VlanPortConfig[] vlanPorts = this.vlanPorts;
+		BitSet vlans = new BitSet();
+		if (null == vlanPorts)
+		{ vlans.set(MACTable.NO_VLAN); }
+		else
+		{
+			for (Iface iface : forwarding)
+			{ this.getVlanPortConfig(iface).addVlansTo(vlans); }
+		}
+		
+		for (int vlan = vlans.nextSetBit(0); vlan >= 0; 
+				vlan = vlans.nextSetBit(vlan + 1))
+		{
+			List<Iface> untagged = new ArrayList<Iface>();
+			List<Iface> tagged = new ArrayList<Iface>();
+			if (null == vlanPorts)
+			{ untagged.addAll(forwarding); }
+			else
+			{
+				for (Iface iface : forwarding)
+				{
+					VlanPortConfig config = this.getVlanPortConfig(iface);
+					if (config.carries((short)vlan))
+					{ (config.isTrunk() ? tagged : untagged).add(iface); }
+				}
+			}
+			this.floodDomains[vlan] = new FloodDomain(untagged, tagged);
+		}
+		
+		// Remove the domains of VLANs that are no longer carried
+		this.floodVlans.andNot(vlans);
+		for (int vlan = this.floodVlans.nextSetBit(0); vlan >= 0; 
+				vlan = this.floodVlans.nextSetBit(vlan + 1))
+		{ this.floodDomains[vlan] = null; }
+		this.floodVlans = vlans;
 	}
 
+	/**
+	 * @return decode depth for received frames; a switch only reads the
+	 *         Ethernet header
+	 */
+	@Override
+	public DecodeDepth getDecodeDepth()
+	{ return DecodeDepth.L2; }
+
 	/**
 	 * Handle an Ethernet packet received on a specific interface.
 	 * @param etherPacket the Ethernet packet that was received
@@ -29,29 +304,272 @@ public class Switch extends Device
 	 */
 	public void handlePacket(Ethernet etherPacket, Iface inIface)
 	{
-		System.out.println("*** -> Received packet: " +
-				etherPacket.toString().replace("\n", "\n\t"));
+		byte[] frame = etherPacket.serialize();
+		this.handleRawPacket(frame, 0, frame.length, inIface);
+	}
+	
+	/**
+	 * Handle a raw Ethernet frame received on a specific interface. Only the
+	 * MAC addresses and the VLAN tag are read from the frame, through a 
+	 * reused {@link EthernetView}; the received bytes are sent out unchanged
+	 * unless a VLAN tag must be added or removed.
+	 * @param frame buffer containing the frame
+	 * @param offset offset of the first byte of the frame in the buffer
+	 * @param length length of the frame
+	 * @param inIface the interface on which the frame was received
+	 */
+	public void handleRawPacket(byte[] frame, int offset, int length,
+			Iface inIface)
+	{
+		if (!this.getFrameValidator().accept(frame, offset, length, 
+				DecodeDepth.L2))
+		{ return; }
+		
+		EthernetView ether = this.etherView.get().wrap(frame, offset, length);
+		if (null == ether || null == inIface)
+		{ return; }
+		
+		// Only frames that are well formed all the way down are decoded in
+		// full; the others may still be forwarded on their MAC addresses
+		if (this.isDebug())
+		{
+			DropReason reason = FrameValidator.classify(frame, offset, length,
+					DecodeDepth.FULL);
+			if (reason != null)
+			{ 
+				System.out.println("*** -> Received malformed packet: " 
+						+ reason); 
+			}
+			else
+			{
+				Ethernet etherPacket = this.decode(frame, offset, length);
+				System.out.println("*** -> Received packet: " +
+						etherPacket.toString().replace("\n", "\n\t"));
+				etherPacket.release();
+			}
+		}
 		
 		/********************************************************************/
 		/* TODO: Handle packets                                             */
 		
-		this.macTable.insert(etherPacket.getSourceMAC(), inIface);
+		// Bridge protocol frames are consumed by the spanning tree and are
+		// never forwarded
+		StpPort inPort = null;
+		if (this.spanningTree.isRunning())
+		{
+			if (ether.getDestinationMAC() == BPDU.MULTICAST_MAC_LONG)
+			{
+				if (!this.getFrameValidator().accept(frame, offset, length,
+						DecodeDepth.FULL))
+				{ return; }
+				Ethernet etherPacket = this.decode(frame, offset, length);
+				if (etherPacket.getPayload() instanceof BPDU)
+				{
+					this.spanningTree.receive(
+							(BPDU)etherPacket.getPayload(), inIface);
+				}
+				etherPacket.release();
+				return;
+			}
+			
+			// Discarding ports neither learn nor forward
+			inPort = this.spanningTree.getPort(inIface);
+			if (inPort != null && !inPort.isLearning())
+			{ return; }
+		}
+		
+		// Determine the VLAN the frame belongs to
+		boolean tagged = ether.isTagged();
+		short vlan = MACTable.NO_VLAN;
+		VlanPortConfig[] vlanPorts = this.vlanPorts;
+		if (vlanPorts != null)
+		{
+			short tagVlan = (tagged ? ether.getVlanID() : 0);
+			
+			VlanPortConfig inConfig = this.getVlanPortConfig(inIface);
+			if (inConfig.isTrunk())
+			{
+				// Trunk ports only accept tagged frames
+				if (!tagged)
+				{ return; }
+				vlan = tagVlan;
+			}
+			else
+			{
+				// Access ports accept untagged and priority tagged frames, 
+				// and frames tagged with the port's own VLAN
+				vlan = inConfig.getAccessVlan();
+				if (tagged && tagVlan != 0 && tagVlan != vlan)
+				{ return; }
+			}
+			if (!inConfig.carries(vlan))
+			{ return; }
+		}
+		
+		long srcMac = ether.getSourceMAC();
+		long dstMac = ether.getDestinationMAC();
+		
+		// Police broadcast and multicast frames before doing any work
+		boolean broadcast = ether.isBroadcast();
+		boolean multicast = ether.isMulticast();
+		if (broadcast)
+		{
+			if (!this.stormControl.accept(inIface, 
+					StormControl.TrafficClass.BROADCAST))
+			{ return; }
+		}
+		else if (multicast)
+		{
+			if (!this.stormControl.accept(inIface, 
+					StormControl.TrafficClass.MULTICAST))
+			{ return; }
+		}
+		
+		this.macTable.insert(vlan, srcMac, inIface);
 		
-		MACTableEntry entry = this.macTable.lookup(etherPacket.getDestinationMAC());
+		// Learning ports do not forward
+		if (inPort != null && !inPort.isForwarding())
+		{ return; }
+		
+		MACTableEntry entry = this.macTable.lookup(vlan, dstMac);
 		if (entry != null)
-		{ this.sendPacket(etherPacket, entry.getInterface()); }
+		{ 
+			Iface outIface = entry.getInterface();
+			if (outIface == inIface || !this.isForwarding(outIface))
+			{ return; }
+			
+			List<Iface> outIfaces = Collections.singletonList(outIface);
+			if (null == vlanPorts)
+			{ this.sendRawPacket(frame, offset, length, outIfaces); }
+			else
+			{
+				this.sendVlanPacket(frame, offset, length, tagged, vlan, 
+						outIfaces, this.getVlanPortConfig(outIface).isTrunk());
+			}
+		}
 		else
 		{
-			for (Iface iface : this.interfaces.values()) 
+			// Police unicast frames to unknown destinations before they are
+			// flooded
+			if (!broadcast && !multicast
+					&& !this.stormControl.accept(inIface, 
+							StormControl.TrafficClass.UNKNOWN_UNICAST))
+			{ return; }
+			
+			FloodDomain domain = this.floodDomains[vlan];
+			if (null == domain)
+			{ return; }
+			
+			List<Iface> untaggedIfaces = domain.getUntaggedPorts(inIface);
+			List<Iface> taggedIfaces = domain.getTaggedPorts(inIface);
+			if (this.isDebug())
 			{
-				if (iface != inIface)
-				{
-					this.sendPacket(etherPacket, iface);
-					System.out.println("Send packet out interface "+iface);
-				}
+				for (Iface iface : untaggedIfaces)
+				{ System.out.println("Send packet out interface "+iface); }
+				for (Iface iface : taggedIfaces)
+				{ System.out.println("Send packet out interface "+iface); }
+			}
+			
+			if (null == vlanPorts)
+			{ this.sendRawPacket(frame, offset, length, untaggedIfaces); }
+			else
+			{
+				this.sendVlanPacket(frame, offset, length, tagged, vlan, 
+						untaggedIfaces, false);
+				this.sendVlanPacket(frame, offset, length, tagged, vlan, 
+						taggedIfaces, true);
 			}
 		}
 		
 		/********************************************************************/
 	}
+	
+	/**
+	 * Send a frame out a set of ports, adding or removing the VLAN tag as
+	 * required by the ports.
+	 * @param frame buffer containing the frame
+	 * @param offset offset of the first byte of the frame in the buffer
+	 * @param length length of the frame
+	 * @param tagged true if the frame carries an 802.1Q tag
+	 * @param vlan VLAN the frame belongs to
+	 * @param outIfaces ports on which to send the frame
+	 * @param egressTagged true if the frame should be tagged on the ports
+	 */
+	private void sendVlanPacket(byte[] frame, int offset, int length, 
+			boolean tagged, short vlan, Collection<Iface> outIfaces, 
+			boolean egressTagged)
+	{
+		if (outIfaces.isEmpty())
+		{ return; }
+		
+		if (tagged && !egressTagged)
+		{
+			// Remove tag, padding frames that would become too short
+			int untaggedLength = length - VLAN_TAG_LENGTH;
+			int paddedLength = Math.max(untaggedLength, MIN_FRAME_LENGTH);
+			byte[] untaggedFrame = this.getScratch(paddedLength);
+			System.arraycopy(frame, offset, untaggedFrame, 0, 
+					ETHER_TYPE_OFFSET);
+			System.arraycopy(frame, offset + ETHER_TYPE_OFFSET 
+					+ VLAN_TAG_LENGTH, untaggedFrame, ETHER_TYPE_OFFSET, 
+					untaggedLength - ETHER_TYPE_OFFSET);
+			Arrays.fill(untaggedFrame, untaggedLength, paddedLength, 
+					(byte)0);
+			this.sendRawPacket(untaggedFrame, 0, paddedLength, outIfaces);
+		}
+		else if (!tagged && egressTagged)
+		{
+			// Add tag
+			byte[] taggedFrame = this.getScratch(length + VLAN_TAG_LENGTH);
+			System.arraycopy(frame, offset, taggedFrame, 0, ETHER_TYPE_OFFSET);
+			taggedFrame[ETHER_TYPE_OFFSET] = (byte)(TYPE_VLAN >> 8);
+			taggedFrame[ETHER_TYPE_OFFSET + 1] = (byte)TYPE_VLAN;
+			taggedFrame[VLAN_TCI_OFFSET] = (byte)((vlan >> 8) & 0x0f);
+			taggedFrame[VLAN_TCI_OFFSET + 1] = (byte)vlan;
+			System.arraycopy(frame, offset + ETHER_TYPE_OFFSET, taggedFrame, 
+					ETHER_TYPE_OFFSET + VLAN_TAG_LENGTH, 
+					length - ETHER_TYPE_OFFSET);
+			this.sendRawPacket(taggedFrame, 0, length + VLAN_TAG_LENGTH, 
+					outIfaces);
+		}
+		else if (tagged && egressTagged)
+		{
+			// Keep the priority code, but make sure the VLAN ID is set for
+			// priority tagged frames received on access ports
+			int tci = (getShort(frame, offset + VLAN_TCI_OFFSET) & 0xf000) 
+					| vlan;
+			if ((tci & 0x0fff) != (getShort(frame, offset + VLAN_TCI_OFFSET) 
+					& 0x0fff))
+			{
+				byte[] retaggedFrame = this.getScratch(length);
+				System.arraycopy(frame, offset, retaggedFrame, 0, length);
+				retaggedFrame[VLAN_TCI_OFFSET] = (byte)(tci >> 8);
+				retaggedFrame[VLAN_TCI_OFFSET + 1] = (byte)tci;
+				this.sendRawPacket(retaggedFrame, 0, length, outIfaces);
+			}
+			else
+			{ this.sendRawPacket(frame, offset, length, outIfaces); }
+		}
+		else
+		{ this.sendRawPacket(frame, offset, length, outIfaces); }
+	}
+	
+	/**
+	 * @param size number of bytes needed
+	 * @return this thread's scratch buffer, grown to at least the size; its
+	 *         contents are overwritten by the next retagged frame
+	 */
+	private byte[] getScratch(int size)
+	{
+		byte[] scratch = this.scratch.get();
+		if (scratch.length < size)
+		{
+			scratch = new byte[size];
+			this.scratch.set(scratch);
+		}
+		return scratch;
+	}
+	
+	private static int getShort(byte[] data, int offset)
+	{ return ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff); }
 }
@@ -0,0 +1,258 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+
+/**
+ * Loads a switch configuration file. Each non-empty line that does not start
+ * with a '#' holds one directive:
+ * <pre>
+ * vlan &lt;iface&gt; access &lt;vid&gt;
+ * vlan &lt;iface&gt; trunk &lt;vid&gt;[,&lt;vid&gt;...]
+ * stp on|off
+ * stp priority &lt;priority&gt;
+ * stp edge &lt;iface&gt;
+ * storm &lt;iface&gt;|* broadcast|multicast|unknown-unicast &lt;pps&gt; [&lt;burst&gt;]
+ * </pre>
+ * Ports that are not mentioned are access ports in the default VLAN. The
+ * spanning tree only runs, on all ports, if it is turned on; the bridge
+ * priority must be a multiple of 4096. Storm control limits apply to frames
+ * received on a port; the burst defaults to one second's worth of frames.
+ */
+public class SwitchConfig 
+{
+	/**
+	 * Apply the configuration in a file to a switch.
+	 * @param filename name of the file containing the switch configuration
+	 * @param sw switch the configuration is applied to
+	 * @return true if the configuration was successfully loaded, otherwise 
+	 *         false
+	 */
+	public static boolean load(String filename, Switch sw)
+	{
+		// Open the file
+		BufferedReader reader;
+		try 
+		{
+			FileReader fileReader = new FileReader(filename);
+			reader = new BufferedReader(fileReader);
+		}
+		catch (FileNotFoundException e) 
+		{
+			System.err.println(e.toString());
+			return false;
+		}
+
+		Pattern vlanPattern = Pattern.compile(
+				"vlan\\s+([a-zA-Z0-9]+)\\s+(access|trunk)\\s+([0-9,]+)");
+		Pattern stpPattern = Pattern.compile("stp\\s+(on|off)");
+		Pattern stpPriorityPattern = Pattern.compile(
+				"stp\\s+priority\\s+([0-9]+)");
+		Pattern stpEdgePattern = Pattern.compile(
+				"stp\\s+edge\\s+([a-zA-Z0-9]+)");
+		Pattern stormPattern = Pattern.compile("storm\\s+([a-zA-Z0-9]+|\\*)"
+				+ "\\s+(broadcast|multicast|unknown-unicast)\\s+([0-9]+)"
+				+ "(\\s+([0-9]+))?");
+		while (true)
+		{
+			// Read a directive from the file
+			String line = null;
+			try 
+			{ line = reader.readLine(); }
+			catch (IOException e) 
+			{
+				System.err.println(e.toString());
+				try { reader.close(); } catch (IOException f) {};
+				return false;
+			}
+
+			// Stop if we have reached the end of the file
+			if (null == line)
+			{ break; }
+			
+			// Skip comments and blank lines
+			line = line.trim();
+			if (0 == line.length() || line.startsWith("#"))
+			{ continue; }
+
+			Matcher matcher = stpPattern.matcher(line);
+			if (matcher.matches())
+			{
+				sw.setSpanningTreeEnabled(matcher.group(1).equals("on"));
+				continue;
+			}
+			
+			matcher = stpPriorityPattern.matcher(line);
+			if (matcher.matches())
+			{
+				int priority = -1;
+				try
+				{ priority = Integer.parseInt(matcher.group(1)); }
+				catch (NumberFormatException e)
+				{ }
+				if (priority < 0 || priority > 61440 || priority % 4096 != 0)
+				{
+					System.err.println("Error loading switch config, invalid "
+							+ "bridge priority " + matcher.group(1));
+					try { reader.close(); } catch (IOException f) {};
+					return false;
+				}
+				sw.getSpanningTree().setPriority(priority);
+				continue;
+			}
+			
+			matcher = stpEdgePattern.matcher(line);
+			if (matcher.matches())
+			{
+				Iface iface = sw.getInterface(matcher.group(1));
+				if (null == iface)
+				{
+					System.err.println("Error loading switch config, invalid "
+							+ "interface " + matcher.group(1));
+					try { reader.close(); } catch (IOException f) {};
+					return false;
+				}
+				sw.getSpanningTree().setAdminEdge(iface);
+				continue;
+			}
+			
+			matcher = stormPattern.matcher(line);
+			if (matcher.matches())
+			{
+				if (!loadStormLimit(matcher, sw))
+				{
+					try { reader.close(); } catch (IOException f) {};
+					return false;
+				}
+				continue;
+			}
+			
+			matcher = vlanPattern.matcher(line);
+			if (!matcher.matches())
+			{
+				System.err.println("Invalid entry in switch config file: " 
+						+ line);
+				try { reader.close(); } catch (IOException f) {};
+				return false;
+			}
+			
+			Iface iface = sw.getInterface(matcher.group(1));
+			if (null == iface)
+			{
+				System.err.println("Error loading switch config, invalid "
+						+ "interface " + matcher.group(1));
+				try { reader.close(); } catch (IOException f) {};
+				return false;
+			}
+			
+			BitSet vlans = parseVlans(matcher.group(3));
+			if (null == vlans 
+					|| (matcher.group(2).equals("access") 
+							&& vlans.cardinality() != 1))
+			{
+				System.err.println("Error loading switch config, invalid "
+						+ "VLAN list " + matcher.group(3));
+				try { reader.close(); } catch (IOException f) {};
+				return false;
+			}
+			
+			if (matcher.group(2).equals("access"))
+			{ 
+				sw.setVlanPortConfig(iface, 
+						new VlanPortConfig((short)vlans.nextSetBit(0)));
+			}
+			else
+			{ sw.setVlanPortConfig(iface, new VlanPortConfig(vlans)); }
+		}
+
+		// Close the file
+		try { reader.close(); } catch (IOException f) {};
+		return true;
+	}
+	
+	/**
+	 * Apply a storm control directive to a switch.
+	 * @param matcher matched storm control directive
+	 * @param sw switch the directive is applied to
+	 * @return true if the directive is valid, otherwise false
+	 */
+	private static boolean loadStormLimit(Matcher matcher, Switch sw)
+	{
+		List<Iface> ifaces = new ArrayList<Iface>();
+		if (matcher.group(1).equals("*"))
+		{ ifaces.addAll(sw.getInterfaces().values()); }
+		else
+		{
+			Iface iface = sw.getInterface(matcher.group(1));
+			if (null == iface)
+			{
+				System.err.println("Error loading switch config, invalid "
+						+ "interface " + matcher.group(1));
+				return false;
+			}
+			ifaces.add(iface);
+		}
+		
+		StormControl.TrafficClass trafficClass;
+		if (matcher.group(2).equals("broadcast"))
+		{ trafficClass = StormControl.TrafficClass.BROADCAST; }
+		else if (matcher.group(2).equals("multicast"))
+		{ trafficClass = StormControl.TrafficClass.MULTICAST; }
+		else
+		{ trafficClass = StormControl.TrafficClass.UNKNOWN_UNICAST; }
+		
+		long rate, burst;
+		try
+		{
+			rate = Long.parseLong(matcher.group(3));
+			burst = (null == matcher.group(5) ? rate 
+					: Long.parseLong(matcher.group(5)));
+		}
+		catch (NumberFormatException e)
+		{ rate = burst = 0; }
+		if (rate <= 0 || burst <= 0)
+		{
+			System.err.println("Error loading switch config, invalid "
+					+ "storm control rate " + matcher.group(3));
+			return false;
+		}
+		
+		for (Iface iface : ifaces)
+		{ sw.getStormControl().setLimit(iface, trafficClass, rate, burst); }
+		return true;
+	}
+	
+	/**
+	 * @param list comma separated list of VLAN IDs
+	 * @return the set of VLANs in the list; null if the list contains an
+	 *         invalid VLAN ID
+	 */
+	private static BitSet parseVlans(String list)
+	{
+		BitSet vlans = new BitSet(VlanPortConfig.MAX_VLAN + 1);
+		for (String vid : list.split(","))
+		{
+			if (0 == vid.length())
+			{ continue; }
+			int vlan;
+			try
+			{ vlan = Integer.parseInt(vid); }
+			catch (NumberFormatException e)
+			{ return null; }
+			if (vlan < VlanPortConfig.MIN_VLAN 
+					|| vlan > VlanPortConfig.MAX_VLAN)
+			{ return null; }
+			vlans.set(vlan);
+		}
+		return vlans;
+	}
+}
@@ -0,0 +1,93 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket rate limiter that can be shared by threads without 
+ * locking. The bucket is kept as a single theoretical arrival time: each
+ * frame that conforms pushes the time forward by one frame interval, and a
+ * frame conforms as long as the time is no further ahead of now than the 
+ * burst allows. A frame is admitted with a single compare-and-set.
+ */
+public class TokenBucket 
+{
+	/** Time (in nanoseconds) needed to earn one token */
+	private final long interval;
+	
+	/** How far (in nanoseconds) the arrival time may run ahead of now */
+	private final long tolerance;
+	
+	/** Rate (in frames per second) */
+	private final long rate;
+	
+	/** Bucket depth (in frames) */
+	private final long burst;
+	
+	/** Theoretical arrival time (in nanoseconds) of the next frame */
+	private final AtomicLong arrivalTime;
+	
+	/** Number of frames that did not conform */
+	private final AtomicLong dropped;
+	
+	/**
+	 * Create a full token bucket.
+	 * @param rate rate (in frames per second); must be positive
+	 * @param burst bucket depth (in frames); must be positive
+	 */
+	public TokenBucket(long rate, long burst)
+	{
+		this.rate = rate;
+		this.burst = burst;
+		this.interval = Math.max(1, 1000000000L / rate);
+		this.tolerance = this.interval * burst;
+		this.arrivalTime = new AtomicLong(System.nanoTime() - this.tolerance);
+		this.dropped = new AtomicLong(0);
+	}
+	
+	/**
+	 * Take a token from the bucket.
+	 * @return true if a token was available, false if the frame should be 
+	 *         dropped
+	 */
+	public boolean tryConsume()
+	{
+		long now = System.nanoTime();
+		while (true)
+		{
+			long current = this.arrivalTime.get();
+			long next = Math.max(current, now - this.tolerance) 
+					+ this.interval;
+			if (next - now > 0)
+			{
+				this.dropped.incrementAndGet();
+				return false;
+			}
+			if (this.arrivalTime.compareAndSet(current, next))
+			{ return true; }
+		}
+	}
+	
+	/**
+	 * @return rate (in frames per second)
+	 */
+	public long getRate()
+	{ return this.rate; }
+	
+	/**
+	 * @return bucket depth (in frames)
+	 */
+	public long getBurst()
+	{ return this.burst; }
+	
+	/**
+	 * @return number of frames that did not conform to the rate
+	 */
+	public long getDropped()
+	{ return this.dropped.get(); }
+	
+	public String toString()
+	{ 
+		return String.format("%d pps burst %d, %d dropped", this.rate, 
+				this.burst, this.getDropped()); 
+	}
+}
@@ -0,0 +1,97 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import java.util.BitSet;
+
+/**
+ * VLAN configuration for a switch port. An access port carries untagged
+ * frames for a single VLAN; a trunk port carries tagged frames for a set
+ * of VLANs. Configurations are immutable, so they may be shared.
+ */
+public class VlanPortConfig 
+{
+	/** VLAN for ports without an explicit configuration */
+	public static final short DEFAULT_VLAN = 1;
+	
+	/** Smallest valid VLAN ID */
+	public static final short MIN_VLAN = 1;
+	
+	/** Largest valid VLAN ID */
+	public static final short MAX_VLAN = 4094;
+	
+	/** Configuration of ports without an explicit configuration */
+	public static final VlanPortConfig DEFAULT = 
+			new VlanPortConfig(DEFAULT_VLAN);
+	
+	/** True if the port is a trunk port, false if it is an access port */
+	private final boolean trunk;
+	
+	/** VLAN of an access port */
+	private final short accessVlan;
+	
+	/** VLANs carried by a trunk port */
+	private final BitSet trunkVlans;
+	
+	/**
+	 * Create the configuration for an access port.
+	 * @param accessVlan VLAN to which untagged frames on the port belong
+	 */
+	public VlanPortConfig(short accessVlan)
+	{
+		this.trunk = false;
+		this.accessVlan = accessVlan;
+		this.trunkVlans = null;
+	}
+	
+	/**
+	 * Create the configuration for a trunk port.
+	 * @param trunkVlans VLANs whose tagged frames are carried by the port
+	 */
+	public VlanPortConfig(BitSet trunkVlans)
+	{
+		this.trunk = true;
+		this.accessVlan = 0;
+		this.trunkVlans = (BitSet)trunkVlans.clone();
+	}
+	
+	/**
+	 * @return true if the port is a trunk port, false if it is an access port
+	 */
+	public boolean isTrunk()
+	{ return this.trunk; }
+	
+	/**
+	 * @return VLAN of an access port
+	 */
+	public short getAccessVlan()
+	{ return this.accessVlan; }
+	
+	/**
+	 * @param vlan VLAN ID
+	 * @return true if frames for the VLAN may enter or leave the port
+	 */
+	public boolean carries(short vlan)
+	{
+		if (this.trunk)
+		{ return this.trunkVlans.get(vlan); }
+		return (vlan == this.accessVlan);
+	}
+	
+	/**
+	 * Add the VLANs carried by the port to a set.
+	 * @param vlans set of VLAN IDs
+	 */
+	public void addVlansTo(BitSet vlans)
+	{
+		if (this.trunk)
+		{ vlans.or(this.trunkVlans); }
+		else
+		{ vlans.set(this.accessVlan); }
+	}
+	
+	public String toString()
+	{
+		if (this.trunk)
+		{ return "trunk " + this.trunkVlans.toString(); }
+		return "access " + this.accessVlan;
+	}
+}
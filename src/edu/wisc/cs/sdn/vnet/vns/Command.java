@@ -14,6 +14,7 @@ public abstract class Command
 	public static final int VNS_AUTH_REQUEST = 128;
 	public static final int VNS_AUTH_REPLY = 256;
 	public static final int VNS_AUTH_STATUS = 512;
+	public static final int VNS_PACKET_BATCH = 1024;
 	
 	public static final int ID_SIZE = 32;
 	
@@ -9,6 +9,9 @@ public class CommandHwEntry
 	public static final int HW_ETH_IP = 4;
 	public static final int HW_MASK = 8;
 	
+	/** Advertises that the server accepts and sends packet batches */
+	public static final int HW_PACKET_BATCH = 16;
+	
 	protected int mKey;
 	protected byte [] value;
 	
@@ -4,50 +4,122 @@ import java.nio.ByteBuffer;
 
 import net.floodlightcontroller.packet.Ethernet;
 
+import edu.wisc.cs.sdn.vnet.Iface;
+
 public class CommandPacket extends Command
 {
-	protected String mInterfaceName;
+	public static final int IFACE_NAME_SIZE = Iface.NAME_FIELD_SIZE;
+	public static final int HEADER_SIZE = 4 + 4 + IFACE_NAME_SIZE;
+	
+	/** Interface the packet is sent on */
+	protected Iface mInterface;
 	protected Ethernet etherPacket;
 	
+	/** Buffer holding the raw Ethernet frame; the frame is only parsed into
+	 *  etherPacket if the device asks for it */
+	protected byte[] frame;
+	protected int frameOffset;
+	protected int frameLength;
+	
+	/** Offset of the interface name field in the frame's buffer; the name
+	 *  is matched to an interface without being decoded */
+	protected int nameOffset;
+	
 	public CommandPacket()
-	{ super(Command.VNS_PACKET); }
+	{ this(Command.VNS_PACKET); }
+	
+	protected CommandPacket(int mType)
+	{ super(mType); }
 	
 	protected CommandPacket deserialize(ByteBuffer buf)
 	{
 		super.deserialize(buf);
 				
-		byte[] tmpBytes = new byte[16];
-		buf.get(tmpBytes);
-		this.mInterfaceName = new String(tmpBytes).trim();
+		this.readInterfaceName(buf);
 		
-        this.etherPacket = new Ethernet();
-		this.etherPacket.deserialize(buf.array(), buf.position(),
-				buf.capacity() - buf.position());
+		this.frame = buf.array();
+		this.frameOffset = buf.arrayOffset() + buf.position();
+		this.frameLength = buf.remaining();
+		this.etherPacket = null;
 		
 		return this;
 	}
 	
+	/**
+	 * @return the Ethernet packet carried by the command, parsing the raw 
+	 *         frame if necessary
+	 */
+	protected Ethernet getEtherPacket()
+	{
+		if (null == this.etherPacket && this.frame != null)
+		{
+			this.etherPacket = new Ethernet();
+			this.etherPacket.deserialize(this.frame, this.frameOffset,
+					this.frameLength);
+		}
+		return this.etherPacket;
+	}
+	
+	protected void readInterfaceName(ByteBuffer buf)
+	{
+		this.nameOffset = buf.arrayOffset() + buf.position();
+		buf.position(buf.position() + IFACE_NAME_SIZE);
+	}
+	
 	protected int getSize()
-	{ return super.getSize() + 16; }
+	{ return super.getSize() + IFACE_NAME_SIZE; }
+	
+	/**
+	 * Write the header of a packet command into a buffer.
+	 * @param buf buffer in which to write the header
+	 * @param pos offset of the start of the command in the buffer
+	 * @param cmdLen length of the command, including the frame
+	 * @param iface interface the frame is sent on
+	 */
+	protected static void writeHeader(byte[] buf, int pos, int cmdLen,
+			Iface iface)
+	{
+		ByteBuffer bb = ByteBuffer.wrap(buf, pos, HEADER_SIZE);
+		bb.putInt(cmdLen);
+		bb.putInt(Command.VNS_PACKET);
+		writeInterfaceName(buf, pos, iface);
+	}
+	
+	/**
+	 * Overwrite the interface name field of a packet command in a buffer.
+	 * @param buf buffer containing the command
+	 * @param pos offset of the start of the command in the buffer
+	 * @param iface interface the frame is sent on
+	 */
+	protected static void writeInterfaceName(byte[] buf, int pos, Iface iface)
+	{
+		System.arraycopy(iface.getNameField(), 0, buf, 
+				pos + HEADER_SIZE - IFACE_NAME_SIZE, IFACE_NAME_SIZE);
+	}
 	
 	protected byte[] serialize()
 	{
-		byte[] packet = this.etherPacket.serialize();
-		int size = this.getSize() + packet.length;
+		int packetLength;
+		if (this.etherPacket != null)
+		{ packetLength = this.etherPacket.getSerializedLength(); }
+		else
+		{ packetLength = this.frameLength; }
+		int size = this.getSize() + packetLength;
 		this.mLen = size;
 		
 		byte[] data = new byte[size];
-        ByteBuffer bb = ByteBuffer.wrap(data);
-        
-        byte[] parentData = super.serialize();
-        
-        bb.put(parentData);
-        byte[] tmp = new byte[16];
-        System.arraycopy(this.mInterfaceName.getBytes(), 0, tmp, 0, 
-                this.mInterfaceName.length());
-        bb.put(tmp);
-        bb.put(packet);
-        
-        return data;
+		writeHeader(data, 0, size, this.mInterface);
+		if (this.etherPacket != null)
+		{
+			this.etherPacket.serializeTo(ByteBuffer.wrap(data, HEADER_SIZE,
+					packetLength));
+		}
+		else
+		{
+			System.arraycopy(this.frame, this.frameOffset, data, HEADER_SIZE,
+					packetLength);
+		}
+		
+		return data;
 	}
 }
@@ -0,0 +1,89 @@
+package edu.wisc.cs.sdn.vnet.vns;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Carries several frames, each with the interface it was received or is
+ * to be sent on, in a single command. The body is a record count followed
+ * by the records; each record is an interface name, a frame length, and 
+ * the frame. Batches are only exchanged once both ends have agreed to: 
+ * the server lists {@link CommandHwEntry#HW_PACKET_BATCH} in its hardware 
+ * info, and the client answers with an empty batch.
+ */
+public class CommandPacketBatch extends CommandPacket
+{
+	public static final int HEADER_SIZE = 4 + 4 + 4;
+	public static final int RECORD_HEADER_SIZE = IFACE_NAME_SIZE + 4;
+	
+	/** Largest batch sent to the server; the limit the server keeps its own
+	 *  batches to (VNSPacketBatch.MAX_SIZE), since it has not said it reads
+	 *  larger ones */
+	public static final int MAX_SIZE = 8192;
+	
+	/** Number of records left to read */
+	protected int mCount;
+	
+	public CommandPacketBatch()
+	{
+		super(Command.VNS_PACKET_BATCH);
+		this.mLen = HEADER_SIZE;
+	}
+	
+	protected CommandPacketBatch deserialize(ByteBuffer buf)
+	{
+		this.mLen = buf.getInt();
+		this.mType = buf.getInt();
+		this.mCount = buf.getInt();
+		return this;
+	}
+	
+	/**
+	 * Read the next record; the frame refers to the buffer's array.
+	 * @param buf buffer positioned at the record
+	 * @return false if there are no more records, or the record is 
+	 *         truncated
+	 */
+	protected boolean nextRecord(ByteBuffer buf)
+	{
+		if (this.mCount <= 0 || buf.remaining() < RECORD_HEADER_SIZE)
+		{ return false; }
+		this.readInterfaceName(buf);
+		int length = buf.getInt();
+		if (length < 0 || length > buf.remaining())
+		{ return false; }
+		
+		this.frame = buf.array();
+		this.frameOffset = buf.arrayOffset() + buf.position();
+		this.frameLength = length;
+		this.etherPacket = null;
+		buf.position(buf.position() + length);
+		this.mCount--;
+		return true;
+	}
+	
+	/**
+	 * Write the header of a batch command into a buffer.
+	 * @param buf buffer in which to write the header
+	 * @param pos offset of the start of the command in the buffer
+	 * @param cmdLen length of the command, including the records
+	 * @param count number of records
+	 */
+	protected static void writeHeader(byte[] buf, int pos, int cmdLen,
+			int count)
+	{
+		ByteBuffer bb = ByteBuffer.wrap(buf, pos, HEADER_SIZE);
+		bb.putInt(cmdLen);
+		bb.putInt(Command.VNS_PACKET_BATCH);
+		bb.putInt(count);
+	}
+	
+	/**
+	 * @return an empty batch, which tells the server batches are accepted
+	 */
+	protected byte[] serialize()
+	{
+		byte[] data = new byte[HEADER_SIZE];
+		writeHeader(data, 0, HEADER_SIZE, 0);
+		return data;
+	}
+}
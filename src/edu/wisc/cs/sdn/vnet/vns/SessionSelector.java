@@ -0,0 +1,109 @@
+package edu.wisc.cs.sdn.vnet.vns;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Waits on a single selector for the server connections of many devices,
+ * and hands each connection with data waiting to a shared pool of threads,
+ * so one JVM can host many devices without a thread per device. A
+ * connection is not selected again until its data has been handled, so
+ * each device handles its commands on one thread at a time, in order.
+ */
+public class SessionSelector
+{
+	private Selector selector;
+
+	/** Threads that handle the commands received */
+	private Executor workers;
+
+	/** Connections whose data has been handled, to be selected again, and
+	 *  connections that were closed */
+	private Queue<SelectionKey> handled;
+	private Queue<SelectionKey> closed;
+
+	/** Number of connections still open */
+	private int open;
+
+	/**
+	 * Create a selector without connections.
+	 * @param workers threads that handle the commands received
+	 */
+	public SessionSelector(Executor workers) throws IOException
+	{
+		this.selector = Selector.open();
+		this.workers = workers;
+		this.handled = new ConcurrentLinkedQueue<SelectionKey>();
+		this.closed = new ConcurrentLinkedQueue<SelectionKey>();
+		this.open = 0;
+	}
+
+	/**
+	 * Wait on the selector for a device's server connection; must be called
+	 * before {@link #run()}.
+	 * @param vnsComm communication manager for the device
+	 */
+	public void add(VNSComm vnsComm) throws IOException
+	{
+		vnsComm.register(this.selector);
+		this.open++;
+	}
+
+	/**
+	 * Hand connections with data waiting to the workers until every
+	 * connection has been closed.
+	 */
+	public void run() throws IOException
+	{
+		while (this.open > 0)
+		{
+			this.selector.select();
+			for (final SelectionKey key : this.selector.selectedKeys())
+			{
+				key.interestOps(0);
+				this.workers.execute(new Runnable()
+				{
+					public void run()
+					{ handle(key); }
+				});
+			}
+			this.selector.selectedKeys().clear();
+
+			SelectionKey key;
+			while ((key = this.handled.poll()) != null)
+			{
+				if (key.isValid())
+				{ key.interestOps(SelectionKey.OP_READ); }
+			}
+			while ((key = this.closed.poll()) != null)
+			{
+				key.cancel();
+				this.open--;
+			}
+		}
+		this.selector.close();
+	}
+
+	/**
+	 * Handle the data waiting on a connection, on a worker.
+	 * @param key key for the connection
+	 */
+	private void handle(SelectionKey key)
+	{
+		VNSComm vnsComm = (VNSComm)key.attachment();
+		boolean ok;
+		try
+		{ ok = vnsComm.readAvailable(); }
+		catch (RuntimeException e)
+		{
+			e.printStackTrace();
+			ok = false;
+		}
+		(ok ? this.handled : this.closed).add(key);
+		this.selector.wakeup();
+	}
+}
@@ -0,0 +1,330 @@
+package edu.wisc.cs.sdn.vnet.vns;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Coalesces commands sent to the server so that several of them go out in
+ * a single write. Commands are serialized straight into the queue's
+ * buffer. While a batch is open (the device is working through commands
+ * that arrived together) they are held until the batch ends, the buffer
+ * fills, or the oldest command has waited the maximum latency; outside a
+ * batch every command is written immediately.
+ * <p>
+ * To add commands, hold the queue's lock, call {@link #reserve(int)}, write
+ * the commands into {@link #getBuffer()} at the returned offset, and call
+ * {@link #commit(int, int)}.
+ * <p>
+ * Once the server has agreed to packet batches, a write of several packet
+ * commands is sent as one batch command instead; the queue is written
+ * before a batch would grow past {@link CommandPacketBatch#MAX_SIZE}.
+ */
+public class TransmitQueue
+{
+	/** Default size of the buffer commands are coalesced in */
+	public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+	/** Default longest time a command is held before it is written */
+	public static final long DEFAULT_MAX_LATENCY = 1000000L;
+
+	/** Number of histogram buckets; bucket i counts values up to 2^i */
+	private static final int BUCKETS = 16;
+
+	/** Space kept in front of the queued commands for a batch header */
+	private static final int PREFIX = CommandPacketBatch.HEADER_SIZE;
+
+	private WritableByteChannel channel;
+	private byte[] buffer;
+	private ByteBuffer writeBuffer;
+	private long maxLatency;
+
+	/** End of the commands queued and not yet written, which start after
+	 *  the prefix, and the number of them */
+	private int length;
+	private int commands;
+
+	/** When the oldest queued command was added */
+	private long firstQueued;
+
+	/** True while commands are being held for a batch */
+	private boolean batching;
+
+	/** True if writes of several packets are sent as a batch command */
+	private boolean packetBatching;
+
+	/** Number of writes that flushed each number of commands */
+	private long[] batchSizes;
+
+	/** Number of writes whose oldest command waited each number of
+	 *  microseconds, including the write itself */
+	private long[] flushLatencies;
+
+	private long flushes;
+	private long batchCommands;
+	private long flushedCommands;
+	private long totalLatency;
+	private long maxFlushLatency;
+
+	/**
+	 * Create a transmit queue with the default capacity and latency bound.
+	 * @param channel channel to which commands are written
+	 */
+	public TransmitQueue(WritableByteChannel channel)
+	{ this(channel, DEFAULT_CAPACITY, DEFAULT_MAX_LATENCY); }
+
+	/**
+	 * Create a transmit queue.
+	 * @param channel channel to which commands are written
+	 * @param capacity size of the buffer in which commands are coalesced
+	 * @param maxLatency longest time, in nanoseconds, a command is held
+	 */
+	public TransmitQueue(WritableByteChannel channel, int capacity,
+			long maxLatency)
+	{
+		this.channel = channel;
+		this.buffer = new byte[PREFIX + capacity];
+		this.writeBuffer = ByteBuffer.wrap(this.buffer);
+		this.length = PREFIX;
+		this.maxLatency = maxLatency;
+		this.batchSizes = new long[BUCKETS];
+		this.flushLatencies = new long[BUCKETS];
+	}
+
+	/**
+	 * @return buffer in which reserved commands are written
+	 */
+	public byte[] getBuffer()
+	{ return this.buffer; }
+
+	/**
+	 * Make room for commands at the end of the queue. Queued commands are
+	 * written first if the new ones do not fit.
+	 * @param size total size of the commands
+	 * @return offset in {@link #getBuffer()} at which to write the commands
+	 */
+	public synchronized int reserve(int size) throws IOException
+	{
+		if (this.length + size > this.buffer.length
+				|| (this.packetBatching && this.getBatchLength() + size 
+						> CommandPacketBatch.MAX_SIZE))
+		{ this.flush(); }
+		if (PREFIX + size > this.buffer.length)
+		{
+			this.buffer = new byte[PREFIX + size];
+			this.writeBuffer = ByteBuffer.wrap(this.buffer);
+		}
+		return this.length;
+	}
+
+	/**
+	 * Add commands written at the last reserved offset to the queue. The
+	 * queue is written now unless a batch is open and the oldest command
+	 * is still within the latency bound.
+	 * @param count number of commands written
+	 * @param size total size of the commands
+	 */
+	public synchronized void commit(int count, int size) throws IOException
+	{
+		if (0 == this.commands)
+		{ this.firstQueued = System.nanoTime(); }
+		this.length += size;
+		this.commands += count;
+		if (!this.batching)
+		{ this.flush(); }
+		else
+		{ this.flushIfDue(); }
+	}
+
+	/**
+	 * Add commands that were serialized elsewhere to the queue.
+	 * @param buf buffer containing the commands
+	 * @param offset offset of the first command in the buffer
+	 * @param size total size of the commands
+	 * @param count number of commands
+	 */
+	public synchronized void enqueue(byte[] buf, int offset, int size,
+			int count) throws IOException
+	{
+		int pos = this.reserve(size);
+		System.arraycopy(buf, offset, this.buffer, pos, size);
+		this.commit(count, size);
+	}
+	
+	/**
+	 * Start holding commands until the batch ends.
+	 */
+	public synchronized void beginBatch()
+	{ this.batching = true; }
+
+	/**
+	 * Stop holding commands, and write any that are queued.
+	 */
+	public synchronized void endBatch() throws IOException
+	{
+		this.batching = false;
+		this.flush();
+	}
+
+	/**
+	 * @param packetBatching true if writes of several packet commands 
+	 *        should be sent as a single batch command
+	 */
+	public synchronized void setPacketBatching(boolean packetBatching)
+	{ this.packetBatching = packetBatching; }
+
+	/**
+	 * Write the queued commands if the oldest has waited the maximum
+	 * latency.
+	 */
+	public synchronized void flushIfDue() throws IOException
+	{
+		if (this.commands > 0
+				&& System.nanoTime() - this.firstQueued >= this.maxLatency)
+		{ this.flush(); }
+	}
+
+	/**
+	 * Write all queued commands to the channel.
+	 */
+	public synchronized void flush() throws IOException
+	{
+		if (0 == this.commands)
+		{ return; }
+
+		int count = this.commands;
+		this.writeBuffer.clear();
+		int start = PREFIX;
+		int end = this.length;
+		if (this.packetBatching && count > 1)
+		{
+			int batchLength = this.toBatch();
+			if (batchLength > 0)
+			{
+				start = 0;
+				end = batchLength;
+				this.batchCommands++;
+			}
+		}
+		this.writeBuffer.limit(end);
+		this.writeBuffer.position(start);
+		this.length = PREFIX;
+		this.commands = 0;
+		while (this.writeBuffer.hasRemaining())
+		{ this.channel.write(this.writeBuffer); }
+
+		long latency = System.nanoTime() - this.firstQueued;
+		this.flushes++;
+		this.flushedCommands += count;
+		this.totalLatency += latency;
+		this.maxFlushLatency = Math.max(this.maxFlushLatency, latency);
+		this.batchSizes[bucket(count)]++;
+		this.flushLatencies[bucket(latency / 1000)]++;
+	}
+
+	/**
+	 * @return length of a batch command holding the queued commands, if 
+	 *         they are all packets
+	 */
+	private int getBatchLength()
+	{ 
+		return CommandPacketBatch.HEADER_SIZE + (this.length - PREFIX) 
+				- 4 * this.commands; 
+	}
+
+	/**
+	 * Rewrite the queued commands, in place, as the records of one batch
+	 * command starting at the front of the buffer. A record is 4 bytes
+	 * shorter than the command it comes from, so with the space kept in 
+	 * front no record is written past the start of its command.
+	 * @return length of the batch command, or -1 if a queued command is not
+	 *         a packet or the batch would be too large
+	 */
+	private int toBatch()
+	{
+		if (this.getBatchLength() > CommandPacketBatch.MAX_SIZE)
+		{ return -1; }
+		
+		ByteBuffer bb = this.writeBuffer;
+		for (int pos = PREFIX; pos < this.length; pos += bb.getInt(pos))
+		{
+			if (bb.getInt(pos + 4) != Command.VNS_PACKET)
+			{ return -1; }
+		}
+
+		int out = CommandPacketBatch.HEADER_SIZE;
+		int pos = PREFIX;
+		while (pos < this.length)
+		{
+			int cmdLen = bb.getInt(pos);
+			int frameLen = cmdLen - CommandPacket.HEADER_SIZE;
+			System.arraycopy(this.buffer, pos + 8, this.buffer, out,
+					CommandPacket.IFACE_NAME_SIZE);
+			bb.putInt(out + CommandPacket.IFACE_NAME_SIZE, frameLen);
+			System.arraycopy(this.buffer, pos + CommandPacket.HEADER_SIZE,
+					this.buffer, out + CommandPacketBatch.RECORD_HEADER_SIZE,
+					frameLen);
+			out += CommandPacketBatch.RECORD_HEADER_SIZE + frameLen;
+			pos += cmdLen;
+		}
+		CommandPacketBatch.writeHeader(this.buffer, 0, out, this.commands);
+		return out;
+	}
+
+	private static int bucket(long value)
+	{
+		int bucket = 64 - Long.numberOfLeadingZeros(Math.max(value - 1, 0));
+		return Math.min(bucket, BUCKETS - 1);
+	}
+
+	/**
+	 * @return number of writes that flushed each number of commands; entry
+	 *         i counts writes of more than 2^(i-1) and at most 2^i commands
+	 */
+	public synchronized long[] getBatchSizes()
+	{ return this.batchSizes.clone(); }
+
+	/**
+	 * @return number of writes whose oldest command waited each number of
+	 *         microseconds; entry i counts latencies of more than 2^(i-1)
+	 *         and at most 2^i microseconds
+	 */
+	public synchronized long[] getFlushLatencies()
+	{ return this.flushLatencies.clone(); }
+
+	private static String histogram(long[] counts, String unit)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < counts.length; i++)
+		{
+			if (0 == counts[i])
+			{ continue; }
+			String range;
+			if (i <= 1)
+			{ range = Integer.toString(1 << i); }
+			else if (i < counts.length - 1)
+			{ range = String.format("%d-%d", (1 << (i - 1)) + 1, 1 << i); }
+			else
+			{ range = String.format(">%d", 1 << (i - 1)); }
+			sb.append(String.format("  %s %s\t%d\n", range, unit, counts[i]));
+		}
+		return sb.toString();
+	}
+
+	public synchronized String toString()
+	{
+		long flushes = Math.max(this.flushes, 1);
+		return String.format("writes\t\t%d\n"
+				+ "batch commands\t%d\n"
+				+ "commands/write\t%.2f\n"
+				+ "latency avg\t%.1f us\n"
+				+ "latency max\t%.1f us\n"
+				+ "commands per write\n%s"
+				+ "write latency\n%s",
+				this.flushes, this.batchCommands, (double)this.flushedCommands / flushes,
+				this.totalLatency / 1000.0 / flushes,
+				this.maxFlushLatency / 1000.0,
+				histogram(this.batchSizes, "cmds"),
+				histogram(this.flushLatencies, "us"));
+	}
+}
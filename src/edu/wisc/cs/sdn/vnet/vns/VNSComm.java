@@ -1,28 +1,101 @@
 package edu.wisc.cs.sdn.vnet.vns;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.InetAddress;
-import java.net.Socket;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 
 import net.floodlightcontroller.packet.Ethernet;
 import net.floodlightcontroller.packet.MACAddress;
 
+import edu.wisc.cs.sdn.vnet.BufferPool;
 import edu.wisc.cs.sdn.vnet.Device;
 import edu.wisc.cs.sdn.vnet.Iface;
+import edu.wisc.cs.sdn.vnet.PacketBatch;
+import edu.wisc.cs.sdn.vnet.pipeline.Frame;
+import edu.wisc.cs.sdn.vnet.pipeline.Pipeline;
+import edu.wisc.cs.sdn.vnet.pipeline.Worker;
+import edu.wisc.cs.sdn.vnet.shm.ShmChannel;
 
 public class VNSComm 
 {
-	private Socket socket;
+	/** Largest command accepted from the server; enough for a jumbo frame
+	 *  or a batch of them */
+	public static final int MAX_COMMAND_SIZE = 128 * 1024;
+	
+	/** Size of the buffer the server connection is read into; must hold
+	 *  the largest command */
+	public static final int READ_BUFFER_SIZE = 2 * MAX_COMMAND_SIZE;
+	
+	/** Connection to the server, or to a hub on the same host */
+	private ByteChannel channel;
+	
+	/** Channel commands are written to; writes to the server wait for room
+	 *  even once the connection is read without blocking */
+	private WritableByteChannel output;
 	private Device device;
 	
+	/** Coalesces commands sent to the server */
+	private TransmitQueue txQueue;
+	
+	/** Threads that handle received packets, if packets are not handled
+	 *  on the thread reading from the server */
+	private Pipeline pipeline;
+	
+	/** Bytes received from the server and not yet handled; kept ready for
+	 *  reading between calls, with any partial command at the end */
+	private ByteBuffer readBuffer;
+	
+	/** Holds the command being handled; frames passed to the device point
+	 *  into this array, so it is only valid until the device returns. Taken
+	 *  from the buffer pool, and swapped for a larger one when a command
+	 *  does not fit */
+	private byte[] command;
+	private ByteBuffer commandBuffer;
+	private CommandPacket commandPacket;
+	private CommandPacketBatch commandPacketBatch;
+	
+	/** True if packet batches may be used, if the server supports them */
+	private boolean packetBatching;
+	
+	/** Packets received together, stored in the batch's arena, and a 
+	 *  buffer over that arena */
+	private PacketBatch rxBatch;
+	private ByteBuffer batchBuffer;
+	
+	/** Number of reads from the server */
+	private long reads;
+	
+	/** Number of bytes received from the server */
+	private long bytesRead;
+	
+	/** Number of commands received from the server */
+	private long commandsRead;
+	
 	public VNSComm(Device device)
 	{ 
 		this.device = device;
 		this.device.setVNSComm(this);
+		this.readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+		this.readBuffer.flip();
+		this.command = BufferPool.getShared().acquire(BufferPool.MIN_SIZE);
+		this.commandBuffer = ByteBuffer.wrap(this.command);
+		this.commandPacket = new CommandPacket();
+		this.commandPacketBatch = new CommandPacketBatch();
+		this.packetBatching = true;
+		this.rxBatch = new PacketBatch(PacketBatch.DEFAULT_CAPACITY, 
+				READ_BUFFER_SIZE);
+		this.batchBuffer = ByteBuffer.wrap(this.rxBatch.getArena());
 	}
 	
 	public boolean connectToServer(short port, String server)
@@ -37,14 +110,44 @@ public class VNSComm
 			return false;
 		}
 		
-		// Create socket and attempt to connect to the server
+		// Create channel and attempt to connect to the server
+		SocketChannel socket;
 		try 
-		{ socket = new Socket(addr, port); }
+		{ socket = SocketChannel.open(new InetSocketAddress(addr, port)); }
 		catch (IOException e) 
 		{
 			e.printStackTrace();
 			return false;
 		}
+		this.channel = socket;
+		this.output = new WaitingWriteChannel(socket);
+		
+		return this.openSession();
+	}
+	
+	/**
+	 * Exchange commands with a hub on the same host, over shared-memory
+	 * rings, instead of with the server.
+	 * @param dir directory holding the hub's rings
+	 * @return true if the session was opened
+	 */
+	public boolean connectToHub(File dir)
+	{
+		try
+		{ this.channel = ShmChannel.connect(dir, this.device.getHost()); }
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			return false;
+		}
+		this.output = this.channel;
+		
+		return this.openSession();
+	}
+	
+	private boolean openSession()
+	{
+		this.txQueue = new TransmitQueue(this.output);
 		
 		// Send VNS_OPEN message to server
 		CommandOpen cmdOpen = new CommandOpen();
@@ -52,11 +155,7 @@ public class VNSComm
 		byte[] buf = cmdOpen.serialize();
 		
 		try
-		{
-			OutputStream outStream = socket.getOutputStream();
-			outStream.write(buf);
-            outStream.flush();
-		}
+		{ this.write(buf, buf.length); }
 		catch(IOException e)
 		{
 			e.printStackTrace();
@@ -69,6 +168,7 @@ public class VNSComm
 	private boolean handleHwInfo(CommandHwInfo cmdHwInfo)
 	{
 		Iface lastIface = null;
+		boolean serverBatches = false;
 		for (CommandHwEntry hwEntry : cmdHwInfo.mHwInfo)
 		{
 			switch(hwEntry.mKey)
@@ -86,6 +186,9 @@ public class VNSComm
 			case CommandHwEntry.HW_ETHER:
 				lastIface.setMacAddress(new MACAddress(hwEntry.value));
 				break;
+			case CommandHwEntry.HW_PACKET_BATCH:
+				serverBatches = true;
+				break;
 			default:
 				System.out.println(String.format(" %d", hwEntry.mKey));
 			}
@@ -100,81 +203,163 @@ public class VNSComm
 			{ System.out.println(iface.toString()); }
 		}
 		
+		// Tell the server batches are accepted, and start sending them
+		if (serverBatches && this.packetBatching)
+		{
+			byte[] buf = new CommandPacketBatch().serialize();
+			try
+			{ this.write(buf, buf.length); }
+			catch(IOException e)
+			{
+				e.printStackTrace();
+				return false;
+			}
+			this.txQueue.setPacketBatching(true);
+			System.out.println("Exchanging packets in batches");
+		}
+		
 		return true;
 	}
 	
+	/**
+	 * @param packetBatching false if each packet should be exchanged with
+	 *        the server in its own command, even if the server supports 
+	 *        packet batches; must be set before connecting
+	 */
+	public void setPacketBatching(boolean packetBatching)
+	{ this.packetBatching = packetBatching; }
+	
 	public boolean readFromServer()
 	{ return this.readFromServerExpect(0); }
 	
-	public boolean readFromServerExpect(int expectedCmd)
+	/**
+	 * Have a selector wait for the server instead of the thread handling 
+	 * commands; the connection is read without blocking from then on, with
+	 * {@link #readAvailable()}. Only server connections can be selected.
+	 * @param selector selector to wait on
+	 * @return key for the connection, with this as its attachment
+	 */
+	public SelectionKey register(Selector selector) throws IOException
 	{
-		int bytesRead = 0;
-		InputStream inStream = null;
-		
-		// Get input stream
-		try 
-		{ inStream = this.socket.getInputStream(); } 
-		catch (IOException e) 
-		{
-			e.printStackTrace();
-			return false;
-		}
-		
-		// Attempt to read the size of the incoming packet
-		byte[] lenBytes = new byte[4];
-		while (bytesRead < 4)
+		if (!(this.channel instanceof SocketChannel))
+		{ throw new IOException("Only server connections can be selected"); }
+		SocketChannel socket = (SocketChannel)this.channel;
+		socket.configureBlocking(false);
+		return socket.register(selector, SelectionKey.OP_READ, this);
+	}
+	
+	/**
+	 * Read what the server has sent, without waiting for more, and handle
+	 * every whole command received. Packets sent while the commands are 
+	 * handled are held and sent together. Only one thread may call this at
+	 * a time.
+	 * @return false if the connection was closed or failed
+	 */
+	public boolean readAvailable()
+	{
+		this.txQueue.beginBatch();
+		try
 		{
-			try 
+			while (true)
 			{
-				int ret = inStream.read(lenBytes, bytesRead, 4 - bytesRead);
+				this.readBuffer.compact();
+				int ret;
+				try
+				{ ret = this.channel.read(this.readBuffer); }
+				catch (IOException e)
+				{
+					e.printStackTrace();
+					ret = -1;
+				}
+				this.readBuffer.flip();
 				if (ret < 0)
-				{ throw new Exception(); }
-				bytesRead += ret;
-			} 
-			catch (Exception e) 
-			{
-				e.printStackTrace();
-				return false;
+				{ return false; }
+				if (ret > 0)
+				{
+					this.reads++;
+					this.bytesRead += ret;
+				}
+				
+				while (this.hasCommandToHandle())
+				{
+					if (!this.readFromServerExpect(0))
+					{ return false; }
+				}
+				
+				// Nothing more is waiting unless the last read filled the buffer
+				if (this.readBuffer.limit() < this.readBuffer.capacity())
+				{ return true; }
 			}
 		}
+		finally
+		{
+			try
+			{ this.txQueue.endBatch(); }
+			catch (IOException e)
+			{ System.err.println("Error writing packet"); }
+		}
+	}
+	
+	/**
+	 * Handle the next command from the server. Commands are taken from the
+	 * bytes already received if a whole command is there; otherwise the
+	 * connection is read, and a single read usually brings in several
+	 * commands.
+	 * @param expectedCmd the type of command expected, or 0 for any
+	 * @return false if the connection failed or the command was unexpected
+	 */
+	public boolean readFromServerExpect(int expectedCmd)
+	{
+		// Attempt to read the size of the incoming packet
+		if (!this.fillReadBuffer(4))
+		{ return false; }
+		int len = this.readBuffer.getInt(this.readBuffer.position());
 		
-		int len = ByteBuffer.wrap(lenBytes).getInt();
-		
-		if (len > 10000 || len < 0)
+		if (len > MAX_COMMAND_SIZE || len < 8)
 		{
 			System.err.println(String.format(
 					"Error: comamnd length too large %d", len));
-			try { socket.close(); } catch (IOException e) { }
+			this.close();
 			return false;
 		}
 		
-		// Allocate buffer
-		ByteBuffer buf = ByteBuffer.allocate(len);
-		
-		// Set first field of command since we've already read it
-		buf.putInt(len);
-		
 		// Read the rest of the command
-		while (bytesRead < len)
+		if (!this.fillReadBuffer(len))
 		{
-			try 
-			{
-				int ret = inStream.read(buf.array(), bytesRead, len - bytesRead);
-				if (ret < 0)
-				{ throw new Exception(); }
-				bytesRead += ret;
-			} 
-			catch (Exception e) 
+			System.err.println("Error: failed reading command body");
+			this.close();
+			return false;
+		}
+		int command = this.readBuffer.getInt(this.readBuffer.position() + 4);
+		this.commandsRead++;
+		
+		// Packets for the device are read straight into the batch it will
+		// be handed; anything else waits until the batch has been handled
+		ByteBuffer buf;
+		int start;
+		if (Command.VNS_PACKET == command && null == this.pipeline)
+		{
+			start = this.rxBatch.reserve(len);
+			if (start < 0 || this.rxBatch.isFull())
 			{
-				e.printStackTrace();
-				System.err.println("Error: failed reading command body");
-				try { socket.close(); } catch (IOException e2) { }
-				return false;
+				this.dispatchBatch();
+				start = this.rxBatch.reserve(len);
 			}
+			buf = this.batchBuffer;
+		}
+		else
+		{
+			this.dispatchBatch();
+			this.ensureCommandCapacity(len);
+			start = 0;
+			buf = this.commandBuffer;
 		}
+		this.readBuffer.get(buf.array(), start, len);
+		buf.clear();
+		buf.position(start);
+		buf.limit(start + len);
 		
 		// Make sure the command is what we expected if we were expecting something
-		int command = buf.getInt();
 		if (expectedCmd != 0 && command != expectedCmd)
 		{
 			if (command != Command.VNS_CLOSE) // VNS_CLOSE is always ok
@@ -186,20 +371,27 @@ public class VNSComm
 			}
 		}
 		
-		buf.position(0);
 		switch(command)
 		{
 		case Command.VNS_PACKET:
-			CommandPacket cmdPkt = new CommandPacket();
+			CommandPacket cmdPkt = this.commandPacket;
 			cmdPkt.deserialize(buf);
 			
-			// Log packet
-            if (this.device.getLogFile() != null)
-            { this.device.getLogFile().dump(cmdPkt.etherPacket); }
+			this.receiveFrame(cmdPkt);
 			
-			// Pass to device, student's code should take over here
-			this.device.handlePacket(cmdPkt.etherPacket, 
-					this.device.getInterface(cmdPkt.mInterfaceName));
+			// The packets from one read are handed over together
+			if (!this.hasCompleteCommand())
+			{ this.dispatchBatch(); }
+			break;
+			
+		case Command.VNS_PACKET_BATCH:
+			CommandPacketBatch cmdBatch = this.commandPacketBatch;
+			cmdBatch.deserialize(buf);
+			while (cmdBatch.nextRecord(buf))
+			{ this.receiveFrame(cmdBatch); }
+			
+			// The frames refer to the command buffer, which is reused
+			this.dispatchBatch();
 			break;
 			
 		case Command.VNS_CLOSE:
@@ -223,6 +415,152 @@ public class VNSComm
 		return true;
 	}
 	
+	/**
+	 * Pass a received frame to the pipeline, or add it to the batch for 
+	 * the device.
+	 * @param cmdPkt command holding the frame
+	 */
+	private void receiveFrame(CommandPacket cmdPkt)
+	{
+		// Log packet
+        if (this.device.getLogFile() != null)
+        { 
+        	this.device.getLogFile().dump(cmdPkt.frame, cmdPkt.frameOffset,
+        			cmdPkt.frameLength); 
+        }
+		
+		Iface inIface = this.device.getInterface(cmdPkt.frame, 
+				cmdPkt.nameOffset);
+		if (this.pipeline != null)
+		{
+			this.pipeline.receive(cmdPkt.frame, cmdPkt.frameOffset,
+					cmdPkt.frameLength, inIface);
+			return;
+		}
+		
+		// Pass to device, student's code should take over here
+		this.rxBatch.add(cmdPkt.frame, cmdPkt.frameOffset, 
+				cmdPkt.frameLength, inIface);
+		if (this.rxBatch.isFull())
+		{ this.dispatchBatch(); }
+	}
+	
+	/**
+	 * Make sure the command buffer holds at least a given number of bytes;
+	 * the contents are not kept if the buffer is swapped.
+	 * @param size number of bytes needed
+	 */
+	private void ensureCommandCapacity(int size)
+	{
+		if (this.command.length >= size)
+		{ return; }
+		BufferPool pool = BufferPool.getShared();
+		pool.release(this.command);
+		this.command = pool.acquire(size);
+		this.commandBuffer = ByteBuffer.wrap(this.command);
+	}
+	
+	/**
+	 * @return true if the read buffer holds another whole command
+	 */
+	private boolean hasCompleteCommand()
+	{
+		int remaining = this.readBuffer.remaining();
+		return remaining >= 4 && remaining >= this.readBuffer.getInt(
+				this.readBuffer.position());
+	}
+	
+	/**
+	 * @return true if the read buffer holds another whole command, or the
+	 *         start of one too large to accept
+	 */
+	private boolean hasCommandToHandle()
+	{
+		if (this.readBuffer.remaining() < 4)
+		{ return false; }
+		int len = this.readBuffer.getInt(this.readBuffer.position());
+		return (len > MAX_COMMAND_SIZE || len < 8 
+				|| this.readBuffer.remaining() >= len);
+	}
+	
+	/**
+	 * Hand the packets received so far to the device, and empty the batch.
+	 */
+	private void dispatchBatch()
+	{
+		if (0 == this.rxBatch.size())
+		{ return; }
+		try
+		{ this.device.handlePackets(this.rxBatch); }
+		finally
+		{ this.rxBatch.clear(); }
+		
+		// Don't hold sent packets longer than the latency bound
+		try
+		{ this.txQueue.flushIfDue(); }
+		catch (IOException e)
+		{ System.err.println("Error writing packet"); }
+	}
+	
+	/**
+	 * Read from the server until the read buffer holds at least a given
+	 * number of bytes. Unread bytes are moved to the front of the buffer
+	 * before each read.
+	 * @param needed number of bytes needed
+	 * @return false if the connection was closed or failed first
+	 */
+	private boolean fillReadBuffer(int needed)
+	{
+		while (this.readBuffer.remaining() < needed)
+		{
+			this.readBuffer.compact();
+			int ret;
+			try
+			{
+				// Nothing more to handle, so send everything queued before
+				// waiting for the server
+				if (null == this.pipeline)
+				{ this.txQueue.endBatch(); }
+				ret = this.channel.read(this.readBuffer);
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+				ret = -1;
+			}
+			this.readBuffer.flip();
+			if (ret < 0)
+			{ return false; }
+			this.reads++;
+			this.bytesRead += ret;
+			
+			// Hold packets sent while the commands just read are handled
+			if (null == this.pipeline)
+			{ this.txQueue.beginBatch(); }
+		}
+		return true;
+	}
+	
+	private void close()
+	{
+		try { this.channel.close(); } catch (IOException e) { }
+	}
+	
+	/**
+	 * @return a summary of how efficiently commands were read from the server
+	 */
+	public String getReadStatistics()
+	{
+		long reads = Math.max(this.reads, 1);
+		return String.format("reads\t\t%d\n"
+				+ "commands\t%d\n"
+				+ "commands/read\t%.2f\n"
+				+ "bytes/read\t%.1f\n",
+				this.reads, this.commandsRead, 
+				(double)this.commandsRead / reads, 
+				(double)this.bytesRead / reads);
+	}
+	
 	public boolean etherAddrsMatchInterface(Ethernet etherPacket, 
 			String ifaceName)
 	{
@@ -242,35 +580,275 @@ public class VNSComm
 	}
 	
 	// sr_send_packet
-	public boolean sendPacket(Ethernet etherPacket, String ifaceName)
+	public boolean sendPacket(Ethernet etherPacket, Iface iface)
 	{
-		CommandPacket cmdPacket = new CommandPacket();
-		cmdPacket.mInterfaceName = ifaceName;
-		cmdPacket.etherPacket = etherPacket;
-		
-		byte[] buf = cmdPacket.serialize();
-		
 		/*if (!etherAddrsMatchInterface(etherPacket, ifaceName))
 		{
 			System.err.println("*** Error: problem with ethernet header, check log");
 			return false;
 		}*/
 		
-		// Log packet
-        if (this.device.getLogFile() != null)
-        { this.device.getLogFile().dump(etherPacket); }
+		return this.sendPacket(etherPacket, Collections.singletonList(iface));
+	}
+	
+	/**
+	 * Send a raw Ethernet frame out an interface without parsing it.
+	 * @param frame buffer containing the frame
+	 * @param offset offset of the first byte of the frame in the buffer
+	 * @param length length of the frame
+	 * @param iface interface on which to send the frame
+	 * @return true if the frame was sent successfully, otherwise false
+	 */
+	public boolean sendRawPacket(byte[] frame, int offset, int length,
+			Iface iface)
+	{
+		return this.sendRawPacket(frame, offset, length, 
+				Collections.singletonList(iface));
+	}
+	
+	/**
+	 * Send the same Ethernet packet out several interfaces. The packet is
+	 * serialized once and copied for the other interfaces.
+	 * @param etherPacket an Ethernet packet with all fields, encapsulated
+	 * 		  headers, and payloads completed
+	 * @param ifaces interfaces on which to send the packet
+	 * @return true if the packet was sent successfully, otherwise false
+	 */
+	public boolean sendPacket(Ethernet etherPacket, Collection<Iface> ifaces)
+	{
+		return this.sendCommands(etherPacket, null, 0, 
+				etherPacket.getSerializedLength(), ifaces);
+	}
+	
+	/**
+	 * Send the same raw Ethernet frame out several interfaces. The command
+	 * for the first interface is built once and copied for the others, with
+	 * only the interface name patched in each copy.
+	 * @param frame buffer containing the frame
+	 * @param offset offset of the first byte of the frame in the buffer
+	 * @param length length of the frame
+	 * @param ifaces interfaces on which to send the frame
+	 * @return true if the frame was sent successfully, otherwise false
+	 */
+	public boolean sendRawPacket(byte[] frame, int offset, int length,
+			Collection<Iface> ifaces)
+	{ return this.sendCommands(null, frame, offset, length, ifaces); }
+	
+	/**
+	 * Queue a packet command for each interface. On a pipeline worker the
+	 * commands are handed to the transmit thread; on any other thread they
+	 * are added to the transmit queue directly.
+	 * @param etherPacket packet to serialize, or null to send a raw frame
+	 * @param frame buffer containing the raw frame
+	 * @param offset offset of the first byte of the raw frame in the buffer
+	 * @param length length of the frame
+	 * @param ifaces interfaces on which to send the frame
+	 * @return true if the frame was sent successfully, otherwise false
+	 */
+	private boolean sendCommands(Ethernet etherPacket, byte[] frame, 
+			int offset, int length, Collection<Iface> ifaces)
+	{
+		int count = ifaces.size();
+		if (0 == count)
+		{ return true; }
 		
-	    try
+		int cmdLen = CommandPacket.HEADER_SIZE + length;
+		int size = cmdLen * count;
+		Worker worker = Pipeline.currentWorker();
+		if (worker != null)
 		{
-			OutputStream outStream = socket.getOutputStream();
-			outStream.write(buf);
-            outStream.flush();
+			Frame txFrame = worker.allocateTransmit(size);
+			this.writeCommands(txFrame.getData(), 0, cmdLen, etherPacket, 
+					frame, offset, ifaces);
+			txFrame.setCommands(count, size);
+			worker.transmit(txFrame);
+			return true;
 		}
-		catch(IOException e)
+		
+		synchronized (this.txQueue)
 		{
-			System.err.println("Error writing packet");
-			return false;
+			try
+			{
+				int pos = this.txQueue.reserve(size);
+				this.writeCommands(this.txQueue.getBuffer(), pos, cmdLen, 
+						etherPacket, frame, offset, ifaces);
+				this.txQueue.commit(count, size);
+			}
+			catch(IOException e)
+			{
+				System.err.println("Error writing packet");
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Write the command for the first interface into a buffer, by 
+	 * serializing the packet or copying the raw frame, then copy it into
+	 * the following slots and patch the interface name in each copy.
+	 */
+	private void writeCommands(byte[] buf, int pos, int cmdLen, 
+			Ethernet etherPacket, byte[] frame, int offset, 
+			Collection<Iface> ifaces)
+	{
+		int length = cmdLen - CommandPacket.HEADER_SIZE;
+		Iterator<Iface> iter = ifaces.iterator();
+		CommandPacket.writeHeader(buf, pos, cmdLen, iter.next());
+		if (etherPacket != null)
+		{
+			etherPacket.serializeTo(ByteBuffer.wrap(buf, 
+					pos + CommandPacket.HEADER_SIZE, length));
+		}
+		else
+		{
+			System.arraycopy(frame, offset, buf, 
+					pos + CommandPacket.HEADER_SIZE, length);
+		}
+		
+		int count = 1;
+		for (; iter.hasNext(); count++)
+		{
+			System.arraycopy(buf, pos, buf, pos + count * cmdLen, cmdLen);
+			CommandPacket.writeInterfaceName(buf, pos + count * cmdLen, 
+					iter.next());
+		}
+		
+		// Log packets
+        if (this.device.getLogFile() != null)
+        { 
+        	for (int i = 0; i < count; i++)
+        	{
+        		this.device.getLogFile().dump(buf, 
+        				pos + i * cmdLen + CommandPacket.HEADER_SIZE, length);
+        	}
+        }
+	}
+	
+	/**
+	 * Send every frame in a batch that has an interface to leave on. The
+	 * frames for each interface are written as consecutive commands in a
+	 * single reservation of the transmit queue, in batch order.
+	 * @param batch frames to send
+	 * @return true if the frames were sent successfully, otherwise false
+	 */
+	public boolean sendPackets(PacketBatch batch)
+	{
+		boolean success = true;
+		for (int i = 0; i < batch.size(); i++)
+		{
+			Iface outIface = batch.getOutIface(i);
+			if (null == outIface || isSentEarlier(batch, i))
+			{ continue; }
+			
+			int count = 0;
+			int size = 0;
+			for (int j = i; j < batch.size(); j++)
+			{
+				if (batch.getOutIface(j) == outIface)
+				{
+					count++;
+					size += CommandPacket.HEADER_SIZE + batch.getLength(j);
+				}
+			}
+			success &= this.sendBatchCommands(batch, i, count, size);
+		}
+		return success;
+	}
+	
+	/**
+	 * @return true if an earlier frame in the batch leaves on the same 
+	 * 		   interface as frame i, so frame i was sent along with it
+	 */
+	private static boolean isSentEarlier(PacketBatch batch, int i)
+	{
+		for (int k = 0; k < i; k++)
+		{
+			if (batch.getOutIface(k) == batch.getOutIface(i))
+			{ return true; }
+		}
+		return false;
+	}
+	
+	/**
+	 * Queue a command for each frame in a batch that leaves on the same 
+	 * interface as frame first.
+	 */
+	private boolean sendBatchCommands(PacketBatch batch, int first, 
+			int count, int size)
+	{
+		Worker worker = Pipeline.currentWorker();
+		if (worker != null)
+		{
+			Frame txFrame = worker.allocateTransmit(size);
+			this.writeBatchCommands(txFrame.getData(), 0, batch, first);
+			txFrame.setCommands(count, size);
+			worker.transmit(txFrame);
+			return true;
+		}
+		
+		synchronized (this.txQueue)
+		{
+			try
+			{
+				int pos = this.txQueue.reserve(size);
+				this.writeBatchCommands(this.txQueue.getBuffer(), pos, batch,
+						first);
+				this.txQueue.commit(count, size);
+			}
+			catch(IOException e)
+			{
+				System.err.println("Error writing packet");
+				return false;
+			}
 		}
 		return true;
 	}
+	
+	private void writeBatchCommands(byte[] buf, int pos, PacketBatch batch,
+			int first)
+	{
+		Iface outIface = batch.getOutIface(first);
+		for (int j = first; j < batch.size(); j++)
+		{
+			if (batch.getOutIface(j) != outIface)
+			{ continue; }
+			
+			int length = batch.getLength(j);
+			int cmdLen = CommandPacket.HEADER_SIZE + length;
+			CommandPacket.writeHeader(buf, pos, cmdLen, outIface);
+			System.arraycopy(batch.getData(j), batch.getOffset(j), buf, 
+					pos + CommandPacket.HEADER_SIZE, length);
+			
+			// Log packet
+	        if (this.device.getLogFile() != null)
+	        { 
+	        	this.device.getLogFile().dump(buf, 
+	        			pos + CommandPacket.HEADER_SIZE, length);
+	        }
+			pos += cmdLen;
+		}
+	}
+	
+	/**
+	 * @return the queue through which commands are sent to the server
+	 */
+	public TransmitQueue getTransmitQueue()
+	{ return this.txQueue; }
+	
+	/**
+	 * Hand received packets to a pipeline instead of handling them on the 
+	 * thread reading from the server. The pipeline sends through the 
+	 * transmit queue and controls its batching.
+	 * @param pipeline pipeline to hand packets to, or null
+	 */
+	public void setPipeline(Pipeline pipeline)
+	{ this.pipeline = pipeline; }
+	
+	private void write(byte[] buf, int length) throws IOException
+	{
+		ByteBuffer bb = ByteBuffer.wrap(buf, 0, length);
+		while (bb.hasRemaining())
+		{ this.output.write(bb); }
+	}
 }
@@ -0,0 +1,56 @@
+package edu.wisc.cs.sdn.vnet.vns;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes to a server connection the same way whether or not the connection
+ * blocks. Once a connection is read through a selector it no longer blocks,
+ * so a write can find no room; rather than spin, the writer then waits on a
+ * selector of its own until there is room.
+ */
+class WaitingWriteChannel implements WritableByteChannel
+{
+	private final SocketChannel socket;
+
+	/** Selector for waiting until there is room; opened when first needed */
+	private Selector selector;
+
+	WaitingWriteChannel(SocketChannel socket)
+	{ this.socket = socket; }
+
+	/**
+	 * Write at least some of the bytes, waiting for room if there is none.
+	 * @return number of bytes written
+	 */
+	public synchronized int write(ByteBuffer src) throws IOException
+	{
+		int written = this.socket.write(src);
+		while (0 == written && src.hasRemaining())
+		{
+			if (null == this.selector)
+			{
+				this.selector = Selector.open();
+				this.socket.register(this.selector, SelectionKey.OP_WRITE);
+			}
+			this.selector.select();
+			this.selector.selectedKeys().clear();
+			written = this.socket.write(src);
+		}
+		return written;
+	}
+
+	public boolean isOpen()
+	{ return this.socket.isOpen(); }
+
+	public synchronized void close() throws IOException
+	{
+		if (this.selector != null)
+		{ this.selector.close(); }
+		this.socket.close();
+	}
+}
@@ -207,11 +207,13 @@ public class ARP extends BasePacket {
     }
 
     @Override
-    public byte[] serialize() {
-        int length = 8 + (2 * (0xff & this.hardwareAddressLength))
+    public int getSerializedLength() {
+        return 8 + (2 * (0xff & this.hardwareAddressLength))
                 + (2 * (0xff & this.protocolAddressLength));
-        byte[] data = new byte[length];
-        ByteBuffer bb = ByteBuffer.wrap(data);
+    }
+
+    @Override
+    public ByteBuffer serializeTo(ByteBuffer bb) {
         bb.putShort(this.hardwareType);
         bb.putShort(this.protocolType);
         bb.put(this.hardwareAddressLength);
@@ -221,12 +223,25 @@ public class ARP extends BasePacket {
         bb.put(this.senderProtocolAddress, 0, 0xff & this.protocolAddressLength);
         bb.put(this.targetHardwareAddress, 0, 0xff & this.hardwareAddressLength);
         bb.put(this.targetProtocolAddress, 0, 0xff & this.protocolAddressLength);
-        return data;
+        return bb;
+    }
+
+    @Override
+    protected void reset() {
+        super.reset();
+        this.hardwareType = 0;
+        this.protocolType = 0;
+        this.hardwareAddressLength = 0;
+        this.protocolAddressLength = 0;
+        this.opCode = 0;
+        this.senderHardwareAddress = null;
+        this.senderProtocolAddress = null;
+        this.targetHardwareAddress = null;
+        this.targetProtocolAddress = null;
     }
 
     @Override
-    public IPacket deserialize(byte[] data, int offset, int length) {
-        ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
+    public IPacket deserialize(ByteBuffer bb, DecodeDepth depth) {
         this.hardwareType = bb.getShort();
         this.protocolType = bb.getShort();
         this.hardwareAddressLength = bb.get();
@@ -0,0 +1,412 @@
+package net.floodlightcontroller.packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Implements the IEEE 802.1D/802.1w bridge protocol data unit, including the
+ * 802.2 LLC header that precedes it in an 802.3 frame.
+ */
+public class BPDU extends BasePacket {
+    public static final String MULTICAST_MAC = "01:80:C2:00:00:00";
+    public static final long MULTICAST_MAC_LONG = 0x0180C2000000L;
+
+    public static final byte LLC_SAP = 0x42;
+    public static final byte LLC_CONTROL = 0x03;
+    public static final int LLC_LENGTH = 3;
+
+    public static final short PROTOCOL_ID = 0x0000;
+    public static final byte VERSION_STP = 0x00;
+    public static final byte VERSION_RSTP = 0x02;
+
+    public static final byte TYPE_CONFIG = 0x00;
+    public static final byte TYPE_RST = 0x02;
+    public static final byte TYPE_TCN = (byte) 0x80;
+
+    public static final byte FLAG_TOPOLOGY_CHANGE = 0x01;
+    public static final byte FLAG_PROPOSAL = 0x02;
+    public static final byte FLAG_LEARNING = 0x10;
+    public static final byte FLAG_FORWARDING = 0x20;
+    public static final byte FLAG_AGREEMENT = 0x40;
+    public static final byte FLAG_TOPOLOGY_CHANGE_ACK = (byte) 0x80;
+
+    public static final int PORT_ROLE_SHIFT = 2;
+    public static final int PORT_ROLE_MASK = 0x0c;
+    public static final byte PORT_ROLE_UNKNOWN = 0;
+    public static final byte PORT_ROLE_ALTERNATE_BACKUP = 1;
+    public static final byte PORT_ROLE_ROOT = 2;
+    public static final byte PORT_ROLE_DESIGNATED = 3;
+
+    /** Length of a configuration BPDU, excluding the LLC header */
+    public static final int CONFIG_LENGTH = 35;
+    /** Length of a rapid spanning tree BPDU, excluding the LLC header */
+    public static final int RST_LENGTH = 36;
+    /** Length of a topology change notification BPDU, excluding the LLC header */
+    public static final int TCN_LENGTH = 4;
+
+    protected short protocolId;
+    protected byte version;
+    protected byte type;
+    protected byte flags;
+    protected long rootId;
+    protected int rootPathCost;
+    protected long bridgeId;
+    protected short portId;
+    protected short messageAge;
+    protected short maxAge;
+    protected short helloTime;
+    protected short forwardDelay;
+
+    /**
+     * By default, create a rapid spanning tree BPDU.
+     */
+    public BPDU() {
+        super();
+        this.protocolId = PROTOCOL_ID;
+        this.version = VERSION_RSTP;
+        this.type = TYPE_RST;
+    }
+
+    /**
+     * Checks whether the bytes at an offset start with the LLC header used by
+     * spanning tree BPDUs.
+     * @param data
+     * @param offset
+     * @param length
+     * @return True if the data holds an LLC header for a BPDU
+     */
+    public static boolean isBPDU(byte[] data, int offset, int length) {
+        return length >= LLC_LENGTH + TCN_LENGTH
+                && data[offset] == LLC_SAP
+                && data[offset + 1] == LLC_SAP
+                && data[offset + 2] == LLC_CONTROL;
+    }
+
+    /**
+     * Checks whether the bytes between a buffer's position and limit start
+     * with the spanning tree LLC header. The position is not changed.
+     * @param bb buffer to check
+     * @return true if the bytes hold a BPDU
+     */
+    public static boolean isBPDU(ByteBuffer bb) {
+        int pos = bb.position();
+        return bb.remaining() >= LLC_LENGTH + TCN_LENGTH
+                && bb.get(pos) == LLC_SAP
+                && bb.get(pos + 1) == LLC_SAP
+                && bb.get(pos + 2) == LLC_CONTROL;
+    }
+
+    /**
+     * @return the version
+     */
+    public byte getVersion() {
+        return version;
+    }
+
+    /**
+     * @param version the version to set
+     */
+    public BPDU setVersion(byte version) {
+        this.version = version;
+        return this;
+    }
+
+    /**
+     * @return the BPDU type
+     */
+    public byte getType() {
+        return type;
+    }
+
+    /**
+     * @param type the BPDU type to set
+     */
+    public BPDU setType(byte type) {
+        this.type = type;
+        return this;
+    }
+
+    /**
+     * @return the flags
+     */
+    public byte getFlags() {
+        return flags;
+    }
+
+    /**
+     * @param flags the flags to set
+     */
+    public BPDU setFlags(byte flags) {
+        this.flags = flags;
+        return this;
+    }
+
+    /**
+     * @param flag flag to test
+     * @return True if the flag is set
+     */
+    public boolean isFlagSet(byte flag) {
+        return (this.flags & flag) != 0;
+    }
+
+    /**
+     * @return the port role encoded in the flags
+     */
+    public byte getPortRole() {
+        if (this.type == TYPE_CONFIG)
+            return PORT_ROLE_DESIGNATED;
+        return (byte) ((this.flags & PORT_ROLE_MASK) >> PORT_ROLE_SHIFT);
+    }
+
+    /**
+     * @param role the port role to encode in the flags
+     */
+    public BPDU setPortRole(byte role) {
+        this.flags = (byte) ((this.flags & ~PORT_ROLE_MASK)
+                | ((role << PORT_ROLE_SHIFT) & PORT_ROLE_MASK));
+        return this;
+    }
+
+    /**
+     * @return the root bridge identifier
+     */
+    public long getRootId() {
+        return rootId;
+    }
+
+    /**
+     * @param rootId the root bridge identifier to set
+     */
+    public BPDU setRootId(long rootId) {
+        this.rootId = rootId;
+        return this;
+    }
+
+    /**
+     * @return the root path cost
+     */
+    public int getRootPathCost() {
+        return rootPathCost;
+    }
+
+    /**
+     * @param rootPathCost the root path cost to set
+     */
+    public BPDU setRootPathCost(int rootPathCost) {
+        this.rootPathCost = rootPathCost;
+        return this;
+    }
+
+    /**
+     * @return the identifier of the transmitting bridge
+     */
+    public long getBridgeId() {
+        return bridgeId;
+    }
+
+    /**
+     * @param bridgeId the identifier of the transmitting bridge to set
+     */
+    public BPDU setBridgeId(long bridgeId) {
+        this.bridgeId = bridgeId;
+        return this;
+    }
+
+    /**
+     * @return the identifier of the transmitting port
+     */
+    public short getPortId() {
+        return portId;
+    }
+
+    /**
+     * @param portId the identifier of the transmitting port to set
+     */
+    public BPDU setPortId(short portId) {
+        this.portId = portId;
+        return this;
+    }
+
+    /**
+     * @return the message age, in units of 1/256 seconds
+     */
+    public short getMessageAge() {
+        return messageAge;
+    }
+
+    /**
+     * @param messageAge the message age to set, in units of 1/256 seconds
+     */
+    public BPDU setMessageAge(short messageAge) {
+        this.messageAge = messageAge;
+        return this;
+    }
+
+    /**
+     * @return the max age, in units of 1/256 seconds
+     */
+    public short getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * @param maxAge the max age to set, in units of 1/256 seconds
+     */
+    public BPDU setMaxAge(short maxAge) {
+        this.maxAge = maxAge;
+        return this;
+    }
+
+    /**
+     * @return the hello time, in units of 1/256 seconds
+     */
+    public short getHelloTime() {
+        return helloTime;
+    }
+
+    /**
+     * @param helloTime the hello time to set, in units of 1/256 seconds
+     */
+    public BPDU setHelloTime(short helloTime) {
+        this.helloTime = helloTime;
+        return this;
+    }
+
+    /**
+     * @return the forward delay, in units of 1/256 seconds
+     */
+    public short getForwardDelay() {
+        return forwardDelay;
+    }
+
+    /**
+     * @param forwardDelay the forward delay to set, in units of 1/256 seconds
+     */
+    public BPDU setForwardDelay(short forwardDelay) {
+        this.forwardDelay = forwardDelay;
+        return this;
+    }
+
+    /**
+     * @return the length of the serialized BPDU, including the LLC header
+     */
+    public int getLength() {
+        switch (this.type) {
+            case TYPE_TCN:
+                return LLC_LENGTH + TCN_LENGTH;
+            case TYPE_CONFIG:
+                return LLC_LENGTH + CONFIG_LENGTH;
+            default:
+                return LLC_LENGTH + RST_LENGTH;
+        }
+    }
+
+    @Override
+    public int getSerializedLength() {
+        return this.getLength();
+    }
+
+    @Override
+    public ByteBuffer serializeTo(ByteBuffer bb) {
+        bb.put(LLC_SAP);
+        bb.put(LLC_SAP);
+        bb.put(LLC_CONTROL);
+        bb.putShort(this.protocolId);
+        bb.put(this.version);
+        bb.put(this.type);
+        if (this.type == TYPE_TCN)
+            return bb;
+        bb.put(this.flags);
+        bb.putLong(this.rootId);
+        bb.putInt(this.rootPathCost);
+        bb.putLong(this.bridgeId);
+        bb.putShort(this.portId);
+        bb.putShort(this.messageAge);
+        bb.putShort(this.maxAge);
+        bb.putShort(this.helloTime);
+        bb.putShort(this.forwardDelay);
+        if (this.type != TYPE_CONFIG)
+            bb.put((byte) 0); // Version 1 length
+        return bb;
+    }
+
+    @Override
+    protected void reset() {
+        super.reset();
+        this.protocolId = PROTOCOL_ID;
+        this.version = VERSION_RSTP;
+        this.type = TYPE_RST;
+        this.flags = 0;
+        this.rootId = 0;
+        this.rootPathCost = 0;
+        this.bridgeId = 0;
+        this.portId = 0;
+        this.messageAge = 0;
+        this.maxAge = 0;
+        this.helloTime = 0;
+        this.forwardDelay = 0;
+    }
+
+    @Override
+    public IPacket deserialize(ByteBuffer bb, DecodeDepth depth) {
+        bb.get(); // DSAP
+        bb.get(); // SSAP
+        bb.get(); // Control
+        this.protocolId = bb.getShort();
+        this.version = bb.get();
+        this.type = bb.get();
+        if (this.type == TYPE_TCN)
+            return this;
+        this.flags = bb.get();
+        this.rootId = bb.getLong();
+        this.rootPathCost = bb.getInt();
+        this.bridgeId = bb.getLong();
+        this.portId = bb.getShort();
+        this.messageAge = bb.getShort();
+        this.maxAge = bb.getShort();
+        this.helloTime = bb.getShort();
+        this.forwardDelay = bb.getShort();
+        return this;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        final int prime = 4789;
+        int result = super.hashCode();
+        result = prime * result + type;
+        result = prime * result + flags;
+        result = prime * result + (int) (rootId ^ (rootId >>> 32));
+        result = prime * result + rootPathCost;
+        result = prime * result + (int) (bridgeId ^ (bridgeId >>> 32));
+        result = prime * result + portId;
+        return result;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!super.equals(obj))
+            return false;
+        if (!(obj instanceof BPDU))
+            return false;
+        BPDU other = (BPDU) obj;
+        return (protocolId == other.protocolId) &&
+               (version == other.version) &&
+               (type == other.type) &&
+               (flags == other.flags) &&
+               (rootId == other.rootId) &&
+               (rootPathCost == other.rootPathCost) &&
+               (bridgeId == other.bridgeId) &&
+               (portId == other.portId) &&
+               (messageAge == other.messageAge) &&
+               (maxAge == other.maxAge) &&
+               (helloTime == other.helloTime) &&
+               (forwardDelay == other.forwardDelay);
+    }
+}
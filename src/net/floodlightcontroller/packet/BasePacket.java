@@ -17,6 +17,8 @@
 
 package net.floodlightcontroller.packet;
 
+import java.nio.ByteBuffer;
+
 
 /**
 *
@@ -26,6 +28,23 @@ public abstract class BasePacket implements IPacket {
     protected IPacket parent;
     protected IPacket payload;
 
+    /** Raw bytes of the payload when it has not been decoded yet; null once
+     *  the payload is decoded or replaced */
+    private ByteBuffer encodedPayload;
+
+    /** Depth to decode the payload to when it is first accessed */
+    private DecodeDepth encodedPayloadDepth;
+
+    /** Pool the packet was acquired from; null if the packet is not pooled */
+    PacketPool<?> pool;
+
+    /** True while the packet sits in a pool */
+    boolean released;
+
+    /** Leak tracking for the current acquire; null unless leak detection
+     *  is enabled */
+    PacketPool.Leak leak;
+
     /**
      * @return the parent
      */
@@ -44,10 +63,15 @@ public abstract class BasePacket implements IPacket {
     }
 
     /**
-     * @return the payload
+     * @return the payload, decoding it first if it was deferred
      */
     @Override
     public IPacket getPayload() {
+        if (this.encodedPayload != null) {
+            ByteBuffer bb = this.encodedPayload;
+            this.encodedPayload = null;
+            this.payload.deserialize(bb, this.encodedPayloadDepth);
+        }
         return payload;
     }
 
@@ -57,9 +81,132 @@ public abstract class BasePacket implements IPacket {
     @Override
     public IPacket setPayload(IPacket payload) {
         this.payload = payload;
+        this.encodedPayload = null;
         return this;
     }
+
+    /**
+     * @return true if the packet was acquired from a {@link PacketPool};
+     *         payloads decoded into it are then acquired from pools too
+     */
+    protected boolean isPooled() {
+        return this.pool != null;
+    }
+
+    /**
+     * Hands this packet and all payloads back to the pools they were
+     * acquired from. Neither may be used afterwards. Packets that are not
+     * pooled are left alone, but their pooled payloads are still released.
+     * @throws IllegalStateException if leak detection is enabled and the
+     *         packet was already released
+     */
+    public void release() {
+        if (this.released) {
+            if (PacketPool.isLeakDetection())
+                throw new IllegalStateException(this.getClass().getSimpleName()
+                        + " released twice");
+            return;
+        }
+        // The payload may not be decoded yet; release it without decoding
+        if (this.payload instanceof BasePacket)
+            ((BasePacket) this.payload).release();
+        if (this.pool != null) {
+            PacketPool<?> pool = this.pool;
+            if (this.leak != null)
+                this.leak.release();
+            this.pool = null;
+            this.leak = null;
+            this.released = true;
+            pool.recycle(this);
+        }
+    }
+
+    /**
+     * Clears the packet before it is reused, leaving it as a newly
+     * constructed packet would be. Subclasses with fields must override this
+     * and call the superclass.
+     */
+    protected void reset() {
+        this.parent = null;
+        this.payload = null;
+        this.encodedPayload = null;
+        this.encodedPayloadDepth = null;
+    }
+
+    /**
+     * Deserializes this packet's payload from the rest of a buffer. If the
+     * requested depth does not go past this packet's layer, the payload
+     * codec is attached but the bytes are only sliced off and decoded on the
+     * first call to getPayload(); the slice shares the caller's buffer.
+     * @param payload empty packet of the payload's type
+     * @param bb buffer positioned at the start of the payload
+     * @param layer the layer of this packet
+     * @param depth requested decode depth
+     */
+    protected void deserializePayload(IPacket payload, ByteBuffer bb,
+            DecodeDepth layer, DecodeDepth depth) {
+        if (depth.compareTo(layer) > 0) {
+            this.payload = payload.deserialize(bb, depth);
+            this.encodedPayload = null;
+        } else {
+            this.payload = payload;
+            this.encodedPayload = bb.slice();
+            this.encodedPayloadDepth = layer.next();
+            bb.position(bb.limit());
+        }
+        this.payload.setParent(this);
+    }
+
+    /**
+     * @return the serialized length of the payload; the raw length if the
+     *         payload has not been decoded
+     */
+    protected int getPayloadSerializedLength() {
+        if (this.encodedPayload != null)
+            return this.encodedPayload.remaining();
+        return (this.payload == null) ? 0 : this.payload.getSerializedLength();
+    }
+
+    /**
+     * Writes the payload into a buffer. A payload that has not been decoded
+     * is copied out unchanged.
+     * @param bb
+     */
+    protected void serializePayloadTo(ByteBuffer bb) {
+        if (this.encodedPayload != null)
+            bb.put(this.encodedPayload.duplicate());
+        else if (this.payload != null)
+            this.payload.serializeTo(bb);
+    }
     
+    /**
+     * Serializes this packet and all payloads into a new array of exactly
+     * getSerializedLength() bytes.
+     */
+    @Override
+    public byte[] serialize() {
+        byte[] data = new byte[this.getSerializedLength()];
+        this.serializeTo(ByteBuffer.wrap(data));
+        return data;
+    }
+
+    /**
+     * Deserializes this packet and all payloads from a heap array by wrapping
+     * the given range in a big-endian buffer.
+     */
+    @Override
+    public IPacket deserialize(byte[] data, int offset, int length) {
+        return this.deserialize(ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * Deserializes this packet and all payloads eagerly.
+     */
+    @Override
+    public IPacket deserialize(ByteBuffer bb) {
+        return this.deserialize(bb, DecodeDepth.FULL);
+    }
+
     @Override
     public void resetChecksum() {
         if (this.parent != null)
@@ -73,6 +220,7 @@ public abstract class BasePacket implements IPacket {
     public int hashCode() {
         final int prime = 6733;
         int result = 1;
+        IPacket payload = this.getPayload();
         result = prime * result + ((payload == null) ? 0 : payload.hashCode());
         return result;
     }
@@ -89,10 +237,11 @@ public abstract class BasePacket implements IPacket {
         if (!(obj instanceof BasePacket))
             return false;
         BasePacket other = (BasePacket) obj;
+        IPacket payload = this.getPayload();
         if (payload == null) {
-            if (other.payload != null)
+            if (other.getPayload() != null)
                 return false;
-        } else if (!payload.equals(other.payload))
+        } else if (!payload.equals(other.getPayload()))
             return false;
         return true;
     }
@@ -108,8 +257,7 @@ public abstract class BasePacket implements IPacket {
         // TODO: we are using serialize()/deserialize() to perform the 
         // cloning. Not the most efficient way but simple. We can revisit
         // if we hit performance problems.
-        byte[] data = this.serialize();
-        pkt.deserialize(this.serialize(), 0, data.length);
+        pkt.deserialize(ByteBuffer.wrap(this.serialize()));
         pkt.setParent(this.parent);
         return pkt;
     }
@@ -0,0 +1,164 @@
+package net.floodlightcontroller.packet;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The Internet checksum (RFC 1071) shared by all codecs. Data is summed 64
+ * bits at a time: each big-endian long is split into two 32-bit halves that
+ * are added to a 64-bit accumulator, so carries never need to be folded
+ * inside the loop. Folding to 16 bits happens once at the end; since
+ * 2^16 is 1 modulo 0xffff, folding the 32-bit halves gives the same result
+ * as adding the 16-bit words one by one.
+ */
+public final class Checksum {
+    private static final VarHandle LONG_BE = MethodHandles
+            .byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private Checksum() {
+    }
+
+    /**
+     * Adds a range of bytes to a one's complement sum, as 16-bit big-endian
+     * words; an odd trailing byte is padded with zero.
+     * @param data
+     * @param offset
+     * @param length
+     * @param initial sum to add to, e.g. the pseudo-header sum; any width
+     * @return the unfolded sum
+     */
+    public static long sum(byte[] data, int offset, int length, long initial) {
+        long sum = initial;
+        int i = offset;
+        int end = offset + length;
+        for (; i + 8 <= end; i += 8) {
+            long word = (long) LONG_BE.get(data, i);
+            sum += (word >>> 32) + (word & 0xffffffffL);
+        }
+        for (; i + 2 <= end; i += 2) {
+            sum += ((data[i] & 0xff) << 8) | (data[i + 1] & 0xff);
+        }
+        if (i < end) {
+            sum += (data[i] & 0xff) << 8;
+        }
+        return sum;
+    }
+
+    /**
+     * Adds a range of a buffer to a one's complement sum. The range must
+     * lie below the buffer's limit; the position and byte order are
+     * ignored and left unchanged.
+     * @param buf heap or direct buffer
+     * @param offset absolute index of the first byte
+     * @param length
+     * @param initial sum to add to
+     * @return the unfolded sum
+     */
+    public static long sum(ByteBuffer buf, int offset, int length,
+            long initial) {
+        if (buf.hasArray())
+            return sum(buf.array(), buf.arrayOffset() + offset, length,
+                    initial);
+        boolean bigEndian = (buf.order() == ByteOrder.BIG_ENDIAN);
+        long sum = initial;
+        int i = offset;
+        int end = offset + length;
+        for (; i + 8 <= end; i += 8) {
+            long word = buf.getLong(i);
+            if (!bigEndian)
+                word = Long.reverseBytes(word);
+            sum += (word >>> 32) + (word & 0xffffffffL);
+        }
+        for (; i + 2 <= end; i += 2) {
+            sum += ((buf.get(i) & 0xff) << 8) | (buf.get(i + 1) & 0xff);
+        }
+        if (i < end) {
+            sum += (buf.get(i) & 0xff) << 8;
+        }
+        return sum;
+    }
+
+    /**
+     * Folds the carries of a one's complement sum back into 16 bits.
+     * @param sum
+     * @return the folded sum
+     */
+    public static int fold(long sum) {
+        sum = (sum & 0xffffffffL) + (sum >>> 32);
+        sum = (sum & 0xffffffffL) + (sum >>> 32);
+        sum = (sum & 0xffff) + (sum >>> 16);
+        sum = (sum & 0xffff) + (sum >>> 16);
+        sum = (sum & 0xffff) + (sum >>> 16);
+        return (int) sum;
+    }
+
+    /**
+     * Computes the Internet checksum of a range of bytes.
+     * @param data
+     * @param offset
+     * @param length
+     * @param initial sum to start from, e.g. the pseudo-header sum
+     * @return the checksum, ready to be stored in a header
+     */
+    public static short compute(byte[] data, int offset, int length,
+            long initial) {
+        return (short) ~fold(sum(data, offset, length, initial));
+    }
+
+    /**
+     * Computes the Internet checksum of a range of a buffer.
+     * @param buf heap or direct buffer
+     * @param offset absolute index of the first byte
+     * @param length
+     * @param initial sum to start from, e.g. the pseudo-header sum
+     * @return the checksum, ready to be stored in a header
+     */
+    public static short compute(ByteBuffer buf, int offset, int length,
+            long initial) {
+        return (short) ~fold(sum(buf, offset, length, initial));
+    }
+
+    /**
+     * Checks a range of bytes that includes its own checksum field.
+     * @param data
+     * @param offset
+     * @param length
+     * @param initial sum to start from, e.g. the pseudo-header sum
+     * @return true if the data sums to 0xffff
+     */
+    public static boolean verify(byte[] data, int offset, int length,
+            long initial) {
+        return fold(sum(data, offset, length, initial)) == 0xffff;
+    }
+
+    /**
+     * Updates a checksum after a 16-bit word of the covered data changed,
+     * without touching the rest of the data (RFC 1624, eqn. 3:
+     * HC' = ~(~HC + ~m + m')).
+     * @param checksum the current checksum
+     * @param oldWord the word before the change
+     * @param newWord the word after the change
+     * @return the new checksum
+     */
+    public static short update(short checksum, short oldWord, short newWord) {
+        long sum = (~checksum & 0xffff) + (~oldWord & 0xffff)
+                + (newWord & 0xffff);
+        return (short) ~fold(sum);
+    }
+
+    /**
+     * Updates a checksum after a 32-bit value of the covered data (such as
+     * an address) changed.
+     * @param checksum the current checksum
+     * @param oldValue the value before the change
+     * @param newValue the value after the change
+     * @return the new checksum
+     */
+    public static short update(short checksum, int oldValue, int newValue) {
+        checksum = update(checksum, (short) (oldValue >>> 16),
+                (short) (newValue >>> 16));
+        return update(checksum, (short) oldValue, (short) newValue);
+    }
+}
@@ -17,6 +17,7 @@
 
 package net.floodlightcontroller.packet;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -59,8 +60,27 @@ public class Data extends BasePacket {
     }
 
     @Override
-    public IPacket deserialize(byte[] data, int offset, int length) {
-        this.data = Arrays.copyOfRange(data, offset, data.length);
+    public int getSerializedLength() {
+        return (this.data == null) ? 0 : this.data.length;
+    }
+
+    @Override
+    public ByteBuffer serializeTo(ByteBuffer bb) {
+        if (this.data != null)
+            bb.put(this.data);
+        return bb;
+    }
+
+    @Override
+    protected void reset() {
+        super.reset();
+        this.data = null;
+    }
+
+    @Override
+    public IPacket deserialize(ByteBuffer bb, DecodeDepth depth) {
+        this.data = new byte[bb.remaining()];
+        bb.get(this.data);
         return this;
     }
 
@@ -0,0 +1,24 @@
+package net.floodlightcontroller.packet;
+
+/**
+ * How many layers of a packet are decoded eagerly. Headers below or at the
+ * depth are parsed by deserialize; anything above is kept as raw bytes and
+ * only parsed when getPayload() is first called on the layer below it.
+ */
+public enum DecodeDepth {
+    /** Decode only the Ethernet header */
+    L2,
+    /** Decode through the network header, e.g. IPv4 or ARP */
+    L3,
+    /** Decode through the transport header, e.g. UDP, TCP, or ICMP */
+    L4,
+    /** Decode every layer */
+    FULL;
+
+    /**
+     * @return the depth one layer further down; FULL stays FULL
+     */
+    public DecodeDepth next() {
+        return (this == FULL) ? FULL : values()[this.ordinal() + 1];
+    }
+}
@@ -0,0 +1,39 @@
+package net.floodlightcontroller.packet;
+
+/**
+ * Why a frame was dropped: rejected by {@link FrameValidator}, or found
+ * unfit to send after it was accepted.
+ */
+public enum DropReason {
+    /** Shorter than an Ethernet header, including any VLAN tag */
+    RUNT("runt"),
+    /** Too short for the header its ethertype or LLC header announces */
+    TRUNCATED_HEADER("truncated-header"),
+    /** IPv4 version field is not 4 */
+    BAD_IP_VERSION("bad-ip-version"),
+    /** IPv4 header length below 5 words or past the end of the frame */
+    BAD_IP_HEADER_LENGTH("bad-ip-header-length"),
+    /** IPv4 total length shorter than the header or longer than the frame */
+    BAD_IP_TOTAL_LENGTH("bad-ip-total-length"),
+    /** UDP length shorter than the header or longer than the IP payload */
+    BAD_UDP_LENGTH("bad-udp-length"),
+    /** TCP data offset below 5 words or past the end of the IP payload */
+    BAD_TCP_OFFSET("bad-tcp-offset"),
+    /** ARP addresses extend past the end of the frame */
+    BAD_ARP_LENGTH("bad-arp-length"),
+    /** RIP message is not a header followed by whole route entries */
+    BAD_RIP_LENGTH("bad-rip-length"),
+    /** IPv4 packet larger than the MTU of the interface it would leave on */
+    OVERSIZE("oversize");
+
+    private final String name;
+
+    private DropReason(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+}
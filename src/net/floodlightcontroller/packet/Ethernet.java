@@ -19,8 +19,6 @@ package net.floodlightcontroller.packet;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
 
 import org.openflow.util.HexString;
 
@@ -37,17 +35,11 @@ public class Ethernet extends BasePacket {
     public static final short TYPE_BSN = (short) 0x8942;
     public static final short VLAN_UNTAGGED = (short)0xffff;
     public static final short DATALAYER_ADDRESS_LENGTH = 6; // bytes
-    public static Map<Short, Class<? extends IPacket>> etherTypeClassMap;
+    public static final int MAX_LENGTH_FIELD = 1500; // 802.3 length, not a type
 
-    static {
-        etherTypeClassMap = new HashMap<Short, Class<? extends IPacket>>();
-        etherTypeClassMap.put(TYPE_ARP, ARP.class);
-        etherTypeClassMap.put(TYPE_RARP, ARP.class);
-        etherTypeClassMap.put(TYPE_IPv4, IPv4.class);
-    }
-
-    protected MACAddress destinationMACAddress;
-    protected MACAddress sourceMACAddress;
+    /** MAC addresses in the low 48 bits, first byte most significant */
+    protected long destinationMACAddress;
+    protected long sourceMACAddress;
     protected byte priorityCode;
     protected short vlanID;
     protected short etherType;
@@ -65,21 +57,44 @@ public class Ethernet extends BasePacket {
      * @return the destination MAC as a byte array
      */
     public byte[] getDestinationMACAddress() {
-        return destinationMACAddress.toBytes();
+        return toByteArray(destinationMACAddress);
     }
     
     /**
      * @return the destination MAC
      */
     public MACAddress getDestinationMAC() {
+        return MACAddress.valueOf(destinationMACAddress);
+    }
+
+    /**
+     * @return the destination MAC as a long
+     */
+    public long getDestinationMACLong() {
         return destinationMACAddress;
     }
 
+    /**
+     * @param destinationMACAddress the destination MAC to set
+     */
+    public Ethernet setDestinationMACAddress(MACAddress destinationMACAddress) {
+        this.destinationMACAddress = destinationMACAddress.toLong();
+        return this;
+    }
+
+    /**
+     * @param destinationMACAddress the destination MAC to set, as a long
+     */
+    public Ethernet setDestinationMACAddress(long destinationMACAddress) {
+        this.destinationMACAddress = destinationMACAddress & 0xffffffffffffL;
+        return this;
+    }
+
     /**
      * @param destinationMACAddress the destination MAC to set
      */
     public Ethernet setDestinationMACAddress(byte[] destinationMACAddress) {
-        this.destinationMACAddress = MACAddress.valueOf(destinationMACAddress);
+        this.destinationMACAddress = toLong(destinationMACAddress);
         return this;
     }
 
@@ -87,7 +102,8 @@ public class Ethernet extends BasePacket {
      * @param destinationMACAddress the destination MAC to set
      */
     public Ethernet setDestinationMACAddress(String destinationMACAddress) {
-        this.destinationMACAddress = MACAddress.valueOf(destinationMACAddress);
+        this.destinationMACAddress = MACAddress.valueOf(destinationMACAddress)
+                .toLong();
         return this;
     }
 
@@ -95,21 +111,44 @@ public class Ethernet extends BasePacket {
      * @return the source MACAddress as a byte array
      */
     public byte[] getSourceMACAddress() {
-        return sourceMACAddress.toBytes();
+        return toByteArray(sourceMACAddress);
     }
     
     /**
      * @return the source MACAddress
      */
     public MACAddress getSourceMAC() {
+        return MACAddress.valueOf(sourceMACAddress);
+    }
+
+    /**
+     * @return the source MAC as a long
+     */
+    public long getSourceMACLong() {
         return sourceMACAddress;
     }
 
+    /**
+     * @param sourceMACAddress the source MAC to set
+     */
+    public Ethernet setSourceMACAddress(MACAddress sourceMACAddress) {
+        this.sourceMACAddress = sourceMACAddress.toLong();
+        return this;
+    }
+
+    /**
+     * @param sourceMACAddress the source MAC to set, as a long
+     */
+    public Ethernet setSourceMACAddress(long sourceMACAddress) {
+        this.sourceMACAddress = sourceMACAddress & 0xffffffffffffL;
+        return this;
+    }
+
     /**
      * @param sourceMACAddress the source MAC to set
      */
     public Ethernet setSourceMACAddress(byte[] sourceMACAddress) {
-        this.sourceMACAddress = MACAddress.valueOf(sourceMACAddress);
+        this.sourceMACAddress = toLong(sourceMACAddress);
         return this;
     }
 
@@ -117,7 +156,7 @@ public class Ethernet extends BasePacket {
      * @param sourceMACAddress the source MAC to set
      */
     public Ethernet setSourceMACAddress(String sourceMACAddress) {
-        this.sourceMACAddress = MACAddress.valueOf(sourceMACAddress);
+        this.sourceMACAddress = MACAddress.valueOf(sourceMACAddress).toLong();
         return this;
     }
 
@@ -170,15 +209,14 @@ public class Ethernet extends BasePacket {
      * @return True if the Ethernet frame is broadcast, false otherwise
      */
     public boolean isBroadcast() {
-        assert(destinationMACAddress.length() == 6);
-        return destinationMACAddress.isBroadcast();
+        return destinationMACAddress == 0xffffffffffffL;
     }
     
     /**
      * @return True is the Ethernet frame is multicast, False otherwise
      */
     public boolean isMulticast() {
-        return destinationMACAddress.isMulticast();
+        return !isBroadcast() && (destinationMACAddress & 0x010000000000L) != 0;
     }
     /**
      * Pad this packet to 60 bytes minimum, filling with zeros?
@@ -197,50 +235,61 @@ public class Ethernet extends BasePacket {
         return this;
     }
 
-    public byte[] serialize() {
-        byte[] payloadData = null;
-        if (payload != null) {
-            payload.setParent(this);
-            payloadData = payload.serialize();
-        }
+    @Override
+    public int getSerializedLength() {
         int length = 14 + ((vlanID == VLAN_UNTAGGED) ? 0 : 4) +
-                          ((payloadData == null) ? 0 : payloadData.length);
+                          this.getPayloadSerializedLength();
         if (pad && length < 60) {
             length = 60;
         }
-        byte[] data = new byte[length];
-        ByteBuffer bb = ByteBuffer.wrap(data);
-        bb.put(destinationMACAddress.toBytes());
-        bb.put(sourceMACAddress.toBytes());
+        return length;
+    }
+
+    @Override
+    public ByteBuffer serializeTo(ByteBuffer bb) {
+        if (payload != null)
+            payload.setParent(this);
+        int end = bb.position() + this.getSerializedLength();
+        putMACAddress(bb, destinationMACAddress);
+        putMACAddress(bb, sourceMACAddress);
         if (vlanID != VLAN_UNTAGGED) {
             bb.putShort((short) 0x8100);
             bb.putShort((short) ((priorityCode << 13) | (vlanID & 0x0fff)));
         }
         bb.putShort(etherType);
-        if (payloadData != null)
-            bb.put(payloadData);
-        if (pad) {
-            Arrays.fill(data, bb.position(), data.length, (byte)0x0);
-        }
-        return data;
+        this.serializePayloadTo(bb);
+        while (bb.position() < end)
+            bb.put((byte) 0x0);
+        return bb;
+    }
+
+    private static void putMACAddress(ByteBuffer bb, long value) {
+        bb.putShort((short) (value >>> 32));
+        bb.putInt((int) value);
+    }
+
+    private static long getMACAddress(ByteBuffer bb) {
+        long high = bb.getShort() & 0xffffL;
+        return (high << 32) | (bb.getInt() & 0xffffffffL);
+    }
+
+    @Override
+    protected void reset() {
+        super.reset();
+        this.destinationMACAddress = 0;
+        this.sourceMACAddress = 0;
+        this.priorityCode = 0;
+        this.vlanID = VLAN_UNTAGGED;
+        this.etherType = 0;
+        this.pad = false;
     }
 
     @Override
-    public IPacket deserialize(byte[] data, int offset, int length) {
-        if (length <= 0)
+    public IPacket deserialize(ByteBuffer bb, DecodeDepth depth) {
+        if (!bb.hasRemaining())
             return null;
-        ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
-        if (this.destinationMACAddress == null)
-            this.destinationMACAddress = MACAddress.valueOf(new byte[6]);
-        byte[] dstAddr = new byte[MACAddress.MAC_ADDRESS_LENGTH];
-        bb.get(dstAddr);
-        this.destinationMACAddress = MACAddress.valueOf(dstAddr);
-
-        if (this.sourceMACAddress == null)
-            this.sourceMACAddress = MACAddress.valueOf(new byte[6]);
-        byte[] srcAddr = new byte[MACAddress.MAC_ADDRESS_LENGTH];
-        bb.get(srcAddr);
-        this.sourceMACAddress = MACAddress.valueOf(srcAddr);
+        this.destinationMACAddress = getMACAddress(bb);
+        this.sourceMACAddress = getMACAddress(bb);
 
         short etherType = bb.getShort();
         if (etherType == (short) 0x8100) {
@@ -253,19 +302,16 @@ public class Ethernet extends BasePacket {
         }
         this.etherType = etherType;
         
-        IPacket payload;
-        if (Ethernet.etherTypeClassMap.containsKey(this.etherType)) {
-            Class<? extends IPacket> clazz = Ethernet.etherTypeClassMap.get(this.etherType);
-            try {
-                payload = clazz.newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Error parsing payload for Ethernet packet", e);
-            }
-        } else {
-            payload = new Data();
+        IPacket payload = PacketDecoders.forEtherType(this.etherType,
+                this.isPooled());
+        if (null == payload) {
+            if ((this.etherType & 0xffff) <= MAX_LENGTH_FIELD
+                    && BPDU.isBPDU(bb))
+                payload = PacketPool.BPDU.newPacket(this.isPooled());
+            else
+                payload = PacketPool.DATA.newPacket(this.isPooled());
         }
-        this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
-        this.payload.setParent(this);
+        this.deserializePayload(payload, bb, DecodeDepth.L2, depth);
         return this;
     }
 
@@ -324,12 +370,12 @@ public class Ethernet extends BasePacket {
     public int hashCode() {
         final int prime = 7867;
         int result = super.hashCode();
-        result = prime * result + destinationMACAddress.hashCode();
+        result = prime * result + Long.hashCode(destinationMACAddress);
         result = prime * result + etherType;
         result = prime * result + vlanID;
         result = prime * result + priorityCode;
         result = prime * result + (pad ? 1231 : 1237);
-        result = prime * result + sourceMACAddress.hashCode();
+        result = prime * result + Long.hashCode(sourceMACAddress);
         return result;
     }
 
@@ -345,7 +391,7 @@ public class Ethernet extends BasePacket {
         if (!(obj instanceof Ethernet))
             return false;
         Ethernet other = (Ethernet) obj;
-        if (!destinationMACAddress.equals(other.destinationMACAddress))
+        if (destinationMACAddress != other.destinationMACAddress)
             return false;
         if (priorityCode != other.priorityCode)
             return false;
@@ -355,7 +401,7 @@ public class Ethernet extends BasePacket {
             return false;
         if (pad != other.pad)
             return false;
-        if (!sourceMACAddress.equals(other.sourceMACAddress))
+        if (sourceMACAddress != other.sourceMACAddress)
             return false;
         return true;
     }
@@ -376,6 +422,8 @@ public class Ethernet extends BasePacket {
             sb.append("icmp");
         else if (pkt instanceof IPv4)
             sb.append("ip");
+        else if (pkt instanceof BPDU)
+            sb.append("bpdu");
         else  sb.append(this.getEtherType());
 
         sb.append("\ndl_vlan: ");
@@ -386,9 +434,9 @@ public class Ethernet extends BasePacket {
         sb.append("\ndl_vlan_pcp: ");
         sb.append(this.getPriorityCode());
         sb.append("\ndl_src: ");
-        sb.append(HexString.toHexString(this.getSourceMACAddress()));
+        sb.append(HexString.toHexString(this.sourceMACAddress, 6));
         sb.append("\ndl_dst: ");
-        sb.append(HexString.toHexString(this.getDestinationMACAddress()));
+        sb.append(HexString.toHexString(this.destinationMACAddress, 6));
 
 
         if (pkt instanceof ARP) {
@@ -439,6 +487,15 @@ public class Ethernet extends BasePacket {
             }
 
         }
+        else if (pkt instanceof BPDU) {
+            BPDU bpdu = (BPDU) pkt;
+            sb.append("\nbpdu_root: ");
+            sb.append(Long.toHexString(bpdu.getRootId()));
+            sb.append("\nbpdu_bridge: ");
+            sb.append(Long.toHexString(bpdu.getBridgeId()));
+            sb.append("\nbpdu_flags: ");
+            sb.append(bpdu.getFlags() & 0xff);
+        }
         else if (pkt instanceof Data) {
             sb.append("\ndata packet");
         }
@@ -0,0 +1,150 @@
+package net.floodlightcontroller.packet;
+
+/**
+ * Flyweight view of an Ethernet header, including an optional 802.1Q tag.
+ * Reads and writes fields in place; see {@link Ethernet} for the object
+ * representation.
+ */
+public class EthernetView extends PacketView {
+    public static final int HEADER_LENGTH = 14;
+    public static final int VLAN_TAG_LENGTH = 4;
+    public static final int DESTINATION_OFFSET = 0;
+    public static final int SOURCE_OFFSET = 6;
+    public static final int ETHER_TYPE_OFFSET = 12;
+    public static final int VLAN_TCI_OFFSET = 14;
+    public static final int TYPE_VLAN = 0x8100;
+    public static final long BROADCAST_MAC = 0xffffffffffffL;
+
+    /**
+     * Points the view at an Ethernet frame.
+     * @param data buffer holding the frame
+     * @param offset offset of the first byte of the frame
+     * @param length length of the frame
+     * @return this view, or null if the frame is too short to hold an
+     *         Ethernet header
+     */
+    @Override
+    public EthernetView wrap(byte[] data, int offset, int length) {
+        if (length < HEADER_LENGTH)
+            return null;
+        super.wrap(data, offset, length);
+        if (isTagged() && length < HEADER_LENGTH + VLAN_TAG_LENGTH)
+            return null;
+        return this;
+    }
+
+    /**
+     * @return the destination MAC address as a long
+     */
+    public long getDestinationMAC() {
+        return getMAC(DESTINATION_OFFSET);
+    }
+
+    /**
+     * @param mac the destination MAC address as a long
+     * @return this view
+     */
+    public EthernetView setDestinationMAC(long mac) {
+        setMAC(DESTINATION_OFFSET, mac);
+        return this;
+    }
+
+    /**
+     * @param mac the destination MAC address
+     * @return this view
+     */
+    public EthernetView setDestinationMACAddress(MACAddress mac) {
+        return setDestinationMAC(mac.toLong());
+    }
+
+    /**
+     * @return the destination MAC address; allocates a new object
+     */
+    public MACAddress getDestinationMACAddress() {
+        return MACAddress.valueOf(getDestinationMAC());
+    }
+
+    /**
+     * @return the source MAC address as a long
+     */
+    public long getSourceMAC() {
+        return getMAC(SOURCE_OFFSET);
+    }
+
+    /**
+     * @param mac the source MAC address as a long
+     * @return this view
+     */
+    public EthernetView setSourceMAC(long mac) {
+        setMAC(SOURCE_OFFSET, mac);
+        return this;
+    }
+
+    /**
+     * @param mac the source MAC address
+     * @return this view
+     */
+    public EthernetView setSourceMACAddress(MACAddress mac) {
+        return setSourceMAC(mac.toLong());
+    }
+
+    /**
+     * @return the source MAC address; allocates a new object
+     */
+    public MACAddress getSourceMACAddress() {
+        return MACAddress.valueOf(getSourceMAC());
+    }
+
+    /**
+     * @return true if the destination is the broadcast address
+     */
+    public boolean isBroadcast() {
+        return getDestinationMAC() == BROADCAST_MAC;
+    }
+
+    /**
+     * @return true if the destination is a multicast (but not the broadcast)
+     *         address
+     */
+    public boolean isMulticast() {
+        return (getByte(DESTINATION_OFFSET) & 0x01) != 0 && !isBroadcast();
+    }
+
+    /**
+     * @return true if the frame carries an 802.1Q tag
+     */
+    public boolean isTagged() {
+        return getShort(ETHER_TYPE_OFFSET) == TYPE_VLAN;
+    }
+
+    /**
+     * @return the VLAN ID, or {@link Ethernet#VLAN_UNTAGGED} if the frame is
+     *         not tagged
+     */
+    public short getVlanID() {
+        if (!isTagged())
+            return Ethernet.VLAN_UNTAGGED;
+        return (short) (getShort(VLAN_TCI_OFFSET) & 0x0fff);
+    }
+
+    /**
+     * @return the EtherType of the payload, after any 802.1Q tag
+     */
+    public short getEtherType() {
+        if (isTagged())
+            return (short) getShort(ETHER_TYPE_OFFSET + VLAN_TAG_LENGTH);
+        return (short) getShort(ETHER_TYPE_OFFSET);
+    }
+
+    @Override
+    public int getHeaderLength() {
+        return isTagged() ? HEADER_LENGTH + VLAN_TAG_LENGTH : HEADER_LENGTH;
+    }
+
+    @Override
+    public Ethernet toPacket() {
+        Ethernet ether = new Ethernet();
+        ether.deserialize(data, offset, length);
+        return ether;
+    }
+}
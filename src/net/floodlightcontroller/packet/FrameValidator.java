@@ -0,0 +1,188 @@
+package net.floodlightcontroller.packet;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Cheap structural checks on a raw Ethernet frame, run before any packet
+ * object is built. Every length field the codecs rely on is compared with
+ * the bytes that are actually there, so a frame that passes can be
+ * deserialized without running off the end of the buffer, and a frame that
+ * fails is dropped without the cost of an exception. Each instance counts
+ * the frames it rejected by reason.
+ */
+public class FrameValidator {
+    private static final int ETHERNET_HEADER = 14;
+    private static final int VLAN_TAG = 4;
+    private static final int IPV4_HEADER = 20;
+    private static final int UDP_HEADER = 8;
+    private static final int TCP_HEADER = 20;
+    private static final int ICMP_HEADER = 4;
+    private static final int ARP_HEADER = 8;
+    private static final int RIP_HEADER = 4;
+    private static final int RIP_ENTRY = 20;
+
+    private final AtomicLongArray drops =
+            new AtomicLongArray(DropReason.values().length);
+
+    /**
+     * Checks a frame and counts it if it is rejected.
+     * @param data
+     * @param offset offset of the first byte of the frame
+     * @param length length of the frame
+     * @param depth the deepest layer to check
+     * @return true if the frame is well formed down to the given depth
+     */
+    public boolean accept(byte[] data, int offset, int length,
+            DecodeDepth depth) {
+        DropReason reason = classify(data, offset, length, depth);
+        if (null == reason)
+            return true;
+        this.drops.incrementAndGet(reason.ordinal());
+        return false;
+    }
+
+    /**
+     * Counts a frame that was accepted but dropped later, such as one too
+     * large for the interface it would leave on.
+     * @param reason
+     */
+    public void reject(DropReason reason) {
+        this.drops.incrementAndGet(reason.ordinal());
+    }
+
+    /**
+     * @param reason
+     * @return number of frames rejected for the reason
+     */
+    public long getDrops(DropReason reason) {
+        return this.drops.get(reason.ordinal());
+    }
+
+    /**
+     * @return number of frames rejected for any reason
+     */
+    public long getTotalDrops() {
+        long total = 0;
+        for (int i = 0; i < this.drops.length(); i++)
+            total += this.drops.get(i);
+        return total;
+    }
+
+    /**
+     * @return one line per reason with a non-zero count
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (DropReason reason : DropReason.values()) {
+            long count = this.getDrops(reason);
+            if (count > 0)
+                sb.append(reason).append('\t').append(count).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Checks a frame without counting it.
+     * @param data
+     * @param offset offset of the first byte of the frame
+     * @param length length of the frame
+     * @param depth the deepest layer to check
+     * @return null if the frame is well formed down to the given depth,
+     *         otherwise the first problem found
+     */
+    public static DropReason classify(byte[] data, int offset, int length,
+            DecodeDepth depth) {
+        if (length < ETHERNET_HEADER)
+            return DropReason.RUNT;
+        int pos = offset + 12;
+        int etherType = getShort(data, pos);
+        if (EthernetView.TYPE_VLAN == etherType) {
+            if (length < ETHERNET_HEADER + VLAN_TAG)
+                return DropReason.RUNT;
+            pos += VLAN_TAG;
+            etherType = getShort(data, pos);
+        }
+        pos += 2;
+        int remaining = offset + length - pos;
+        if (DecodeDepth.L2 == depth)
+            return null;
+
+        switch ((short) etherType) {
+        case Ethernet.TYPE_IPv4:
+            return classifyIPv4(data, pos, remaining, depth);
+        case Ethernet.TYPE_ARP:
+        case Ethernet.TYPE_RARP:
+            if (remaining < ARP_HEADER)
+                return DropReason.TRUNCATED_HEADER;
+            int addrs = (data[pos + 4] & 0xff) + (data[pos + 5] & 0xff);
+            if (remaining < ARP_HEADER + 2 * addrs)
+                return DropReason.BAD_ARP_LENGTH;
+            return null;
+        default:
+            if (etherType <= Ethernet.MAX_LENGTH_FIELD
+                    && BPDU.isBPDU(data, pos, remaining)
+                    && data[pos + BPDU.LLC_LENGTH + 3] != BPDU.TYPE_TCN
+                    && remaining < BPDU.LLC_LENGTH + BPDU.CONFIG_LENGTH)
+                return DropReason.TRUNCATED_HEADER;
+            return null;
+        }
+    }
+
+    private static DropReason classifyIPv4(byte[] data, int pos,
+            int remaining, DecodeDepth depth) {
+        if (remaining < IPV4_HEADER)
+            return DropReason.TRUNCATED_HEADER;
+        if ((data[pos] >> 4 & 0xf) != 4)
+            return DropReason.BAD_IP_VERSION;
+        int headerLength = (data[pos] & 0xf) * 4;
+        if (headerLength < IPV4_HEADER || headerLength > remaining)
+            return DropReason.BAD_IP_HEADER_LENGTH;
+        int totalLength = getShort(data, pos + 2);
+        if (totalLength < headerLength || totalLength > remaining)
+            return DropReason.BAD_IP_TOTAL_LENGTH;
+        if (DecodeDepth.L3 == depth)
+            return null;
+
+        // Only the first fragment carries the transport header
+        if ((getShort(data, pos + 6) & 0x1fff) != 0)
+            return null;
+        int l4 = pos + headerLength;
+        int l4Length = totalLength - headerLength;
+        switch (data[pos + 9]) {
+        case IPv4.PROTOCOL_UDP:
+            if (l4Length < UDP_HEADER)
+                return DropReason.TRUNCATED_HEADER;
+            int udpLength = getShort(data, l4 + 4);
+            if (udpLength < UDP_HEADER || udpLength > l4Length)
+                return DropReason.BAD_UDP_LENGTH;
+            if (DecodeDepth.FULL == depth
+                    && (getShort(data, l4) == (UDP.RIP_PORT & 0xffff)
+                        || getShort(data, l4 + 2) == (UDP.RIP_PORT & 0xffff))) {
+                // The RIP codec reads entries until the end of the frame
+                int ripLength = remaining - headerLength - UDP_HEADER;
+                if (ripLength < RIP_HEADER
+                        || (ripLength - RIP_HEADER) % RIP_ENTRY != 0)
+                    return DropReason.BAD_RIP_LENGTH;
+            }
+            return null;
+        case IPv4.PROTOCOL_TCP:
+            if (l4Length < TCP_HEADER)
+                return DropReason.TRUNCATED_HEADER;
+            int dataOffset = (data[l4 + 12] >> 4 & 0xf) * 4;
+            if (dataOffset < TCP_HEADER || dataOffset > l4Length)
+                return DropReason.BAD_TCP_OFFSET;
+            return null;
+        case IPv4.PROTOCOL_ICMP:
+            if (l4Length < ICMP_HEADER)
+                return DropReason.TRUNCATED_HEADER;
+            return null;
+        default:
+            return null;
+        }
+    }
+
+    private static int getShort(byte[] data, int pos) {
+        return (data[pos] & 0xff) << 8 | (data[pos + 1] & 0xff);
+    }
+}
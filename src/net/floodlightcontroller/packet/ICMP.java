@@ -60,6 +60,33 @@ public class ICMP extends BasePacket {
         return this;
     }
 
+    /**
+     * Sets the type and patches a non-zero checksum to match, e.g. when
+     * turning an echo request into an echo reply.
+     * @param icmpType to set
+     */
+    public ICMP updateIcmpType(byte icmpType) {
+        if (this.checksum != 0)
+            this.checksum = Checksum.update(this.checksum,
+                    (short) ((this.icmpType << 8) | (this.icmpCode & 0xff)),
+                    (short) ((icmpType << 8) | (this.icmpCode & 0xff)));
+        this.icmpType = icmpType;
+        return this;
+    }
+
+    /**
+     * Sets the code and patches a non-zero checksum to match.
+     * @param icmpCode code to set
+     */
+    public ICMP updateIcmpCode(byte icmpCode) {
+        if (this.checksum != 0)
+            this.checksum = Checksum.update(this.checksum,
+                    (short) ((this.icmpType << 8) | (this.icmpCode & 0xff)),
+                    (short) ((this.icmpType << 8) | (icmpCode & 0xff)));
+        this.icmpCode = icmpCode;
+        return this;
+    }
+
     /**
      * @return the checksum
      */
@@ -75,52 +102,38 @@ public class ICMP extends BasePacket {
         return this;
     }
 
+    @Override
+    public int getSerializedLength() {
+        return 4 + this.getPayloadSerializedLength();
+    }
+
     /**
      * Serializes the packet. Will compute and set the following fields if they
-     * are set to specific values at the time serialize is called:
+     * are set to specific values at the time serializeTo is called:
      *      -checksum : 0
      *      -length : 0
      */
-    public byte[] serialize() {
-        int length = 4;
-        byte[] payloadData = null;
-        if (payload != null) {
+    @Override
+    public ByteBuffer serializeTo(ByteBuffer bb) {
+        if (payload != null)
             payload.setParent(this);
-            payloadData = payload.serialize();
-            length += payloadData.length;
-        }
-
-        byte[] data = new byte[length];
-        ByteBuffer bb = ByteBuffer.wrap(data);
+        int length = this.getSerializedLength();
 
+        int start = bb.position();
         bb.put(this.icmpType);
         bb.put(this.icmpCode);
         bb.putShort(this.checksum);
-        if (payloadData != null)
-            bb.put(payloadData);
+        this.serializePayloadTo(bb);
 
         if (this.parent != null && this.parent instanceof IPv4)
             ((IPv4)this.parent).setProtocol(IPv4.PROTOCOL_ICMP);
 
         // compute checksum if needed
         if (this.checksum == 0) {
-            bb.rewind();
-            int accumulation = 0;
-
-            for (int i = 0; i < length / 2; ++i) {
-                accumulation += 0xffff & bb.getShort();
-            }
-            // pad to an even number of shorts
-            if (length % 2 > 0) {
-                accumulation += (bb.get() & 0xff) << 8;
-            }
-
-            accumulation = ((accumulation >> 16) & 0xffff)
-                    + (accumulation & 0xffff);
-            this.checksum = (short) (~accumulation & 0xffff);
-            bb.putShort(2, this.checksum);
+            this.checksum = Checksum.compute(bb, start, length, 0);
+            bb.putShort(start + 2, this.checksum);
         }
-        return data;
+        return bb;
     }
 
     /* (non-Javadoc)
@@ -158,15 +171,22 @@ public class ICMP extends BasePacket {
     }
 
     @Override
-    public IPacket deserialize(byte[] data, int offset, int length) {
-        ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
+    protected void reset() {
+        super.reset();
+        this.icmpType = 0;
+        this.icmpCode = 0;
+        this.checksum = 0;
+    }
+
+    @Override
+    public IPacket deserialize(ByteBuffer bb, DecodeDepth depth) {
         this.icmpType = bb.get();
         this.icmpCode = bb.get();
         this.checksum = bb.getShort();
         
-        this.payload = new Data();
-        this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
-        this.payload.setParent(this);
+        this.deserializePayload(
+                PacketPool.DATA.newPacket(this.isPooled()), bb,
+                DecodeDepth.L4, depth);
         return this;
     }
 }
@@ -17,6 +17,8 @@
 
 package net.floodlightcontroller.packet;
 
+import java.nio.ByteBuffer;
+
 /**
 *
 * @author David Erickson (daviderickson@cs.stanford.edu)
@@ -60,6 +62,22 @@ public interface IPacket {
      */
     public byte[] serialize();
 
+    /**
+     * @return the number of bytes this packet and all payloads occupy when
+     *         serialized
+     */
+    public int getSerializedLength();
+
+    /**
+     * Sets all payloads parent packet if applicable, then writes this packet
+     * and all payloads into a buffer, front to back, starting at the buffer's
+     * position. The position is advanced past the packet. The buffer may be
+     * heap or direct, but must use big-endian byte order.
+     * @param dst buffer with at least getSerializedLength() bytes remaining
+     * @return dst
+     */
+    public ByteBuffer serializeTo(ByteBuffer dst);
+
     /**
      * Deserializes this packet layer and all possible payloads
      * @param data
@@ -68,6 +86,29 @@ public interface IPacket {
      * @return the deserialized data
      */
     public IPacket deserialize(byte[] data, int offset, int length);
+
+    /**
+     * Deserializes this packet layer and all possible payloads from the bytes
+     * between the buffer's position and limit. The buffer may be heap, direct,
+     * or a read-only view of a mapped file, but must use big-endian byte
+     * order. The position is advanced past the bytes consumed.
+     * @param bb buffer to deserialize from
+     * @return the deserialized data
+     * @throws java.nio.BufferUnderflowException if a header is truncated
+     */
+    public IPacket deserialize(ByteBuffer bb);
+
+    /**
+     * Deserializes this packet layer, and its payloads down to the given
+     * depth. Deeper payloads keep a reference to the buffer and are decoded
+     * when first accessed, so the buffer must not be reused while the packet
+     * is in use unless depth is FULL.
+     * @param bb buffer to deserialize from
+     * @param depth layers to decode now
+     * @return the deserialized data
+     * @throws java.nio.BufferUnderflowException if a header is truncated
+     */
+    public IPacket deserialize(ByteBuffer bb, DecodeDepth depth);
     
     /** Clone this packet and its payload packet but not its parent. 
      * 
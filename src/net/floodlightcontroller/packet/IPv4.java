@@ -23,8 +23,6 @@ package net.floodlightcontroller.packet;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * @author David Erickson (daviderickson@cs.stanford.edu)
@@ -34,14 +32,6 @@ public class IPv4 extends BasePacket {
     public static final byte PROTOCOL_ICMP = 0x1;
     public static final byte PROTOCOL_TCP = 0x6;
     public static final byte PROTOCOL_UDP = 0x11;
-    public static Map<Byte, Class<? extends IPacket>> protocolClassMap;
-
-    static {
-        protocolClassMap = new HashMap<Byte, Class<? extends IPacket>>();
-        protocolClassMap.put(PROTOCOL_ICMP, ICMP.class);
-        protocolClassMap.put(PROTOCOL_TCP, TCP.class);
-        protocolClassMap.put(PROTOCOL_UDP, UDP.class);
-    }
 
     protected byte version;
     protected byte headerLength;
@@ -180,6 +170,20 @@ public class IPv4 extends BasePacket {
         return this;
     }
 
+    /**
+     * Sets the ttl and patches a non-zero checksum to match, instead of
+     * leaving it to be recomputed over the whole header.
+     * @param ttl the ttl to set
+     */
+    public IPv4 updateTtl(byte ttl) {
+        if (this.checksum != 0)
+            this.checksum = Checksum.update(this.checksum,
+                    (short) ((this.ttl << 8) | (this.protocol & 0xff)),
+                    (short) ((ttl << 8) | (this.protocol & 0xff)));
+        this.ttl = ttl;
+        return this;
+    }
+
     /**
      * @return the protocol
      */
@@ -261,6 +265,99 @@ public class IPv4 extends BasePacket {
         return this;
     }
 
+    /**
+     * Sets the source address and patches the header checksum and the
+     * checksum of a TCP or UDP payload, whose pseudo-header covers the
+     * address.
+     * @param sourceAddress the sourceAddress to set
+     */
+    public IPv4 updateSourceAddress(int sourceAddress) {
+        updatePayloadAddress(this.sourceAddress, sourceAddress);
+        if (this.checksum != 0)
+            this.checksum = Checksum.update(this.checksum, this.sourceAddress,
+                    sourceAddress);
+        this.sourceAddress = sourceAddress;
+        return this;
+    }
+
+    /**
+     * Sets the destination address and patches the header checksum and the
+     * checksum of a TCP or UDP payload, whose pseudo-header covers the
+     * address.
+     * @param destinationAddress the destinationAddress to set
+     */
+    public IPv4 updateDestinationAddress(int destinationAddress) {
+        updatePayloadAddress(this.destinationAddress, destinationAddress);
+        if (this.checksum != 0)
+            this.checksum = Checksum.update(this.checksum,
+                    this.destinationAddress, destinationAddress);
+        this.destinationAddress = destinationAddress;
+        return this;
+    }
+
+    private void updatePayloadAddress(int oldAddress, int newAddress) {
+        IPacket payload = this.getPayload();
+        if (payload instanceof TCP)
+            ((TCP) payload).updatePseudoHeaderAddress(oldAddress,
+                    newAddress);
+        else if (payload instanceof UDP)
+            ((UDP) payload).updatePseudoHeaderAddress(oldAddress,
+                    newAddress);
+    }
+
+    /**
+     * Computes the sum of the pseudo-header that the TCP and UDP checksums
+     * cover.
+     * @param length length of the TCP or UDP segment
+     * @return the unfolded sum
+     */
+    public long getPseudoHeaderSum(int length) {
+        return (this.sourceAddress >>> 16) + (this.sourceAddress & 0xffff)
+                + (this.destinationAddress >>> 16)
+                + (this.destinationAddress & 0xffff)
+                + (this.protocol & 0xff) + (length & 0xffff);
+    }
+
+    /**
+     * Checks the header checksum against the header fields, without
+     * serializing the packet.
+     * @return true if the checksum is correct
+     */
+    public boolean isChecksumValid() {
+        int sum = (((this.version & 0xf) << 12) | ((this.headerLength & 0xf) << 8)
+                | (this.diffServ & 0xff));
+        sum += this.totalLength & 0xffff;
+        sum += this.identification & 0xffff;
+        sum += (((this.flags & 0x7) << 13) | (this.fragmentOffset & 0x1fff));
+        sum += ((this.ttl & 0xff) << 8) | (this.protocol & 0xff);
+        sum += this.checksum & 0xffff;
+        sum += (this.sourceAddress >>> 16) + (this.sourceAddress & 0xffff);
+        sum += (this.destinationAddress >>> 16)
+                + (this.destinationAddress & 0xffff);
+        if (this.options != null)
+            return Checksum.verify(this.options, 0, this.options.length, sum);
+        return Checksum.fold(sum) == 0xffff;
+    }
+
+    /**
+     * Checks the header checksum of an IPv4 packet in a buffer, in a single
+     * pass over the 20-60 header bytes.
+     * @param data
+     * @param offset offset of the IPv4 header
+     * @param length bytes available from the offset
+     * @return true if the buffer holds a complete header whose checksum is
+     *         correct
+     */
+    public static boolean isHeaderChecksumValid(byte[] data, int offset,
+            int length) {
+        if (length < 20)
+            return false;
+        int headerLength = (data[offset] & 0x0f) * 4;
+        if (headerLength < 20 || headerLength > length)
+            return false;
+        return Checksum.verify(data, offset, headerLength, 0);
+    }
+
     /**
      * @return the options
      */
@@ -279,31 +376,35 @@ public class IPv4 extends BasePacket {
         return this;
     }
 
+    @Override
+    public int getSerializedLength() {
+        int optionsLength = 0;
+        if (this.options != null)
+            optionsLength = this.options.length / 4;
+        return (5 + optionsLength) * 4
+                + this.getPayloadSerializedLength();
+    }
+
     /**
      * Serializes the packet. Will compute and set the following fields if they
-     * are set to specific values at the time serialize is called:
+     * are set to specific values at the time serializeTo is called:
      *      -checksum : 0
      *      -headerLength : 0
      *      -totalLength : 0
      */
-    public byte[] serialize() {
-        byte[] payloadData = null;
-        if (payload != null) {
+    @Override
+    public ByteBuffer serializeTo(ByteBuffer bb) {
+        if (payload != null)
             payload.setParent(this);
-            payloadData = payload.serialize();
-        }
 
         int optionsLength = 0;
         if (this.options != null)
             optionsLength = this.options.length / 4;
         this.headerLength = (byte) (5 + optionsLength);
 
-        this.totalLength = (short) (this.headerLength * 4 + ((payloadData == null) ? 0
-                : payloadData.length));
-
-        byte[] data = new byte[this.totalLength];
-        ByteBuffer bb = ByteBuffer.wrap(data);
+        this.totalLength = (short) this.getSerializedLength();
 
+        int start = bb.position();
         bb.put((byte) (((this.version & 0xf) << 4) | (this.headerLength & 0xf)));
         bb.put(this.diffServ);
         bb.putShort(this.totalLength);
@@ -316,27 +417,43 @@ public class IPv4 extends BasePacket {
         bb.putInt(this.destinationAddress);
         if (this.options != null)
             bb.put(this.options);
-        if (payloadData != null)
-            bb.put(payloadData);
+        if (payload != null) {
+            this.serializePayloadTo(bb);
+            // the payload may have set the protocol
+            bb.put(start + 9, this.protocol);
+        }
 
         // compute checksum if needed
         if (this.checksum == 0) {
-            bb.rewind();
-            int accumulation = 0;
-            for (int i = 0; i < this.headerLength * 2; ++i) {
-                accumulation += 0xffff & bb.getShort();
-            }
-            accumulation = ((accumulation >> 16) & 0xffff)
-                    + (accumulation & 0xffff);
-            this.checksum = (short) (~accumulation & 0xffff);
-            bb.putShort(10, this.checksum);
+            this.checksum = Checksum.compute(bb, start, this.headerLength * 4, 0);
+            bb.putShort(start + 10, this.checksum);
         }
-        return data;
+        return bb;
     }
 
     @Override
-    public IPacket deserialize(byte[] data, int offset, int length) {
-        ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
+    protected void reset() {
+        super.reset();
+        this.version = 4;
+        this.headerLength = 0;
+        this.diffServ = 0;
+        this.totalLength = 0;
+        this.identification = 0;
+        this.flags = 0;
+        this.fragmentOffset = 0;
+        this.ttl = 0;
+        this.protocol = 0;
+        this.checksum = 0;
+        this.sourceAddress = 0;
+        this.destinationAddress = 0;
+        this.options = null;
+        this.isTruncated = false;
+    }
+
+    @Override
+    public IPacket deserialize(ByteBuffer bb, DecodeDepth depth) {
+        int start = bb.position();
+        int length = bb.remaining();
         short sscratch;
 
         this.version = bb.get();
@@ -360,24 +477,21 @@ public class IPv4 extends BasePacket {
             bb.get(this.options);
         }
 
-        IPacket payload;
-        if (IPv4.protocolClassMap.containsKey(this.protocol)) {
-            Class<? extends IPacket> clazz = IPv4.protocolClassMap.get(this.protocol);
-            try {
-                payload = clazz.newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Error parsing payload for IPv4 packet", e);
-            }
-        } else {
-            payload = new Data();
-        }
-        this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
-        this.payload.setParent(this);
-
-        if (this.totalLength != length)
-            this.isTruncated = true;
-        else
-            this.isTruncated = false;
+        // Short packets are padded to the minimum Ethernet frame size; the
+        // padding is not part of the payload
+        int totalLength = this.totalLength & 0xffff;
+        int limit = bb.limit();
+        if (totalLength >= this.headerLength * 4 && totalLength < length)
+            bb.limit(start + totalLength);
+
+        IPacket payload = PacketDecoders.forIpProtocol(this.protocol,
+                this.isPooled());
+        if (null == payload)
+            payload = PacketPool.DATA.newPacket(this.isPooled());
+        this.deserializePayload(payload, bb, DecodeDepth.L3, depth);
+        bb.limit(limit);
+
+        this.isTruncated = (totalLength > length);
 
         return this;
     }
@@ -0,0 +1,217 @@
+package net.floodlightcontroller.packet;
+
+/**
+ * Flyweight view of an IPv4 header. Reads and writes fields in place; see
+ * {@link IPv4} for the object representation.
+ */
+public class IPv4View extends PacketView {
+    public static final int MIN_HEADER_LENGTH = 20;
+    public static final int TOTAL_LENGTH_OFFSET = 2;
+    public static final int FLAGS_OFFSET = 6;
+    public static final int TTL_OFFSET = 8;
+    public static final int PROTOCOL_OFFSET = 9;
+    public static final int CHECKSUM_OFFSET = 10;
+    public static final int SOURCE_OFFSET = 12;
+    public static final int DESTINATION_OFFSET = 16;
+
+    /**
+     * Points the view at an IPv4 packet.
+     * @param data buffer holding the packet
+     * @param offset offset of the first byte of the IPv4 header
+     * @param length number of bytes available from the offset
+     * @return this view, or null if the bytes do not hold a complete IPv4
+     *         header
+     */
+    @Override
+    public IPv4View wrap(byte[] data, int offset, int length) {
+        if (length < MIN_HEADER_LENGTH)
+            return null;
+        super.wrap(data, offset, length);
+        if (getVersion() != 4 || getHeaderLength() < MIN_HEADER_LENGTH
+                || getHeaderLength() > length)
+            return null;
+        return this;
+    }
+
+    /**
+     * @return the version
+     */
+    public byte getVersion() {
+        return (byte) (getByte(0) >> 4);
+    }
+
+    @Override
+    public int getHeaderLength() {
+        return (getByte(0) & 0x0f) * 4;
+    }
+
+    /**
+     * @return the total length
+     */
+    public short getTotalLength() {
+        return (short) getShort(TOTAL_LENGTH_OFFSET);
+    }
+
+    /**
+     * @return the ttl
+     */
+    public byte getTtl() {
+        return (byte) getByte(TTL_OFFSET);
+    }
+
+    /**
+     * @param ttl the ttl to set; the checksum is not updated
+     * @return this view
+     */
+    public IPv4View setTtl(byte ttl) {
+        setByte(TTL_OFFSET, ttl);
+        return this;
+    }
+
+    /**
+     * Decrements the ttl and patches the checksum to match (RFC 1624).
+     * @return the new ttl
+     */
+    public int decrementTtl() {
+        int oldWord = getShort(TTL_OFFSET);
+        int ttl = (getByte(TTL_OFFSET) - 1) & 0xff;
+        setByte(TTL_OFFSET, ttl);
+        setChecksum(Checksum.update(getChecksum(), (short) oldWord,
+                (short) getShort(TTL_OFFSET)));
+        return ttl;
+    }
+
+    /**
+     * @return the protocol
+     */
+    public byte getProtocol() {
+        return (byte) getByte(PROTOCOL_OFFSET);
+    }
+
+    /**
+     * @return the checksum
+     */
+    public short getChecksum() {
+        return (short) getShort(CHECKSUM_OFFSET);
+    }
+
+    /**
+     * @param checksum the checksum to set
+     * @return this view
+     */
+    public IPv4View setChecksum(short checksum) {
+        setShort(CHECKSUM_OFFSET, checksum);
+        return this;
+    }
+
+    /**
+     * @return true if the packet is a fragment of a larger datagram, i.e.,
+     *         more fragments follow or the fragment offset is not zero
+     */
+    public boolean isFragment() {
+        return (getShort(FLAGS_OFFSET) & 0x3fff) != 0;
+    }
+
+    /**
+     * @return the source address
+     */
+    public int getSourceAddress() {
+        return getInt(SOURCE_OFFSET);
+    }
+
+    /**
+     * @param sourceAddress the source address to set; the checksum is not
+     *        updated
+     * @return this view
+     */
+    public IPv4View setSourceAddress(int sourceAddress) {
+        setInt(SOURCE_OFFSET, sourceAddress);
+        return this;
+    }
+
+    /**
+     * Sets the source address and patches the header checksum to match. The
+     * checksum of a TCP or UDP payload must be patched separately.
+     * @param sourceAddress the source address to set
+     * @return this view
+     */
+    public IPv4View updateSourceAddress(int sourceAddress) {
+        setChecksum(Checksum.update(getChecksum(), getSourceAddress(),
+                sourceAddress));
+        return setSourceAddress(sourceAddress);
+    }
+
+    /**
+     * @return the destination address
+     */
+    public int getDestinationAddress() {
+        return getInt(DESTINATION_OFFSET);
+    }
+
+    /**
+     * @param destinationAddress the destination address to set; the checksum
+     *        is not updated
+     * @return this view
+     */
+    public IPv4View setDestinationAddress(int destinationAddress) {
+        setInt(DESTINATION_OFFSET, destinationAddress);
+        return this;
+    }
+
+    /**
+     * Sets the destination address and patches the header checksum to
+     * match. The checksum of a TCP or UDP payload must be patched separately.
+     * @param destinationAddress the destination address to set
+     * @return this view
+     */
+    public IPv4View updateDestinationAddress(int destinationAddress) {
+        setChecksum(Checksum.update(getChecksum(),
+                getDestinationAddress(), destinationAddress));
+        return setDestinationAddress(destinationAddress);
+    }
+
+    /**
+     * Computes the header checksum over the header as it is in the buffer,
+     * treating the checksum field as zero.
+     * @return the checksum
+     */
+    public short computeChecksum() {
+        long sum = Checksum.sum(data, offset, getHeaderLength(), 0);
+        return (short) ~Checksum.fold(sum - getShort(CHECKSUM_OFFSET));
+    }
+
+    /**
+     * Checks the header checksum in a single pass over the header.
+     * @return true if the checksum in the header is correct
+     */
+    public boolean isChecksumValid() {
+        return IPv4.isHeaderChecksumValid(data, offset, length);
+    }
+
+    /**
+     * Recomputes the header checksum and stores it in the header.
+     * @return this view
+     */
+    public IPv4View updateChecksum() {
+        return setChecksum(computeChecksum());
+    }
+
+    /**
+     * @return the payload length according to the total length field,
+     *         limited to the bytes actually available
+     */
+    @Override
+    public int getPayloadLength() {
+        int total = getTotalLength() & 0xffff;
+        if (total < getHeaderLength() || total > length)
+            total = length;
+        return total - getHeaderLength();
+    }
+
+    @Override
+    public IPv4 toPacket() {
+        IPv4 ip = new IPv4();
+        ip.deserialize(data, offset, length);
+        return ip;
+    }
+}
@@ -0,0 +1,98 @@
+package net.floodlightcontroller.packet;
+
+/**
+ * Flyweight view of an ICMP header. Reads and writes fields in place; see
+ * {@link ICMP} for the object representation.
+ */
+public class IcmpView extends PacketView {
+    public static final int HEADER_LENGTH = 4;
+    public static final int CHECKSUM_OFFSET = 2;
+
+    /**
+     * Points the view at an ICMP message.
+     * @param data buffer holding the message
+     * @param offset offset of the first byte of the ICMP header
+     * @param length length of the message
+     * @return this view, or null if the bytes are too short to hold an ICMP
+     *         header
+     */
+    @Override
+    public IcmpView wrap(byte[] data, int offset, int length) {
+        if (length < HEADER_LENGTH)
+            return null;
+        super.wrap(data, offset, length);
+        return this;
+    }
+
+    /**
+     * @return the type
+     */
+    public byte getIcmpType() {
+        return (byte) getByte(0);
+    }
+
+    /**
+     * @param icmpType the type to set
+     * @return this view
+     */
+    public IcmpView setIcmpType(byte icmpType) {
+        setByte(0, icmpType);
+        return this;
+    }
+
+    /**
+     * Sets the type and patches the checksum to match.
+     * @param icmpType the type to set
+     * @return this view
+     */
+    public IcmpView updateIcmpType(byte icmpType) {
+        int oldWord = getShort(0);
+        setIcmpType(icmpType);
+        return setChecksum(Checksum.update(getChecksum(),
+                (short) oldWord, (short) getShort(0)));
+    }
+
+    /**
+     * @return the code
+     */
+    public byte getIcmpCode() {
+        return (byte) getByte(1);
+    }
+
+    /**
+     * @param icmpCode the code to set
+     * @return this view
+     */
+    public IcmpView setIcmpCode(byte icmpCode) {
+        setByte(1, icmpCode);
+        return this;
+    }
+
+    /**
+     * @return the checksum
+     */
+    public short getChecksum() {
+        return (short) getShort(CHECKSUM_OFFSET);
+    }
+
+    /**
+     * @param checksum the checksum to set
+     * @return this view
+     */
+    public IcmpView setChecksum(short checksum) {
+        setShort(CHECKSUM_OFFSET, checksum);
+        return this;
+    }
+
+    @Override
+    public int getHeaderLength() {
+        return HEADER_LENGTH;
+    }
+
+    @Override
+    public ICMP toPacket() {
+        ICMP icmp = new ICMP();
+        icmp.deserialize(data, offset, length);
+        return icmp;
+    }
+}
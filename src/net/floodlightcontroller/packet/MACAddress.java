@@ -1,18 +1,31 @@
 package net.floodlightcontroller.packet;
 
-import java.util.Arrays;
-
 /**
- * The class representing MAC address.
+ * The class representing MAC address. The address is kept in the low 48
+ * bits of a single {@code long}, so converting to and from a long and
+ * comparing or hashing addresses never touches an array.
  *
  * @author Sho Shimizu (sho.shimizu@gmail.com)
  */
 public class MACAddress {
     public static final int MAC_ADDRESS_LENGTH = 6;
-    private byte[] address = new byte[MAC_ADDRESS_LENGTH];
+    private static final long MASK = 0xffffffffffffL;
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    /** The address; the first byte is the most significant of the 48 bits */
+    private final long address;
 
     public MACAddress(byte[] address) {
-        this.address = Arrays.copyOf(address, MAC_ADDRESS_LENGTH);
+        // Like Arrays.copyOf, use the first six bytes and pad with zeros
+        long mac = 0;
+        for (int i = 0; i < MAC_ADDRESS_LENGTH; i++) {
+            mac = (mac << 8) | ((i < address.length) ? address[i] & 0xffL : 0);
+        }
+        this.address = mac;
+    }
+
+    private MACAddress(long address) {
+        this.address = address & MASK;
     }
 
     /**
@@ -22,20 +35,32 @@ public class MACAddress {
      * @throws IllegalArgumentException if the string cannot be parsed as a MAC address.
      */
     public static MACAddress valueOf(String address) {
-        String[] elements = address.split(":");
-        if (elements.length != MAC_ADDRESS_LENGTH) {
-            throw new IllegalArgumentException(
-                    "Specified MAC Address must contain 12 hex digits" +
-                    " separated pairwise by :'s.");
-        }
-
-        byte[] addressInBytes = new byte[MAC_ADDRESS_LENGTH];
-        for (int i = 0; i < MAC_ADDRESS_LENGTH; i++) {
-            String element = elements[i];
-            addressInBytes[i] = (byte)Integer.parseInt(element, 16);
+        long value = 0;
+        int elements = 0;
+        int element = 0;
+        int digits = 0;
+        for (int i = 0; i <= address.length(); i++) {
+            boolean end = (i == address.length());
+            char c = end ? ':' : address.charAt(i);
+            if (':' == c) {
+                if (0 == digits || ++elements > MAC_ADDRESS_LENGTH)
+                    break;
+                value = (value << 8) | element;
+                if (end && MAC_ADDRESS_LENGTH == elements)
+                    return new MACAddress(value);
+                element = 0;
+                digits = 0;
+                continue;
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0 || ++digits > 2)
+                break;
+            element = (element << 4) | digit;
         }
 
-        return new MACAddress(addressInBytes);
+        throw new IllegalArgumentException(
+                "Specified MAC Address must contain 12 hex digits" +
+                " separated pairwise by :'s.");
     }
 
     /**
@@ -52,6 +77,18 @@ public class MACAddress {
         return new MACAddress(address);
     }
 
+    /**
+     * Returns a MAC address instance representing the six bytes starting at
+     * {@code offset} in the specified {@code byte} array.
+     * @param data the byte array containing the MAC address.
+     * @param offset the offset of the first byte of the MAC address.
+     * @return a MAC address instance representing the bytes at {@code offset}.
+     * @throws IllegalArgumentException if the array is too short.
+     */
+    public static MACAddress valueOf(byte[] data, int offset) {
+        return new MACAddress(toLong(data, offset));
+    }
+
     /**
      * Returns a MAC address instance representing the specified {@code long} value.
      * The lower 48 bits of the long value are used to parse as a MAC address.
@@ -60,16 +97,26 @@ public class MACAddress {
      * @throws IllegalArgumentException if the long value cannot be parsed as a MAC address.
      */
     public static MACAddress valueOf(long address) {
-        byte[] addressInBytes = new byte[] {
-                (byte)((address >> 40) & 0xff),
-                (byte)((address >> 32) & 0xff),
-                (byte)((address >> 24) & 0xff),
-                (byte)((address >> 16) & 0xff),
-                (byte)((address >> 8 ) & 0xff),
-                (byte)((address >> 0) & 0xff)
-        };
+        return new MACAddress(address);
+    }
+
+    /**
+     * Reads the six bytes starting at {@code offset} as a MAC address.
+     * @param data the byte array containing the MAC address.
+     * @param offset the offset of the first byte of the MAC address.
+     * @return the MAC address in the lower 48 bits.
+     * @throws IllegalArgumentException if the array is too short.
+     */
+    public static long toLong(byte[] data, int offset) {
+        if (offset < 0 || data.length - offset < MAC_ADDRESS_LENGTH) {
+            throw new IllegalArgumentException("the length is not " + MAC_ADDRESS_LENGTH);
+        }
 
-        return new MACAddress(addressInBytes);
+        long mac = 0;
+        for (int i = 0; i < MAC_ADDRESS_LENGTH; i++) {
+            mac = (mac << 8) | (data[offset + i] & 0xffL);
+        }
+        return mac;
     }
 
     /**
@@ -77,7 +124,7 @@ public class MACAddress {
      * @return the length of the {@code MACAddress}.
      */
     public int length() {
-        return address.length;
+        return MAC_ADDRESS_LENGTH;
     }
 
     /**
@@ -85,7 +132,20 @@ public class MACAddress {
      * @return the numeric value represented by this object after conversion to type {@code byte} array.
      */
     public byte[] toBytes() {
-        return Arrays.copyOf(address, address.length);
+        byte[] bytes = new byte[MAC_ADDRESS_LENGTH];
+        this.writeTo(bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * Writes the six bytes of the {@code MACAddress} into an array.
+     * @param dst the array to write into.
+     * @param offset the offset at which to write the first byte.
+     */
+    public void writeTo(byte[] dst, int offset) {
+        for (int i = MAC_ADDRESS_LENGTH - 1; i >= 0; i--) {
+            dst[offset + i] = (byte) (this.address >>> ((MAC_ADDRESS_LENGTH - 1 - i) * 8));
+        }
     }
 
     /**
@@ -93,12 +153,7 @@ public class MACAddress {
      * @return the numeric value represented by this object after conversion to type {@code long}.
      */
     public long toLong() {
-        long mac = 0;
-        for (int i = 0; i < 6; i++) {
-            long t = (address[i] & 0xffL) << ((5 - i) * 8);
-            mac |= t;
-        }
-        return mac;
+        return this.address;
     }
 
     /**
@@ -106,11 +161,7 @@ public class MACAddress {
      * @return {@code true} if the MAC address is the broadcast address.
      */
     public boolean isBroadcast() {
-        for (byte b : address) {
-            if (b != -1) // checks if equal to 0xff
-                return false;
-        }
-        return true;
+        return this.address == MASK;
     }
 
     /**
@@ -121,7 +172,7 @@ public class MACAddress {
         if (isBroadcast()) {
             return false;
         }
-        return (address[0] & 0x01) != 0;
+        return (this.address & 0x010000000000L) != 0;
     }
 
     @Override
@@ -135,23 +186,25 @@ public class MACAddress {
         }
 
         MACAddress other = (MACAddress)o;
-        return Arrays.equals(this.address, other.address);
+        return this.address == other.address;
     }
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(this.address);
+        return Long.hashCode(this.address);
     }
 
     @Override
     public String toString() {
-        StringBuilder builder = new StringBuilder();
-        for (byte b: address) {
-            if (builder.length() > 0) {
-                builder.append(":");
+        char[] chars = new char[MAC_ADDRESS_LENGTH * 3 - 1];
+        for (int i = 0; i < MAC_ADDRESS_LENGTH; i++) {
+            int b = (int) (this.address >>> ((MAC_ADDRESS_LENGTH - 1 - i) * 8)) & 0xff;
+            if (i > 0) {
+                chars[i * 3 - 1] = ':';
             }
-            builder.append(String.format("%02X", b & 0xFF));
+            chars[i * 3] = HEX[b >>> 4];
+            chars[i * 3 + 1] = HEX[b & 0xf];
         }
-        return builder.toString();
+        return new String(chars);
     }
 }
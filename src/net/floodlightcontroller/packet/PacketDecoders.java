@@ -0,0 +1,173 @@
+package net.floodlightcontroller.packet;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.function.Supplier;
+
+/**
+ * Registry of the payload codecs the packet classes instantiate while
+ * deserializing. Lookups index plain arrays by the unsigned ethertype, IP
+ * protocol number, or UDP port, and take the payload from the codec's
+ * {@link PacketPool}, so decoding a packet involves no boxing, hashing, or
+ * reflection.
+ * <p>
+ * Decoders may be registered while the application starts up. Once
+ * {@link #freeze()} is called the tables are read-only; they are never
+ * written again, so any thread can read them without synchronization.
+ * <p>
+ * A registered codec is only reused if its class, and every superclass
+ * with fields of its own, overrides {@link BasePacket#reset()}; otherwise
+ * a reused packet could keep fields from the packet before, so a new one
+ * is created for every packet.
+ */
+public final class PacketDecoders {
+    private static final PacketPool<?>[] etherTypes =
+            new PacketPool<?>[1 << 16];
+    private static final PacketPool<?>[] ipProtocols =
+            new PacketPool<?>[1 << 8];
+    private static final PacketPool<?>[] udpPorts =
+            new PacketPool<?>[1 << 16];
+    private static volatile boolean frozen = false;
+
+    static {
+        register(etherTypes, Ethernet.TYPE_ARP & 0xffff, PacketPool.ARP);
+        register(etherTypes, Ethernet.TYPE_RARP & 0xffff, PacketPool.ARP);
+        register(etherTypes, Ethernet.TYPE_IPv4 & 0xffff, PacketPool.IPV4);
+        register(ipProtocols, IPv4.PROTOCOL_ICMP, PacketPool.ICMP);
+        register(ipProtocols, IPv4.PROTOCOL_TCP, PacketPool.TCP);
+        register(ipProtocols, IPv4.PROTOCOL_UDP, PacketPool.UDP);
+        register(udpPorts, UDP.RIP_PORT & 0xffff, PacketPool.RIPV2);
+    }
+
+    private PacketDecoders() {
+    }
+
+    /**
+     * Registers the codec for an Ethernet payload.
+     * @param etherType
+     * @param factory creates an empty packet to deserialize into
+     */
+    public static void registerEtherType(short etherType,
+            Supplier<? extends BasePacket> factory) {
+        register(etherTypes, etherType & 0xffff,
+                poolFor(factory));
+    }
+
+    /**
+     * Registers the codec for an IPv4 payload.
+     * @param protocol
+     * @param factory creates an empty packet to deserialize into
+     */
+    public static void registerIpProtocol(byte protocol,
+            Supplier<? extends BasePacket> factory) {
+        register(ipProtocols, protocol & 0xff,
+                poolFor(factory));
+    }
+
+    /**
+     * Registers the codec for UDP datagrams sent to or from a port.
+     * @param port
+     * @param factory creates an empty packet to deserialize into
+     */
+    public static void registerUdpPort(short port,
+            Supplier<? extends BasePacket> factory) {
+        register(udpPorts, port & 0xffff,
+                poolFor(factory));
+    }
+
+    /**
+     * Wraps a codec's factory in a pool that only reuses packets whose
+     * fields are all cleared by reset().
+     */
+    private static PacketPool<BasePacket> poolFor(
+            Supplier<? extends BasePacket> factory) {
+        int capacity = isResettable(factory.get().getClass())
+                ? PacketPool.DEFAULT_CAPACITY : 0;
+        return new PacketPool<BasePacket>(factory::get, capacity);
+    }
+
+    /**
+     * @param type packet class
+     * @return true if every class from type up to BasePacket that declares
+     *         instance fields also overrides reset()
+     */
+    static boolean isResettable(Class<?> type) {
+        for (Class<?> c = type; c != BasePacket.class; c = c.getSuperclass()) {
+            boolean hasFields = false;
+            for (Field field : c.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers()))
+                    hasFields = true;
+            }
+            if (!hasFields)
+                continue;
+            try {
+                c.getDeclaredMethod("reset");
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static synchronized void register(PacketPool<?>[] table,
+            int index, PacketPool<?> pool) {
+        if (frozen)
+            throw new IllegalStateException("Packet decoders are frozen");
+        table[index] = pool;
+    }
+
+    /**
+     * Makes the registry read-only. Registering a decoder afterwards throws
+     * an IllegalStateException.
+     */
+    public static synchronized void freeze() {
+        frozen = true;
+    }
+
+    /**
+     * @return true if no more decoders can be registered
+     */
+    public static boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * @param etherType
+     * @param pooled true to take the packet from its pool
+     * @return a new packet for the Ethernet payload; null if the ethertype
+     *         has no registered decoder
+     */
+    public static IPacket forEtherType(short etherType, boolean pooled) {
+        return create(etherTypes[etherType & 0xffff], pooled);
+    }
+
+    /**
+     * @param protocol
+     * @param pooled true to take the packet from its pool
+     * @return a new packet for the IPv4 payload; null if the protocol has no
+     *         registered decoder
+     */
+    public static IPacket forIpProtocol(byte protocol, boolean pooled) {
+        return create(ipProtocols[protocol & 0xff], pooled);
+    }
+
+    /**
+     * @param destinationPort
+     * @param sourcePort
+     * @param pooled true to take the packet from its pool
+     * @return a new packet for the UDP payload, chosen by destination port
+     *         and then by source port; null if neither port has a
+     *         registered decoder
+     */
+    public static IPacket forUdpPorts(short destinationPort, short sourcePort,
+            boolean pooled) {
+        PacketPool<?> pool = udpPorts[destinationPort & 0xffff];
+        if (null == pool)
+            pool = udpPorts[sourcePort & 0xffff];
+        return create(pool, pooled);
+    }
+
+    private static IPacket create(PacketPool<?> pool, boolean pooled) {
+        return (null == pool) ? null : pool.newPacket(pooled);
+    }
+}
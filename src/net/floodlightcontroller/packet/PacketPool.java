@@ -0,0 +1,159 @@
+package net.floodlightcontroller.packet;
+
+import java.lang.ref.Cleaner;
+import java.util.ArrayDeque;
+import java.util.function.Supplier;
+
+/**
+ * Thread-local free lists of one packet class. A packet taken from a pool
+ * with {@link #acquire()} is handed back by calling
+ * {@link BasePacket#release()} on the outermost packet, which releases the
+ * payloads below it as well; the packet is reset and reused by the next
+ * acquire on the releasing thread. Payloads decoded into a pooled packet are
+ * themselves taken from pools, so a frame that is parsed, handled, and
+ * released allocates no packet objects once the pools are warm.
+ * <p>
+ * With leak detection enabled, every acquire records where the packet was
+ * taken, and a packet that becomes unreachable without being released is
+ * reported along with that stack trace. Releasing a packet twice throws an
+ * IllegalStateException.
+ */
+public final class PacketPool<T extends BasePacket> {
+    /** Most packets each thread keeps per pool */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    public static final PacketPool<Ethernet> ETHERNET =
+            new PacketPool<Ethernet>(Ethernet::new);
+    public static final PacketPool<ARP> ARP =
+            new PacketPool<ARP>(ARP::new);
+    public static final PacketPool<BPDU> BPDU =
+            new PacketPool<BPDU>(BPDU::new);
+    public static final PacketPool<IPv4> IPV4 =
+            new PacketPool<IPv4>(IPv4::new);
+    public static final PacketPool<ICMP> ICMP =
+            new PacketPool<ICMP>(ICMP::new);
+    public static final PacketPool<TCP> TCP =
+            new PacketPool<TCP>(TCP::new);
+    public static final PacketPool<UDP> UDP =
+            new PacketPool<UDP>(UDP::new);
+    public static final PacketPool<RIPv2> RIPV2 =
+            new PacketPool<RIPv2>(RIPv2::new);
+    public static final PacketPool<Data> DATA =
+            new PacketPool<Data>(Data::new);
+
+    private static volatile boolean leakDetection = false;
+    private static final Cleaner cleaner = Cleaner.create();
+
+    private final Supplier<T> factory;
+    private final int capacity;
+    private final ThreadLocal<ArrayDeque<T>> free;
+
+    /**
+     * @param factory creates a packet when the pool is empty
+     */
+    public PacketPool(Supplier<T> factory) {
+        this(factory, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param factory creates a packet when the pool is empty
+     * @param capacity most released packets each thread keeps
+     */
+    public PacketPool(Supplier<T> factory, int capacity) {
+        this.factory = factory;
+        this.capacity = capacity;
+        this.free = ThreadLocal.withInitial(() -> new ArrayDeque<T>(capacity));
+    }
+
+    /**
+     * @param enabled true to track every acquired packet and report packets
+     *        that are never released; meant for debugging, as it records a
+     *        stack trace per acquire
+     */
+    public static void setLeakDetection(boolean enabled) {
+        leakDetection = enabled;
+    }
+
+    /**
+     * @return true if acquired packets are tracked for leaks
+     */
+    public static boolean isLeakDetection() {
+        return leakDetection;
+    }
+
+    /**
+     * @return a reset packet owned by the caller until it is released
+     */
+    public T acquire() {
+        T packet = this.free.get().pollFirst();
+        if (null == packet)
+            packet = this.factory.get();
+        packet.pool = this;
+        packet.released = false;
+        if (leakDetection)
+            packet.leak = track(packet);
+        return packet;
+    }
+
+    /**
+     * @param pooled true to take the packet from the pool
+     * @return a packet from the pool, or a new unpooled packet
+     */
+    public T newPacket(boolean pooled) {
+        return pooled ? this.acquire() : this.factory.get();
+    }
+
+    /**
+     * Resets a released packet and keeps it for reuse on this thread.
+     */
+    void recycle(BasePacket packet) {
+        packet.reset();
+        ArrayDeque<T> list = this.free.get();
+        if (list.size() < this.capacity) {
+            @SuppressWarnings("unchecked")
+            T reusable = (T) packet;
+            list.addFirst(reusable);
+        }
+    }
+
+    /**
+     * @return packets released on this thread and not yet reused
+     */
+    public int getFreeCount() {
+        return this.free.get().size();
+    }
+
+    private static Leak track(BasePacket packet) {
+        Leak leak = new Leak(packet.getClass().getSimpleName());
+        leak.cleanable = cleaner.register(packet, leak);
+        return leak;
+    }
+
+    /**
+     * Records where a packet was acquired; reports it if the packet is
+     * collected before it is released. Must not reference the packet.
+     */
+    static final class Leak implements Runnable {
+        private final Throwable site;
+        private volatile boolean released = false;
+        private Cleaner.Cleanable cleanable;
+
+        Leak(String type) {
+            this.site = new Throwable(type + " acquired here");
+        }
+
+        void release() {
+            this.released = true;
+            this.cleanable.clean();
+        }
+
+        @Override
+        public void run() {
+            if (this.released)
+                return;
+            System.err.println("*** Packet leak: pooled packet was never "
+                    + "released");
+            this.site.printStackTrace();
+        }
+    }
+}
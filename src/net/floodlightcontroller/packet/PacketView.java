@@ -0,0 +1,110 @@
+package net.floodlightcontroller.packet;
+
+/**
+ * Base class for flyweight views of packet headers. A view holds no copy of
+ * the packet; it reads and writes header fields directly at offsets in the
+ * wrapped buffer, so a single view object can be reused for every packet.
+ * Changes made through a view are visible in the buffer immediately.
+ */
+public abstract class PacketView {
+    protected byte[] data;
+    protected int offset;
+    protected int length;
+
+    /**
+     * Points the view at a header in a buffer.
+     * @param data buffer holding the packet
+     * @param offset offset of the first byte of the header
+     * @param length number of bytes from the offset that belong to the packet
+     * @return this view
+     */
+    protected PacketView wrap(byte[] data, int offset, int length) {
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    /**
+     * @return the wrapped buffer
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return the offset of the header in the wrapped buffer
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the number of bytes from the offset that belong to the packet
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return the length of the header, including any options
+     */
+    public abstract int getHeaderLength();
+
+    /**
+     * @return the offset of the payload in the wrapped buffer
+     */
+    public int getPayloadOffset() {
+        return offset + getHeaderLength();
+    }
+
+    /**
+     * @return the length of the payload
+     */
+    public int getPayloadLength() {
+        return length - getHeaderLength();
+    }
+
+    /**
+     * Decodes the wrapped bytes into a packet object, for code that needs the
+     * full {@link IPacket} API. The packet does not share the buffer.
+     * @return the decoded packet
+     */
+    public abstract IPacket toPacket();
+
+    protected int getByte(int pos) {
+        return data[offset + pos] & 0xff;
+    }
+
+    protected void setByte(int pos, int value) {
+        data[offset + pos] = (byte) value;
+    }
+
+    protected int getShort(int pos) {
+        return ((data[offset + pos] & 0xff) << 8)
+                | (data[offset + pos + 1] & 0xff);
+    }
+
+    protected void setShort(int pos, int value) {
+        data[offset + pos] = (byte) (value >> 8);
+        data[offset + pos + 1] = (byte) value;
+    }
+
+    protected int getInt(int pos) {
+        return (getShort(pos) << 16) | getShort(pos + 2);
+    }
+
+    protected void setInt(int pos, int value) {
+        setShort(pos, value >>> 16);
+        setShort(pos + 2, value);
+    }
+
+    protected long getMAC(int pos) {
+        return ((long) getShort(pos) << 32) | (getInt(pos + 2) & 0xffffffffL);
+    }
+
+    protected void setMAC(int pos, long mac) {
+        setShort(pos, (int) (mac >>> 32));
+        setInt(pos + 2, (int) mac);
+    }
+}
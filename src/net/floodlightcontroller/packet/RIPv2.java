@@ -40,25 +40,33 @@ public class RIPv2 extends BasePacket
 	{ return this.command; }
 
 	@Override
-	public byte[] serialize() 
-    {
-		int length = 1 + 1 + 2 + this.entries.size() * (5*4);
-		byte[] data = new byte[length];
-		ByteBuffer bb = ByteBuffer.wrap(data);
+	public int getSerializedLength()
+	{ return 1 + 1 + 2 + this.entries.size() * (5*4); }
 
+	@Override
+	public ByteBuffer serializeTo(ByteBuffer bb) 
+    {
 		bb.put(this.command);
 		bb.put(this.version);
 		bb.putShort((short)0); // Put padding
 		for (RIPv2Entry entry : this.entries)
-		{ bb.put(entry.serialize()); }
+		{ entry.serializeTo(bb); }
+
+		return bb;
+	}
 
-		return data;
+	@Override
+	protected void reset()
+	{
+		super.reset();
+		this.command = 0;
+		this.version = VERSION;
+		this.entries = new LinkedList<RIPv2Entry>();
 	}
 
 	@Override
-	public IPacket deserialize(byte[] data, int offset, int length) 
+	public IPacket deserialize(ByteBuffer bb, DecodeDepth depth) 
 	{
-		ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
 
 		this.command = bb.get();
 		this.version = bb.get();
@@ -67,8 +75,7 @@ public class RIPv2 extends BasePacket
         while (bb.position() < bb.limit())
         {
             RIPv2Entry entry = new RIPv2Entry();
-            entry.deserialize(data, bb.position(), bb.limit()-bb.position());
-            bb.position(bb.position() +  5*4);
+            entry.deserialize(bb);
             this.entries.add(entry);
         }
 		return this;
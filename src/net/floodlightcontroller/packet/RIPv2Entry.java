@@ -76,21 +76,26 @@ public class RIPv2Entry
     {
 		int length = 2*2 + 4*4;
 		byte[] data = new byte[length];
-		ByteBuffer bb = ByteBuffer.wrap(data);
+		this.serializeTo(ByteBuffer.wrap(data));
+		return data;
+	}
 
+	public ByteBuffer serializeTo(ByteBuffer bb) 
+    {
 		bb.putShort(this.addressFamily);
 		bb.putShort(this.routeTag);
         bb.putInt(this.address);
         bb.putInt(this.subnetMask);
         bb.putInt(this.nextHopAddress);
         bb.putInt(this.metric);
-		return data;
+		return bb;
 	}
 
 	public RIPv2Entry deserialize(byte[] data, int offset, int length) 
-	{
-		ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
+	{ return this.deserialize(ByteBuffer.wrap(data, offset, length)); }
 
+	public RIPv2Entry deserialize(ByteBuffer bb) 
+	{
 		this.addressFamily = bb.getShort();
 		this.routeTag = bb.getShort();
         this.address = bb.getInt();
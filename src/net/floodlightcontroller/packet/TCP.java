@@ -71,6 +71,43 @@ public class TCP extends BasePacket {
     public short getChecksum() {
         return checksum;
     }
+
+    /**
+     * Sets the source port and patches a non-zero checksum to match.
+     * @param sourcePort the sourcePort to set
+     */
+    public TCP updateSourcePort(short sourcePort) {
+        if (this.checksum != 0)
+            this.checksum = Checksum.update(this.checksum,
+                    this.sourcePort, sourcePort);
+        this.sourcePort = sourcePort;
+        return this;
+    }
+
+    /**
+     * Sets the destination port and patches a non-zero checksum to match.
+     * @param destinationPort the destinationPort to set
+     */
+    public TCP updateDestinationPort(short destinationPort) {
+        if (this.checksum != 0)
+            this.checksum = Checksum.update(this.checksum,
+                    this.destinationPort, destinationPort);
+        this.destinationPort = destinationPort;
+        return this;
+    }
+
+    /**
+     * Patches a non-zero checksum after an address in the pseudo-header
+     * changed.
+     * @param oldAddress
+     * @param newAddress
+     */
+    public TCP updatePseudoHeaderAddress(int oldAddress, int newAddress) {
+        if (this.checksum != 0)
+            this.checksum = Checksum.update(this.checksum, oldAddress,
+                    newAddress);
+        return this;
+    }
     
     public int getSequence() {
         return this.sequence;
@@ -144,27 +181,28 @@ public class TCP extends BasePacket {
         return this;
     }
 
+    @Override
+    public int getSerializedLength() {
+        int headerLength = ((dataOffset == 0) ? 5 : dataOffset) << 2;
+        return headerLength
+                + this.getPayloadSerializedLength();
+    }
+
     /**
      * Serializes the packet. Will compute and set the following fields if they
-     * are set to specific values at the time serialize is called:
+     * are set to specific values at the time serializeTo is called:
      *      -checksum : 0
      *      -length : 0
      */
-    public byte[] serialize() {
-        int length;
+    @Override
+    public ByteBuffer serializeTo(ByteBuffer bb) {
         if (dataOffset == 0)
             dataOffset = 5;  // default header length
-        length = dataOffset << 2;
-        byte[] payloadData = null;
-        if (payload != null) {
+        if (payload != null)
             payload.setParent(this);
-            payloadData = payload.serialize();
-            length += payloadData.length;
-        }
-
-        byte[] data = new byte[length];
-        ByteBuffer bb = ByteBuffer.wrap(data);
+        int length = this.getSerializedLength();
 
+        int start = bb.position();
         bb.putShort(this.sourcePort);
         bb.putShort(this.destinationPort);
         bb.putInt(this.sequence);
@@ -180,42 +218,20 @@ public class TCP extends BasePacket {
             for (int i = 0; i < padding; i++)
                 bb.put((byte) 0);
         }
-        if (payloadData != null)
-            bb.put(payloadData);
+        this.serializePayloadTo(bb);
 
         if (this.parent != null && this.parent instanceof IPv4)
             ((IPv4)this.parent).setProtocol(IPv4.PROTOCOL_TCP);
 
         // compute checksum if needed
         if (this.checksum == 0) {
-            bb.rewind();
-            int accumulation = 0;
-
-            // compute pseudo header mac
-            if (this.parent != null && this.parent instanceof IPv4) {
-                IPv4 ipv4 = (IPv4) this.parent;
-                accumulation += ((ipv4.getSourceAddress() >> 16) & 0xffff)
-                        + (ipv4.getSourceAddress() & 0xffff);
-                accumulation += ((ipv4.getDestinationAddress() >> 16) & 0xffff)
-                        + (ipv4.getDestinationAddress() & 0xffff);
-                accumulation += ipv4.getProtocol() & 0xff;
-                accumulation += length & 0xffff;
-            }
-
-            for (int i = 0; i < length / 2; ++i) {
-                accumulation += 0xffff & bb.getShort();
-            }
-            // pad to an even number of shorts
-            if (length % 2 > 0) {
-                accumulation += (bb.get() & 0xff) << 8;
-            }
-
-            accumulation = ((accumulation >> 16) & 0xffff)
-                    + (accumulation & 0xffff);
-            this.checksum = (short) (~accumulation & 0xffff);
-            bb.putShort(16, this.checksum);
+            long pseudoHeader = 0;
+            if (this.parent != null && this.parent instanceof IPv4)
+                pseudoHeader = ((IPv4) this.parent).getPseudoHeaderSum(length);
+            this.checksum = Checksum.compute(bb, start, length, pseudoHeader);
+            bb.putShort(start + 16, this.checksum);
         }
-        return data;
+        return bb;
     }
 
     /* (non-Javadoc)
@@ -257,8 +273,22 @@ public class TCP extends BasePacket {
     }
 
     @Override
-    public IPacket deserialize(byte[] data, int offset, int length) {
-        ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
+    protected void reset() {
+        super.reset();
+        this.sourcePort = 0;
+        this.destinationPort = 0;
+        this.sequence = 0;
+        this.acknowledge = 0;
+        this.dataOffset = 0;
+        this.flags = 0;
+        this.windowSize = 0;
+        this.checksum = 0;
+        this.urgentPointer = 0;
+        this.options = null;
+    }
+
+    @Override
+    public IPacket deserialize(ByteBuffer bb, DecodeDepth depth) {
         this.sourcePort = bb.getShort();
         this.destinationPort = bb.getShort();
         this.sequence = bb.getInt();
@@ -282,9 +312,9 @@ public class TCP extends BasePacket {
             }
         }
         
-        this.payload = new Data();
-        this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
-        this.payload.setParent(this);
+        this.deserializePayload(
+                PacketPool.DATA.newPacket(this.isPooled()), bb,
+                DecodeDepth.L4, depth);
         return this;
     }
 }
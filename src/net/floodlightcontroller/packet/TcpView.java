@@ -0,0 +1,170 @@
+package net.floodlightcontroller.packet;
+
+/**
+ * Flyweight view of a TCP header. Reads and writes fields in place; see
+ * {@link TCP} for the object representation.
+ */
+public class TcpView extends PacketView {
+    public static final int MIN_HEADER_LENGTH = 20;
+    public static final int SEQUENCE_OFFSET = 4;
+    public static final int ACKNOWLEDGE_OFFSET = 8;
+    public static final int DATA_OFFSET_OFFSET = 12;
+    public static final int FLAGS_OFFSET = 12;
+    public static final int WINDOW_OFFSET = 14;
+    public static final int CHECKSUM_OFFSET = 16;
+    public static final int URGENT_OFFSET = 18;
+
+    /**
+     * Points the view at a TCP segment.
+     * @param data buffer holding the segment
+     * @param offset offset of the first byte of the TCP header
+     * @param length length of the segment
+     * @return this view, or null if the bytes do not hold a complete TCP
+     *         header
+     */
+    @Override
+    public TcpView wrap(byte[] data, int offset, int length) {
+        if (length < MIN_HEADER_LENGTH)
+            return null;
+        super.wrap(data, offset, length);
+        if (getHeaderLength() < MIN_HEADER_LENGTH
+                || getHeaderLength() > length)
+            return null;
+        return this;
+    }
+
+    /**
+     * @return the source port
+     */
+    public short getSourcePort() {
+        return (short) getShort(0);
+    }
+
+    /**
+     * @param sourcePort the source port to set
+     * @return this view
+     */
+    public TcpView setSourcePort(short sourcePort) {
+        setShort(0, sourcePort);
+        return this;
+    }
+
+    /**
+     * @return the destination port
+     */
+    public short getDestinationPort() {
+        return (short) getShort(2);
+    }
+
+    /**
+     * @param destinationPort the destination port to set
+     * @return this view
+     */
+    public TcpView setDestinationPort(short destinationPort) {
+        setShort(2, destinationPort);
+        return this;
+    }
+
+    /**
+     * @return the sequence number
+     */
+    public int getSequence() {
+        return getInt(SEQUENCE_OFFSET);
+    }
+
+    /**
+     * @return the acknowledgement number
+     */
+    public int getAcknowledge() {
+        return getInt(ACKNOWLEDGE_OFFSET);
+    }
+
+    /**
+     * @return the data offset, in 32-bit words
+     */
+    public byte getDataOffset() {
+        return (byte) (getByte(DATA_OFFSET_OFFSET) >> 4);
+    }
+
+    /**
+     * @return the flags
+     */
+    public short getFlags() {
+        return (short) (getShort(FLAGS_OFFSET) & 0x01ff);
+    }
+
+    /**
+     * @return the window size
+     */
+    public short getWindowSize() {
+        return (short) getShort(WINDOW_OFFSET);
+    }
+
+    /**
+     * @return the checksum
+     */
+    public short getChecksum() {
+        return (short) getShort(CHECKSUM_OFFSET);
+    }
+
+    /**
+     * @param checksum the checksum to set
+     * @return this view
+     */
+    public TcpView setChecksum(short checksum) {
+        setShort(CHECKSUM_OFFSET, checksum);
+        return this;
+    }
+
+    /**
+     * Sets the source port and patches the checksum to match.
+     * @param sourcePort the source port to set
+     * @return this view
+     */
+    public TcpView updateSourcePort(short sourcePort) {
+        setChecksum(Checksum.update(getChecksum(), getSourcePort(),
+                sourcePort));
+        return setSourcePort(sourcePort);
+    }
+
+    /**
+     * Sets the destination port and patches the checksum to match.
+     * @param destinationPort the destination port to set
+     * @return this view
+     */
+    public TcpView updateDestinationPort(short destinationPort) {
+        setChecksum(Checksum.update(getChecksum(), getDestinationPort(),
+                destinationPort));
+        return setDestinationPort(destinationPort);
+    }
+
+    /**
+     * Patches the checksum after an address in the pseudo-header changed.
+     * @param oldAddress
+     * @param newAddress
+     * @return this view
+     */
+    public TcpView updatePseudoHeaderAddress(int oldAddress, int newAddress) {
+        return setChecksum(Checksum.update(getChecksum(), oldAddress,
+                newAddress));
+    }
+
+    /**
+     * @return the urgent pointer
+     */
+    public short getUrgentPointer() {
+        return (short) getShort(URGENT_OFFSET);
+    }
+
+    @Override
+    public int getHeaderLength() {
+        return getDataOffset() * 4;
+    }
+
+    @Override
+    public TCP toPacket() {
+        TCP tcp = new TCP();
+        tcp.deserialize(data, offset, length);
+        return tcp;
+    }
+}
@@ -18,24 +18,16 @@
 package net.floodlightcontroller.packet;
 
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  *
  * @author David Erickson (daviderickson@cs.stanford.edu)
  */
 public class UDP extends BasePacket {
-    public static Map<Short, Class<? extends IPacket>> decodeMap;
     public static short DHCP_SERVER_PORT = (short)67;
     public static short DHCP_CLIENT_PORT = (short)68;
     public static short RIP_PORT = (short)520;
 
-    static {
-        decodeMap = new HashMap<Short, Class<? extends IPacket>>();
-        UDP.decodeMap.put(RIP_PORT, RIPv2.class);
-    }
-
     protected short sourcePort;
     protected short destinationPort;
     protected short length;
@@ -93,71 +85,117 @@ public class UDP extends BasePacket {
         return this;
     }
 
+    /**
+     * Sets the source port and patches the checksum to match.
+     * @param sourcePort the sourcePort to set
+     */
+    public UDP updateSourcePort(short sourcePort) {
+        this.checksum = updateChecksum(this.checksum, this.sourcePort,
+                sourcePort);
+        this.sourcePort = sourcePort;
+        return this;
+    }
+
+    /**
+     * Sets the destination port and patches the checksum to match.
+     * @param destinationPort the destinationPort to set
+     */
+    public UDP updateDestinationPort(short destinationPort) {
+        this.checksum = updateChecksum(this.checksum, this.destinationPort,
+                destinationPort);
+        this.destinationPort = destinationPort;
+        return this;
+    }
+
+    /**
+     * Patches the checksum after an address in the pseudo-header changed.
+     * @param oldAddress
+     * @param newAddress
+     */
+    public UDP updatePseudoHeaderAddress(int oldAddress, int newAddress) {
+        this.checksum = updateChecksum(this.checksum, oldAddress, newAddress);
+        return this;
+    }
+
+    /**
+     * Incrementally updates a UDP checksum. A zero checksum means none was
+     * computed and is left alone, and a computed checksum of zero is sent as
+     * 0xffff (RFC 768).
+     * @param checksum the current checksum
+     * @param oldValue the value before the change
+     * @param newValue the value after the change
+     * @return the new checksum
+     */
+    public static short updateChecksum(short checksum, int oldValue,
+            int newValue) {
+        if (checksum == 0)
+            return 0;
+        checksum = Checksum.update(checksum, oldValue, newValue);
+        return (checksum == 0) ? (short) 0xffff : checksum;
+    }
+
+    /**
+     * Incrementally updates a UDP checksum after a 16-bit field changed.
+     * @param checksum the current checksum
+     * @param oldWord the field before the change
+     * @param newWord the field after the change
+     * @return the new checksum
+     */
+    public static short updateChecksum(short checksum, short oldWord,
+            short newWord) {
+        if (checksum == 0)
+            return 0;
+        checksum = Checksum.update(checksum, oldWord, newWord);
+        return (checksum == 0) ? (short) 0xffff : checksum;
+    }
+
     @Override
     public void resetChecksum() {
         this.checksum = 0;
         super.resetChecksum();
     }
 
+    @Override
+    public int getSerializedLength() {
+        return 8 + this.getPayloadSerializedLength();
+    }
+
     /**
      * Serializes the packet. Will compute and set the following fields if they
-     * are set to specific values at the time serialize is called:
+     * are set to specific values at the time serializeTo is called:
      *      -checksum : 0
      *      -length : 0
      */
-    public byte[] serialize() {
-        byte[] payloadData = null;
-        if (payload != null) {
+    @Override
+    public ByteBuffer serializeTo(ByteBuffer bb) {
+        if (payload != null)
             payload.setParent(this);
-            payloadData = payload.serialize();
-        }
-
-        this.length = (short) (8 + ((payloadData == null) ? 0
-                : payloadData.length));
 
-        byte[] data = new byte[this.length];
-        ByteBuffer bb = ByteBuffer.wrap(data);
+        this.length = (short) this.getSerializedLength();
 
+        int start = bb.position();
         bb.putShort(this.sourcePort);
         bb.putShort(this.destinationPort);
         bb.putShort(this.length);
         bb.putShort(this.checksum);
-        if (payloadData != null)
-            bb.put(payloadData);
+        this.serializePayloadTo(bb);
 
         if (this.parent != null && this.parent instanceof IPv4)
             ((IPv4)this.parent).setProtocol(IPv4.PROTOCOL_UDP);
 
         // compute checksum if needed
         if (this.checksum == 0) {
-            bb.rewind();
-            int accumulation = 0;
-
-            // compute pseudo header mac
-            if (this.parent != null && this.parent instanceof IPv4) {
-                IPv4 ipv4 = (IPv4) this.parent;
-                accumulation += ((ipv4.getSourceAddress() >> 16) & 0xffff)
-                        + (ipv4.getSourceAddress() & 0xffff);
-                accumulation += ((ipv4.getDestinationAddress() >> 16) & 0xffff)
-                        + (ipv4.getDestinationAddress() & 0xffff);
-                accumulation += ipv4.getProtocol() & 0xff;
-                accumulation += this.length & 0xffff;
-            }
-
-            for (int i = 0; i < this.length / 2; ++i) {
-                accumulation += 0xffff & bb.getShort();
-            }
-            // pad to an even number of shorts
-            if (this.length % 2 > 0) {
-                accumulation += (bb.get() & 0xff) << 8;
-            }
-
-            accumulation = ((accumulation >> 16) & 0xffff)
-                    + (accumulation & 0xffff);
-            this.checksum = (short) (~accumulation & 0xffff);
-            bb.putShort(6, this.checksum);
+            long pseudoHeader = 0;
+            if (this.parent != null && this.parent instanceof IPv4)
+                pseudoHeader = ((IPv4) this.parent).getPseudoHeaderSum(this.length);
+            this.checksum = Checksum.compute(bb, start, this.length & 0xffff,
+                    pseudoHeader);
+            // a computed checksum of zero is sent as all ones
+            if (this.checksum == 0)
+                this.checksum = (short) 0xffff;
+            bb.putShort(start + 6, this.checksum);
         }
-        return data;
+        return bb;
     }
 
     /* (non-Javadoc)
@@ -198,30 +236,26 @@ public class UDP extends BasePacket {
     }
 
     @Override
-    public IPacket deserialize(byte[] data, int offset, int length) {
-        ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
+    protected void reset() {
+        super.reset();
+        this.sourcePort = 0;
+        this.destinationPort = 0;
+        this.length = 0;
+        this.checksum = 0;
+    }
+
+    @Override
+    public IPacket deserialize(ByteBuffer bb, DecodeDepth depth) {
         this.sourcePort = bb.getShort();
         this.destinationPort = bb.getShort();
         this.length = bb.getShort();
         this.checksum = bb.getShort();
 
-        if (UDP.decodeMap.containsKey(this.destinationPort)) {
-            try {
-                this.payload = UDP.decodeMap.get(this.destinationPort).getConstructor().newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Failure instantiating class", e);
-            }
-        } else if (UDP.decodeMap.containsKey(this.sourcePort)) {
-            try {
-                this.payload = UDP.decodeMap.get(this.sourcePort).getConstructor().newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Failure instantiating class", e);
-            }
-        } else {
-            this.payload = new Data();
-        }
-        this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
-        this.payload.setParent(this);
+        IPacket payload = PacketDecoders.forUdpPorts(this.destinationPort,
+                this.sourcePort, this.isPooled());
+        if (null == payload)
+            payload = PacketPool.DATA.newPacket(this.isPooled());
+        this.deserializePayload(payload, bb, DecodeDepth.L4, depth);
         return this;
     }
 }
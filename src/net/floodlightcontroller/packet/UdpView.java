@@ -0,0 +1,127 @@
+package net.floodlightcontroller.packet;
+
+/**
+ * Flyweight view of a UDP header. Reads and writes fields in place; see
+ * {@link UDP} for the object representation.
+ */
+public class UdpView extends PacketView {
+    public static final int HEADER_LENGTH = 8;
+    public static final int LENGTH_OFFSET = 4;
+    public static final int CHECKSUM_OFFSET = 6;
+
+    /**
+     * Points the view at a UDP datagram.
+     * @param data buffer holding the datagram
+     * @param offset offset of the first byte of the UDP header
+     * @param length length of the datagram
+     * @return this view, or null if the bytes are too short to hold a UDP
+     *         header
+     */
+    @Override
+    public UdpView wrap(byte[] data, int offset, int length) {
+        if (length < HEADER_LENGTH)
+            return null;
+        super.wrap(data, offset, length);
+        return this;
+    }
+
+    /**
+     * @return the source port
+     */
+    public short getSourcePort() {
+        return (short) getShort(0);
+    }
+
+    /**
+     * @param sourcePort the source port to set
+     * @return this view
+     */
+    public UdpView setSourcePort(short sourcePort) {
+        setShort(0, sourcePort);
+        return this;
+    }
+
+    /**
+     * @return the destination port
+     */
+    public short getDestinationPort() {
+        return (short) getShort(2);
+    }
+
+    /**
+     * @param destinationPort the destination port to set
+     * @return this view
+     */
+    public UdpView setDestinationPort(short destinationPort) {
+        setShort(2, destinationPort);
+        return this;
+    }
+
+    /**
+     * @return the length field
+     */
+    public short getDatagramLength() {
+        return (short) getShort(LENGTH_OFFSET);
+    }
+
+    /**
+     * @return the checksum
+     */
+    public short getChecksum() {
+        return (short) getShort(CHECKSUM_OFFSET);
+    }
+
+    /**
+     * @param checksum the checksum to set
+     * @return this view
+     */
+    public UdpView setChecksum(short checksum) {
+        setShort(CHECKSUM_OFFSET, checksum);
+        return this;
+    }
+
+    /**
+     * Sets the source port and patches the checksum to match.
+     * @param sourcePort the source port to set
+     * @return this view
+     */
+    public UdpView updateSourcePort(short sourcePort) {
+        setChecksum(UDP.updateChecksum(getChecksum(), getSourcePort(),
+                sourcePort));
+        return setSourcePort(sourcePort);
+    }
+
+    /**
+     * Sets the destination port and patches the checksum to match.
+     * @param destinationPort the destination port to set
+     * @return this view
+     */
+    public UdpView updateDestinationPort(short destinationPort) {
+        setChecksum(UDP.updateChecksum(getChecksum(), getDestinationPort(),
+                destinationPort));
+        return setDestinationPort(destinationPort);
+    }
+
+    /**
+     * Patches the checksum after an address in the pseudo-header changed.
+     * @param oldAddress
+     * @param newAddress
+     * @return this view
+     */
+    public UdpView updatePseudoHeaderAddress(int oldAddress, int newAddress) {
+        return setChecksum(UDP.updateChecksum(getChecksum(), oldAddress,
+                newAddress));
+    }
+
+    @Override
+    public int getHeaderLength() {
+        return HEADER_LENGTH;
+    }
+
+    @Override
+    public UDP toPacket() {
+        UDP udp = new UDP();
+        udp.deserialize(data, offset, length);
+        return udp;
+    }
+}
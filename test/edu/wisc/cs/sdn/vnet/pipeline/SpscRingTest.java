@@ -0,0 +1,96 @@
+package edu.wisc.cs.sdn.vnet.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SpscRingTest
+{
+	@Test
+	public void testCapacityRoundedUpToPowerOfTwo()
+	{
+		assertEquals(1, new SpscRing<Integer>(0).capacity());
+		assertEquals(1, new SpscRing<Integer>(1).capacity());
+		assertEquals(4, new SpscRing<Integer>(3).capacity());
+		assertEquals(4, new SpscRing<Integer>(4).capacity());
+		assertEquals(8, new SpscRing<Integer>(5).capacity());
+	}
+	
+	@Test
+	public void testOfferFailsWhenFull()
+	{
+		SpscRing<Integer> ring = new SpscRing<Integer>(4);
+		for (int i = 0; i < 4; i++)
+		{ assertTrue(ring.offer(i)); }
+		assertFalse(ring.offer(4));
+		assertEquals(4, ring.size());
+		assertEquals(Integer.valueOf(0), ring.poll());
+		assertTrue(ring.offer(4));
+		assertFalse(ring.offer(5));
+	}
+	
+	@Test
+	public void testPollReturnsNullWhenEmpty()
+	{
+		SpscRing<Integer> ring = new SpscRing<Integer>(2);
+		assertTrue(ring.isEmpty());
+		assertNull(ring.poll());
+		ring.offer(7);
+		assertFalse(ring.isEmpty());
+		assertEquals(Integer.valueOf(7), ring.poll());
+		assertNull(ring.poll());
+		assertTrue(ring.isEmpty());
+	}
+	
+	@Test
+	public void testOrderKeptAcrossWrapAround()
+	{
+		// Keep the ring partly full so the indexes wrap many times
+		SpscRing<Integer> ring = new SpscRing<Integer>(4);
+		int next = 0;
+		int expected = 0;
+		for (int round = 0; round < 100; round++)
+		{
+			while (ring.offer(next))
+			{ next++; }
+			assertEquals(4, ring.size());
+			for (int i = 0; i < 3; i++)
+			{ assertEquals(Integer.valueOf(expected++), ring.poll()); }
+			assertEquals(1, ring.size());
+		}
+		while (!ring.isEmpty())
+		{ assertEquals(Integer.valueOf(expected++), ring.poll()); }
+		assertEquals(next, expected);
+	}
+	
+	@Test
+	public void testProducerAndConsumerThreads() throws Exception
+	{
+		final int count = 100000;
+		final SpscRing<Integer> ring = new SpscRing<Integer>(8);
+		Thread producer = new Thread()
+		{
+			public void run()
+			{
+				for (int i = 0; i < count; i++)
+				{
+					while (!ring.offer(i))
+					{ Thread.yield(); }
+				}
+			}
+		};
+		producer.start();
+		for (int i = 0; i < count; i++)
+		{
+			Integer element;
+			while (null == (element = ring.poll()))
+			{ Thread.yield(); }
+			assertEquals(i, element.intValue());
+		}
+		producer.join();
+		assertTrue(ring.isEmpty());
+	}
+}
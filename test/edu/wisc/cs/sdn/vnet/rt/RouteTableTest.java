@@ -0,0 +1,52 @@
+package edu.wisc.cs.sdn.vnet.rt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+import net.floodlightcontroller.packet.IPv4;
+
+public class RouteTableTest
+{
+	private static int ip(String address)
+	{ return IPv4.toIPv4Address(address); }
+	
+	@Test
+	public void testLongestPrefixWins()
+	{
+		Iface wide = new Iface("eth0", 0);
+		Iface narrow = new Iface("eth1", 1);
+		RouteTable table = new RouteTable();
+		table.insert(ip("10.0.0.0"), 0, ip("255.0.0.0"), wide, 1);
+		table.insert(ip("10.1.2.0"), 0, ip("255.255.255.0"), narrow, 1);
+		assertEquals(narrow, table.lookup(ip("10.1.2.3")).getInterface());
+		assertEquals(wide, table.lookup(ip("10.1.3.3")).getInterface());
+		assertNull(table.lookup(ip("11.0.0.1")));
+	}
+	
+	@Test
+	public void testDefaultRouteSortsLast()
+	{
+		// A /1 mask has its sign bit set, so it must not sort below /0
+		Iface other = new Iface("eth0", 0);
+		Iface upper = new Iface("eth1", 1);
+		RouteTable table = new RouteTable();
+		table.insert(0, ip("10.0.0.1"), 0, other, 1);
+		table.insert(ip("128.0.0.0"), 0, ip("128.0.0.0"), upper, 1);
+		assertEquals(upper, table.lookup(ip("192.168.0.1")).getInterface());
+		assertEquals(other, table.lookup(ip("64.0.0.1")).getInterface());
+	}
+	
+	@Test
+	public void testFirstEntryWinsAmongEqualMasks()
+	{
+		Iface first = new Iface("eth0", 0);
+		Iface second = new Iface("eth1", 1);
+		RouteTable table = new RouteTable();
+		table.insert(ip("10.0.0.0"), 0, ip("255.0.0.0"), first, 1);
+		table.insert(ip("10.0.0.0"), 0, ip("255.0.0.0"), second, 1);
+		assertEquals(first, table.lookup(ip("10.9.9.9")).getInterface());
+	}
+}
@@ -0,0 +1,191 @@
+package edu.wisc.cs.sdn.vnet.shm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ShmRingTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private ShmRing create(int capacity) throws IOException
+	{ return ShmRing.create(this.folder.newFile(), capacity); }
+	
+	private static byte[] bytes(int start, int length)
+	{
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++)
+		{ data[i] = (byte)(start + i); }
+		return data;
+	}
+	
+	@Test
+	public void testCapacityRoundedUpToPowerOfTwo() throws IOException
+	{
+		assertEquals(64, this.create(64).capacity());
+		assertEquals(128, this.create(65).capacity());
+		assertEquals(2, this.create(0).capacity());
+	}
+	
+	@Test
+	public void testBytesKeptAcrossWrapAround() throws IOException
+	{
+		// Each write of 24 bytes lands at a different offset, so most split
+		// across the end of the 64-byte ring
+		ShmRing ring = this.create(64);
+		byte[] dst = new byte[24];
+		for (int i = 0; i < 50; i++)
+		{
+			byte[] src = bytes(i * 24, 24);
+			assertTrue(ring.write(src, 0, src.length));
+			assertEquals(24, ring.available());
+			assertEquals(24, ring.read(dst, 0, dst.length));
+			assertArrayEquals(src, dst);
+			assertEquals(0, ring.available());
+		}
+	}
+	
+	@Test
+	public void testByteBufferWriteFillsWhatFits() throws IOException
+	{
+		ShmRing ring = this.create(64);
+		assertTrue(ring.write(bytes(0, 40), 0, 40));
+		assertEquals(40, ring.read(new byte[40], 0, 40));
+		
+		// Only 64 of the 100 bytes fit, starting part way through the ring
+		ByteBuffer src = ByteBuffer.wrap(bytes(0, 100));
+		assertEquals(64, ring.write(src));
+		assertEquals(64, src.position());
+		assertEquals(0, ring.write(src));
+		
+		ByteBuffer dst = ByteBuffer.allocate(100);
+		assertEquals(64, ring.read(dst));
+		assertEquals(36, ring.write(src));
+		assertEquals(36, ring.read(dst));
+		assertArrayEquals(bytes(0, 100), dst.array());
+	}
+	
+	@Test
+	public void testWriteIsAllOrNothing() throws IOException
+	{
+		ShmRing ring = this.create(64);
+		assertTrue(ring.write(bytes(0, 50), 0, 50));
+		assertFalse(ring.write(bytes(100, 20), 0, 20));
+		assertTrue(ring.write(bytes(50, 14), 0, 14));
+		assertFalse(ring.write(bytes(100, 1), 0, 1));
+		
+		byte[] dst = new byte[64];
+		int n = 0;
+		while (n < dst.length)
+		{ n += ring.read(dst, n, dst.length - n); }
+		assertArrayEquals(bytes(0, 64), dst);
+		assertEquals(0, ring.available());
+	}
+	
+	@Test(expected = IOException.class)
+	public void testWriteLongerThanRingRejected() throws IOException
+	{
+		ShmRing ring = this.create(64);
+		ring.write(new byte[65], 0, 65);
+	}
+	
+	@Test
+	public void testPeekIntAcrossWrapAround() throws IOException
+	{
+		ShmRing ring = this.create(64);
+		assertTrue(ring.write(new byte[62], 0, 62));
+		ring.drain();
+		byte[] src = { 0x12, 0x34, 0x56, 0x78, 0x00 };
+		assertTrue(ring.write(src, 0, src.length));
+		assertEquals(0x12345678, ring.peekInt(0));
+		assertEquals(0x34567800, ring.peekInt(1));
+		assertEquals(5, ring.available());
+	}
+	
+	@Test
+	public void testClosedSeenByOtherMapping() throws IOException
+	{
+		File file = this.folder.newFile();
+		ShmRing producer = ShmRing.create(file, 64);
+		ShmRing consumer = ShmRing.open(file);
+		assertEquals(64, consumer.capacity());
+		assertFalse(consumer.isClosed());
+		
+		// Bytes written before closing can still be read
+		assertTrue(producer.write(bytes(0, 10), 0, 10));
+		producer.setClosed(true);
+		assertTrue(consumer.isClosed());
+		byte[] dst = new byte[10];
+		assertEquals(10, consumer.read(dst, 0, dst.length));
+		assertArrayEquals(bytes(0, 10), dst);
+		
+		producer.setClosed(false);
+		assertFalse(consumer.isClosed());
+	}
+	
+	@Test
+	public void testOpenRejectsOtherFiles() throws IOException
+	{
+		File file = this.folder.newFile();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+		{ raf.setLength(1024); }
+		try
+		{
+			ShmRing.open(file);
+			fail("Opened a file that does not hold a ring");
+		}
+		catch (IOException e)
+		{ }
+	}
+	
+	@Test
+	public void testChannelReadEndsAfterOtherSideCloses() throws IOException
+	{
+		ShmRing ring = this.create(64);
+		ShmChannel channel = new ShmChannel(ring, this.create(64));
+		assertTrue(ring.write(bytes(0, 10), 0, 10));
+		ring.setClosed(true);
+		ByteBuffer dst = ByteBuffer.allocate(64);
+		assertEquals(10, channel.read(dst));
+		assertEquals(-1, channel.read(dst));
+	}
+	
+	@Test
+	public void testChannelWriteLongerThanRingRejected() throws IOException
+	{
+		ShmRing tx = this.create(64);
+		ShmChannel channel = new ShmChannel(this.create(64), tx);
+		try
+		{
+			channel.write(ByteBuffer.allocate(65));
+			fail("Wrote more bytes than the ring holds");
+		}
+		catch (IOException e)
+		{ }
+		assertEquals(0, tx.available());
+		assertEquals(64, channel.write(ByteBuffer.allocate(64)));
+	}
+	
+	@Test(expected = ClosedChannelException.class)
+	public void testChannelWriteAfterClose() throws IOException
+	{
+		ShmRing tx = this.create(64);
+		ShmChannel channel = new ShmChannel(this.create(64), tx);
+		channel.close();
+		assertTrue(tx.isClosed());
+		channel.write(ByteBuffer.allocate(1));
+	}
+}
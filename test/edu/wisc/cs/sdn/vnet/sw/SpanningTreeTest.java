@@ -0,0 +1,248 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.floodlightcontroller.packet.BPDU;
+import net.floodlightcontroller.packet.Ethernet;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+
+public class SpanningTreeTest
+{
+	/** Switch that records the BPDUs it sends instead of sending them */
+	static class BpduSwitch extends Switch
+	{
+		final List<Iface> sentOn = new ArrayList<Iface>();
+		final List<BPDU> sent = new ArrayList<BPDU>();
+		
+		BpduSwitch(String host)
+		{ super(host, null); }
+		
+		@Override
+		public synchronized boolean sendPacket(Ethernet etherPacket, 
+				Iface iface)
+		{
+			this.sentOn.add(iface);
+			this.sent.add((BPDU)etherPacket.getPayload());
+			return true;
+		}
+		
+		/**
+		 * @return last BPDU sent on an interface; null if none
+		 */
+		synchronized BPDU lastSent(Iface iface)
+		{
+			for (int i = this.sent.size() - 1; i >= 0; i--)
+			{
+				if (this.sentOn.get(i) == iface)
+				{ return this.sent.get(i); }
+			}
+			return null;
+		}
+		
+		synchronized int countSent(Iface iface, byte flag)
+		{
+			int count = 0;
+			for (int i = 0; i < this.sent.size(); i++)
+			{
+				if (this.sentOn.get(i) == iface && this.sent.get(i).isFlagSet(flag))
+				{ count++; }
+			}
+			return count;
+		}
+	}
+	
+	/** Bridge IDs better than the one under test */
+	static final long ROOT_ID = 0x1000000000000001L;
+	static final long PEER_ID = 0x2000000000000002L;
+	
+	BpduSwitch sw;
+	SpanningTree stp;
+	Iface eth1, eth2, eth3;
+	
+	@Before
+	public void setUp()
+	{
+		this.sw = new BpduSwitch("s1");
+		this.eth1 = this.sw.addInterface("eth1");
+		this.eth2 = this.sw.addInterface("eth2");
+		this.eth3 = this.sw.addInterface("eth3");
+		this.sw.setSpanningTreeEnabled(true);
+		this.stp = this.sw.getSpanningTree();
+	}
+	
+	@After
+	public void tearDown()
+	{ this.sw.destroy(); }
+	
+	static BPDU bpdu(byte role, byte flags, long rootId, int cost, 
+			long bridgeId, int portId)
+	{
+		BPDU bpdu = new BPDU();
+		bpdu.setFlags(flags);
+		bpdu.setPortRole(role);
+		bpdu.setRootId(rootId);
+		bpdu.setRootPathCost(cost);
+		bpdu.setBridgeId(bridgeId);
+		bpdu.setPortId((short)portId);
+		bpdu.setMaxAge((short)(SpanningTree.MAX_AGE / 1000 * 256));
+		return bpdu;
+	}
+	
+	static BPDU designated(byte flags, long rootId, int cost, long bridgeId, 
+			int portId)
+	{ 
+		return bpdu(BPDU.PORT_ROLE_DESIGNATED, flags, rootId, cost, bridgeId, 
+				portId);
+	}
+	
+	StpPort port(Iface iface)
+	{ return this.stp.getPort(iface); }
+	
+	void assertPort(Iface iface, StpPort.Role role, StpPort.State state)
+	{
+		assertEquals(iface.getName(), role, this.port(iface).getRole());
+		assertEquals(iface.getName(), state, this.port(iface).getState());
+	}
+	
+	@Test
+	public void testPortsStartDesignatedAndPropose()
+	{
+		this.sw.startSpanningTree();
+		
+		assertEquals(this.stp.getBridgeId(), this.stp.getRootId());
+		for (Iface iface : new Iface[] { this.eth1, this.eth2, this.eth3 })
+		{
+			assertPort(iface, StpPort.Role.DESIGNATED, 
+					StpPort.State.DISCARDING);
+			assertTrue(this.sw.lastSent(iface).isFlagSet(BPDU.FLAG_PROPOSAL));
+		}
+	}
+	
+	@Test
+	public void testSuperiorProposalMakesRootPortAndIsAgreed()
+	{
+		this.sw.startSpanningTree();
+		this.stp.receive(designated(BPDU.FLAG_PROPOSAL, ROOT_ID, 0, ROOT_ID, 
+				0x8001), this.eth1);
+		
+		assertEquals(ROOT_ID, this.stp.getRootId());
+		assertPort(this.eth1, StpPort.Role.ROOT, StpPort.State.FORWARDING);
+		assertPort(this.eth2, StpPort.Role.DESIGNATED, 
+				StpPort.State.DISCARDING);
+		
+		BPDU reply = this.sw.lastSent(this.eth1);
+		assertEquals(BPDU.PORT_ROLE_ROOT, reply.getPortRole());
+		assertTrue(reply.isFlagSet(BPDU.FLAG_AGREEMENT));
+		
+		// Designated ports now propose the new root's information
+		BPDU proposal = this.sw.lastSent(this.eth2);
+		assertEquals(ROOT_ID, proposal.getRootId());
+		assertEquals(SpanningTree.DEFAULT_PATH_COST, 
+				proposal.getRootPathCost());
+		assertTrue(proposal.isFlagSet(BPDU.FLAG_PROPOSAL));
+	}
+	
+	@Test
+	public void testAgreementLetsDesignatedPortForward()
+	{
+		this.sw.startSpanningTree();
+		this.stp.receive(bpdu(BPDU.PORT_ROLE_ROOT, BPDU.FLAG_AGREEMENT, 
+				this.stp.getBridgeId(), SpanningTree.DEFAULT_PATH_COST, 
+				PEER_ID | 0xf000000000000000L, 0x8001), this.eth2);
+		
+		assertPort(this.eth2, StpPort.Role.DESIGNATED, 
+				StpPort.State.FORWARDING);
+		assertPort(this.eth3, StpPort.Role.DESIGNATED, 
+				StpPort.State.DISCARDING);
+	}
+	
+	@Test
+	public void testWorsePathToRootIsAlternate()
+	{
+		this.sw.startSpanningTree();
+		this.stp.receive(designated((byte)0, ROOT_ID, 0, ROOT_ID, 0x8001), 
+				this.eth1);
+		this.stp.receive(designated(BPDU.FLAG_PROPOSAL, ROOT_ID, 
+				SpanningTree.DEFAULT_PATH_COST, PEER_ID, 0x8002), this.eth2);
+		
+		assertPort(this.eth1, StpPort.Role.ROOT, StpPort.State.FORWARDING);
+		assertPort(this.eth2, StpPort.Role.ALTERNATE, 
+				StpPort.State.DISCARDING);
+		
+		// An alternate port agrees, since it is discarding
+		BPDU reply = this.sw.lastSent(this.eth2);
+		assertEquals(BPDU.PORT_ROLE_ALTERNATE_BACKUP, reply.getPortRole());
+		assertTrue(reply.isFlagSet(BPDU.FLAG_AGREEMENT));
+	}
+	
+	@Test
+	public void testOwnBpduMakesBackupPort()
+	{
+		this.sw.startSpanningTree();
+		this.stp.receive(designated(BPDU.FLAG_PROPOSAL, 
+				this.stp.getBridgeId(), 0, this.stp.getBridgeId(), 
+				this.port(this.eth1).getPortId()), this.eth2);
+		
+		assertPort(this.eth1, StpPort.Role.DESIGNATED, 
+				StpPort.State.DISCARDING);
+		assertPort(this.eth2, StpPort.Role.BACKUP, StpPort.State.DISCARDING);
+	}
+	
+	@Test
+	public void testExpiredInformationIsIgnored()
+	{
+		this.sw.startSpanningTree();
+		this.stp.receive(designated((byte)0, ROOT_ID, 0, ROOT_ID, 0x8001), 
+				this.eth1);
+		assertEquals(ROOT_ID, this.stp.getRootId());
+		
+		// Information that is too old is discarded
+		BPDU expired = designated((byte)0, ROOT_ID, 0, ROOT_ID, 0x8001);
+		expired.setMessageAge(expired.getMaxAge());
+		this.stp.receive(expired, this.eth2);
+		assertPort(this.eth2, StpPort.Role.DESIGNATED, 
+				StpPort.State.DISCARDING);
+	}
+	
+	@Test
+	public void testAdminEdgePortForwardsAtOnce()
+	{
+		this.stp.setAdminEdge(this.eth3);
+		this.sw.startSpanningTree();
+		
+		assertPort(this.eth3, StpPort.Role.DESIGNATED, 
+				StpPort.State.FORWARDING);
+		assertTrue(this.port(this.eth3).isEdge());
+		
+		// Hearing a BPDU takes away the edge status of an automatic edge 
+		// port, but not of a configured one
+		this.stp.receive(designated((byte)0, this.stp.getBridgeId() + 1, 0, 
+				this.stp.getBridgeId() + 1, 0x8001), this.eth3);
+		assertTrue(this.port(this.eth3).isEdge());
+	}
+	
+	@Test
+	public void testProposalRepeatedUntilEdgeDelay() throws Exception
+	{
+		this.sw.startSpanningTree();
+		
+		// A late first BPDU from the neighbor must not find the port 
+		// already forwarding
+		Thread.sleep(SpanningTree.HELLO_TIME + 500);
+		assertFalse(this.port(this.eth3).isEdge());
+		assertPort(this.eth3, StpPort.Role.DESIGNATED, 
+				StpPort.State.DISCARDING);
+		assertTrue(this.sw.countSent(this.eth3, BPDU.FLAG_PROPOSAL) >= 2);
+		assertTrue(SpanningTree.EDGE_DELAY >= 3 * SpanningTree.HELLO_TIME);
+	}
+}
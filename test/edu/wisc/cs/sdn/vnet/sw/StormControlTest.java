@@ -0,0 +1,89 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+import edu.wisc.cs.sdn.vnet.sw.StormControl.TrafficClass;
+
+public class StormControlTest
+{
+	StormControl storm;
+	Iface eth1, eth2;
+	
+	@Before
+	public void setUp()
+	{
+		this.storm = new StormControl();
+		this.eth1 = new Iface("eth1", 0);
+		this.eth2 = new Iface("eth2", 1);
+	}
+	
+	@Test
+	public void testNoLimitsAcceptEverything()
+	{
+		assertFalse(this.storm.isEnabled());
+		for (int i = 0; i < 1000; i++)
+		{ assertTrue(this.storm.accept(this.eth1, TrafficClass.BROADCAST)); }
+		assertEquals(0, this.storm.getDropped(this.eth1, 
+				TrafficClass.BROADCAST));
+	}
+	
+	@Test
+	public void testLimitAppliesToOneClass()
+	{
+		this.storm.setLimit(this.eth1, TrafficClass.BROADCAST, 1, 2);
+		assertTrue(this.storm.isEnabled());
+		
+		assertTrue(this.storm.accept(this.eth1, TrafficClass.BROADCAST));
+		assertTrue(this.storm.accept(this.eth1, TrafficClass.BROADCAST));
+		assertFalse(this.storm.accept(this.eth1, TrafficClass.BROADCAST));
+		for (int i = 0; i < 10; i++)
+		{
+			assertTrue(this.storm.accept(this.eth1, TrafficClass.MULTICAST));
+			assertTrue(this.storm.accept(this.eth1, 
+					TrafficClass.UNKNOWN_UNICAST));
+		}
+		assertEquals(1, this.storm.getDropped(this.eth1, 
+				TrafficClass.BROADCAST));
+		assertEquals(0, this.storm.getDropped(this.eth1, 
+				TrafficClass.MULTICAST));
+	}
+	
+	@Test
+	public void testLimitAppliesToOnePort()
+	{
+		this.storm.setLimit(this.eth2, TrafficClass.MULTICAST, 1, 1);
+		
+		assertTrue(this.storm.accept(this.eth2, TrafficClass.MULTICAST));
+		assertFalse(this.storm.accept(this.eth2, TrafficClass.MULTICAST));
+		for (int i = 0; i < 10; i++)
+		{ assertTrue(this.storm.accept(this.eth1, TrafficClass.MULTICAST)); }
+	}
+	
+	@Test
+	public void testEachClassHasItsOwnBucket()
+	{
+		this.storm.setLimit(this.eth1, TrafficClass.BROADCAST, 1, 1);
+		this.storm.setLimit(this.eth1, TrafficClass.UNKNOWN_UNICAST, 1, 1);
+		
+		assertTrue(this.storm.accept(this.eth1, TrafficClass.BROADCAST));
+		assertTrue(this.storm.accept(this.eth1, 
+				TrafficClass.UNKNOWN_UNICAST));
+		assertFalse(this.storm.accept(this.eth1, TrafficClass.BROADCAST));
+		assertFalse(this.storm.accept(this.eth1, 
+				TrafficClass.UNKNOWN_UNICAST));
+	}
+	
+	@Test
+	public void testReport()
+	{
+		this.storm.setLimit(this.eth2, TrafficClass.UNKNOWN_UNICAST, 100, 10);
+		assertEquals("eth2\tunknown-unicast\t100 pps burst 10, 0 dropped\n", 
+				this.storm.toString());
+	}
+}
@@ -0,0 +1,356 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.floodlightcontroller.packet.BPDU;
+import net.floodlightcontroller.packet.DropReason;
+import net.floodlightcontroller.packet.Ethernet;
+import edu.wisc.cs.sdn.vnet.Iface;
+
+public class SwitchTest
+{
+	/** Frame sent by the switch */
+	static class Sent
+	{
+		final byte[] frame;
+		final List<Iface> ifaces;
+		
+		Sent(byte[] frame, Collection<Iface> ifaces)
+		{
+			this.frame = frame;
+			this.ifaces = new ArrayList<Iface>(ifaces);
+		}
+	}
+	
+	/** Switch that records the frames it sends instead of sending them */
+	static class RecordingSwitch extends Switch
+	{
+		final List<Sent> sent = new ArrayList<Sent>();
+		
+		RecordingSwitch(String host)
+		{ super(host, null); }
+		
+		@Override
+		public boolean sendRawPacket(byte[] frame, int offset, int length,
+				Collection<Iface> ifaces)
+		{
+			if (!ifaces.isEmpty())
+			{
+				this.sent.add(new Sent(
+						Arrays.copyOfRange(frame, offset, offset + length), 
+						ifaces));
+			}
+			return true;
+		}
+		
+		@Override
+		public boolean sendRawPacket(byte[] frame, int offset, int length,
+				Iface iface)
+		{ return this.sendRawPacket(frame, offset, length, Arrays.asList(iface)); }
+		
+		/** Bridge protocol frames sent by the spanning tree are ignored */
+		@Override
+		public boolean sendPacket(Ethernet etherPacket, Iface iface)
+		{ return true; }
+	}
+	
+	static final long HOST_A = 0x000000000aaaL;
+	static final long HOST_B = 0x000000000bbbL;
+	static final long BROADCAST = 0xffffffffffffL;
+	
+	RecordingSwitch sw;
+	Iface eth1, eth2, eth3;
+	
+	@Before
+	public void setUp()
+	{
+		this.sw = new RecordingSwitch("s1");
+		this.eth1 = this.sw.addInterface("eth1");
+		this.eth2 = this.sw.addInterface("eth2");
+		this.eth3 = this.sw.addInterface("eth3");
+	}
+	
+	@After
+	public void tearDown()
+	{ this.sw.destroy(); }
+	
+	/**
+	 * Build an untagged IPv4 frame with a 46 byte payload.
+	 */
+	static byte[] frame(long dst, long src)
+	{
+		byte[] frame = new byte[60];
+		putMac(frame, 0, dst);
+		putMac(frame, 6, src);
+		frame[12] = 0x08;
+		for (int i = 14; i < frame.length; i++)
+		{ frame[i] = (byte)i; }
+		return frame;
+	}
+	
+	/**
+	 * Build an IPv4 frame carrying an 802.1Q tag.
+	 */
+	static byte[] taggedFrame(long dst, long src, int tci)
+	{
+		byte[] untagged = frame(dst, src);
+		byte[] frame = new byte[untagged.length + 4];
+		System.arraycopy(untagged, 0, frame, 0, 12);
+		frame[12] = (byte)0x81;
+		frame[14] = (byte)(tci >> 8);
+		frame[15] = (byte)tci;
+		System.arraycopy(untagged, 12, frame, 16, untagged.length - 12);
+		return frame;
+	}
+	
+	static void putMac(byte[] frame, int offset, long mac)
+	{
+		for (int i = 0; i < 6; i++)
+		{ frame[offset + i] = (byte)(mac >> (8 * (5 - i))); }
+	}
+	
+	void receive(byte[] frame, Iface inIface)
+	{ this.sw.handleRawPacket(frame, 0, frame.length, inIface); }
+	
+	/**
+	 * Check the ports a frame was sent on, in any order.
+	 */
+	static void assertPorts(Sent sent, Iface... ifaces)
+	{
+		assertEquals(new HashSet<Iface>(Arrays.asList(ifaces)), 
+				new HashSet<Iface>(sent.ifaces));
+		assertEquals(ifaces.length, sent.ifaces.size());
+	}
+	
+	@Test
+	public void testUnknownDestinationIsFloodedUnchanged()
+	{
+		byte[] frame = frame(HOST_B, HOST_A);
+		this.receive(frame, this.eth1);
+		
+		assertEquals(1, this.sw.sent.size());
+		Sent sent = this.sw.sent.get(0);
+		assertArrayEquals(frame, sent.frame);
+		assertPorts(sent, this.eth2, this.eth3);
+	}
+	
+	@Test
+	public void testSpanningTreeOffUnlessEnabled()
+	{
+		// Ports forward as soon as the switch starts
+		this.sw.startSpanningTree();
+		assertFalse(this.sw.getSpanningTree().isRunning());
+		this.receive(frame(HOST_B, HOST_A), this.eth1);
+		assertEquals(1, this.sw.sent.size());
+		assertPorts(this.sw.sent.get(0), this.eth2, this.eth3);
+	}
+	
+	/**
+	 * Build an RST BPDU cut off after its first 4 bytes.
+	 */
+	static byte[] truncatedBpdu(long src)
+	{
+		byte[] frame = new byte[14 + 3 + 4];
+		putMac(frame, 0, BPDU.MULTICAST_MAC_LONG);
+		putMac(frame, 6, src);
+		frame[13] = 3 + 4;
+		frame[14] = 0x42;
+		frame[15] = 0x42;
+		frame[16] = 0x03;
+		frame[19] = 2;
+		frame[20] = BPDU.TYPE_RST;
+		return frame;
+	}
+	
+	@Test
+	public void testTruncatedBpduDropped()
+	{
+		this.sw.setSpanningTreeEnabled(true);
+		this.sw.startSpanningTree();
+		this.receive(truncatedBpdu(HOST_A), this.eth1);
+		
+		assertEquals(0, this.sw.sent.size());
+		assertEquals(1, this.sw.getFrameValidator().getDrops(
+				DropReason.TRUNCATED_HEADER));
+	}
+	
+	@Test
+	public void testTruncatedBpduForwardedWhenDebugging()
+	{
+		// Without the spanning tree the frame is forwarded like any other
+		this.sw.setDebug(true);
+		this.receive(truncatedBpdu(HOST_A), this.eth1);
+		
+		assertEquals(1, this.sw.sent.size());
+		assertPorts(this.sw.sent.get(0), this.eth2, this.eth3);
+	}
+	
+	@Test
+	public void testLearnedDestinationIsSentOutOnePort()
+	{
+		this.receive(frame(HOST_B, HOST_A), this.eth1);
+		this.receive(frame(HOST_A, HOST_B), this.eth3);
+		
+		assertEquals(2, this.sw.sent.size());
+		Sent sent = this.sw.sent.get(1);
+		assertArrayEquals(frame(HOST_A, HOST_B), sent.frame);
+		assertPorts(sent, this.eth1);
+	}
+	
+	@Test
+	public void testFrameForIngressPortIsDropped()
+	{
+		this.receive(frame(HOST_B, HOST_A), this.eth1);
+		this.receive(frame(HOST_A, HOST_B), this.eth1);
+		
+		assertEquals(1, this.sw.sent.size());
+	}
+	
+	@Test
+	public void testFrameFromOffsetIsForwarded()
+	{
+		byte[] frame = frame(BROADCAST, HOST_A);
+		byte[] buf = new byte[frame.length + 8];
+		System.arraycopy(frame, 0, buf, 5, frame.length);
+		this.sw.handleRawPacket(buf, 5, frame.length, this.eth2);
+		
+		assertEquals(1, this.sw.sent.size());
+		assertArrayEquals(frame, this.sw.sent.get(0).frame);
+		assertPorts(this.sw.sent.get(0), this.eth1, this.eth3);
+	}
+	
+	/**
+	 * Make eth1 an access port in VLAN 10, eth2 an access port in VLAN 20,
+	 * and eth3 and eth4 trunks carrying both.
+	 */
+	Iface configureVlans()
+	{
+		Iface eth4 = this.sw.addInterface("eth4");
+		BitSet trunkVlans = new BitSet();
+		trunkVlans.set(10);
+		trunkVlans.set(20);
+		this.sw.setVlanPortConfig(this.eth1, new VlanPortConfig((short)10));
+		this.sw.setVlanPortConfig(this.eth2, new VlanPortConfig((short)20));
+		this.sw.setVlanPortConfig(this.eth3, new VlanPortConfig(trunkVlans));
+		this.sw.setVlanPortConfig(eth4, new VlanPortConfig(trunkVlans));
+		return eth4;
+	}
+	
+	@Test
+	public void testTagAddedOnTrunk()
+	{
+		Iface eth4 = this.configureVlans();
+		this.receive(frame(BROADCAST, HOST_A), this.eth1);
+		
+		assertEquals(1, this.sw.sent.size());
+		Sent sent = this.sw.sent.get(0);
+		assertArrayEquals(taggedFrame(BROADCAST, HOST_A, 10), sent.frame);
+		assertPorts(sent, this.eth3, eth4);
+	}
+	
+	@Test
+	public void testTagRemovedOnAccessPort()
+	{
+		Iface eth4 = this.configureVlans();
+		this.receive(taggedFrame(BROADCAST, HOST_A, 20), this.eth3);
+		
+		assertEquals(2, this.sw.sent.size());
+		Sent untagged = this.sw.sent.get(0);
+		assertArrayEquals(frame(BROADCAST, HOST_A), untagged.frame);
+		assertPorts(untagged, this.eth2);
+		Sent tagged = this.sw.sent.get(1);
+		assertArrayEquals(taggedFrame(BROADCAST, HOST_A, 20), tagged.frame);
+		assertPorts(tagged, eth4);
+	}
+	
+	@Test
+	public void testShortFramePaddedWhenTagRemoved()
+	{
+		this.configureVlans();
+		byte[] tagged = Arrays.copyOf(taggedFrame(BROADCAST, HOST_A, 20), 60);
+		this.receive(tagged, this.eth3);
+		
+		Sent untagged = this.sw.sent.get(0);
+		assertPorts(untagged, this.eth2);
+		byte[] expected = Arrays.copyOf(frame(BROADCAST, HOST_A), 60);
+		Arrays.fill(expected, 56, 60, (byte)0);
+		assertArrayEquals(expected, untagged.frame);
+	}
+	
+	@Test
+	public void testPriorityTagRetaggedWithAccessVlan()
+	{
+		this.configureVlans();
+		int pcp = 5 << 13;
+		this.receive(taggedFrame(BROADCAST, HOST_A, pcp), this.eth1);
+		
+		assertEquals(1, this.sw.sent.size());
+		assertArrayEquals(taggedFrame(BROADCAST, HOST_A, pcp | 10), 
+				this.sw.sent.get(0).frame);
+	}
+	
+	@Test
+	public void testLearnedDestinationTaggedForTrunk()
+	{
+		this.configureVlans();
+		this.receive(taggedFrame(HOST_A, HOST_B, 10), this.eth3);
+		this.sw.sent.clear();
+		this.receive(frame(HOST_B, HOST_A), this.eth1);
+		
+		assertEquals(1, this.sw.sent.size());
+		assertArrayEquals(taggedFrame(HOST_B, HOST_A, 10), 
+				this.sw.sent.get(0).frame);
+		assertPorts(this.sw.sent.get(0), this.eth3);
+	}
+	
+	@Test
+	public void testFramesOutsidePortVlansDropped()
+	{
+		this.configureVlans();
+		
+		// Trunks only accept tagged frames
+		this.receive(frame(BROADCAST, HOST_A), this.eth3);
+		// Access ports only accept their own VLAN
+		this.receive(taggedFrame(BROADCAST, HOST_A, 20), this.eth1);
+		// Trunks only accept the VLANs they carry
+		this.receive(taggedFrame(BROADCAST, HOST_A, 30), this.eth3);
+		
+		assertEquals(0, this.sw.sent.size());
+	}
+	
+	@Test
+	public void testUnconfiguredPortsInDefaultVlan()
+	{
+		Iface eth4 = this.sw.addInterface("eth4");
+		this.sw.setVlanPortConfig(this.eth1, new VlanPortConfig((short)10));
+		this.receive(frame(BROADCAST, HOST_A), this.eth2);
+		
+		assertEquals(1, this.sw.sent.size());
+		assertArrayEquals(frame(BROADCAST, HOST_A), this.sw.sent.get(0).frame);
+		assertPorts(this.sw.sent.get(0), this.eth3, eth4);
+		assertEquals(VlanPortConfig.DEFAULT, 
+				this.sw.getVlanPortConfig(this.eth2));
+	}
+	
+	@Test
+	public void testVlanWithoutOtherPortsNotFlooded()
+	{
+		this.sw.setVlanPortConfig(this.eth1, new VlanPortConfig((short)10));
+		this.receive(frame(BROADCAST, HOST_A), this.eth1);
+		
+		assertEquals(0, this.sw.sent.size());
+	}
+}
@@ -0,0 +1,74 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TokenBucketTest
+{
+	@Test
+	public void testBurstAcceptedThenDropped()
+	{
+		TokenBucket bucket = new TokenBucket(1, 3);
+		assertTrue(bucket.tryConsume());
+		assertTrue(bucket.tryConsume());
+		assertTrue(bucket.tryConsume());
+		assertFalse(bucket.tryConsume());
+		assertFalse(bucket.tryConsume());
+		assertEquals(2, bucket.getDropped());
+	}
+	
+	@Test
+	public void testTokensEarnedAtRate() throws Exception
+	{
+		// One token every 50 ms
+		TokenBucket bucket = new TokenBucket(20, 1);
+		assertTrue(bucket.tryConsume());
+		assertFalse(bucket.tryConsume());
+		Thread.sleep(120);
+		assertTrue(bucket.tryConsume());
+		assertFalse(bucket.tryConsume());
+	}
+	
+	@Test
+	public void testIdleBucketFillsOnlyToBurst() throws Exception
+	{
+		TokenBucket bucket = new TokenBucket(100, 2);
+		Thread.sleep(100);
+		assertTrue(bucket.tryConsume());
+		assertTrue(bucket.tryConsume());
+		assertFalse(bucket.tryConsume());
+	}
+	
+	@Test
+	public void testConcurrentConsumersShareBurst() throws Exception
+	{
+		final TokenBucket bucket = new TokenBucket(1, 1000);
+		final AtomicInteger accepted = new AtomicInteger();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++)
+		{
+			threads[i] = new Thread()
+			{
+				public void run()
+				{
+					for (int j = 0; j < 1000; j++)
+					{
+						if (bucket.tryConsume())
+						{ accepted.incrementAndGet(); }
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+		{ thread.join(); }
+		
+		assertEquals(1000, accepted.get());
+		assertEquals(3000, bucket.getDropped());
+	}
+}
@@ -0,0 +1,283 @@
+package edu.wisc.cs.sdn.vnet.vns;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+
+public class TransmitQueueTest
+{
+	/** Channel that keeps every write, and takes at most a few bytes at a
+	 *  time to exercise partial writes */
+	static class RecordingChannel implements WritableByteChannel
+	{
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		int writes;
+		
+		public int write(ByteBuffer src)
+		{
+			int n = Math.min(src.remaining(), 1000);
+			byte[] chunk = new byte[n];
+			src.get(chunk);
+			this.bytes.write(chunk, 0, n);
+			this.writes++;
+			return n;
+		}
+		
+		public boolean isOpen()
+		{ return true; }
+		
+		public void close()
+		{ }
+	}
+	
+	/** Command read back from the channel */
+	static class Sent
+	{
+		final int type;
+		final byte[] body;
+		
+		Sent(int type, byte[] body)
+		{
+			this.type = type;
+			this.body = body;
+		}
+	}
+	
+	RecordingChannel channel;
+	TransmitQueue queue;
+	
+	@Before
+	public void setUp()
+	{
+		this.channel = new RecordingChannel();
+		this.queue = new TransmitQueue(this.channel);
+	}
+	
+	static byte[] packetCommand(String iface, byte[] frame)
+	{
+		ByteBuffer bb = ByteBuffer.allocate(CommandPacket.HEADER_SIZE 
+				+ frame.length);
+		bb.putInt(bb.capacity());
+		bb.putInt(Command.VNS_PACKET);
+		bb.put(Iface.toNameField(iface));
+		bb.put(frame);
+		return bb.array();
+	}
+	
+	static byte[] frame(int length, int seed)
+	{
+		byte[] frame = new byte[length];
+		for (int i = 0; i < length; i++)
+		{ frame[i] = (byte)(seed + i); }
+		return frame;
+	}
+	
+	void send(byte[] command) throws Exception
+	{ this.queue.enqueue(command, 0, command.length, 1); }
+	
+	List<Sent> sent()
+	{
+		ByteBuffer bb = ByteBuffer.wrap(this.channel.bytes.toByteArray());
+		List<Sent> sent = new ArrayList<Sent>();
+		while (bb.hasRemaining())
+		{
+			int len = bb.getInt();
+			int type = bb.getInt();
+			byte[] body = new byte[len - 8];
+			bb.get(body);
+			sent.add(new Sent(type, body));
+		}
+		return sent;
+	}
+	
+	/**
+	 * Split a batch command's body into packet commands, as the server 
+	 * would see them.
+	 */
+	static List<byte[]> unbatch(byte[] body)
+	{
+		ByteBuffer bb = ByteBuffer.wrap(body);
+		int count = bb.getInt();
+		List<byte[]> commands = new ArrayList<byte[]>();
+		for (int i = 0; i < count; i++)
+		{
+			byte[] name = new byte[CommandPacket.IFACE_NAME_SIZE];
+			bb.get(name);
+			byte[] frame = new byte[bb.getInt()];
+			bb.get(frame);
+			ByteBuffer cmd = ByteBuffer.allocate(CommandPacket.HEADER_SIZE 
+					+ frame.length);
+			cmd.putInt(cmd.capacity());
+			cmd.putInt(Command.VNS_PACKET);
+			cmd.put(name);
+			cmd.put(frame);
+			commands.add(cmd.array());
+		}
+		assertEquals(0, bb.remaining());
+		return commands;
+	}
+	
+	@Test
+	public void testCommandsWrittenAtOnceOutsideBatch() throws Exception
+	{
+		this.send(packetCommand("eth1", frame(60, 1)));
+		this.send(packetCommand("eth2", frame(60, 2)));
+		
+		List<Sent> sent = this.sent();
+		assertEquals(2, sent.size());
+		assertEquals(Command.VNS_PACKET, sent.get(0).type);
+		assertEquals(2, this.channel.writes);
+	}
+	
+	@Test
+	public void testBatchHeldUntilEnd() throws Exception
+	{
+		this.queue.beginBatch();
+		this.send(packetCommand("eth1", frame(60, 1)));
+		this.send(packetCommand("eth2", frame(60, 2)));
+		assertEquals(0, this.channel.writes);
+		this.queue.endBatch();
+		
+		List<Sent> sent = this.sent();
+		assertEquals(2, sent.size());
+		assertEquals(1, this.channel.writes);
+	}
+	
+	@Test
+	public void testPacketsRewrittenAsBatchCommand() throws Exception
+	{
+		this.queue.setPacketBatching(true);
+		byte[][] commands = { packetCommand("eth1", frame(60, 1)),
+				packetCommand("eth2", frame(1500, 2)),
+				packetCommand("eth10", frame(61, 3)) };
+		this.queue.beginBatch();
+		for (byte[] command : commands)
+		{ this.send(command); }
+		this.queue.endBatch();
+		
+		List<Sent> sent = this.sent();
+		assertEquals(1, sent.size());
+		assertEquals(Command.VNS_PACKET_BATCH, sent.get(0).type);
+		List<byte[]> unbatched = unbatch(sent.get(0).body);
+		assertEquals(commands.length, unbatched.size());
+		for (int i = 0; i < commands.length; i++)
+		{ assertArrayEquals(commands[i], unbatched.get(i)); }
+	}
+	
+	@Test
+	public void testSinglePacketNotBatched() throws Exception
+	{
+		this.queue.setPacketBatching(true);
+		byte[] command = packetCommand("eth1", frame(60, 1));
+		this.send(command);
+		
+		List<Sent> sent = this.sent();
+		assertEquals(1, sent.size());
+		assertEquals(Command.VNS_PACKET, sent.get(0).type);
+		assertArrayEquals(this.channel.bytes.toByteArray(), command);
+	}
+	
+	@Test
+	public void testOtherCommandsNotBatched() throws Exception
+	{
+		this.queue.setPacketBatching(true);
+		byte[] close = ByteBuffer.allocate(8).putInt(8)
+				.putInt(Command.VNS_CLOSE).array();
+		this.queue.beginBatch();
+		this.send(packetCommand("eth1", frame(60, 1)));
+		this.send(close);
+		this.queue.endBatch();
+		
+		List<Sent> sent = this.sent();
+		assertEquals(2, sent.size());
+		assertEquals(Command.VNS_PACKET, sent.get(0).type);
+		assertEquals(Command.VNS_CLOSE, sent.get(1).type);
+	}
+	
+	@Test
+	public void testBatchesCappedAtMaxSize() throws Exception
+	{
+		this.queue.setPacketBatching(true);
+		List<byte[]> commands = new ArrayList<byte[]>();
+		this.queue.beginBatch();
+		for (int i = 0; i < 40; i++)
+		{
+			byte[] command = packetCommand("eth" + (i % 3), frame(1500, i));
+			commands.add(command);
+			this.send(command);
+		}
+		this.queue.endBatch();
+		
+		List<byte[]> received = new ArrayList<byte[]>();
+		for (Sent sent : this.sent())
+		{
+			assertEquals(Command.VNS_PACKET_BATCH, sent.type);
+			assertTrue(8 + sent.body.length <= CommandPacketBatch.MAX_SIZE);
+			received.addAll(unbatch(sent.body));
+		}
+		assertEquals(commands.size(), received.size());
+		for (int i = 0; i < commands.size(); i++)
+		{ assertArrayEquals(commands.get(i), received.get(i)); }
+	}
+	
+	@Test
+	public void testLargeReserveSentAsPlainCommands() throws Exception
+	{
+		// Copies of a jumbo frame reserved together cannot fit in a batch
+		this.queue.setPacketBatching(true);
+		byte[] command = packetCommand("eth1", frame(9000, 1));
+		byte[] both = Arrays.copyOf(command, 2 * command.length);
+		System.arraycopy(command, 0, both, command.length, command.length);
+		this.queue.enqueue(both, 0, both.length, 2);
+		
+		List<Sent> sent = this.sent();
+		assertEquals(2, sent.size());
+		assertEquals(Command.VNS_PACKET, sent.get(0).type);
+		assertEquals(Command.VNS_PACKET, sent.get(1).type);
+		assertArrayEquals(both, this.channel.bytes.toByteArray());
+	}
+	
+	@Test
+	public void testQueueWrittenWhenFull() throws Exception
+	{
+		this.queue = new TransmitQueue(this.channel, 1024, Long.MAX_VALUE);
+		this.queue.beginBatch();
+		for (int i = 0; i < 10; i++)
+		{ this.send(packetCommand("eth1", frame(200, i))); }
+		assertTrue(this.sent().size() > 0);
+		this.queue.endBatch();
+		assertEquals(10, this.sent().size());
+	}
+	
+	@Test
+	public void testCommandLargerThanQueue() throws Exception
+	{
+		this.queue = new TransmitQueue(this.channel, 100, Long.MAX_VALUE);
+		byte[] command = packetCommand("eth1", frame(1500, 1));
+		this.send(command);
+		assertArrayEquals(command, this.channel.bytes.toByteArray());
+	}
+	
+	@Test
+	public void testHeldCommandsWrittenAfterMaxLatency() throws Exception
+	{
+		this.queue = new TransmitQueue(this.channel, 
+				TransmitQueue.DEFAULT_CAPACITY, 0);
+		this.queue.beginBatch();
+		this.send(packetCommand("eth1", frame(60, 1)));
+		assertEquals(1, this.sent().size());
+		this.queue.endBatch();
+	}
+}
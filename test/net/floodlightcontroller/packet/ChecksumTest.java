@@ -0,0 +1,157 @@
+package net.floodlightcontroller.packet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ChecksumTest {
+    private final Random random = new Random(1624);
+
+    /**
+     * Sums 16-bit words one at a time, folding after every word.
+     */
+    private static int naiveSum(byte[] data, int offset, int length) {
+        int sum = 0;
+        for (int i = 0; i < length; i += 2) {
+            int word = (data[offset + i] & 0xff) << 8;
+            if (i + 1 < length)
+                word |= data[offset + i + 1] & 0xff;
+            sum += word;
+            sum = (sum & 0xffff) + (sum >>> 16);
+        }
+        return sum;
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        this.random.nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void testRfc1071Example() {
+        byte[] data = { 0x00, 0x01, (byte) 0xf2, 0x03, (byte) 0xf4,
+                (byte) 0xf5, (byte) 0xf6, (byte) 0xf7 };
+        assertEquals(0xddf2, Checksum.fold(Checksum.sum(data, 0, data.length, 0)));
+        assertEquals(0xddf2, Checksum.fold(0x2ddf0));
+        assertEquals((short) 0x220d, Checksum.compute(data, 0, data.length, 0));
+    }
+
+    @Test
+    public void testFoldCarries() {
+        assertEquals(0, Checksum.fold(0));
+        assertEquals(0xffff, Checksum.fold(0xffff));
+        assertEquals(1, Checksum.fold(0x10000));
+        assertEquals(0xffff, Checksum.fold(0xfffe0001L));
+        // Carries out of every 16-bit position
+        assertEquals(0xffff, Checksum.fold(0xffffffffffffffffL));
+        assertEquals(0x0004, Checksum.fold(0x0001000100010001L));
+    }
+
+    @Test
+    public void testSumMatchesWordAtATime() {
+        for (int length = 0; length < 80; length++) {
+            for (int offset = 0; offset < 3; offset++) {
+                byte[] data = randomBytes(offset + length + 3);
+                assertEquals("length " + length + " offset " + offset,
+                        naiveSum(data, offset, length),
+                        Checksum.fold(Checksum.sum(data, offset, length, 0)));
+            }
+        }
+    }
+
+    @Test
+    public void testSumOfLongRunDoesNotOverflow() {
+        byte[] data = new byte[64 * 1024];
+        java.util.Arrays.fill(data, (byte) 0xff);
+        assertEquals(0xffff, Checksum.fold(Checksum.sum(data, 0, data.length, 0)));
+        assertEquals(naiveSum(data, 1, data.length - 1),
+                Checksum.fold(Checksum.sum(data, 1, data.length - 1, 0)));
+    }
+
+    @Test
+    public void testBufferSumMatchesArraySum() {
+        byte[] data = randomBytes(101);
+        long expected = Checksum.sum(data, 3, 95, 0x1234);
+
+        ByteBuffer heap = ByteBuffer.wrap(data);
+        assertEquals(expected, Checksum.sum(heap, 3, 95, 0x1234));
+        ByteBuffer slice = ByteBuffer.wrap(data, 2, 99).slice();
+        assertEquals(expected, Checksum.sum(slice, 1, 95, 0x1234));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data);
+        direct.position(7);
+        assertEquals(Checksum.fold(expected),
+                Checksum.fold(Checksum.sum(direct, 3, 95, 0x1234)));
+
+        direct.order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(Checksum.fold(expected),
+                Checksum.fold(Checksum.sum(direct, 3, 95, 0x1234)));
+        assertEquals(7, direct.position());
+        assertEquals(data.length, direct.limit());
+    }
+
+    @Test
+    public void testVerify() {
+        byte[] data = randomBytes(40);
+        data[10] = 0;
+        data[11] = 0;
+        short checksum = Checksum.compute(data, 0, data.length, 0x4321);
+        data[10] = (byte) (checksum >> 8);
+        data[11] = (byte) checksum;
+        assertTrue(Checksum.verify(data, 0, data.length, 0x4321));
+
+        data[20] ^= 0x01;
+        assertFalse(Checksum.verify(data, 0, data.length, 0x4321));
+    }
+
+    @Test
+    public void testUpdateWordMatchesRecompute() {
+        for (int i = 0; i < 1000; i++) {
+            byte[] data = randomBytes(20);
+            int at = 2 * this.random.nextInt(10);
+            short checksum = Checksum.compute(data, 0, data.length, 0);
+            short oldWord = (short) (((data[at] & 0xff) << 8)
+                    | (data[at + 1] & 0xff));
+            short newWord = (short) this.random.nextInt();
+            data[at] = (byte) (newWord >> 8);
+            data[at + 1] = (byte) newWord;
+
+            assertEquals(Checksum.compute(data, 0, data.length, 0),
+                    Checksum.update(checksum, oldWord, newWord));
+        }
+    }
+
+    @Test
+    public void testUpdateValueMatchesRecompute() {
+        for (int i = 0; i < 1000; i++) {
+            byte[] data = randomBytes(20);
+            ByteBuffer bb = ByteBuffer.wrap(data);
+            int at = 4 * this.random.nextInt(5);
+            short checksum = Checksum.compute(data, 0, data.length, 0);
+            int oldValue = bb.getInt(at);
+            int newValue = this.random.nextInt();
+            bb.putInt(at, newValue);
+
+            assertEquals(Checksum.compute(data, 0, data.length, 0),
+                    Checksum.update(checksum, oldValue, newValue));
+        }
+    }
+
+    @Test
+    public void testUpdateDecrementedTtl() {
+        // TTL 64 -> 63 in a header whose checksum is 0xb1e6 (RFC 1624 style
+        // example: only the TTL/protocol word changes)
+        short checksum = (short) 0xb1e6;
+        short updated = Checksum.update(checksum, (short) 0x4006,
+                (short) 0x3f06);
+        assertEquals((short) 0xb2e6, updated);
+    }
+}
@@ -0,0 +1,184 @@
+package net.floodlightcontroller.packet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class FrameValidatorTest {
+    /**
+     * Builds an Ethernet frame carrying an IPv4 packet with a 20 byte header
+     * and the given transport bytes.
+     */
+    private static ByteBuffer ipFrame(byte protocol, byte[] l4) {
+        ByteBuffer bb = ByteBuffer.allocate(14 + 20 + l4.length);
+        bb.position(12);
+        bb.putShort(Ethernet.TYPE_IPv4);
+        bb.put((byte) 0x45);
+        bb.put((byte) 0);
+        bb.putShort((short) (20 + l4.length));
+        bb.putInt(0);
+        bb.put((byte) 64);
+        bb.put(protocol);
+        bb.putShort((short) 0);
+        bb.putInt(0x0a000001);
+        bb.putInt(0x0a000002);
+        bb.put(l4);
+        return bb;
+    }
+
+    private static byte[] udp(int srcPort, int dstPort, int payload) {
+        ByteBuffer bb = ByteBuffer.allocate(8 + payload);
+        bb.putShort((short) srcPort);
+        bb.putShort((short) dstPort);
+        bb.putShort((short) (8 + payload));
+        return bb.array();
+    }
+
+    private static DropReason classify(ByteBuffer bb, DecodeDepth depth) {
+        return FrameValidator.classify(bb.array(), 0, bb.capacity(), depth);
+    }
+
+    private static DropReason classify(ByteBuffer bb) {
+        return classify(bb, DecodeDepth.FULL);
+    }
+
+    @Test
+    public void testWellFormedFramesAccepted() {
+        assertNull(classify(ipFrame(IPv4.PROTOCOL_UDP, udp(1000, 2000, 10))));
+        assertNull(classify(ipFrame(IPv4.PROTOCOL_ICMP, new byte[8])));
+        byte[] tcp = new byte[20];
+        tcp[12] = 0x50;
+        assertNull(classify(ipFrame(IPv4.PROTOCOL_TCP, tcp)));
+        assertNull(classify(ipFrame(IPv4.PROTOCOL_UDP,
+                udp(520, 520, 4 + 2 * 20))));
+    }
+
+    @Test
+    public void testRunt() {
+        assertEquals(DropReason.RUNT, FrameValidator.classify(new byte[13],
+                0, 13, DecodeDepth.L2));
+        byte[] tagged = new byte[16];
+        tagged[12] = (byte) 0x81;
+        assertEquals(DropReason.RUNT, FrameValidator.classify(tagged, 0,
+                tagged.length, DecodeDepth.L2));
+    }
+
+    @Test
+    public void testDepthLimitsChecks() {
+        ByteBuffer bb = ipFrame(IPv4.PROTOCOL_UDP, udp(1, 2, 0));
+        bb.put(14, (byte) 0x65);
+        assertNull(classify(bb, DecodeDepth.L2));
+        assertEquals(DropReason.BAD_IP_VERSION, classify(bb, DecodeDepth.L3));
+
+        bb = ipFrame(IPv4.PROTOCOL_UDP, udp(1, 2, 0));
+        bb.putShort(34 + 4, (short) 100);
+        assertNull(classify(bb, DecodeDepth.L3));
+        assertEquals(DropReason.BAD_UDP_LENGTH, classify(bb, DecodeDepth.L4));
+    }
+
+    @Test
+    public void testIpHeaderProblems() {
+        ByteBuffer bb = ipFrame(IPv4.PROTOCOL_UDP, new byte[0]);
+        assertEquals(DropReason.TRUNCATED_HEADER, FrameValidator.classify(
+                bb.array(), 0, 30, DecodeDepth.L3));
+
+        bb = ipFrame(IPv4.PROTOCOL_UDP, udp(1, 2, 0));
+        bb.put(14, (byte) 0x44);
+        assertEquals(DropReason.BAD_IP_HEADER_LENGTH, classify(bb));
+        bb.put(14, (byte) 0x4f);
+        assertEquals(DropReason.BAD_IP_HEADER_LENGTH, classify(bb));
+
+        bb = ipFrame(IPv4.PROTOCOL_UDP, udp(1, 2, 0));
+        bb.putShort(16, (short) 19);
+        assertEquals(DropReason.BAD_IP_TOTAL_LENGTH, classify(bb));
+        bb.putShort(16, (short) 29);
+        assertEquals(DropReason.BAD_IP_TOTAL_LENGTH, classify(bb));
+    }
+
+    @Test
+    public void testTransportProblems() {
+        assertEquals(DropReason.TRUNCATED_HEADER,
+                classify(ipFrame(IPv4.PROTOCOL_UDP, new byte[7])));
+        assertEquals(DropReason.TRUNCATED_HEADER,
+                classify(ipFrame(IPv4.PROTOCOL_TCP, new byte[19])));
+        assertEquals(DropReason.TRUNCATED_HEADER,
+                classify(ipFrame(IPv4.PROTOCOL_ICMP, new byte[3])));
+
+        byte[] udp = udp(1, 2, 0);
+        udp[5] = 7;
+        assertEquals(DropReason.BAD_UDP_LENGTH,
+                classify(ipFrame(IPv4.PROTOCOL_UDP, udp)));
+
+        byte[] tcp = new byte[24];
+        tcp[12] = 0x40;
+        assertEquals(DropReason.BAD_TCP_OFFSET,
+                classify(ipFrame(IPv4.PROTOCOL_TCP, tcp)));
+        tcp[12] = 0x70;
+        assertEquals(DropReason.BAD_TCP_OFFSET,
+                classify(ipFrame(IPv4.PROTOCOL_TCP, tcp)));
+
+        assertEquals(DropReason.BAD_RIP_LENGTH,
+                classify(ipFrame(IPv4.PROTOCOL_UDP, udp(520, 520, 4 + 19))));
+        assertEquals(DropReason.BAD_RIP_LENGTH,
+                classify(ipFrame(IPv4.PROTOCOL_UDP, udp(1000, 520, 2))));
+    }
+
+    @Test
+    public void testLaterFragmentsSkipTransportChecks() {
+        ByteBuffer bb = ipFrame(IPv4.PROTOCOL_TCP, new byte[4]);
+        bb.putShort(20, (short) 0x0010);
+        assertNull(classify(bb));
+    }
+
+    @Test
+    public void testArpAddressesMustFit() {
+        ByteBuffer bb = ByteBuffer.allocate(14 + 28);
+        bb.putShort(12, Ethernet.TYPE_ARP);
+        bb.put(14 + 4, (byte) 6);
+        bb.put(14 + 5, (byte) 4);
+        assertNull(classify(bb));
+
+        bb.put(14 + 4, (byte) 16);
+        assertEquals(DropReason.BAD_ARP_LENGTH, classify(bb));
+        assertEquals(DropReason.TRUNCATED_HEADER, FrameValidator.classify(
+                bb.array(), 0, 14 + 7, DecodeDepth.FULL));
+    }
+
+    @Test
+    public void testOffsetIntoBuffer() {
+        ByteBuffer frame = ipFrame(IPv4.PROTOCOL_UDP, udp(1, 2, 4));
+        byte[] data = new byte[frame.capacity() + 10];
+        System.arraycopy(frame.array(), 0, data, 6, frame.capacity());
+        assertNull(FrameValidator.classify(data, 6, frame.capacity(),
+                DecodeDepth.FULL));
+        assertEquals(DropReason.BAD_IP_TOTAL_LENGTH, FrameValidator.classify(
+                data, 6, frame.capacity() - 1, DecodeDepth.FULL));
+    }
+
+    @Test
+    public void testDropsCountedByReason() {
+        FrameValidator validator = new FrameValidator();
+        ByteBuffer good = ipFrame(IPv4.PROTOCOL_UDP, udp(1, 2, 0));
+        ByteBuffer bad = ipFrame(IPv4.PROTOCOL_TCP, new byte[19]);
+
+        assertTrue(validator.accept(good.array(), 0, good.capacity(),
+                DecodeDepth.FULL));
+        assertFalse(validator.accept(bad.array(), 0, bad.capacity(),
+                DecodeDepth.FULL));
+        assertFalse(validator.accept(new byte[10], 0, 10, DecodeDepth.L2));
+        assertFalse(validator.accept(new byte[10], 0, 10, DecodeDepth.L2));
+        validator.reject(DropReason.OVERSIZE);
+
+        assertEquals(1, validator.getDrops(DropReason.TRUNCATED_HEADER));
+        assertEquals(2, validator.getDrops(DropReason.RUNT));
+        assertEquals(1, validator.getDrops(DropReason.OVERSIZE));
+        assertEquals(4, validator.getTotalDrops());
+        assertEquals("runt\t2\ntruncated-header\t1\noversize\t1\n",
+                validator.toString());
+    }
+}
@@ -0,0 +1,64 @@
+package net.floodlightcontroller.packet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class IPv4Test {
+    /**
+     * Builds a 40 byte TCP ACK in an Ethernet frame padded to 60 bytes.
+     */
+    private static byte[] paddedAck() {
+        ByteBuffer bb = ByteBuffer.allocate(60);
+        bb.position(12);
+        bb.putShort(Ethernet.TYPE_IPv4);
+        bb.put((byte) 0x45);
+        bb.put((byte) 0);
+        bb.putShort((short) 40);
+        bb.putInt(0);
+        bb.put((byte) 64);
+        bb.put(IPv4.PROTOCOL_TCP);
+        bb.putShort((short) 0);
+        bb.putInt(0x0a000001);
+        bb.putInt(0x0a000002);
+        bb.position(14 + 20 + 12);
+        bb.put((byte) 0x50);
+        bb.put((byte) 0x10);
+        bb.putShort(14 + 10, Checksum.compute(bb.array(), 14, 20, 0));
+        return bb.array();
+    }
+
+    private static IPv4 decode(byte[] frame) {
+        Ethernet ether = new Ethernet();
+        ether.deserialize(frame, 0, frame.length);
+        return (IPv4) ether.getPayload();
+    }
+
+    @Test
+    public void testPaddingNotPartOfPayload() {
+        IPv4 ip = decode(paddedAck());
+        assertEquals(40, ip.getTotalLength());
+        assertEquals(40, ip.getSerializedLength());
+        assertFalse(ip.isTruncated());
+        assertTrue(ip.isChecksumValid());
+    }
+
+    @Test
+    public void testPaddedFrameRoundTripAfterTtlUpdate() {
+        IPv4 ip = decode(paddedAck());
+        ip.updateTtl((byte) 63);
+
+        Ethernet ether = (Ethernet) ip.getParent();
+        ether.setPad(true);
+        byte[] frame = ether.serialize();
+        assertEquals(60, frame.length);
+        assertEquals(40, ((frame[16] & 0xff) << 8) | (frame[17] & 0xff));
+        assertEquals(63, frame[22]);
+        assertTrue(IPv4.isHeaderChecksumValid(frame, 14, frame.length - 14));
+        assertTrue(decode(frame).isChecksumValid());
+    }
+}
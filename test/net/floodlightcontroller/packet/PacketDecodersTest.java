@@ -0,0 +1,78 @@
+package net.floodlightcontroller.packet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PacketDecodersTest {
+    /** Codec with a field that reset() does not clear */
+    static class Tagged extends Data {
+        int tag;
+    }
+
+    /** Codec that clears its field in reset() */
+    static class ResetTagged extends Data {
+        int tag;
+
+        @Override
+        protected void reset() {
+            super.reset();
+            this.tag = 0;
+        }
+    }
+
+    /** Codec that adds no fields, so the inherited reset() is enough */
+    static class Plain extends Data {
+    }
+
+    private static final short TAGGED_PORT = 4790;
+    private static final short RESET_TAGGED_PORT = 4791;
+
+    @Test
+    public void testBuiltInCodecsAreResettable() {
+        Class<?>[] types = { Ethernet.class, ARP.class, BPDU.class,
+                IPv4.class, ICMP.class, TCP.class, UDP.class, RIPv2.class,
+                Data.class };
+        for (Class<?> type : types)
+            assertTrue(type.getSimpleName(), PacketDecoders.isResettable(type));
+    }
+
+    @Test
+    public void testResettableRequiresOverrideForNewFields() {
+        assertFalse(PacketDecoders.isResettable(Tagged.class));
+        assertTrue(PacketDecoders.isResettable(ResetTagged.class));
+        assertTrue(PacketDecoders.isResettable(Plain.class));
+    }
+
+    @Test
+    public void testCodecWithoutResetIsNotReused() {
+        PacketDecoders.registerUdpPort(TAGGED_PORT, Tagged::new);
+        Tagged first = (Tagged) PacketDecoders.forUdpPorts(TAGGED_PORT,
+                (short) 0, true);
+        first.tag = 42;
+        first.release();
+
+        Tagged second = (Tagged) PacketDecoders.forUdpPorts(TAGGED_PORT,
+                (short) 0, true);
+        assertNotSame(first, second);
+        assertEquals(0, second.tag);
+    }
+
+    @Test
+    public void testCodecWithResetIsReused() {
+        PacketDecoders.registerUdpPort(RESET_TAGGED_PORT, ResetTagged::new);
+        ResetTagged first = (ResetTagged) PacketDecoders.forUdpPorts(
+                (short) 0, RESET_TAGGED_PORT, true);
+        first.tag = 42;
+        first.release();
+
+        ResetTagged second = (ResetTagged) PacketDecoders.forUdpPorts(
+                (short) 0, RESET_TAGGED_PORT, true);
+        assertSame(first, second);
+        assertEquals(0, second.tag);
+    }
+}
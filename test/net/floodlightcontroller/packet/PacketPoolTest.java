@@ -0,0 +1,140 @@
+package net.floodlightcontroller.packet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class PacketPoolTest {
+    @After
+    public void tearDown() {
+        PacketPool.setLeakDetection(false);
+    }
+
+    @Test
+    public void testReleasedPacketIsReused() {
+        PacketPool<Data> pool = new PacketPool<Data>(Data::new);
+        Data data = pool.acquire();
+        data.release();
+        assertEquals(1, pool.getFreeCount());
+        assertSame(data, pool.acquire());
+        assertEquals(0, pool.getFreeCount());
+    }
+
+    @Test
+    public void testReusedPacketIsReset() {
+        PacketPool<IPv4> pool = new PacketPool<IPv4>(IPv4::new);
+        IPv4 ip = pool.acquire();
+        ip.setTtl((byte) 7);
+        ip.setSourceAddress(0x0a000001);
+        ip.setPayload(new Data(new byte[] { 1, 2, 3 }));
+        ip.release();
+
+        IPv4 reused = pool.acquire();
+        assertSame(ip, reused);
+        assertEquals(0, reused.getTtl());
+        assertEquals(0, reused.getSourceAddress());
+        assertEquals(4, reused.getVersion());
+        assertNull(reused.getPayload());
+    }
+
+    @Test
+    public void testReleaseReleasesPooledPayloads() {
+        PacketPool<IPv4> ipPool = new PacketPool<IPv4>(IPv4::new);
+        PacketPool<Data> dataPool = new PacketPool<Data>(Data::new);
+        IPv4 ip = ipPool.acquire();
+        ip.setPayload(dataPool.acquire());
+        ip.release();
+        assertEquals(1, ipPool.getFreeCount());
+        assertEquals(1, dataPool.getFreeCount());
+
+        // An unpooled packet is left alone, but its payload is released
+        IPv4 unpooled = ipPool.newPacket(false);
+        unpooled.setPayload(dataPool.acquire());
+        unpooled.release();
+        assertEquals(1, ipPool.getFreeCount());
+        assertEquals(1, dataPool.getFreeCount());
+        assertFalse(unpooled.isPooled());
+    }
+
+    @Test
+    public void testDecodedFrameReleasedToPools() {
+        byte[] frame = new Ethernet()
+                .setDestinationMACAddress("00:00:00:00:00:02")
+                .setSourceMACAddress("00:00:00:00:00:01")
+                .setEtherType(Ethernet.TYPE_IPv4)
+                .setPayload(new IPv4()
+                        .setTtl((byte) 64)
+                        .setProtocol(IPv4.PROTOCOL_UDP)
+                        .setSourceAddress(0x0a000001)
+                        .setDestinationAddress(0x0a000002)
+                        .setPayload(new UDP()
+                                .setSourcePort((short) 1000)
+                                .setDestinationPort((short) 2000)
+                                .setPayload(new Data(new byte[8]))))
+                .serialize();
+
+        int ipFree = PacketPool.IPV4.getFreeCount();
+        int udpFree = PacketPool.UDP.getFreeCount();
+        Ethernet ether = PacketPool.ETHERNET.acquire();
+        ether.deserialize(frame, 0, frame.length);
+        IPv4 ip = (IPv4) ether.getPayload();
+        assertTrue(ip.isPooled());
+        assertTrue(ip.getPayload() instanceof UDP);
+        ether.release();
+
+        assertEquals(ipFree + 1, PacketPool.IPV4.getFreeCount());
+        assertEquals(udpFree + 1, PacketPool.UDP.getFreeCount());
+        assertSame(ip, PacketPool.IPV4.acquire());
+    }
+
+    @Test
+    public void testFreeListBoundedByCapacity() {
+        PacketPool<Data> pool = new PacketPool<Data>(Data::new, 2);
+        Data a = pool.acquire();
+        Data b = pool.acquire();
+        Data c = pool.acquire();
+        a.release();
+        b.release();
+        c.release();
+        assertEquals(2, pool.getFreeCount());
+    }
+
+    @Test
+    public void testFreeListsArePerThread() throws Exception {
+        final PacketPool<Data> pool = new PacketPool<Data>(Data::new);
+        final Data data = pool.acquire();
+        Thread releaser = new Thread() {
+            public void run() {
+                data.release();
+            }
+        };
+        releaser.start();
+        releaser.join();
+        assertEquals(0, pool.getFreeCount());
+        assertNotSame(data, pool.acquire());
+    }
+
+    @Test
+    public void testDoubleReleaseIgnoredWithoutLeakDetection() {
+        PacketPool<Data> pool = new PacketPool<Data>(Data::new);
+        Data data = pool.acquire();
+        data.release();
+        data.release();
+        assertEquals(1, pool.getFreeCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDoubleReleaseThrowsWithLeakDetection() {
+        PacketPool.setLeakDetection(true);
+        PacketPool<Data> pool = new PacketPool<Data>(Data::new);
+        Data data = pool.acquire();
+        data.release();
+        data.release();
+    }
+}